@@ -6,27 +6,26 @@
 package edu.toronto.cs.xcurator.cli;
 
 import edu.toronto.cs.xcurator.cli.config.RunConfig;
+import edu.toronto.cs.xcurator.cli.mapping.MappingFactory;
+import edu.toronto.cs.xcurator.common.ConcatenatedDocumentSplitter;
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
+import edu.toronto.cs.xcurator.common.RecordSampler;
+import edu.toronto.cs.xcurator.common.RootChildrenSplitter;
 import edu.toronto.cs.xcurator.eval.EvalUtil;
+import edu.toronto.cs.xcurator.mapping.ValueStatisticsFactory;
+import edu.toronto.cs.xcurator.rdf.RdfSinkFactory;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
 /**
  *
@@ -42,12 +41,15 @@ public class CLIRunner {
     private static String dirLocation;
     private static String fileLocation;
     private static String steps;
-    private static List<InputStream> inputStreams;
-    private static DocumentBuilder builder;
+    private static List<DocumentSource> sources;
+    private static boolean streaming = false;
     private static String fileType;
+    private static boolean concatenated = false;
+    private static RecordSampler recordSampler;
 
     private static String XML = "xml";
     private static String JSON = "json";
+    private static String CONCAT = "concat";
 
     public static void main(String[] args) {
         Options options = setupOptions();
@@ -91,6 +93,11 @@ public class CLIRunner {
             }
             if (line.hasOption('t')) {
                 fileType = line.getOptionValue('t');
+                if (fileType.equals(CONCAT)) {
+                    // The documents of the files are xml
+                    concatenated = true;
+                    fileType = XML;
+                }
             } else {
                 fileType = XML;
             }
@@ -100,10 +107,19 @@ public class CLIRunner {
             } else {
                 steps = "BDIOFK";
             }
+            RdfSinkFactory.FORMAT outputFormat = RdfSinkFactory.FORMAT.TDB;
+            if (line.hasOption("of")) {
+                try {
+                    outputFormat = RdfSinkFactory.FORMAT.valueOf(
+                            line.getOptionValue("of").toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The output format must be tdb, nt, nq or ttl");
+                }
+            }
             if (line.hasOption('o')) {
                 tdbDirectory = line.getOptionValue('o');
                 File d = new File(tdbDirectory);
-                if (!d.exists() || !d.isDirectory()) {
+                if (outputFormat == RdfSinkFactory.FORMAT.TDB && (!d.exists() || !d.isDirectory())) {
                     throw new Exception("TDB directory does not exist, please create.");
                 }
             }
@@ -121,78 +137,262 @@ public class CLIRunner {
                 serializeMapping = true;
                 mappingFilename = line.getOptionValue('m');
             }
+            if (line.hasOption('S')) {
+                if (!fileType.equals(XML)) {
+                    throw new Exception("Streaming discovery only supports xml input.");
+                }
+                streaming = true;
+            }
+            if (line.hasOption("sa")) {
+                if (!fileType.equals(XML)) {
+                    throw new Exception("Sampling only supports xml input.");
+                }
+                if (streaming) {
+                    throw new Exception("The streaming discovery reads all the records, do not sample them");
+                }
+                int sampleSize;
+                try {
+                    sampleSize = Integer.parseInt(line.getOptionValue("sa"));
+                } catch (NumberFormatException ex) {
+                    throw new Exception("The sample size must be a positive integer");
+                }
+                if (sampleSize < 1) {
+                    throw new Exception("The sample size must be a positive integer");
+                }
+                RecordSampler.MODE sampleMode = RecordSampler.MODE.UNIFORM;
+                if (line.hasOption("sm")) {
+                    try {
+                        sampleMode = RecordSampler.MODE.valueOf(line.getOptionValue("sm").toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        throw new Exception("The sample mode must be uniform, stratified or first");
+                    }
+                }
+                // A fixed seed samples the same records, and so discovers
+                // the same mapping, from run to run
+                long sampleSeed = 0;
+                if (line.hasOption("ss")) {
+                    try {
+                        sampleSeed = Long.parseLong(line.getOptionValue("ss"));
+                    } catch (NumberFormatException ex) {
+                        throw new Exception("The sample seed must be an integer");
+                    }
+                }
+                recordSampler = new RecordSampler(sampleMode, sampleSize).setSeed(sampleSeed);
+            }
+            sources = new ArrayList<>();
             if (line.hasOption('d')) {
                 dirLocation = line.getOptionValue('d');
-                inputStreams = new ArrayList<>();
                 final List<String> files = Util.getFiles(dirLocation);
                 for (String inputfile : files) {
-                    File f = new File(inputfile);
-                    if (f.isFile() && f.exists()) {
-                        System.out.println("Adding document to mapping discoverer: " + inputfile);
-                        inputStreams.add(new FileInputStream(f));
-                    } // If it is a URL download link for the document from SEC
-                    else if (inputfile.startsWith("http") && inputfile.contains("://")) {
-                        // Download
-                        System.out.println("Adding remote document to mapping discoverer: " + inputfile);
-                        try {
-                            URL url = new URL(inputfile);
-                            InputStream remoteDocumentStream = url.openStream();
-                            inputStreams.add(remoteDocumentStream);
-                        } catch (MalformedURLException ex) {
-                            throw new Exception("The document URL is ill-formed: " + inputfile);
-                        } catch (IOException ex) {
-                            throw new Exception("Error in downloading remote document: " + inputfile);
-                        }
-                    } else {
-                        throw new Exception("Cannot open XBRL document: " + f.getName());
-                    }
+                    System.out.println("Adding document to mapping discoverer: " + inputfile);
+                    sources.add(DocumentSource.forLocation(inputfile));
                 }
             }
 
             if (line.hasOption('f')) {
                 fileLocation = line.getOptionValue('f');
-                inputStreams = new ArrayList<>();
-                File f = new File(fileLocation);
-                if (f.isFile() && f.exists()) {
-                    System.out.println("Adding document to mapping discoverer: " + fileLocation);
-                    inputStreams.add(new FileInputStream(f));
-                } // If it is a URL download link for the document from SEC
-                else if (fileLocation.startsWith("http") && fileLocation.contains("://")) {
-                    // Download
-                    System.out.println("Adding remote document to mapping discoverer: " + fileLocation);
+                sources = new ArrayList<>();
+                System.out.println("Adding document to mapping discoverer: " + fileLocation);
+                sources.add(DocumentSource.forLocation(fileLocation));
+            }
+
+            if (concatenated) {
+                if (line.hasOption("ng")) {
+                    throw new Exception("Named graphs are generated for whole files, do not split them into documents");
+                }
+                sources = new ConcatenatedDocumentSplitter().split(sources);
+                System.out.println("Split the input into " + sources.size() + " documents");
+            }
+            if (line.hasOption("rb")) {
+                if (!fileType.equals(XML)) {
+                    throw new Exception("Only xml input can be split into batches of root children.");
+                }
+                if (line.hasOption("ng")) {
+                    throw new Exception("Named graphs are generated for whole documents, do not split them into batches");
+                }
+                if (concatenated) {
+                    throw new Exception("Concatenated documents cannot be split into batches of root children");
+                }
+                int batchSize;
+                try {
+                    batchSize = Integer.parseInt(line.getOptionValue("rb"));
+                } catch (NumberFormatException ex) {
+                    throw new Exception("The batch size must be a positive integer");
+                }
+                if (batchSize < 1) {
+                    throw new Exception("The batch size must be a positive integer");
+                }
+                sources = new RootChildrenSplitter(batchSize).split(sources);
+                System.out.println("Split the input into " + sources.size() + " documents");
+            }
+
+            RunConfig config = new RunConfig(domain);
+            if (line.hasOption('j')) {
+                try {
+                    config.setThreads(Integer.parseInt(line.getOptionValue('j')));
+                } catch (NumberFormatException ex) {
+                    throw new Exception("The number of threads must be a positive integer");
+                }
+            }
+            if (line.hasOption("vs")) {
+                try {
+                    config.setValueStatisticsMode(ValueStatisticsFactory.MODE.valueOf(
+                            line.getOptionValue("vs").toUpperCase()));
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The value statistics must be exact, hll or hybrid");
+                }
+            }
+            if (line.hasOption("id")) {
+                try {
+                    config.setIdMode(ElementIdGenerator.MODE.valueOf(
+                            line.getOptionValue("id").toUpperCase()));
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The id hash must be serialized or merkle");
+                }
+            }
+            config.setOutputFormat(outputFormat);
+            if (line.hasOption("bs")) {
+                try {
+                    config.setTdbBatchSize(Integer.parseInt(line.getOptionValue("bs")));
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The batch size must be a non-negative integer");
+                }
+            }
+            config.setTdbBulkLoad(line.hasOption("bl"));
+            if (line.hasOption("db")) {
+                try {
+                    config.setDedupBufferMb(Integer.parseInt(line.getOptionValue("db")));
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The deduplication buffer size must be a non-negative integer");
+                }
+            }
+            config.setAsyncWrite(line.hasOption("aw"));
+            if (line.hasOption("ng")) {
+                if (outputFormat != RdfSinkFactory.FORMAT.TDB) {
+                    throw new Exception("Named graphs need the tdb output format");
+                }
+                if (line.hasOption("bs") || line.hasOption("bl")) {
+                    throw new Exception("Named graphs are loaded one triple at a time, do not use them with the batch size or the bulk load");
+                }
+                config.setNamedGraphs(true);
+            }
+            if (line.hasOption("sg")) {
+                if (!streaming) {
+                    throw new Exception("Streaming generation needs the streaming discovery (-S)");
+                }
+                if (config.getIdMode() != ElementIdGenerator.MODE.MERKLE) {
+                    throw new Exception("Streaming generation needs the merkle id hash (-id merkle)");
+                }
+                config.setStreamingGeneration(true);
+            }
+            if (line.hasOption("ad")) {
+                if (!streaming) {
+                    throw new Exception("Adaptive discovery needs the streaming discovery (-S)");
+                }
+                try {
+                    config.setAdaptiveBatchSize(Integer.parseInt(line.getOptionValue("ad")));
+                    if (line.hasOption("ap")) {
+                        config.setAdaptivePatience(Integer.parseInt(line.getOptionValue("ap")));
+                    }
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The adaptive batch size and patience must be positive integers");
+                }
+                if (config.getAdaptiveBatchSize() == 0) {
+                    throw new Exception("The adaptive batch size and patience must be positive integers");
+                }
+            } else if (line.hasOption("ap")) {
+                throw new Exception("The adaptive patience needs the adaptive discovery (-ad)");
+            }
+            if (line.hasOption("mc")) {
+                try {
+                    config.setMinContainment(Double.parseDouble(line.getOptionValue("mc")));
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The minimum containment must be a number between 0 and 1");
+                }
+            }
+            if (line.hasOption("mf")) {
+                try {
+                    config.setMappingFormat(MappingFactory.FORMAT.valueOf(
+                            line.getOptionValue("mf").toUpperCase()));
+                } catch (IllegalArgumentException ex) {
+                    throw new Exception("The mapping format must be xml or bin");
+                }
+            }
+            if (line.hasOption("cm")) {
+                if (!serializeMapping) {
+                    throw new Exception("Please provide the output mapping file to convert to");
+                }
+                MappingFactory mappingFactory = new MappingFactory(config);
+                mappingFactory.writeMapping(mappingFactory.readMapping(line.getOptionValue("cm")),
+                        mappingFilename);
+                System.out.println("Mapping file converted to: " + new File(mappingFilename).getAbsolutePath());
+                return;
+            }
+            if (line.hasOption("sp")) {
+                if (!line.hasOption("md")) {
+                    throw new Exception("Please provide the directory of the mapping files to serve");
+                }
+                if (tdbDirectory != null && outputFormat != RdfSinkFactory.FORMAT.TDB) {
+                    throw new Exception("The server stores the triples in a TDB only");
+                }
+                int port;
+                try {
+                    port = Integer.parseInt(line.getOptionValue("sp"));
+                } catch (NumberFormatException ex) {
+                    throw new Exception("The port must be an integer");
+                }
+                final CurationServer server = new CurationServer(config,
+                        line.getOptionValue("md"), tdbDirectory);
+                if (line.hasOption("sq")) {
                     try {
-                        URL url = new URL(fileLocation);
-                        InputStream remoteDocumentStream = url.openStream();
-                        inputStreams.add(remoteDocumentStream);
-                    } catch (MalformedURLException ex) {
-                        throw new Exception("The document URL is ill-formed: " + fileLocation);
-                    } catch (IOException ex) {
-                        throw new Exception("Error in downloading remote document: " + fileLocation);
+                        server.setMaxPendingRequests(Integer.parseInt(line.getOptionValue("sq")));
+                    } catch (IllegalArgumentException ex) {
+                        throw new Exception("The number of pending requests must be a positive integer");
                     }
+                }
+                server.start(port);
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        server.stop();
+                    }
+                });
+                System.out.println("Serving on http://localhost:" + server.getPort()
+                        + CurationServer.CONTEXT);
+                return;
+            }
+            RdfFactory rdfFactory = new RdfFactory(config);
+            if (serializeMapping) {
+                System.out.println("Mapping file will be saved to: " + new File(mappingFilename).getAbsolutePath());
+            }
+            if (streaming) {
+                // Discover the mapping without building the DOM of the documents
+                if (serializeMapping) {
+                    rdfFactory.createRdfsFromSources(sources, tdbDirectory, mappingFilename, steps);
                 } else {
-
-                    throw new Exception("Cannot open XBRL document: " + f.getName());
+                    rdfFactory.createRdfsFromSources(sources, tdbDirectory, steps);
                 }
+                return;
             }
 
-            setupDocumentBuilder();
-            RdfFactory rdfFactory = new RdfFactory(new RunConfig(domain));
-            List<Document> documents = new ArrayList<>();
-            for (InputStream inputStream : inputStreams) {
-                Document dataDocument = null;
-                if (fileType.equals(JSON)) {
-                    String json = IOUtils.toString(inputStream);
-                    final String xml = Util.json2xml(json);
-                    FileUtils.writeStringToFile(new File(fileLocation + ".xml"), xml);
-                    final InputStream xmlInputStream = IOUtils.toInputStream(xml);
-                    dataDocument = createDocument(xmlInputStream);
+            // Parse the documents on a pool of workers, one parser per worker
+            ParallelDocumentParser documentParser = new ParallelDocumentParser(
+                    config.getThreads(), fileType.equals(JSON));
+            if (recordSampler != null) {
+                // Discover the mapping from the samples, and generate from
+                // the whole documents
+                List<Document> samples = documentParser.setRecordSampler(recordSampler)
+                        .parse(sources);
+                if (serializeMapping) {
+                    rdfFactory.createRdfsFromSamples(samples, sources, tdbDirectory,
+                            mappingFilename, steps);
                 } else {
-                    dataDocument = createDocument(inputStream);
+                    rdfFactory.createRdfsFromSamples(samples, sources, tdbDirectory, steps);
                 }
-                documents.add(dataDocument);
+                return;
             }
+            List<Document> documents = documentParser.parse(sources);
             if (serializeMapping) {
-                System.out.println("Mapping file will be saved to: " + new File(mappingFilename).getAbsolutePath());
                 rdfFactory.createRdfs(documents, tdbDirectory, mappingFilename, steps);
             } else {
                 rdfFactory.createRdfs(documents, tdbDirectory, steps);
@@ -210,31 +410,43 @@ public class CLIRunner {
         options.addOption("u", "url", true, " The URL for the source xml");
         options.addOption("f", "file", true, "Input file (xml/json) path");
         options.addOption("m", "mapping-file", true, "The output mapping file. If none then there will be no mapping file output.");
-        options.addOption("o", "output", true, "Directory of the TDB output");
+        options.addOption("o", "output", true, "Directory of the TDB output, or the output file of the other output formats");
         options.addOption("h", "domain", true, "The generated RDFs will have this domain name in their URIs.");
-        options.addOption("t", "type", true, "Type of the input (xml or json). [default: xml]");
+        options.addOption("t", "type", true, "Type of the input (xml, json, or concat for files of concatenated xml documents). [default: xml]");
         options.addOption("s", "steps", true, "curation steps");
         options.addOption("eval", "evaluation", false, "Evalutate the generated mapping file using ground-truth entities and attributes files");
         options.addOption("e", "ent-file", true, "Ground-truth entity file for evaluation, use only with -eval option");
         options.addOption("a", "attr-file", true, "Ground-truth attribute file for evaluation, use only with -eval option");
         options.addOption("v", "verbose", false, "Verbose output");
+        options.addOption("j", "threads", true, "Number of worker threads used to parse the input documents and generate the RDF [default: number of processors]");
+        options.addOption("S", "streaming", false, "Discover the mapping by streaming through the xml input, without loading whole documents into memory");
+        options.addOption("rb", "root-batch", true, "Split each xml input file into documents of this many children of its root element, which are parsed, discovered and generated in parallel like separate input documents");
+        options.addOption("sa", "sample", true, "Discover the mapping from a sample of this many records (children of the root element) of each xml input document, sampled while parsing; the RDF is still generated from the whole documents");
+        options.addOption("sm", "sample-mode", true, "How the records are sampled with -sa: uniform, stratified (uniform for each record element name) or first [default: uniform]");
+        options.addOption("ss", "sample-seed", true, "The seed of the random sample of -sa, so the same records are sampled from run to run [default: 0]");
+        options.addOption("vs", "value-stats", true, "How distinct attribute values are counted for key discovery: exact, hll (HyperLogLog sketch) or hybrid (exact until 10000 values, then a sketch) [default: exact]");
+        options.addOption("id", "id-hash", true, "How the instance URIs are hashed from the element content: serialized (MD5 of the serialized element) or merkle (MD5 built bottom-up from the digests of the child elements, hashing every element once) [default: serialized]");
+        options.addOption("of", "output-format", true, "Format of the RDF output: tdb, nt (N-Triples), nq (N-Quads) or ttl (Turtle). The files are written with gzip if the output ends with .gz [default: tdb]");
+        options.addOption("bs", "batch-size", true, "Number of triples written to the TDB and committed at a time, sorted for each index, 0 to add the triples one by one and commit after each document [default: 0]");
+        options.addOption("db", "dedup-buffer", true, "Remove the duplicate triples in a buffer of this many megabytes, spilled to disk when full, 0 to write the triples as they are generated [default: 0]");
+        options.addOption("aw", "async-write", false, "Write the RDF output on a separate thread while the generation goes on");
+        options.addOption("bl", "bulk-load", false, "Load an empty TDB in one sorted batch when the generation is done");
+        options.addOption("ad", "adaptive-discovery", true, "Discover the mapping from the xml input documents in random order, this many at a time, and stop once the mapping stops changing; the RDF is still generated from all the documents. Use with -S");
+        options.addOption("ap", "adaptive-patience", true, "The number of batches in a row that add nothing to the mapping before the adaptive discovery stops [default: 3]");
+        options.addOption("mc", "min-containment", true, "The fraction of the distinct values of an attribute that must be values of a key attribute for the interlinking to turn it into a relation, 1 for an inclusion dependency, 0 for any shared value [default: 0]");
+        options.addOption("sg", "streaming-generation", false, "Generate the RDF by streaming through the xml input with the paths of the mapping, without loading whole documents into memory. Use with -S and -id merkle");
+        options.addOption("mf", "mapping-format", true, "Format of the mapping file: xml, or bin (a compact binary form that loads without an XML parser) [default: xml]");
+        options.addOption("cm", "convert-mapping", true, "Convert this mapping file, in either format, to the mapping file given with -m in the format of -mf, then exit");
+        options.addOption("sp", "serve-port", true, "Run as a server on this port of localhost, generating the RDF of the documents posted to /rdf?mapping=<id> with the mappings of -md, instead of curating the input");
+        options.addOption("md", "mapping-dir", true, "The directory of the mapping files the server generates with, a mapping id is the name of its file with or without the .xml or .bin extension");
+        options.addOption("sq", "server-queue", true, "Number of requests the server runs or keeps waiting for a worker before it refuses the others [default: 4 times the number of threads]");
+        options.addOption("ng", "named-graphs", false, "Generate the RDF of each input document into its own named graph of the TDB, and on later runs only regenerate the graphs of the documents that changed");
 
 //        options.addOption("o", "output", true, "Output file/directory path");
 //        options.addOption("o", "output", true, "Output file/directory path");
         return options;
     }
 
-    private static Document createDocument(InputStream inputStream)
-            throws SAXException, IOException {
-        return builder.parse(inputStream);
-    }
-
-    private static void setupDocumentBuilder() throws ParserConfigurationException {
-        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-        builderFactory.setNamespaceAware(true);
-        builder = builderFactory.newDocumentBuilder();
-    }
-
     private static void printHelpAndExit(Options options) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("xcurator.jar", options, true);
@@ -0,0 +1,354 @@
+package edu.toronto.cs.xcurator.cli;
+
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.tdb.TDB;
+import com.hp.hpl.jena.tdb.TDBFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import edu.toronto.cs.xcurator.cli.config.RunConfig;
+import edu.toronto.cs.xcurator.cli.mapping.MappingFactory;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.XPathFinder;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.rdf.GraphManifest;
+import edu.toronto.cs.xcurator.rdf.NTriplesRdfSink;
+import edu.toronto.cs.xcurator.rdf.RdfGeneration;
+import edu.toronto.cs.xcurator.rdf.RdfGenerator;
+import edu.toronto.cs.xcurator.rdf.RdfSink;
+import edu.toronto.cs.xcurator.rdf.TdbRdfSink;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.commons.io.IOUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Generates the RDF of documents posted over HTTP, so a long-running JVM
+ * pays for the start-up, the configuration and the reading of the mappings
+ * once instead of for every document.
+ *
+ * A document is posted to /rdf?mapping=id, where the mapping is the file
+ * named id, id.xml or id.bin in the mapping directory. The mappings are read
+ * when first used, and read again when their file changes. The paths of the
+ * mappings stay compiled across the requests. The N-Triples of the document
+ * are returned, or with store=true added to the TDB, which is kept open while
+ * the server runs; with graph=name they replace the named graph of that name.
+ * Add type=json to post a JSON document.
+ *
+ * The requests are generated on a fixed pool of worker threads. A request
+ * that arrives when the maximum number of requests are running or waiting
+ * for a worker is refused with 503.
+ */
+public class CurationServer {
+
+    public static final String CONTEXT = "/rdf";
+
+    private final RunConfig config;
+    private final File mappingDirectory;
+    private final String tdbDirectory;
+    private final MappingFactory mappingFactory;
+    // Shared by the workers, each keeps the paths it compiled
+    private final XPathFinder xpath = new XPathFinder();
+    private final ConcurrentMap<String, CachedMapping> mappings = new ConcurrentHashMap<>();
+    private int maxPendingRequests;
+
+    private final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+            builderFactory.setNamespaceAware(true);
+            try {
+                return builderFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    };
+
+    private HttpServer server;
+    private ExecutorService workers;
+    private Semaphore pending;
+    // The TDB is not safe for concurrent writes, so the requests that store
+    // their triples take turns
+    private final Object storeLock = new Object();
+    private Dataset store;
+
+    private static final class CachedMapping {
+
+        final Mapping mapping;
+        final long lastModified;
+        final long length;
+
+        CachedMapping(Mapping mapping, File file) {
+            this.mapping = mapping;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        boolean isCurrent(File file) {
+            return lastModified == file.lastModified() && length == file.length();
+        }
+    }
+
+    /**
+     * @param config
+     * @param mappingDirectory the directory of the mapping files
+     * @param tdbDirectory the TDB the requests can store their triples in, or
+     * null to only return the triples
+     */
+    public CurationServer(RunConfig config, String mappingDirectory, String tdbDirectory) {
+        this.config = config;
+        this.mappingDirectory = new File(mappingDirectory);
+        this.tdbDirectory = tdbDirectory;
+        this.mappingFactory = new MappingFactory(config);
+        this.maxPendingRequests = 4 * config.getThreads();
+    }
+
+    /**
+     * Set the number of requests that can be running or waiting for a worker
+     * before the others are refused.
+     *
+     * @param maxPendingRequests
+     * @return
+     */
+    public CurationServer setMaxPendingRequests(int maxPendingRequests) {
+        if (maxPendingRequests < 1) {
+            throw new IllegalArgumentException("The number of pending requests must be at least 1.");
+        }
+        this.maxPendingRequests = maxPendingRequests;
+        return this;
+    }
+
+    /**
+     * Start serving on a port of the loopback interface.
+     *
+     * @param port the port, or 0 for any free port
+     * @throws IOException
+     */
+    public void start(int port) throws IOException {
+        if (!mappingDirectory.isDirectory()) {
+            throw new FileNotFoundException("Mapping directory does not exist: " + mappingDirectory);
+        }
+        if (tdbDirectory != null) {
+            store = TDBFactory.createDataset(tdbDirectory);
+        }
+        workers = Executors.newFixedThreadPool(config.getThreads());
+        pending = new Semaphore(maxPendingRequests);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // The handler runs on the thread that accepts the requests, and only
+        // hands the request over to a worker, so it can refuse it at once.
+        server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                if (!pending.tryAcquire()) {
+                    respond(exchange, 503, "Too many requests, try again later\n");
+                    return;
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handleRequest(exchange);
+                        } finally {
+                            pending.release();
+                        }
+                    }
+                });
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop accepting requests, finish the requests being generated, and close
+     * the TDB.
+     */
+    public void stop() {
+        server.stop(0);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (storeLock) {
+            if (store != null) {
+                TDB.sync(store);
+                store.close();
+                store = null;
+            }
+        }
+    }
+
+    private void handleRequest(HttpExchange exchange) {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Post the document to generate\n");
+                return;
+            }
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String mappingId = parameters.get("mapping");
+            if (mappingId == null) {
+                throw new IllegalArgumentException("The mapping parameter is missing");
+            }
+            Mapping mapping = getMapping(mappingId);
+            Document document;
+            try (InputStream is = exchange.getRequestBody()) {
+                document = parse(is, "json".equals(parameters.get("type")));
+            }
+            if ("true".equals(parameters.get("store"))) {
+                long tripleCount = store(document, mapping, parameters.get("graph"));
+                respond(exchange, 200, tripleCount + "\n");
+            } else {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                RdfSink sink = new NTriplesRdfSink(os);
+                try {
+                    generate(document, mapping, sink);
+                } finally {
+                    sink.close();
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/n-triples");
+                respond(exchange, 200, os.toByteArray());
+            }
+        } catch (IllegalArgumentException | SAXException ex) {
+            respond(exchange, 400, ex.getMessage() + "\n");
+        } catch (FileNotFoundException ex) {
+            respond(exchange, 404, ex.getMessage() + "\n");
+        } catch (Exception ex) {
+            Logger.getLogger(CurationServer.class.getName()).log(Level.SEVERE, null, ex);
+            respond(exchange, 500, "Cannot generate the RDF: " + ex.getMessage() + "\n");
+        }
+    }
+
+    private Mapping getMapping(String mappingId) throws IOException {
+        File file = findMappingFile(mappingId);
+        CachedMapping cached = mappings.get(mappingId);
+        if (cached == null || !cached.isCurrent(file)) {
+            cached = new CachedMapping(mappingFactory.readMapping(file.getPath()), file);
+            mappings.put(mappingId, cached);
+        }
+        return cached.mapping;
+    }
+
+    private File findMappingFile(String mappingId) throws FileNotFoundException {
+        // The id names a file of the mapping directory, never a path
+        if (!mappingId.matches("[A-Za-z0-9_-][A-Za-z0-9._-]*")) {
+            throw new IllegalArgumentException("Invalid mapping id: " + mappingId);
+        }
+        for (String fileName : new String[]{mappingId, mappingId + ".xml", mappingId + ".bin"}) {
+            File file = new File(mappingDirectory, fileName);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        throw new FileNotFoundException("Unknown mapping: " + mappingId);
+    }
+
+    private Document parse(InputStream is, boolean json) throws IOException, SAXException {
+        DocumentBuilder builder = builders.get();
+        try {
+            if (json) {
+                String xml = Util.json2xml(IOUtils.toString(is, StandardCharsets.UTF_8.name()));
+                return builder.parse(IOUtils.toInputStream(xml, StandardCharsets.UTF_8.name()));
+            }
+            return builder.parse(is);
+        } finally {
+            builder.reset();
+        }
+    }
+
+    private long store(Document document, Mapping mapping, String graph) throws IOException {
+        if (tdbDirectory == null) {
+            throw new IllegalArgumentException("The server has no TDB to store the triples in");
+        }
+        String graphUri = graph == null ? null
+                : GraphManifest.graphUri(config.getResourceUriBase(), graph);
+        synchronized (storeLock) {
+            if (store == null) {
+                throw new IOException("The server is stopped");
+            }
+            if (graphUri != null) {
+                TdbRdfSink.clearGraph(store, graphUri);
+            }
+            RdfSink sink = new TdbRdfSink(store, graphUri);
+            try {
+                generate(document, mapping, sink);
+            } finally {
+                sink.close();
+            }
+            return sink.getTripleCount();
+        }
+    }
+
+    private void generate(Document document, Mapping mapping, RdfSink sink) {
+        RdfGenerator rdfGenerator = new RdfGenerator(new DataDocument(document), mapping);
+        rdfGenerator.addStep(new RdfGeneration(sink, config, config.getIdMode(), xpath));
+        rdfGenerator.generateRdfs();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int i = pair.indexOf('=');
+            String name = i < 0 ? pair : pair.substring(0, i);
+            String value = i < 0 ? "" : pair.substring(i + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8.name()),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8.name()));
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) {
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        }
+        respond(exchange, status, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) {
+        try {
+            // A length of -1 sends no body, 0 would send a chunked one
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } catch (IOException ex) {
+            // The client went away
+            Logger.getLogger(CurationServer.class.getName()).log(Level.FINE, null, ex);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package edu.toronto.cs.xcurator.cli;
+
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.common.RecordSampler;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.w3c.dom.Document;
+
+/**
+ * Parses a list of document sources into DOM documents on a fixed pool of
+ * worker threads. Each worker has its own DocumentBuilder, and a source is
+ * only opened by the worker that parses it, so at most one stream per worker
+ * is open at a time. The largest documents are scheduled first so that one big
+ * document does not end up running alone at the end.
+ */
+public class ParallelDocumentParser {
+
+    private final int threads;
+    private final boolean json;
+    private RecordSampler recordSampler;
+
+    private final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+            builderFactory.setNamespaceAware(true);
+            try {
+                return builderFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    };
+
+    /**
+     * @param threads the number of worker threads
+     * @param json if the sources are JSON documents, which will be converted
+     * to XML (and saved next to the input with a .xml suffix) before parsing
+     */
+    public ParallelDocumentParser(int threads, boolean json) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.threads = threads;
+        this.json = json;
+    }
+
+    /**
+     * Only build the DOM of a sample of the records of each document.
+     *
+     * @param recordSampler
+     * @return
+     */
+    public ParallelDocumentParser setRecordSampler(RecordSampler recordSampler) {
+        this.recordSampler = recordSampler;
+        return this;
+    }
+
+    /**
+     * Parse all the sources.
+     *
+     * @param sources
+     * @return the documents, in the same order as the sources, with the name
+     * of its source as the URI of each document
+     * @throws Exception the first error from parsing a source, in the order of
+     * the sources
+     */
+    public List<Document> parse(List<DocumentSource> sources) throws Exception {
+        List<Integer> schedule = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            schedule.add(i);
+        }
+        // Largest first, documents with unknown size last
+        final List<DocumentSource> s = sources;
+        Collections.sort(schedule, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(s.get(b).getSize(), s.get(a).getSize());
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, Math.max(1, sources.size())));
+        try {
+            List<Future<Document>> futures = new ArrayList<>(
+                    Collections.<Future<Document>>nCopies(sources.size(), null));
+            for (Integer index : schedule) {
+                final DocumentSource source = sources.get(index);
+                futures.set(index, executor.submit(new Callable<Document>() {
+                    @Override
+                    public Document call() throws Exception {
+                        return parse(source);
+                    }
+                }));
+            }
+            List<Document> documents = new ArrayList<>(sources.size());
+            for (Future<Document> future : futures) {
+                try {
+                    documents.add(future.get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : ex;
+                }
+            }
+            return documents;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Document parse(DocumentSource source) throws Exception {
+        DocumentBuilder builder = builders.get();
+        try (InputStream inputStream = source.openStream()) {
+            Document document;
+            InputStream xmlStream = inputStream;
+            if (json) {
+                String xml = Util.json2xml(IOUtils.toString(inputStream));
+                // Keep the converted document next to a local file; a URL or
+                // a slice of a file has no place for it
+                if (source.getFile() != null) {
+                    FileUtils.writeStringToFile(new File(source.getFile().getPath() + ".xml"), xml);
+                }
+                xmlStream = IOUtils.toInputStream(xml);
+            }
+            if (recordSampler == null) {
+                document = builder.parse(xmlStream);
+            } else if (!json && source.getFile() != null) {
+                // Resolve the relative DTDs and entities against the file
+                document = recordSampler.sample(xmlStream, source.getFile().toURI().toString());
+            } else {
+                document = recordSampler.sample(xmlStream);
+            }
+            document.setDocumentURI(source.getName());
+            return document;
+        } catch (IOException ex) {
+            throw new IOException("Error in reading document: " + source.getName(), ex);
+        } finally {
+            builder.reset();
+        }
+    }
+}
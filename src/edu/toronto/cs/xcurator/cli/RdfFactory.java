@@ -2,15 +2,39 @@ package edu.toronto.cs.xcurator.cli;
 
 import edu.toronto.cs.xcurator.mapping.Mapping;
 import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.DocumentSource;
 import edu.toronto.cs.xcurator.cli.config.RunConfig;
 import edu.toronto.cs.xcurator.cli.mapping.MappingFactory;
+import edu.toronto.cs.xcurator.discoverer.StreamingSerializeMapping;
+import edu.toronto.cs.xcurator.rdf.AsyncRdfSink;
+import edu.toronto.cs.xcurator.rdf.DeduplicatingRdfSink;
+import edu.toronto.cs.xcurator.rdf.GraphManifest;
+import edu.toronto.cs.xcurator.rdf.ParallelRdfGeneration;
 import edu.toronto.cs.xcurator.rdf.RdfGeneration;
+import edu.toronto.cs.xcurator.rdf.RdfGenerationStep;
 import edu.toronto.cs.xcurator.rdf.RdfGenerator;
+import edu.toronto.cs.xcurator.rdf.RdfSink;
+import edu.toronto.cs.xcurator.rdf.RdfSinkFactory;
+import edu.toronto.cs.xcurator.rdf.StreamingRdfGeneration;
+import edu.toronto.cs.xcurator.rdf.TdbRdfSink;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerConfigurationException;
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
 public class RdfFactory {
 
@@ -84,12 +108,355 @@ public class RdfFactory {
         createRdfs(documents, tdbDirectory, mappingFile, steps);
     }
 
+    /**
+     * Generate RDFs from the documents of the sources, discovering the mapping
+     * by streaming through them, do not serialize the mapping. Only one
+     * document is kept in memory at a time.
+     *
+     * @param sources
+     * @param tdbDirectory
+     * @param steps
+     * @throws java.io.IOException
+     * @throws org.xml.sax.SAXException
+     * @throws javax.xml.parsers.ParserConfigurationException
+     */
+    public void createRdfsFromSources(List<DocumentSource> sources, String tdbDirectory,
+            String steps) throws IOException, SAXException, ParserConfigurationException {
+        Mapping mapping = mappingFactory.createInstanceFromSources(sources, steps);
+        if (tdbDirectory != null) {
+            generateRdfsFromSources(sources, tdbDirectory, mapping);
+        }
+    }
+
+    /**
+     * Generate RDFs from the documents of the sources, discovering the mapping
+     * by streaming through them, and the mapping will be serialized to the
+     * mapping file. Only one document is kept in memory at a time.
+     *
+     * @param sources
+     * @param tdbDirectory
+     * @param mappingFile
+     * @param steps
+     * @throws java.io.IOException
+     * @throws org.xml.sax.SAXException
+     * @throws javax.xml.parsers.ParserConfigurationException
+     * @throws javax.xml.transform.TransformerConfigurationException
+     */
+    public void createRdfsFromSources(List<DocumentSource> sources, String tdbDirectory,
+            String mappingFile, String steps) throws IOException, SAXException,
+            ParserConfigurationException, TransformerConfigurationException {
+        Mapping mapping = mappingFactory.createInstanceFromSources(sources, mappingFile, steps);
+        if (tdbDirectory != null) {
+            generateRdfsFromSources(sources, tdbDirectory, mapping);
+        }
+    }
+
+    /**
+     * Generate RDFs from the documents of the sources, with the mapping
+     * discovered from samples of the documents, do not serialize the
+     * mapping. The whole documents are parsed one at a time for the
+     * generation.
+     *
+     * @param samples
+     * @param sources
+     * @param tdbDirectory
+     * @param steps
+     * @throws java.io.IOException
+     * @throws org.xml.sax.SAXException
+     * @throws javax.xml.parsers.ParserConfigurationException
+     */
+    public void createRdfsFromSamples(List<Document> samples, List<DocumentSource> sources,
+            String tdbDirectory, String steps) throws IOException, SAXException,
+            ParserConfigurationException {
+        Mapping mapping = mappingFactory.createInstance(samples, steps);
+        if (tdbDirectory != null) {
+            generateRdfsFromSources(sources, tdbDirectory, mapping);
+        }
+    }
+
+    /**
+     * Generate RDFs from the documents of the sources, with the mapping
+     * discovered from samples of the documents, and the mapping will be
+     * serialized to the mapping file. The whole documents are parsed one at a
+     * time for the generation.
+     *
+     * @param samples
+     * @param sources
+     * @param tdbDirectory
+     * @param mappingFile
+     * @param steps
+     * @throws java.io.IOException
+     * @throws org.xml.sax.SAXException
+     * @throws javax.xml.parsers.ParserConfigurationException
+     * @throws javax.xml.transform.TransformerConfigurationException
+     */
+    public void createRdfsFromSamples(List<Document> samples, List<DocumentSource> sources,
+            String tdbDirectory, String mappingFile, String steps) throws IOException,
+            SAXException, ParserConfigurationException, TransformerConfigurationException {
+        Mapping mapping = mappingFactory.createInstance(samples, mappingFile, steps);
+        if (tdbDirectory != null) {
+            generateRdfsFromSources(sources, tdbDirectory, mapping);
+        }
+    }
+
+    private void generateRdfsFromSources(List<DocumentSource> sources, String tdbDirectory,
+            Mapping mapping) throws IOException, SAXException, ParserConfigurationException {
+        if (config.isNamedGraphs()) {
+            generateGraphs(sources, null, tdbDirectory, mapping);
+            return;
+        }
+        DocumentBuilder builder = newDocumentBuilder();
+        long start = System.nanoTime();
+        RdfSink sink = createSink(tdbDirectory);
+        try {
+            StreamingRdfGeneration streamingGeneration = createStreamingGeneration(sink, mapping);
+            if (streamingGeneration != null) {
+                for (DocumentSource source : sources) {
+                    generate(streamingGeneration, source);
+                }
+            } else {
+                RdfGenerationStep rdfGeneration = createGeneration(sink);
+                for (DocumentSource source : sources) {
+                    Document document = parse(builder, source);
+                    RdfGenerator rdfGenerator = new RdfGenerator(new DataDocument(document), mapping);
+                    rdfGenerator.addStep(rdfGeneration);
+                    rdfGenerator.generateRdfs();
+                }
+            }
+        } finally {
+            sink.close();
+        }
+        reportThroughput(sink.getTripleCount(), start);
+    }
+
     private void generateRdfs(List<Document> xbrlDocuments, String tdbDirectory, Mapping mapping) {
-        RdfGenerator rdfGenerator = new RdfGenerator(mapping);
-        for (Document document : xbrlDocuments) {
-            rdfGenerator.addDataDocument(new DataDocument(document));
+        if (config.isNamedGraphs()) {
+            // The documents must have been parsed from the sources named by
+            // their URIs, as the graphs are named after the sources
+            for (Document document : xbrlDocuments) {
+                if (document.getDocumentURI() == null) {
+                    throw new IllegalArgumentException("Named graphs need the URI of each document,"
+                            + " set when it is parsed from its source");
+                }
+            }
+            try {
+                List<DocumentSource> sources = new ArrayList<>();
+                for (Document document : xbrlDocuments) {
+                    sources.add(DocumentSource.forLocation(document.getDocumentURI()));
+                }
+                generateGraphs(sources, xbrlDocuments, tdbDirectory, mapping);
+            } catch (IOException | SAXException | ParserConfigurationException ex) {
+                Logger.getLogger(RdfFactory.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        RdfSink sink;
+        try {
+            sink = createSink(tdbDirectory);
+        } catch (IOException ex) {
+            Logger.getLogger(RdfFactory.class.getName()).log(Level.SEVERE, null, ex);
+            return;
         }
-        rdfGenerator.addStep(new RdfGeneration(tdbDirectory, config));
-        rdfGenerator.generateRdfs();
+        try {
+            RdfGenerator rdfGenerator = new RdfGenerator(mapping);
+            for (Document document : xbrlDocuments) {
+                rdfGenerator.addDataDocument(new DataDocument(document));
+            }
+            rdfGenerator.addStep(createGeneration(sink));
+            rdfGenerator.generateRdfs();
+        } finally {
+            sink.close();
+        }
+        reportThroughput(sink.getTripleCount(), start);
+    }
+
+    /**
+     * Generate the RDF of each document into its own named graph of the TDB.
+     * The graphs of the documents whose content is the same as when their
+     * graphs were last generated, with the same mapping, are left as they
+     * are; the others are cleared and generated again. The graphs of the
+     * documents that are no longer in the input are cleared.
+     *
+     * @param sources the sources of the documents
+     * @param documents the parsed documents in the order of the sources, or
+     * null to parse the documents that are generated from their sources
+     */
+    private void generateGraphs(List<DocumentSource> sources, List<Document> documents,
+            String tdbDirectory, Mapping mapping)
+            throws IOException, SAXException, ParserConfigurationException {
+        long start = System.nanoTime();
+        GraphManifest manifest = GraphManifest.forTdbDirectory(tdbDirectory);
+        String mappingHash = hashMapping(mapping);
+        boolean mappingChanged = !mappingHash.equals(manifest.getMappingHash());
+
+        List<String> hashes = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (DocumentSource source : sources) {
+            try (InputStream is = source.openStream()) {
+                hashes.add(GraphManifest.hash(is));
+            }
+            names.add(source.getName());
+        }
+        // Forget the graphs that are about to change before touching them,
+        // so an interrupted run does not leave them looking up to date.
+        for (String name : manifest.getDocumentNames()) {
+            if (!names.contains(name)) {
+                TdbRdfSink.clearGraph(tdbDirectory, GraphManifest.graphUri(
+                        config.getResourceUriBase(), name));
+                manifest.removeDocument(name);
+            } else if (mappingChanged) {
+                manifest.removeDocument(name);
+            }
+        }
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            String name = sources.get(i).getName();
+            if (!hashes.get(i).equals(manifest.getDocumentHash(name))) {
+                manifest.removeDocument(name);
+                changed.add(i);
+            }
+        }
+        manifest.setMappingHash(mappingHash);
+        manifest.save();
+
+        DocumentBuilder builder = documents == null ? newDocumentBuilder() : null;
+        long tripleCount = 0;
+        try {
+            for (int i : changed) {
+                DocumentSource source = sources.get(i);
+                String graphUri = GraphManifest.graphUri(config.getResourceUriBase(),
+                        source.getName());
+                TdbRdfSink.clearGraph(tdbDirectory, graphUri);
+                RdfSink sink = createSink(tdbDirectory, graphUri);
+                try {
+                    StreamingRdfGeneration streamingGeneration = documents == null
+                            ? createStreamingGeneration(sink, mapping) : null;
+                    if (streamingGeneration != null) {
+                        generate(streamingGeneration, source);
+                    } else {
+                        Document document = documents == null ? parse(builder, source)
+                                : documents.get(i);
+                        RdfGenerator rdfGenerator = new RdfGenerator(new DataDocument(document), mapping);
+                        rdfGenerator.addStep(createGeneration(sink));
+                        rdfGenerator.generateRdfs();
+                    }
+                } finally {
+                    sink.close();
+                }
+                tripleCount += sink.getTripleCount();
+                manifest.putDocument(source.getName(), hashes.get(i));
+            }
+        } finally {
+            manifest.save();
+        }
+        System.out.println(String.format("Generated the graphs of %d of %d documents, "
+                + "the others are unchanged", changed.size(), sources.size()));
+        reportThroughput(tripleCount, start);
+    }
+
+    /**
+     * Hash the parts of the mapping and the configuration that the generated
+     * RDF depends on, by serializing the mapping.
+     */
+    private String hashMapping(Mapping mapping) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write((config.getResourceUriBase() + " " + config.getIdMode() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        new StreamingSerializeMapping(os, config).process(new ArrayList<DataDocument>(), mapping);
+        return GraphManifest.hash(os.toByteArray());
+    }
+
+    private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+        builderFactory.setNamespaceAware(true);
+        return builderFactory.newDocumentBuilder();
+    }
+
+    private static Document parse(DocumentBuilder builder, DocumentSource source)
+            throws IOException, SAXException {
+        try (InputStream is = source.openStream()) {
+            return builder.parse(is);
+        }
+    }
+
+    /**
+     * Create the streaming generation if it is configured, or return null to
+     * generate from the DOM of the documents, also when the mapping cannot be
+     * generated from a stream.
+     */
+    private StreamingRdfGeneration createStreamingGeneration(RdfSink sink, Mapping mapping) {
+        if (!config.isStreamingGeneration()) {
+            return null;
+        }
+        try {
+            return new StreamingRdfGeneration(sink, mapping, config, config.getIdMode());
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Generating from the DOM of the documents, the mapping cannot be "
+                    + "generated by streaming: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private static void generate(StreamingRdfGeneration streamingGeneration,
+            DocumentSource source) throws IOException, SAXException {
+        try (InputStream is = source.openStream()) {
+            streamingGeneration.process(is);
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    /**
+     * Create the generation step, which generates in parallel when more than
+     * one thread is configured.
+     */
+    private RdfGenerationStep createGeneration(RdfSink sink) {
+        if (config.getThreads() > 1) {
+            return new ParallelRdfGeneration(sink, config, config.getIdMode(),
+                    config.getThreads());
+        }
+        return new RdfGeneration(sink, config, config.getIdMode());
+    }
+
+    /**
+     * Create the sink of the configured output format.
+     *
+     * @param output the TDB directory or the output file
+     * @return
+     * @throws IOException
+     */
+    private RdfSink createSink(String output) throws IOException {
+        return createSink(output, null);
+    }
+
+    /**
+     * Create the sink of the configured output format into a named graph.
+     *
+     * @param output the TDB directory or the output file
+     * @param graphUri the named graph, or null for the default graph
+     * @return
+     * @throws IOException
+     */
+    private RdfSink createSink(String output, String graphUri) throws IOException {
+        RdfSink sink = new RdfSinkFactory(config.getOutputFormat(), config)
+                .setTdbBatchSize(config.getTdbBatchSize())
+                .setTdbBulkLoad(config.isTdbBulkLoad())
+                .setGraphUri(graphUri)
+                .create(output);
+        if (config.getDedupBufferMb() > 0) {
+            sink = new DeduplicatingRdfSink(sink, config.getDedupBufferMb() * 1024L * 1024L, null);
+        }
+        return config.isAsyncWrite() ? new AsyncRdfSink(sink) : sink;
+    }
+
+    /**
+     * Print the number of triples written and the rate of the whole
+     * generation, including the time to load or flush the output.
+     */
+    private void reportThroughput(long tripleCount, long start) {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.println(String.format("Wrote %d triples in %.1f s (%.0f triples/s)",
+                tripleCount, seconds, tripleCount / seconds));
     }
 }
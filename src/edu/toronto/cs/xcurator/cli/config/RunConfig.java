@@ -1,6 +1,10 @@
 package edu.toronto.cs.xcurator.cli.config;
 
+import edu.toronto.cs.xcurator.cli.mapping.MappingFactory;
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
 import edu.toronto.cs.xcurator.common.RdfUriConfig;
+import edu.toronto.cs.xcurator.mapping.ValueStatisticsFactory;
+import edu.toronto.cs.xcurator.rdf.RdfSinkFactory;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.PropertiesConfiguration;
 
@@ -18,6 +22,20 @@ public class RunConfig implements RdfUriConfig {
     // From run time setting
     String domain;
     String tdbDirectory;
+    int threads = Runtime.getRuntime().availableProcessors();
+    ValueStatisticsFactory.MODE valueStatisticsMode = ValueStatisticsFactory.MODE.EXACT;
+    ElementIdGenerator.MODE idMode = ElementIdGenerator.MODE.SERIALIZED;
+    RdfSinkFactory.FORMAT outputFormat = RdfSinkFactory.FORMAT.TDB;
+    int tdbBatchSize = 0;
+    boolean tdbBulkLoad = false;
+    boolean asyncWrite = false;
+    int dedupBufferMb = 0;
+    boolean namedGraphs = false;
+    boolean streamingGeneration = false;
+    int adaptiveBatchSize = 0;
+    int adaptivePatience = 3;
+    double minContainment = 0;
+    MappingFactory.FORMAT mappingFormat = MappingFactory.FORMAT.XML;
 
     public RunConfig(String domain) throws Exception {
 
@@ -76,4 +94,138 @@ public class RunConfig implements RdfUriConfig {
         return propertyResourcePrefix;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.threads = threads;
+    }
+
+    public ValueStatisticsFactory.MODE getValueStatisticsMode() {
+        return valueStatisticsMode;
+    }
+
+    public void setValueStatisticsMode(ValueStatisticsFactory.MODE valueStatisticsMode) {
+        this.valueStatisticsMode = valueStatisticsMode;
+    }
+
+    public ElementIdGenerator.MODE getIdMode() {
+        return idMode;
+    }
+
+    public void setIdMode(ElementIdGenerator.MODE idMode) {
+        this.idMode = idMode;
+    }
+
+    public RdfSinkFactory.FORMAT getOutputFormat() {
+        return outputFormat;
+    }
+
+    public void setOutputFormat(RdfSinkFactory.FORMAT outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public int getTdbBatchSize() {
+        return tdbBatchSize;
+    }
+
+    public void setTdbBatchSize(int tdbBatchSize) {
+        if (tdbBatchSize < 0) {
+            throw new IllegalArgumentException("The batch size must not be negative.");
+        }
+        this.tdbBatchSize = tdbBatchSize;
+    }
+
+    public boolean isTdbBulkLoad() {
+        return tdbBulkLoad;
+    }
+
+    public void setTdbBulkLoad(boolean tdbBulkLoad) {
+        this.tdbBulkLoad = tdbBulkLoad;
+    }
+
+    public int getDedupBufferMb() {
+        return dedupBufferMb;
+    }
+
+    public void setDedupBufferMb(int dedupBufferMb) {
+        if (dedupBufferMb < 0) {
+            throw new IllegalArgumentException("The deduplication buffer size must not be negative.");
+        }
+        this.dedupBufferMb = dedupBufferMb;
+    }
+
+    public boolean isAsyncWrite() {
+        return asyncWrite;
+    }
+
+    public void setAsyncWrite(boolean asyncWrite) {
+        this.asyncWrite = asyncWrite;
+    }
+
+    public boolean isNamedGraphs() {
+        return namedGraphs;
+    }
+
+    public void setNamedGraphs(boolean namedGraphs) {
+        this.namedGraphs = namedGraphs;
+    }
+
+    public boolean isStreamingGeneration() {
+        return streamingGeneration;
+    }
+
+    public void setStreamingGeneration(boolean streamingGeneration) {
+        this.streamingGeneration = streamingGeneration;
+    }
+
+    /**
+     * @return the number of documents read between two checks of the mapping
+     * in the adaptive discovery, or 0 to read all the documents
+     */
+    public int getAdaptiveBatchSize() {
+        return adaptiveBatchSize;
+    }
+
+    public void setAdaptiveBatchSize(int adaptiveBatchSize) {
+        if (adaptiveBatchSize < 0) {
+            throw new IllegalArgumentException("The adaptive batch size must not be negative.");
+        }
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    public int getAdaptivePatience() {
+        return adaptivePatience;
+    }
+
+    public void setAdaptivePatience(int adaptivePatience) {
+        if (adaptivePatience < 1) {
+            throw new IllegalArgumentException("The adaptive patience must be at least 1.");
+        }
+        this.adaptivePatience = adaptivePatience;
+    }
+
+    public double getMinContainment() {
+        return minContainment;
+    }
+
+    public void setMinContainment(double minContainment) {
+        if (minContainment < 0 || minContainment > 1) {
+            throw new IllegalArgumentException("The minimum containment must be in [0, 1].");
+        }
+        this.minContainment = minContainment;
+    }
+
+    public MappingFactory.FORMAT getMappingFormat() {
+        return mappingFormat;
+    }
+
+    public void setMappingFormat(MappingFactory.FORMAT mappingFormat) {
+        this.mappingFormat = mappingFormat;
+    }
+
 }
@@ -1,32 +1,51 @@
 package edu.toronto.cs.xcurator.cli.mapping;
 
+import edu.toronto.cs.xcurator.discoverer.AdaptiveEntityDiscovery;
 import edu.toronto.cs.xcurator.discoverer.BasicEntityDiscovery;
+import edu.toronto.cs.xcurator.discoverer.DatatypeDiscovery;
 import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.DocumentSource;
 import edu.toronto.cs.xcurator.discoverer.MappingDiscoverer;
-import edu.toronto.cs.xcurator.discoverer.SerializeMapping;
+import edu.toronto.cs.xcurator.discoverer.SerializeBinaryMapping;
+import edu.toronto.cs.xcurator.discoverer.StreamingSerializeMapping;
+import edu.toronto.cs.xcurator.mapping.BinaryMappingFormat;
 import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.ValueStatisticsFactory;
 import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
 import edu.toronto.cs.xcurator.common.RdfUriBuilder;
-import edu.toronto.cs.xcurator.common.XmlDocumentBuilder;
 import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerFactory;
 import edu.toronto.cs.xcurator.common.XmlUriBuilder;
-import edu.toronto.cs.xcurator.discoverer.HashBasedEntityInterlinking;
 import edu.toronto.cs.xcurator.discoverer.KeyAttributeDiscovery;
 import edu.toronto.cs.xcurator.cli.config.RunConfig;
 import edu.toronto.cs.xcurator.discoverer.MappingDiscoveryStep;
+import edu.toronto.cs.xcurator.discoverer.PartitionedEntityDiscovery;
 import edu.toronto.cs.xcurator.discoverer.RemoveGroupingNodes;
+import edu.toronto.cs.xcurator.discoverer.SignatureBasedEntityInterlinking;
+import edu.toronto.cs.xcurator.discoverer.StreamingEntityDiscovery;
+import edu.toronto.cs.xcurator.rdf.BinaryMappingDeserialization;
+import edu.toronto.cs.xcurator.rdf.StreamingMappingDeserialization;
 import org.w3c.dom.Document;
 
 public class MappingFactory {
 
+    /**
+     * The forms of the mapping file.
+     */
+    public enum FORMAT {
+
+        XML, BIN
+    }
+
     private final RunConfig config;
 
     public MappingFactory(RunConfig config) {
@@ -74,7 +93,7 @@ public class MappingFactory {
      */
     public Mapping createInstance(List<Document> xmlDocuments, String steps) {
         Mapping mapping = buildXmlBasedMapping();
-        MappingDiscoverer discoverer = buildDiscoverer(xmlDocuments, mapping, steps);
+        MappingDiscoverer discoverer = buildDiscoverer(xmlDocuments, null, mapping, steps);
         discoverer.discoverMapping();
         return mapping;
     }
@@ -93,21 +112,107 @@ public class MappingFactory {
     public Mapping createInstance(List<Document> xmlDocuments, String fileName, String steps)
             throws TransformerConfigurationException, FileNotFoundException {
         Mapping mapping = buildXmlBasedMapping();
-        MappingDiscoverer discoverer = buildDiscoverer(xmlDocuments, mapping, steps);
+        MappingDiscoverer discoverer = buildDiscoverer(xmlDocuments, null, mapping, steps);
+        addSerializeStep(discoverer, fileName);
+        discoverer.discoverMapping();
+        return mapping;
+    }
 
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        discoverer.addStep(new SerializeMapping(new XmlDocumentBuilder(),
-                new FileOutputStream(fileName),
-                transformer, config));
+    /**
+     * Create a mapping instance by streaming through the documents of the
+     * sources, without building their DOM, do not serialize the mapping.
+     *
+     * @param sources
+     * @param steps
+     * @return
+     */
+    public Mapping createInstanceFromSources(List<DocumentSource> sources, String steps) {
+        Mapping mapping = buildXmlBasedMapping();
+        MappingDiscoverer discoverer = buildDiscoverer(new ArrayList<Document>(),
+                sources, mapping, steps);
+        discoverer.discoverMapping();
+        return mapping;
+    }
 
+    /**
+     * Create a mapping instance by streaming through the documents of the
+     * sources, without building their DOM, and the mapping will be serialized
+     * to the mapping file.
+     *
+     * @param sources
+     * @param fileName
+     * @param steps
+     * @return
+     * @throws TransformerConfigurationException
+     * @throws FileNotFoundException
+     */
+    public Mapping createInstanceFromSources(List<DocumentSource> sources, String fileName,
+            String steps) throws TransformerConfigurationException, FileNotFoundException {
+        Mapping mapping = buildXmlBasedMapping();
+        MappingDiscoverer discoverer = buildDiscoverer(new ArrayList<Document>(),
+                sources, mapping, steps);
+        addSerializeStep(discoverer, fileName);
         discoverer.discoverMapping();
         return mapping;
     }
 
+    /**
+     * Read a mapping file in the XML or the binary form, which are told apart
+     * by the first bytes of the file.
+     *
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    public Mapping readMapping(String fileName) throws IOException {
+        Mapping mapping = buildXmlBasedMapping();
+        File file = new File(fileName);
+        if (BinaryMappingFormat.isBinary(file)) {
+            new BinaryMappingDeserialization(file).process(new ArrayList<DataDocument>(), mapping);
+        } else {
+            try (InputStream is = new FileInputStream(file)) {
+                new StreamingMappingDeserialization(is)
+                        .process(new ArrayList<DataDocument>(), mapping);
+            }
+        }
+        if (!mapping.isInitialized()) {
+            throw new IOException("Cannot read the mapping file: " + fileName);
+        }
+        return mapping;
+    }
+
+    /**
+     * Write a mapping to a file in the configured mapping format.
+     *
+     * @param mapping
+     * @param fileName
+     * @throws IOException
+     */
+    public void writeMapping(Mapping mapping, String fileName) throws IOException {
+        try (OutputStream os = new FileOutputStream(fileName)) {
+            createSerializeStep(os).process(new ArrayList<DataDocument>(), mapping);
+        }
+    }
+
+    private void addSerializeStep(MappingDiscoverer discoverer, String fileName)
+            throws FileNotFoundException {
+        discoverer.addStep(createSerializeStep(new FileOutputStream(fileName)));
+    }
+
+    private MappingDiscoveryStep createSerializeStep(OutputStream os) {
+        if (config.getMappingFormat() == FORMAT.BIN) {
+            return new SerializeBinaryMapping(os);
+        }
+        return new StreamingSerializeMapping(os, config);
+    }
+
+    /**
+     * Build the discoverer pipeline. When sources are given, entities are
+     * discovered by streaming through them instead of walking the DOM
+     * documents.
+     */
     private MappingDiscoverer buildDiscoverer(List<Document> xmlDocuments,
-            Mapping mapping, String steps) {
+            List<DocumentSource> sources, Mapping mapping, String steps) {
         MappingDiscoverer discoverer = new MappingDiscoverer(mapping);
 
         String resourceUriPattern = config.getResourceUriBase() + "${UUID}";
@@ -116,16 +221,47 @@ public class MappingFactory {
         }
 
        
+        ValueStatisticsFactory valueStatisticsFactory = new ValueStatisticsFactory(
+                config.getValueStatisticsMode());
         steps.replace("I", "KI"); // key identification is mandatory when use chooses Inter Linking
         for (char step : steps.toCharArray()) {
-            if (step == MappingDiscoveryStep.TYPE.BASIC.getValue()) {
+            if (step == MappingDiscoveryStep.TYPE.BASIC.getValue() && sources != null) {
+                StreamingEntityDiscovery streaming = new StreamingEntityDiscovery(
+                        new RdfUriBuilder(config), new XmlUriBuilder(), true)
+                        .setValueStatisticsFactory(valueStatisticsFactory);
+                if (config.getAdaptiveBatchSize() > 0) {
+                    AdaptiveEntityDiscovery adaptive = new AdaptiveEntityDiscovery(streaming,
+                            config.getAdaptiveBatchSize(), config.getAdaptivePatience());
+                    for (DocumentSource source : sources) {
+                        adaptive.addSource(source);
+                    }
+                    discoverer.addStep(adaptive);
+                } else {
+                    for (DocumentSource source : sources) {
+                        streaming.addSource(source);
+                    }
+                    discoverer.addStep(streaming);
+                }
+            } else if (step == MappingDiscoveryStep.TYPE.BASIC.getValue()
+                    && config.getThreads() > 1 && xmlDocuments.size() > 1) {
+                discoverer.addStep(new PartitionedEntityDiscovery(
+                        new XmlParser(),
+                        new RdfUriBuilder(config), new XmlUriBuilder(), true,
+                        config.getThreads())
+                        .setValueStatisticsFactory(valueStatisticsFactory));
+            } else if (step == MappingDiscoveryStep.TYPE.BASIC.getValue()) {
                 discoverer.addStep(new BasicEntityDiscovery(
                         new XmlParser(),
-                        new RdfUriBuilder(config), new XmlUriBuilder(), true));
+                        new RdfUriBuilder(config), new XmlUriBuilder(), true)
+                        .setValueStatisticsFactory(valueStatisticsFactory));
             } else if (step == MappingDiscoveryStep.TYPE.KEYATTRIBUTE.getValue()) {
                 discoverer.addStep(new KeyAttributeDiscovery());
+            } else if (step == MappingDiscoveryStep.TYPE.DATATYPE.getValue()) {
+                discoverer.addStep(new DatatypeDiscovery());
             } else if (step == MappingDiscoveryStep.TYPE.INTERLIKNING.getValue()) {
-                discoverer.addStep(new HashBasedEntityInterlinking(new RdfUriBuilder(config)));
+                discoverer.addStep(new SignatureBasedEntityInterlinking(
+                        new RdfUriBuilder(config), config.getThreads())
+                        .setMinContainment(config.getMinContainment()));
             } else if (step == MappingDiscoveryStep.TYPE.REMOVE_GROUPING_NODES.getValue()) {
                 discoverer.addStep(new RemoveGroupingNodes(new RdfUriBuilder(config)));
             } else {
@@ -0,0 +1,117 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits files of concatenated XML documents, such as the USPTO bulk files,
+ * into their documents. The boundaries are found by scanning the bytes of
+ * each file once: a document ends with the end of its root element, and the
+ * next one starts at the markup after it, with its own XML declaration.
+ * Each document is read from a memory-mapped region of the file when it is
+ * opened, so the documents can be parsed in parallel without writing them
+ * out.
+ *
+ * The document type declarations are left out, as the DTDs of such dumps
+ * are usually not next to them, so the documents must not use the entities
+ * declared there. The files must be in an encoding where the markup is
+ * ASCII, such as UTF-8 or ISO-8859-1.
+ */
+public class ConcatenatedDocumentSplitter {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Split the sources, which must be local files.
+     *
+     * @param sources
+     * @return the sources of the documents, in the order of the files
+     * @throws IOException if a source is not a local file, or a file is not
+     * well-formed enough to be split
+     */
+    public List<DocumentSource> split(List<DocumentSource> sources) throws IOException {
+        List<DocumentSource> documents = new ArrayList<>();
+        for (DocumentSource source : sources) {
+            if (source.getFile() == null) {
+                throw new IOException("Only local files can be split into documents: "
+                        + source.getName());
+            }
+            documents.addAll(split(source.getFile()));
+        }
+        return documents;
+    }
+
+    /**
+     * Split a file into its documents.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public List<DocumentSource> split(File file) throws IOException {
+        List<DocumentSource> documents = new ArrayList<>();
+        try (XmlByteScanner scanner = new XmlByteScanner(file)) {
+            long documentStart = -1;
+            long doctypeStart = -1;
+            long doctypeEnd = -1;
+            int depth = 0;
+            int c;
+            while ((c = scanner.next()) != -1) {
+                if (c != '<') {
+                    continue;
+                }
+                long start = scanner.position() - 1;
+                if (documentStart < 0) {
+                    documentStart = start;
+                }
+                c = scanner.next();
+                boolean ended = false;
+                if (c == '?') {
+                    scanner.skipPast("?>");
+                } else if (c == '!') {
+                    if (scanner.skipDeclaration() == 'D' && depth == 0) {
+                        doctypeStart = start;
+                        doctypeEnd = scanner.position();
+                    }
+                } else if (c == '/') {
+                    scanner.skipTag(scanner.next());
+                    ended = --depth == 0;
+                } else if (scanner.skipTag(c)) {
+                    ended = depth == 0;
+                } else {
+                    depth++;
+                }
+                if (ended) {
+                    long end = scanner.position();
+                    long[] ranges = doctypeStart < 0 ? new long[]{documentStart, end}
+                            : new long[]{documentStart, doctypeStart, doctypeEnd, end};
+                    documents.add(new FileSliceSource(file, file.getPath() + "#"
+                            + (documents.size() + 1), EMPTY, ranges, EMPTY));
+                    documentStart = -1;
+                    doctypeStart = -1;
+                }
+            }
+            if (depth > 0) {
+                throw scanner.unexpectedEnd();
+            }
+        }
+        return documents;
+    }
+}
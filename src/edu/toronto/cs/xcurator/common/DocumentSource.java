@@ -0,0 +1,148 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * An input document that has not been read yet. The underlying stream is only
+ * opened when the document is actually consumed, so a long list of sources
+ * does not hold any file descriptors.
+ */
+public abstract class DocumentSource {
+
+    /**
+     * Get the name of this source, used in log messages.
+     *
+     * @return
+     */
+    public abstract String getName();
+
+    /**
+     * Get the size of the document in bytes, or -1 if it is unknown.
+     *
+     * @return
+     */
+    public abstract long getSize();
+
+    /**
+     * Open a new stream over the document content. The caller is responsible
+     * for closing it.
+     *
+     * @return
+     * @throws IOException
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * Get the local file of the whole document, or null if the document is
+     * not a local file.
+     *
+     * @return
+     */
+    public File getFile() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * Create a source for a local file path or a remote http(s) URL.
+     *
+     * @param location
+     * @return
+     * @throws IOException if the location is neither an existing file nor a
+     * well-formed URL.
+     */
+    public static DocumentSource forLocation(String location) throws IOException {
+        File f = new File(location);
+        if (f.isFile() && f.exists()) {
+            return new FileSource(f);
+        } else if (location.startsWith("http") && location.contains("://")) {
+            try {
+                return new UrlSource(new URL(location));
+            } catch (MalformedURLException ex) {
+                throw new IOException("The document URL is ill-formed: " + location);
+            }
+        }
+        throw new IOException("Cannot open XML document: " + f.getName());
+    }
+
+    private static class FileSource extends DocumentSource {
+
+        private final File file;
+
+        FileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String getName() {
+            return file.getPath();
+        }
+
+        @Override
+        public long getSize() {
+            return file.length();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+    }
+
+    private static class UrlSource extends DocumentSource {
+
+        private final URL url;
+
+        UrlSource(URL url) {
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return url.toString();
+        }
+
+        @Override
+        public long getSize() {
+            return -1;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            try {
+                return url.openStream();
+            } catch (IOException ex) {
+                throw new IOException("Error in downloading remote document: " + url, ex);
+            }
+        }
+    }
+}
@@ -15,27 +15,76 @@
  */
 package edu.toronto.cs.xcurator.common;
 
-import edu.toronto.cs.xcurator.common.NsContext;
-import edu.toronto.cs.xcurator.common.XPathFinder;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.XMLConstants;
 import javax.xml.xpath.XPathExpressionException;
 import org.apache.xml.serialize.OutputFormat;
 import org.apache.xml.serialize.XMLSerializer;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 public class ElementIdGenerator {
 
+    /**
+     * How the ${UUID} placeholder is computed from the element content.
+     * SERIALIZED is the MD5 of the serialized element, and MERKLE is an MD5
+     * computed bottom-up, where an element is hashed from its name, its
+     * attributes, its text and the digests of its child elements. In the
+     * MERKLE mode the digest of every element is computed once per document
+     * and remembered, so nested entities do not hash their subtrees again.
+     * Both are stable across runs, but give different URIs.
+     */
+    public enum MODE {
+
+        SERIALIZED, MERKLE
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final Comparator<Attr> ATTRIBUTE_ORDER = new Comparator<Attr>() {
+        @Override
+        public int compare(Attr a, Attr b) {
+            return MerkleDigestBuilder.compareAttributes(a.getNamespaceURI(), nameOf(a),
+                    b.getNamespaceURI(), nameOf(b));
+        }
+    };
+
     private final String resourceUriPattern;
+    private final MODE mode;
+
+    // The digests are not shared between threads, so several threads can
+    // generate the URIs of one document
+    private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>() {
+        @Override
+        protected Hasher initialValue() {
+            return new Hasher();
+        }
+    };
 
     public ElementIdGenerator(String resourceUriBase) {
+        this(resourceUriBase, MODE.SERIALIZED);
+    }
+
+    public ElementIdGenerator(String resourceUriBase, MODE mode) {
         this.resourceUriPattern = (resourceUriBase.endsWith("/") ? resourceUriBase
                 : resourceUriBase + "/") + "${UUID}";
+        this.mode = mode;
+    }
+
+    public MODE getMode() {
+        return mode;
     }
 
     public String generateUri(NsContext entityNamespaceContext,
@@ -50,7 +99,7 @@ public class ElementIdGenerator {
         int lastEndIndex = 0;
         String id = resourceUriPattern != null ? resourceUriPattern : this.resourceUriPattern;
         String uuidPattern = "UUID";
-        String generatedId = "";
+        StringBuilder generatedId = new StringBuilder();
         do {
             int startIndex = id.indexOf("${", lastEndIndex);
             if (startIndex == -1) {
@@ -60,28 +109,55 @@ public class ElementIdGenerator {
             if (endIndex == -1) {
                 break;
             }
-            String literal = id.substring(lastEndIndex, startIndex);
+            generatedId.append(id, lastEndIndex, startIndex);
             String path = id.substring(startIndex + 2, endIndex);
-            String pathValue = null;
             if (uuidPattern.equals(path)) {
-                MessageDigest digest = MessageDigest.getInstance("MD5");
-                pathValue = "";
-                byte[] md5 = digest.digest(asByteArray(element));
-                for (byte b : md5) {
-                    pathValue += Integer.toString((b & 0xff) + 0x100, 16).substring(1);
-                }
+                Hasher hasher = hashers.get();
+                byte[] md5 = mode == MODE.MERKLE
+                        ? hasher.merkleDigest(element)
+                        : hasher.digest().digest(asByteArray(element));
+                appendHex(generatedId, md5);
             } else {
-                pathValue = xpath.getStringByPath(path, element, dataDoc, entityNamespaceContext);
+                generatedId.append(xpath.getStringByPath(path, element, dataDoc,
+                        entityNamespaceContext));
             }
-            generatedId += literal + pathValue;
             lastEndIndex = endIndex + 1;
         } while (true);
 
-        if (generatedId.trim().length() == 0) {
+        if (generatedId.toString().trim().length() == 0) {
             String messString = "Error in generating id: " + element.toString();
             Logger.getLogger(ElementIdGenerator.class.getName()).log(Level.SEVERE, messString);
         }
-        return generatedId;
+        return generatedId.toString();
+    }
+
+    /**
+     * Generate the URI of an element from its MERKLE digest, computed by a
+     * {@link MerkleDigestBuilder} without the DOM of the element.
+     *
+     * @param merkleDigest
+     * @return
+     */
+    public String generateUri(byte[] merkleDigest) {
+        if (mode != MODE.MERKLE) {
+            throw new IllegalStateException("The URIs are not generated from MERKLE digests.");
+        }
+        int start = resourceUriPattern.indexOf("${UUID}");
+        StringBuilder generatedId = new StringBuilder(resourceUriPattern.length() + 32);
+        generatedId.append(resourceUriPattern, 0, start);
+        appendHex(generatedId, merkleDigest);
+        generatedId.append(resourceUriPattern, start + "${UUID}".length(),
+                resourceUriPattern.length());
+        return generatedId.toString();
+    }
+
+    /**
+     * Forget the element digests remembered by the calling thread, so the
+     * document they belong to can be garbage collected. The digests are
+     * otherwise kept until the thread generates a URI in another document.
+     */
+    public void clearDigestCache() {
+        hashers.get().reset(null);
     }
 
     public byte[] asByteArray(Element element) throws IOException {
@@ -95,4 +171,112 @@ public class ElementIdGenerator {
 
         return bis.toByteArray();
     }
+
+    private static void appendHex(StringBuilder sb, byte[] bytes) {
+        for (byte b : bytes) {
+            sb.append(HEX_DIGITS[(b >>> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+    }
+
+    private static String nameOf(Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    private static boolean isText(Node node) {
+        return node.getNodeType() == Node.TEXT_NODE
+                || node.getNodeType() == Node.CDATA_SECTION_NODE;
+    }
+
+    /**
+     * The digest state of one thread, with the digests of the elements of
+     * the last document it hashed.
+     */
+    private static class Hasher {
+
+        private MessageDigest md5;
+        private MerkleDigestBuilder builder;
+        private Document document;
+        private final Map<Node, byte[]> digests = new IdentityHashMap<>();
+
+        MessageDigest digest() throws NoSuchAlgorithmException {
+            if (md5 == null) {
+                md5 = MessageDigest.getInstance("MD5");
+            }
+            return md5;
+        }
+
+        void reset(Document document) {
+            this.document = document;
+            digests.clear();
+        }
+
+        byte[] merkleDigest(Element element) throws NoSuchAlgorithmException {
+            if (element.getOwnerDocument() != document) {
+                reset(element.getOwnerDocument());
+            }
+            if (builder == null) {
+                builder = new MerkleDigestBuilder();
+            }
+            return digestOf(element);
+        }
+
+        private byte[] digestOf(Element element) {
+            byte[] digest = digests.get(element);
+            if (digest != null) {
+                return digest;
+            }
+            // The child digests are computed before this element is fed to
+            // the builder, which holds the state of one element only
+            for (Node child = element.getFirstChild(); child != null;
+                    child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    digestOf((Element) child);
+                }
+            }
+
+            builder.startElement(element.getNamespaceURI(), nameOf(element));
+
+            NamedNodeMap attrs = element.getAttributes();
+            Attr[] sorted = new Attr[attrs.getLength()];
+            int n = 0;
+            for (int i = 0; i < attrs.getLength(); i++) {
+                Attr attr = (Attr) attrs.item(i);
+                // Namespace declarations are not content
+                if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                    sorted[n++] = attr;
+                }
+            }
+            Arrays.sort(sorted, 0, n, ATTRIBUTE_ORDER);
+            for (int i = 0; i < n; i++) {
+                builder.attribute(sorted[i].getNamespaceURI(), nameOf(sorted[i]),
+                        sorted[i].getValue());
+            }
+
+            Node child = element.getFirstChild();
+            while (child != null) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    builder.child(digests.get(child));
+                    child = child.getNextSibling();
+                } else if (isText(child)) {
+                    // Adjacent text and CDATA nodes are one piece of text
+                    String text = child.getNodeValue();
+                    child = child.getNextSibling();
+                    if (child != null && isText(child)) {
+                        StringBuilder sb = new StringBuilder(text);
+                        for (; child != null && isText(child); child = child.getNextSibling()) {
+                            sb.append(child.getNodeValue());
+                        }
+                        builder.text(sb);
+                    } else {
+                        builder.text(text);
+                    }
+                } else {
+                    child = child.getNextSibling();
+                }
+            }
+            digest = builder.finish();
+            digests.put(element, digest);
+            return digest;
+        }
+    }
 }
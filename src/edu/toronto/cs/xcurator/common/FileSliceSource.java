@@ -0,0 +1,116 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A document made of ranges of bytes of a file, between a header and a
+ * footer. The ranges are memory-mapped when the document is opened, so the
+ * documents of a file can be read in parallel without copying the file.
+ */
+class FileSliceSource extends DocumentSource {
+
+    private final File file;
+    private final String name;
+    private final byte[] header;
+    // The start and end offsets of the ranges
+    private final long[] ranges;
+    private final byte[] footer;
+
+    FileSliceSource(File file, String name, byte[] header, long[] ranges, byte[] footer) {
+        this.file = file;
+        this.name = name;
+        this.header = header;
+        this.ranges = ranges;
+        this.footer = footer;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getSize() {
+        long size = header.length + footer.length;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i];
+        }
+        return size;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        List<InputStream> streams = new ArrayList<>();
+        streams.add(new ByteArrayInputStream(header));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i + 1] - ranges[i] > Integer.MAX_VALUE) {
+                    throw new IOException("The document is too large to be mapped: " + name);
+                }
+                // The mapping stays valid after the channel is closed
+                streams.add(new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY,
+                        ranges[i], ranges[i + 1] - ranges[i])));
+            }
+        }
+        streams.add(new ByteArrayInputStream(footer));
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
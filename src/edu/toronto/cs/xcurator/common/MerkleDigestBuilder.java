@@ -0,0 +1,165 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the MERKLE digest of one element: its name, its attributes, its
+ * text and the digests of its child elements are fed in document order,
+ * each with a tag byte and strings with their length, so different contents
+ * cannot feed the same bytes. The DOM and the streaming generation both
+ * build their digests with it, so they give the same instance URIs.
+ *
+ * A builder is reused for the elements it digests one after the other.
+ */
+public final class MerkleDigestBuilder {
+
+    private static final byte ELEMENT = 'E';
+    private static final byte ATTRIBUTE = 'A';
+    private static final byte TEXT = 'T';
+    private static final byte CHILD = 'C';
+
+    private final MessageDigest md5;
+    private final byte[] buffer = new byte[4096];
+    private int buffered;
+
+    public MerkleDigestBuilder() throws NoSuchAlgorithmException {
+        md5 = MessageDigest.getInstance("MD5");
+    }
+
+    /**
+     * Start the digest of an element.
+     *
+     * @param namespaceUri the namespace URI, or null for no namespace
+     * @param localName
+     */
+    public void startElement(String namespaceUri, String localName) {
+        md5.reset();
+        buffered = 0;
+        put(ELEMENT);
+        put(namespaceUri);
+        put(localName);
+    }
+
+    /**
+     * Feed an attribute of the element. The attributes are fed after the
+     * name, in the order of {@link #compareAttributes}, without the namespace
+     * declarations, so a document keeps its URIs when its prefixes are
+     * renamed.
+     *
+     * @param namespaceUri the namespace URI, or null for no namespace
+     * @param localName
+     * @param value
+     */
+    public void attribute(String namespaceUri, String localName, String value) {
+        put(ATTRIBUTE);
+        put(namespaceUri);
+        put(localName);
+        put(value);
+    }
+
+    /**
+     * Feed the digest of a child element.
+     *
+     * @param digest
+     */
+    public void child(byte[] digest) {
+        put(CHILD);
+        flush();
+        md5.update(digest);
+    }
+
+    /**
+     * Feed a piece of text, with the adjacent text and CDATA as one piece.
+     *
+     * @param text
+     */
+    public void text(CharSequence text) {
+        put(TEXT);
+        putInt(text.length());
+        putChars(text);
+    }
+
+    /**
+     * Finish the digest of the element.
+     *
+     * @return
+     */
+    public byte[] finish() {
+        flush();
+        return md5.digest();
+    }
+
+    /**
+     * The order the attributes of an element are fed in: by namespace URI,
+     * no namespace first, then by local name.
+     */
+    public static int compareAttributes(String namespaceUriA, String localNameA,
+            String namespaceUriB, String localNameB) {
+        int c;
+        if (namespaceUriA == null) {
+            c = namespaceUriB == null ? 0 : -1;
+        } else {
+            c = namespaceUriB == null ? 1 : namespaceUriA.compareTo(namespaceUriB);
+        }
+        return c != 0 ? c : localNameA.compareTo(localNameB);
+    }
+
+    private void put(byte b) {
+        if (buffered == buffer.length) {
+            flush();
+        }
+        buffer[buffered++] = b;
+    }
+
+    private void putInt(int value) {
+        put((byte) (value >>> 24));
+        put((byte) (value >>> 16));
+        put((byte) (value >>> 8));
+        put((byte) value);
+    }
+
+    /**
+     * Feed a string with its length, so consecutive strings cannot be
+     * confused. Null is fed as a length of -1.
+     */
+    private void put(String s) {
+        if (s == null) {
+            putInt(-1);
+        } else {
+            putInt(s.length());
+            putChars(s);
+        }
+    }
+
+    private void putChars(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buffered + 2 > buffer.length) {
+                flush();
+            }
+            char c = s.charAt(i);
+            buffer[buffered++] = (byte) (c >>> 8);
+            buffer[buffered++] = (byte) c;
+        }
+    }
+
+    private void flush() {
+        md5.update(buffer, 0, buffered);
+        buffered = 0;
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -32,6 +33,9 @@ import org.w3c.dom.NamedNodeMap;
 public final class NsContext implements NamespaceContext {
 
     private final Map<String, String> prefixMap;
+    // Incremented on every change, so compiled paths can tell when their
+    // prefixes may resolve differently
+    private int modificationCount;
     private static final Map<String, String> defaultMap = new HashMap<>();
 
     static {
@@ -80,6 +84,23 @@ public final class NsContext implements NamespaceContext {
         }
     }
 
+    /**
+     * Discover the namespace definitions declared on the element the reader
+     * is currently positioned at (a START_ELEMENT event).
+     *
+     * @param reader
+     * @param override
+     */
+    public void discover(XMLStreamReader reader, boolean override) {
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String namespaceURI = reader.getNamespaceURI(i);
+            addNamespace(prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix,
+                    namespaceURI == null ? XMLConstants.NULL_NS_URI : namespaceURI,
+                    override);
+        }
+    }
+
     /**
      * Add a prefix to namespace URI mapping to the context; if override is
      * false, there is no guarantee the given prefix name will be used in the
@@ -98,6 +119,7 @@ public final class NsContext implements NamespaceContext {
         // definition in our map.
         if (override || !prefixMap.containsKey(prefix)) {
             prefixMap.put(prefix, namespaceURI);
+            modificationCount++;
             return;
         }
         // If the existing prefix definition is the same as the new one, we do nothing.
@@ -113,6 +135,11 @@ public final class NsContext implements NamespaceContext {
             altPrefixName = prefix + "_" + Integer.toString(count);
         }
         prefixMap.put(altPrefixName, namespaceURI);
+        modificationCount++;
+    }
+
+    int getModificationCount() {
+        return modificationCount;
     }
 
     public void addNamespace(String prefix, String namespaceURI) {
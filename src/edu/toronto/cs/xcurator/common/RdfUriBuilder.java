@@ -35,18 +35,34 @@ public class RdfUriBuilder {
     }
 
     private String getUri(Node node, String uriBase) {
-        return uriBase + "/" + node.getLocalName();
+        return getUri(node.getLocalName(), uriBase);
+    }
+
+    private String getUri(String localName, String uriBase) {
+        return uriBase + "/" + localName;
     }
 
     public String getRdfTypeUri(Element element) {
         return getUri(element, typeUriBase);
     }
 
+    public String getRdfTypeUri(String localName) {
+        return getUri(localName, typeUriBase);
+    }
+
     public String getRdfPropertyUri(Node node) {
         return getUri(node, propertyUriBase);
     }
 
+    public String getRdfPropertyUri(String localName) {
+        return getUri(localName, propertyUriBase);
+    }
+
     public String getRdfPropertyUriForValue(Element element) {
+        return getRdfPropertyUriForValue();
+    }
+
+    public String getRdfPropertyUriForValue() {
         return propertyUriBase + "/value";
     }
 
@@ -54,6 +70,11 @@ public class RdfUriBuilder {
         return getUri(object, propertyUriBase);
     }
 
+    public String getRdfRelationUriFromNames(String subjectLocalName,
+            String objectLocalName) {
+        return getUri(objectLocalName, propertyUriBase);
+    }
+
     public String getRdfRelationUriFromEntities(Schema subject, Schema object) {
         return propertyUriBase + "/" + object.getName();
     }
@@ -0,0 +1,309 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Samples the records of a document, the children of its root element, while
+ * the document is read with StAX. Only the sampled records are built into
+ * the DOM, under a copy of the root element, in document order; the others
+ * are read past without building anything. The text and comments directly
+ * in the root are left out.
+ */
+public class RecordSampler {
+
+    public enum MODE {
+
+        // The first records, without reading the rest of the document
+        FIRST,
+        // A uniform sample of all the records
+        UNIFORM,
+        // A uniform sample of the records of each element name, so the rare
+        // kinds of records are in the sample too
+        STRATIFIED
+    }
+
+    private final MODE mode;
+    private final int size;
+    private final XMLInputFactory inputFactory;
+    private final XmlDocumentBuilder documentBuilder = new XmlDocumentBuilder();
+    private Long seed;
+
+    /**
+     * @param mode
+     * @param size the number of records in the sample, or of each element
+     * name when stratified, 0 to keep only the root element
+     */
+    public RecordSampler(MODE mode, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The sample size must not be negative.");
+        }
+        this.mode = mode;
+        this.size = size;
+        this.inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    }
+
+    /**
+     * Sample every document with the random numbers of this seed, so the
+     * samples do not change from run to run.
+     *
+     * @param seed
+     * @return
+     */
+    public RecordSampler setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public Document sample(InputStream is) throws XMLStreamException, ParserConfigurationException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+        try {
+            return sample(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Sample a document with a system ID, which the relative DTDs and
+     * external entities are resolved against, and which is the URI of the
+     * sampled document.
+     *
+     * @param is
+     * @param systemId
+     * @return
+     * @throws XMLStreamException
+     * @throws ParserConfigurationException
+     */
+    public Document sample(InputStream is, String systemId) throws XMLStreamException,
+            ParserConfigurationException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(systemId, is);
+        try {
+            Document document = sample(reader);
+            document.setDocumentURI(systemId);
+            return document;
+        } finally {
+            reader.close();
+        }
+    }
+
+    public Document sample(Reader r) throws XMLStreamException, ParserConfigurationException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(r);
+        try {
+            return sample(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The sampled records of a stratum, with their position in the document.
+     */
+    private static final class Reservoir {
+
+        final Element[] records;
+        final long[] positions;
+        long seen;
+
+        Reservoir(int size) {
+            records = new Element[size];
+            positions = new long[size];
+        }
+    }
+
+    private Document sample(XMLStreamReader reader) throws XMLStreamException,
+            ParserConfigurationException {
+        Random random = seed == null ? new Random() : new Random(seed);
+        Document document = documentBuilder.createDocument();
+        while (!reader.isStartElement() && reader.hasNext()) {
+            reader.next();
+        }
+        if (!reader.isStartElement()) {
+            throw new XMLStreamException("The document has no root element.");
+        }
+        Element root = createElement(document, reader);
+        document.appendChild(root);
+
+        Map<String, Reservoir> strata = new LinkedHashMap<>();
+        long position = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String stratum = mode == MODE.STRATIFIED
+                    ? "{" + reader.getNamespaceURI() + "}" + reader.getLocalName() : "";
+            Reservoir reservoir = strata.get(stratum);
+            if (reservoir == null) {
+                reservoir = new Reservoir(size);
+                strata.put(stratum, reservoir);
+            }
+            // Keep the record in place of a random one with probability
+            // size / seen, so each record is in the sample with the same
+            // probability (Vitter's algorithm R)
+            long seen = ++reservoir.seen;
+            int slot = -1;
+            if (seen <= size) {
+                slot = (int) (seen - 1);
+            } else if (mode != MODE.FIRST) {
+                long j = (random.nextLong() & Long.MAX_VALUE) % seen;
+                slot = j < size ? (int) j : -1;
+            }
+            if (slot < 0) {
+                skipElement(reader);
+            } else {
+                reservoir.records[slot] = buildElement(document, reader);
+                reservoir.positions[slot] = position;
+            }
+            position++;
+            if (mode == MODE.FIRST && seen >= size) {
+                break;
+            }
+        }
+
+        List<Integer> order = new ArrayList<>();
+        final List<Element> records = new ArrayList<>();
+        final List<Long> positions = new ArrayList<>();
+        for (Reservoir reservoir : strata.values()) {
+            for (int i = 0; i < Math.min(reservoir.seen, size); i++) {
+                order.add(records.size());
+                records.add(reservoir.records[i]);
+                positions.add(reservoir.positions[i]);
+            }
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(positions.get(a), positions.get(b));
+            }
+        });
+        for (int i : order) {
+            root.appendChild(records.get(i));
+        }
+        return document;
+    }
+
+    /**
+     * Build the element the reader is at, with all its content, and leave
+     * the reader at its end tag.
+     */
+    private static Element buildElement(Document document, XMLStreamReader reader)
+            throws XMLStreamException {
+        Element element = createElement(document, reader);
+        Node current = element;
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = createElement(document, reader);
+                    current.appendChild(child);
+                    current = child;
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    // The reader can split a text node into several events
+                    Node last = current.getLastChild();
+                    if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+                        ((Text) last).appendData(reader.getText());
+                    } else {
+                        current.appendChild(document.createTextNode(reader.getText()));
+                    }
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(document.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(document.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(document.createProcessingInstruction(
+                            reader.getPITarget(), reader.getPIData()));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return element;
+    }
+
+    private static Element createElement(Document document, XMLStreamReader reader) {
+        Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String namespaceUri = reader.getNamespaceURI(i);
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                    prefix == null || prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE
+                    : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+                    namespaceUri == null ? "" : namespaceUri);
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                    qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String namespaceUri) {
+        return namespaceUri == null || namespaceUri.isEmpty() ? null : namespaceUri;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Splits a document made of one root element with many record children, such
+ * as DBLP, into documents of a batch of consecutive records each. A batch is
+ * the prolog and the start tag of the root, with its namespace declarations
+ * and attributes, followed by the bytes of the records and the end tag of the
+ * root, so the records parse the same as in the whole document.
+ *
+ * The record boundaries are found by scanning the bytes of the file once,
+ * and each batch is read from a memory-mapped region of the file when its
+ * document is opened, so the batches can be parsed in parallel. The text and
+ * comments of the root element between two batches are left out. The file
+ * must be in an encoding where the markup is ASCII, such as UTF-8 or
+ * ISO-8859-1.
+ */
+public class RootChildrenSplitter {
+
+    private final int batchSize;
+
+    /**
+     * @param batchSize the number of root children in each document
+     */
+    public RootChildrenSplitter(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Split the sources that are local files; the others are kept as they
+     * are, with a warning.
+     *
+     * @param sources
+     * @return the sources of the batches, in document order
+     * @throws IOException if a file is not well-formed enough to be split
+     */
+    public List<DocumentSource> split(List<DocumentSource> sources) throws IOException {
+        List<DocumentSource> batches = new ArrayList<>();
+        for (DocumentSource source : sources) {
+            if (source.getFile() != null) {
+                batches.addAll(split(source.getFile()));
+            } else {
+                Logger.getLogger(RootChildrenSplitter.class.getName()).log(Level.WARNING,
+                        "Only local files are split into batches, not split: {0}",
+                        source.getName());
+                batches.add(source);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Split a file into the batches of its root children. A file whose root
+     * has no children is a single batch.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public List<DocumentSource> split(File file) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        long headerLength = -1;
+        byte[] rootName = null;
+        try (XmlByteScanner scanner = new XmlByteScanner(file)) {
+            int depth = 0;
+            int children = 0;
+            long lastEnd = -1;
+            int c;
+            while (depth >= 0 && (c = scanner.next()) != -1) {
+                if (c != '<') {
+                    continue;
+                }
+                long start = scanner.position() - 1;
+                c = scanner.next();
+                if (c == '?') {
+                    scanner.skipPast("?>");
+                } else if (c == '!') {
+                    scanner.skipDeclaration();
+                } else if (c == '/') {
+                    scanner.skipTag(scanner.next());
+                    depth--;
+                    if (depth == 1) {
+                        lastEnd = scanner.position();
+                        if (++children % batchSize == 0) {
+                            bounds.add(lastEnd);
+                        }
+                    } else if (depth == 0) {
+                        break;
+                    }
+                } else if (depth == 0) {
+                    int[] after = new int[1];
+                    rootName = scanner.readName(c, after);
+                    if (scanner.skipTag(after[0])) {
+                        // An empty root
+                        depth = -1;
+                    } else {
+                        headerLength = scanner.position();
+                        depth = 1;
+                    }
+                } else {
+                    boolean empty = scanner.skipTag(c);
+                    if (depth == 1 && children % batchSize == 0) {
+                        bounds.add(start);
+                    }
+                    if (!empty) {
+                        depth++;
+                    } else if (depth == 1) {
+                        lastEnd = scanner.position();
+                        if (++children % batchSize == 0) {
+                            bounds.add(lastEnd);
+                        }
+                    }
+                }
+            }
+            if (rootName == null || depth > 0) {
+                throw scanner.unexpectedEnd();
+            }
+            if (children % batchSize != 0) {
+                bounds.add(lastEnd);
+            }
+        }
+        if (bounds.isEmpty()) {
+            return Collections.singletonList(DocumentSource.forLocation(file.getPath()));
+        }
+
+        byte[] header = new byte[(int) headerLength];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.readFully(header);
+        }
+        byte[] footer = new byte[rootName.length + 3];
+        footer[0] = '<';
+        footer[1] = '/';
+        System.arraycopy(rootName, 0, footer, 2, rootName.length);
+        footer[footer.length - 1] = '>';
+
+        List<DocumentSource> batches = new ArrayList<>(bounds.size() / 2);
+        for (int i = 0; i < bounds.size(); i += 2) {
+            batches.add(new FileSliceSource(file, file.getPath() + "#" + (i / 2 + 1), header,
+                    new long[]{bounds.get(i), bounds.get(i + 1)}, footer));
+        }
+        return batches;
+    }
+}
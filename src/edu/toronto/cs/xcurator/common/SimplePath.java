@@ -0,0 +1,376 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * An evaluator for the paths xcurator generates, without going through
+ * JAXP: unions of location paths made of child element steps (a name or
+ * *), ., and a final @attribute or text() step. Prefixes are resolved when
+ * the path is compiled. All the branches of a union are evaluated in one
+ * depth-first walk over the matching part of the tree, so the result is in
+ * document order without duplicates, as with XPath.
+ *
+ * Like the XPath data model of JAXP, adjacent text and CDATA nodes are one
+ * text node, represented by the first of them.
+ */
+final class SimplePath {
+
+    private static final int SELF = 0;
+    private static final int ELEMENT = 1;
+    private static final int ATTRIBUTE = 2;
+    private static final int TEXT = 3;
+
+    private static final class Step {
+
+        final int kind;
+        // Null matches any name; the namespace URI is null for no namespace
+        final String namespaceUri;
+        final String localName;
+
+        Step(int kind, String namespaceUri, String localName) {
+            this.kind = kind;
+            this.namespaceUri = namespaceUri;
+            this.localName = localName;
+        }
+
+        boolean matches(Node node) {
+            if (localName == null) {
+                return true;
+            }
+            String nodeNamespaceUri = node.getNamespaceURI();
+            return localName.equals(node.getLocalName())
+                    && (namespaceUri == null ? nodeNamespaceUri == null
+                            : namespaceUri.equals(nodeNamespaceUri));
+        }
+    }
+
+    private final boolean absolute;
+    // The steps of all the branches, each branch ends with a null step
+    private final Step[] steps;
+    private final int[] branchStarts;
+
+    private SimplePath(boolean absolute, Step[] steps, int[] branchStarts) {
+        this.absolute = absolute;
+        this.steps = steps;
+        this.branchStarts = branchStarts;
+    }
+
+    /**
+     * Compile a path.
+     *
+     * @param path
+     * @param nsContext
+     * @return the compiled path, or null if the path is not in the grammar
+     * (or a prefix does not resolve), so it should be evaluated by JAXP
+     */
+    static SimplePath compile(String path, NamespaceContext nsContext) {
+        String[] branches = path.split("\\|", -1);
+        List<Step> steps = new ArrayList<>();
+        int[] branchStarts = new int[branches.length];
+        Boolean absolute = null;
+        for (int b = 0; b < branches.length; b++) {
+            String branch = branches[b];
+            boolean branchAbsolute = branch.startsWith("/");
+            if (absolute != null && absolute != branchAbsolute) {
+                // The branches start from different nodes
+                return null;
+            }
+            absolute = branchAbsolute;
+            if (!branchAbsolute && branch.startsWith(":")) {
+                // JAXP does not take an empty prefix at the start of a path
+                return null;
+            }
+            String[] tokens = (branchAbsolute ? branch.substring(1) : branch).split("/", -1);
+            branchStarts[b] = steps.size();
+            for (int t = 0; t < tokens.length; t++) {
+                Step step = compileStep(tokens[t], nsContext);
+                if (step == null) {
+                    return null;
+                }
+                if ((step.kind == ATTRIBUTE || step.kind == TEXT) && t != tokens.length - 1) {
+                    return null;
+                }
+                steps.add(step);
+            }
+            steps.add(null);
+        }
+        return new SimplePath(absolute, steps.toArray(new Step[steps.size()]), branchStarts);
+    }
+
+    private static Step compileStep(String token, NamespaceContext nsContext) {
+        if (token.equals(".")) {
+            return new Step(SELF, null, null);
+        } else if (token.equals("text()")) {
+            return new Step(TEXT, null, null);
+        } else if (token.equals("*")) {
+            return new Step(ELEMENT, null, null);
+        } else if (token.equals("@*")) {
+            return new Step(ATTRIBUTE, null, null);
+        }
+        int kind = ELEMENT;
+        if (token.startsWith("@")) {
+            kind = ATTRIBUTE;
+            token = token.substring(1);
+        }
+        int colon = token.indexOf(':');
+        String localName = colon < 0 ? token : token.substring(colon + 1);
+        if (!isNCName(localName)) {
+            return null;
+        }
+        if (colon < 0) {
+            return new Step(kind, null, localName);
+        }
+        String prefix = token.substring(0, colon);
+        if (!prefix.isEmpty() && !isNCName(prefix)) {
+            return null;
+        }
+        String namespaceUri = nsContext.getNamespaceURI(prefix);
+        if (namespaceUri == null || namespaceUri.equals(XMLConstants.NULL_NS_URI)) {
+            // Leave the error to JAXP
+            return null;
+        }
+        return new Step(kind, namespaceUri, localName);
+    }
+
+    private static boolean isNCName(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        char first = s.charAt(0);
+        if (!Character.isLetter(first) && first != '_') {
+            return false;
+        }
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the nodes selected by the path, in document order.
+     *
+     * @param context the context node of relative paths
+     * @return
+     */
+    NodeList evaluate(Node context) {
+        NodeArrayList result = new NodeArrayList();
+        walk(start(context), branchStarts.clone(), result, Integer.MAX_VALUE);
+        return result;
+    }
+
+    /**
+     * Get the string value of the first node selected by the path, or an
+     * empty string if there is none.
+     *
+     * @param context the context node of relative paths
+     * @return
+     */
+    String evaluateString(Node context) {
+        NodeArrayList result = new NodeArrayList();
+        walk(start(context), branchStarts.clone(), result, 1);
+        return result.isEmpty() ? "" : stringValue(result.get(0));
+    }
+
+    /**
+     * Check if the nodes of the context's document have local names, that
+     * is, if the document was built by a namespace aware parser. Names can
+     * only be matched by their namespace URI and local name.
+     *
+     * @param context
+     * @return
+     */
+    static boolean supports(Node context) {
+        Node element = context.getNodeType() == Node.DOCUMENT_NODE
+                ? ((Document) context).getDocumentElement()
+                : context.getOwnerDocument().getDocumentElement();
+        return element == null || element.getLocalName() != null;
+    }
+
+    /**
+     * Check if the path selects any node.
+     *
+     * @param context the context node of relative paths
+     * @return
+     */
+    boolean evaluateBoolean(Node context) {
+        NodeArrayList result = new NodeArrayList();
+        walk(start(context), branchStarts.clone(), result, 1);
+        return !result.isEmpty();
+    }
+
+    private Node start(Node context) {
+        if (absolute && context.getNodeType() != Node.DOCUMENT_NODE) {
+            return context.getOwnerDocument();
+        }
+        return context;
+    }
+
+    /**
+     * Collect the nodes selected from a node, where positions are the
+     * indices of the next step of each partially matched branch.
+     *
+     * @return false if the limit was reached
+     */
+    private boolean walk(Node node, int[] positions, NodeArrayList result, int limit) {
+        // Self steps do not move
+        boolean selected = false;
+        boolean attributes = false;
+        boolean text = false;
+        boolean elements = false;
+        for (int i = 0; i < positions.length; i++) {
+            int p = positions[i];
+            while (steps[p] != null && steps[p].kind == SELF) {
+                p++;
+            }
+            positions[i] = p;
+            if (steps[p] == null) {
+                selected = true;
+            } else if (steps[p].kind == ATTRIBUTE) {
+                attributes = true;
+            } else if (steps[p].kind == TEXT) {
+                text = true;
+            } else {
+                elements = true;
+            }
+        }
+        if (selected && !add(result, node, limit)) {
+            return false;
+        }
+        short type = node.getNodeType();
+        if (attributes && type == Node.ELEMENT_NODE) {
+            NamedNodeMap attrs = node.getAttributes();
+            for (int a = 0; a < attrs.getLength(); a++) {
+                Node attr = attrs.item(a);
+                // Namespace declarations are not attributes in XPath
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                    continue;
+                }
+                if (matchesAny(positions, ATTRIBUTE, attr) && !add(result, attr, limit)) {
+                    return false;
+                }
+            }
+        }
+        if ((!text && !elements)
+                || (type != Node.ELEMENT_NODE && type != Node.DOCUMENT_NODE)) {
+            return true;
+        }
+        boolean previousText = false;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            short childType = child.getNodeType();
+            if (childType == Node.TEXT_NODE || childType == Node.CDATA_SECTION_NODE) {
+                if (text && !previousText && !add(result, child, limit)) {
+                    return false;
+                }
+                previousText = true;
+                continue;
+            }
+            previousText = false;
+            if (elements && childType == Node.ELEMENT_NODE) {
+                int[] next = advance(positions, child);
+                if (next != null && !walk(child, next, result, limit)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesAny(int[] positions, int kind, Node node) {
+        for (int p : positions) {
+            Step step = steps[p];
+            if (step != null && step.kind == kind && step.matches(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] advance(int[] positions, Node element) {
+        int count = 0;
+        for (int p : positions) {
+            Step step = steps[p];
+            if (step != null && step.kind == ELEMENT && step.matches(element)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        int[] next = new int[count];
+        int n = 0;
+        for (int p : positions) {
+            Step step = steps[p];
+            if (step != null && step.kind == ELEMENT && step.matches(element)) {
+                next[n++] = p + 1;
+            }
+        }
+        return next;
+    }
+
+    private static boolean add(NodeArrayList result, Node node, int limit) {
+        result.add(node);
+        return result.size() < limit;
+    }
+
+    private static String stringValue(Node node) {
+        switch (node.getNodeType()) {
+            case Node.ATTRIBUTE_NODE:
+                return ((Attr) node).getValue();
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                // The text node of XPath spans the adjacent text and CDATA
+                StringBuilder sb = new StringBuilder();
+                for (Node n = node; n != null && (n.getNodeType() == Node.TEXT_NODE
+                        || n.getNodeType() == Node.CDATA_SECTION_NODE); n = n.getNextSibling()) {
+                    sb.append(n.getNodeValue());
+                }
+                return sb.toString();
+            case Node.DOCUMENT_NODE:
+                Node root = ((Document) node).getDocumentElement();
+                return root == null ? "" : root.getTextContent();
+            default:
+                return node.getTextContent();
+        }
+    }
+
+    private static final class NodeArrayList extends ArrayList<Node> implements NodeList {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Node item(int index) {
+            return index >= 0 && index < size() ? get(index) : null;
+        }
+
+        @Override
+        public int getLength() {
+            return size();
+        }
+    }
+}
@@ -15,20 +15,71 @@
  */
 package edu.toronto.cs.xcurator.common;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import javax.xml.namespace.QName;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
 
+/**
+ * Evaluates the paths of the mapping on XML documents. Each path is compiled
+ * once per namespace context: the simple paths xcurator generates (child
+ * steps, @attribute, text() and unions of them) are evaluated by walking the
+ * DOM directly, and any other XPath is compiled by JAXP.
+ *
+ * An instance can be shared by threads, as each thread has its own compiled
+ * expressions.
+ */
 public class XPathFinder {
 
-    private XPathFactory factory = XPathFactory.newInstance();
+    private static final NsContext NO_NAMESPACES = new NsContext();
+
+    private static final class CompiledPath {
+
+        // Null if the path is not a simple path
+        final SimplePath simplePath;
+        // Compiled on first use, for general XPath or documents that were
+        // not parsed namespace aware
+        XPathExpression expression;
+
+        CompiledPath(SimplePath simplePath) {
+            this.simplePath = simplePath;
+        }
+    }
+
+    private static final class NsContextPaths {
+
+        int modificationCount;
+        final Map<String, CompiledPath> paths = new HashMap<>();
+    }
+
+    private static final class PathCache {
+
+        final XPath xpath = XPathFactory.newInstance().newXPath();
+        // Namespace contexts compare by identity; the paths of a context
+        // are dropped with the context
+        final Map<NsContext, NsContextPaths> nsContexts = new WeakHashMap<>();
+    }
+
+    // XPath objects and compiled expressions are not thread-safe, so they
+    // are confined to the thread that compiled them
+    private final ThreadLocal<PathCache> pathCache = new ThreadLocal<PathCache>() {
+        @Override
+        protected PathCache initialValue() {
+            return new PathCache();
+        }
+    };
 
     /**
      * Get XML nodes by the XPath from the given element node
@@ -41,10 +92,7 @@ public class XPathFinder {
      */
     public NodeList getNodesByPath(String path, Element element, NsContext nsContext)
             throws XPathExpressionException {
-        XPath xpath = factory.newXPath();
-        xpath.setNamespaceContext(nsContext);
-        NodeList nodeList = (NodeList) xpath.evaluate(path, element, XPathConstants.NODESET);
-        return nodeList;
+        return (NodeList) evaluate(path, element, nsContext, XPathConstants.NODESET);
     }
 
     /**
@@ -58,37 +106,28 @@ public class XPathFinder {
      */
     public NodeList getNodesByPath(String path, Document document, NsContext nsContext)
             throws XPathExpressionException {
-        XPath xpath = factory.newXPath();
-        xpath.setNamespaceContext(nsContext);
-        NodeList nodeList = (NodeList) xpath.evaluate(path, document, XPathConstants.NODESET);
-        return nodeList;
+        return (NodeList) evaluate(path, document, nsContext, XPathConstants.NODESET);
     }
 
     public String getStringByPath(String path, Element element, NsContext nsContext)
             throws XPathExpressionException {
-        XPath xpath = factory.newXPath();
-        return ((String) xpath.evaluate(path, element, XPathConstants.STRING));
+        return (String) evaluate(path, element, nsContext, XPathConstants.STRING);
     }
 
     public NodeList getNodesByPath(String path, Element localElement, Document doc,
             NsContext nsContext) throws XPathExpressionException {
         // Note: if using absolute path, then the root element must also be specified,
         // that is, it should be like "/clinical_studies/clinical_study/..."
-        XPath xpath = factory.newXPath();
-        xpath.setNamespaceContext(nsContext);
-        Object element = getElementToBeSearched(path, localElement, doc);
-        NodeList nodeList = (NodeList) xpath.evaluate(path, element, XPathConstants.NODESET);
-        return nodeList;
+        Node element = getElementToBeSearched(path, localElement, doc);
+        return (NodeList) evaluate(path, element, nsContext, XPathConstants.NODESET);
     }
 
     public boolean getBooleanPath(String path, Element localElement, Document doc,
             NsContext nsContext) throws XPathExpressionException {
         // Note: if using absolute path, then the root element must also be specified,
         // that is, it should be like "/clinical_studies/clinical_study/..."
-        XPath xpath = factory.newXPath();
-        Object element = getElementToBeSearched(path, localElement, doc);
-        boolean res = (Boolean) xpath.evaluate(path, element, XPathConstants.BOOLEAN);
-        return res;
+        Node element = getElementToBeSearched(path, localElement, doc);
+        return (Boolean) evaluate(path, element, nsContext, XPathConstants.BOOLEAN);
     }
 
     public String getStringByPath(String path, Element localElement, Document doc,
@@ -96,9 +135,8 @@ public class XPathFinder {
         // Note the difference between this function and function "getStringsByPath"
         // The path for this function should be like "/clinical_studies/clinical_study/brief_title",
         // which returns ONLY ONE string of the first matched element "brief_title"
-        XPath xpath = factory.newXPath();
-        Object element = getElementToBeSearched(path, localElement, doc);
-        return (String) xpath.evaluate(path, element, XPathConstants.STRING);
+        Node element = getElementToBeSearched(path, localElement, doc);
+        return (String) evaluate(path, element, nsContext, XPathConstants.STRING);
     }
 
     public Set<String> getStringsByPath(String path, Element localElement, Document doc,
@@ -118,7 +156,47 @@ public class XPathFinder {
         return ret;
     }
 
-    private Object getElementToBeSearched(String path, Element localElement, Document doc) {
+    private Node getElementToBeSearched(String path, Element localElement, Document doc) {
         return path.startsWith("/") || localElement == null ? doc : localElement;
     }
+
+    private Object evaluate(String path, Node context, NsContext nsContext,
+            QName returnType) throws XPathExpressionException {
+        CompiledPath compiled = compile(path, nsContext == null ? NO_NAMESPACES : nsContext);
+        if (compiled.simplePath != null && SimplePath.supports(context)) {
+            if (returnType == XPathConstants.NODESET) {
+                return compiled.simplePath.evaluate(context);
+            } else if (returnType == XPathConstants.STRING) {
+                return compiled.simplePath.evaluateString(context);
+            } else if (returnType == XPathConstants.BOOLEAN) {
+                return compiled.simplePath.evaluateBoolean(context);
+            }
+        }
+        if (compiled.expression == null) {
+            XPath xpath = pathCache.get().xpath;
+            xpath.setNamespaceContext(nsContext == null ? NO_NAMESPACES : nsContext);
+            compiled.expression = xpath.compile(path);
+        }
+        return compiled.expression.evaluate(context, returnType);
+    }
+
+    private CompiledPath compile(String path, NsContext nsContext) {
+        Map<NsContext, NsContextPaths> nsContexts = pathCache.get().nsContexts;
+        NsContextPaths nsContextPaths = nsContexts.get(nsContext);
+        if (nsContextPaths == null) {
+            nsContextPaths = new NsContextPaths();
+            nsContextPaths.modificationCount = nsContext.getModificationCount();
+            nsContexts.put(nsContext, nsContextPaths);
+        } else if (nsContextPaths.modificationCount != nsContext.getModificationCount()) {
+            // The prefixes may resolve differently now
+            nsContextPaths.paths.clear();
+            nsContextPaths.modificationCount = nsContext.getModificationCount();
+        }
+        CompiledPath compiled = nsContextPaths.paths.get(path);
+        if (compiled == null) {
+            compiled = new CompiledPath(SimplePath.compile(path, nsContext));
+            nsContextPaths.paths.put(path, compiled);
+        }
+        return compiled;
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.common;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the markup of an XML file one byte at a time, keeping the offset of
+ * each byte, to find the boundaries of elements and documents without
+ * parsing them. Only the markup is recognized, so the file must be in an
+ * encoding where it is ASCII, such as UTF-8 or ISO-8859-1.
+ */
+class XmlByteScanner implements Closeable {
+
+    private final InputStream is;
+    private final File file;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int length;
+    private int index;
+    private long position;
+
+    XmlByteScanner(File file) throws IOException {
+        this.file = file;
+        this.is = new BufferedInputStream(new FileInputStream(file));
+        is.mark(1);
+        int first = is.read();
+        is.reset();
+        if (first == 0 || first == 0xfe || first == 0xff) {
+            is.close();
+            throw new IOException("Only documents in an ASCII-compatible encoding can be split: "
+                    + file.getPath());
+        }
+    }
+
+    /**
+     * Get the next byte, or -1 at the end of the file.
+     */
+    int next() throws IOException {
+        if (index == length) {
+            length = is.read(buffer);
+            index = 0;
+            if (length <= 0) {
+                length = 0;
+                return -1;
+            }
+        }
+        position++;
+        return buffer[index++] & 0xff;
+    }
+
+    /**
+     * Get the offset of the next byte.
+     */
+    long position() {
+        return position;
+    }
+
+    IOException unexpectedEnd() {
+        return new IOException("Unexpected end of document: " + file.getPath());
+    }
+
+    private int nextInMarkup() throws IOException {
+        int c = next();
+        if (c == -1) {
+            throw unexpectedEnd();
+        }
+        return c;
+    }
+
+    /**
+     * Skip the bytes up to and including the given ASCII string.
+     */
+    void skipPast(String end) throws IOException {
+        byte[] expected = end.getBytes(StandardCharsets.US_ASCII);
+        byte[] last = new byte[expected.length];
+        while (true) {
+            System.arraycopy(last, 1, last, 0, last.length - 1);
+            last[last.length - 1] = (byte) nextInMarkup();
+            if (Arrays.equals(last, expected)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the name of a tag, from its given first byte.
+     *
+     * @return the name; the byte after it is given to
+     * {@link #skipTag(int)}
+     */
+    byte[] readName(int c, int[] after) throws IOException {
+        byte[] name = new byte[16];
+        int size = 0;
+        while (c != -1 && c != '>' && c != '/' && !isWhitespace(c)) {
+            if (size == name.length) {
+                name = Arrays.copyOf(name, size * 2);
+            }
+            name[size++] = (byte) c;
+            c = next();
+        }
+        after[0] = c;
+        return Arrays.copyOf(name, size);
+    }
+
+    /**
+     * Skip the rest of a tag, from its given byte to its closing '&gt;'.
+     *
+     * @return if the tag is an empty element
+     */
+    boolean skipTag(int c) throws IOException {
+        int quote = 0;
+        int previous = 0;
+        while (true) {
+            if (c == -1) {
+                throw unexpectedEnd();
+            }
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return previous == '/';
+            }
+            previous = c;
+            c = next();
+        }
+    }
+
+    /**
+     * Skip a comment, a CDATA section or a document type declaration, after
+     * its "&lt;!".
+     *
+     * @return '-' for a comment, '[' for a CDATA section, or 'D' for a
+     * document type declaration
+     */
+    int skipDeclaration() throws IOException {
+        int c = nextInMarkup();
+        if (c == '-') {
+            nextInMarkup();
+            skipPast("-->");
+            return '-';
+        } else if (c == '[') {
+            skipPast("]]>");
+            return '[';
+        }
+        int brackets = 0;
+        int quote = 0;
+        while (true) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[') {
+                brackets++;
+            } else if (c == ']') {
+                brackets--;
+            } else if (c == '>' && brackets == 0) {
+                return 'D';
+            }
+            c = nextInMarkup();
+        }
+    }
+
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    @Override
+    public void close() throws IOException {
+        is.close();
+    }
+}
@@ -60,14 +60,25 @@ public class XmlDocumentBuilder {
 
     public void addUriBasedAttrToElement(String attrName, String typeUri,
             NsContext nsContext, Element element) {
+        element.setAttribute(attrName, getUriBasedAttrValue(typeUri, nsContext));
+    }
+
+    /**
+     * Get the value of a URI based attribute: the URI with its base replaced
+     * by the prefix of the base in the namespace context, if there is one.
+     *
+     * @param typeUri
+     * @param nsContext
+     * @return
+     */
+    public String getUriBasedAttrValue(String typeUri, NsContext nsContext) {
         if (typeUri.startsWith("http://")) {
             String typeName = typeUri.substring(typeUri.lastIndexOf("/") + 1);
             String baseUri = typeUri.substring(0, typeUri.lastIndexOf("/"));
             String prefix = nsContext.getPrefix(baseUri);
-            element.setAttribute(attrName, prefix == null ? typeUri : prefix + ":" + typeName);
-        } else {
-            element.setAttribute(attrName, typeUri);
+            return prefix == null ? typeUri : prefix + ":" + typeName;
         }
+        return typeUri;
     }
 
 }
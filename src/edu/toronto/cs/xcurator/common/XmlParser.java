@@ -15,6 +15,8 @@
  */
 package edu.toronto.cs.xcurator.common;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -23,6 +25,7 @@ import java.util.List;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -44,53 +47,62 @@ public class XmlParser {
         this.debug = debug;
     }
 
+    /**
+     * Parse a document, keeping only the first records, the children of the
+     * root element, if their maximum number is given. The rest of the
+     * document is not read.
+     *
+     * @param path
+     * @param maxElement the maximum number of records, or -1 for all of them;
+     * with 0 or less only the root element is kept
+     * @return
+     */
     public Document parse(String path, int maxElement) throws SAXException, IOException, ParserConfigurationException {
+        if (maxElement != -1) {
+            try (InputStream is = new FileInputStream(path)) {
+                return debug(firstRecords(maxElement)
+                        .sample(is, new File(path).toURI().toString()));
+            } catch (XMLStreamException ex) {
+                throw new SAXException(ex);
+            }
+        }
         DocumentBuilder builder = XMLUtils.createNsAwareDocumentBuilder();
-        Document doc = builder.parse(path);
-        doc = pruneDocument(doc, maxElement);
-        return doc;
+        return builder.parse(path);
     }
 
     public Document parse(InputStream is, int maxElement) throws SAXException, IOException, ParserConfigurationException {
+        if (maxElement != -1) {
+            try {
+                return debug(firstRecords(maxElement).sample(is));
+            } catch (XMLStreamException ex) {
+                throw new SAXException(ex);
+            }
+        }
         DocumentBuilder builder = XMLUtils.createNsAwareDocumentBuilder();
-        Document doc = builder.parse(is);
-        doc = pruneDocument(doc, maxElement);
-        return doc;
+        return builder.parse(is);
     }
 
     public Document parse(Reader reader, int maxElement) throws SAXException, IOException, ParserConfigurationException {
+        if (maxElement != -1) {
+            try {
+                return debug(firstRecords(maxElement).sample(reader));
+            } catch (XMLStreamException ex) {
+                throw new SAXException(ex);
+            }
+        }
         DocumentBuilder builder = XMLUtils.createNsAwareDocumentBuilder();
-        Document doc = builder.parse(new InputSource(reader));
-        doc = pruneDocument(doc, maxElement);
-        return doc;
+        return builder.parse(new InputSource(reader));
     }
 
-    private Document pruneDocument(Document doc, int maxElement) throws ParserConfigurationException {
-        if (maxElement == -1) {
-            return doc;
-        }
-
-        Document newDoc = (Document) doc.cloneNode(false);
-        Element newRoot = (Element) doc.getDocumentElement().cloneNode(false);
-        newDoc.adoptNode(newRoot);
-        newDoc.appendChild(newRoot);
-
-        NodeList nl = doc.getDocumentElement().getChildNodes();
-        for (int i = 0; i < maxElement && i < nl.getLength(); i++) {
-            if (!(nl.item(i) instanceof Element)) {
-                maxElement++;
-                continue;
-            }
-
-            Node item = nl.item(i).cloneNode(true);
-            newDoc.adoptNode(item);
-            newDoc.getDocumentElement().appendChild(item);
-        }
+    private static RecordSampler firstRecords(int maxElement) {
+        return new RecordSampler(RecordSampler.MODE.FIRST, Math.max(maxElement, 0));
+    }
 
+    private Document debug(Document doc) {
         if (debug) {
-            System.out.println("Creating document of " + newDoc.getDocumentElement().getChildNodes().getLength());
+            System.out.println("Creating document of " + doc.getDocumentElement().getChildNodes().getLength());
         }
-        return newDoc;
+        return doc;
     }
 
     /**
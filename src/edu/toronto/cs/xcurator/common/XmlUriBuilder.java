@@ -24,13 +24,16 @@ import org.w3c.dom.Node;
 public class XmlUriBuilder {
 
     public String getXmlTypeUri(Node node) {
-        String nsuri = node.getNamespaceURI();
+        return getXmlTypeUri(node.getNamespaceURI(), node.getLocalName());
+    }
+
+    public String getXmlTypeUri(String nsuri, String localName) {
         if (nsuri == null) {
-            return node.getLocalName();
+            return localName;
         }
         if (nsuri.endsWith("/") || nsuri.endsWith("#")) {
             nsuri = nsuri.substring(0, nsuri.length() - 1);
         }
-        return nsuri + "/" + node.getLocalName();
+        return nsuri + "/" + localName;
     }
 }
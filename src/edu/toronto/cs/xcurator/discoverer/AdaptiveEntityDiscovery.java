@@ -0,0 +1,178 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Discovers the entities of the sources with a
+ * {@link StreamingEntityDiscovery} in random order, a batch of documents at a
+ * time, and stops once a number of batches in a row add no entity, attribute
+ * or relation to the mapping. For a feed of documents of the same schema,
+ * the number of documents read is then about the same for any number of
+ * documents.
+ *
+ * The documents not read can still have elements the mapping lacks, so the
+ * confidence of the mapping is reported as an upper bound of the share of
+ * documents that would add to it: when none of the last n documents added
+ * anything, the share is below 1 - (1 - confidence)^(1/n) with the given
+ * confidence (about 3/n at 95%).
+ */
+public class AdaptiveEntityDiscovery implements MappingDiscoveryStep {
+
+    public static final double CONFIDENCE = 0.95;
+
+    private final StreamingEntityDiscovery discovery;
+    private final int batchSize;
+    private final int patience;
+    private final List<DocumentSource> sources;
+    private Long seed;
+    private int documentsRead;
+    private int documentsUnchanged;
+    private boolean converged;
+
+    /**
+     * @param discovery the discovery of the entities of each document, its
+     * own sources are not read
+     * @param batchSize the number of documents read between two checks of
+     * the mapping
+     * @param patience the number of batches in a row that add nothing to the
+     * mapping before the discovery stops
+     */
+    public AdaptiveEntityDiscovery(StreamingEntityDiscovery discovery, int batchSize,
+            int patience) {
+        if (batchSize < 1 || patience < 1) {
+            throw new IllegalArgumentException("The batch size and the patience must be at least 1.");
+        }
+        this.discovery = discovery;
+        this.batchSize = batchSize;
+        this.patience = patience;
+        this.sources = new ArrayList<>();
+    }
+
+    public AdaptiveEntityDiscovery addSource(DocumentSource source) {
+        sources.add(source);
+        return this;
+    }
+
+    /**
+     * Shuffle the documents with the random numbers of this seed, so the
+     * same documents are read from run to run.
+     *
+     * @param seed
+     * @return
+     */
+    public AdaptiveEntityDiscovery setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        System.out.println("process AdaptiveEntityDiscovery...");
+        List<DocumentSource> shuffled = new ArrayList<>(sources);
+        Collections.shuffle(shuffled, seed == null ? new Random() : new Random(seed));
+
+        documentsRead = 0;
+        documentsUnchanged = 0;
+        converged = false;
+        int unchangedBatches = 0;
+        long size = countDiscovered(mapping);
+        for (int start = 0; start < shuffled.size() && !converged; start += batchSize) {
+            int end = Math.min(start + batchSize, shuffled.size());
+            for (DocumentSource source : shuffled.subList(start, end)) {
+                try (InputStream is = source.openStream()) {
+                    discovery.discover(is, mapping);
+                } catch (IOException | XMLStreamException ex) {
+                    // A document that failed adds nothing to the mapping, it
+                    // must not count towards the convergence
+                    throw new IllegalStateException(
+                            "Error in discovering entities from " + source.getName(), ex);
+                }
+            }
+            documentsRead = end;
+
+            // Entities, attributes and relations are only ever added, so the
+            // mapping changed if and only if their number did
+            long newSize = countDiscovered(mapping);
+            if (newSize == size) {
+                unchangedBatches++;
+                documentsUnchanged += end - start;
+            } else {
+                unchangedBatches = 0;
+                documentsUnchanged = 0;
+                size = newSize;
+            }
+            converged = unchangedBatches == patience && end < shuffled.size();
+        }
+
+        if (converged) {
+            System.out.println(String.format("The mapping converged after %d of %d documents;"
+                    + " with %.0f%% confidence, fewer than %.2f%% of the documents would add to it",
+                    documentsRead, sources.size(), CONFIDENCE * 100, getChangeRateBound() * 100));
+        } else {
+            System.out.println(String.format("Read all the %d documents before the mapping converged",
+                    documentsRead));
+        }
+
+        // set the mapping as initialized when this step is completed.
+        mapping.setInitialized();
+    }
+
+    /**
+     * @return the number of documents read by the last discovery
+     */
+    public int getDocumentsRead() {
+        return documentsRead;
+    }
+
+    /**
+     * @return if the last discovery stopped before reading all the documents
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * @return the upper bound, with the {@link #CONFIDENCE}, of the share of
+     * documents that would add to the mapping, from the documents read last
+     * that added nothing; 1 if none did
+     */
+    public double getChangeRateBound() {
+        if (documentsUnchanged == 0) {
+            return 1;
+        }
+        return 1 - Math.pow(1 - CONFIDENCE, 1.0 / documentsUnchanged);
+    }
+
+    private static long countDiscovered(Mapping mapping) {
+        long count = 0;
+        for (Schema entity : mapping.getEntities().values()) {
+            count += 1 + entity.getAttributesCount() + entity.getRelationsCount();
+        }
+        return count;
+    }
+}
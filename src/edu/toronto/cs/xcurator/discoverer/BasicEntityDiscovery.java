@@ -25,13 +25,13 @@ import edu.toronto.cs.xcurator.common.RdfUriBuilder;
 import edu.toronto.cs.xcurator.common.XmlParser;
 import edu.toronto.cs.xcurator.common.XmlUriBuilder;
 import edu.toronto.cs.xcurator.mapping.ValueAttribute;
+import edu.toronto.cs.xcurator.mapping.ValueStatisticsFactory;
 import java.util.List;
 import javax.xml.XMLConstants;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 public class BasicEntityDiscovery implements MappingDiscoveryStep {
 
@@ -39,6 +39,8 @@ public class BasicEntityDiscovery implements MappingDiscoveryStep {
     private final RdfUriBuilder rdfUriBuilder;
     private final XmlUriBuilder xmlUriBuilder;
     private boolean discoverRootLevelEntity;
+    private boolean keepInstanceFingerprints;
+    private ValueStatisticsFactory valueStatisticsFactory = new ValueStatisticsFactory();
     static final Logger logger = Logger.getLogger(BasicEntityDiscovery.class);
 
     public BasicEntityDiscovery(XmlParser parser, RdfUriBuilder rdfUriBuilder,
@@ -55,11 +57,39 @@ public class BasicEntityDiscovery implements MappingDiscoveryStep {
         this.discoverRootLevelEntity = discoverRootLevelEntity;
     }
 
+    /**
+     * Keep a fingerprint of the content of every entity instance, so that the
+     * number of distinct instances is known. This hashes the subtree of every
+     * instance, so it is off by default.
+     *
+     * @param keepInstanceFingerprints
+     * @return
+     */
+    public BasicEntityDiscovery setKeepInstanceFingerprints(boolean keepInstanceFingerprints) {
+        this.keepInstanceFingerprints = keepInstanceFingerprints;
+        return this;
+    }
+
+    /**
+     * Set how the values of the discovered attributes are kept, exact values
+     * by default.
+     *
+     * @param valueStatisticsFactory
+     * @return
+     */
+    public BasicEntityDiscovery setValueStatisticsFactory(
+            ValueStatisticsFactory valueStatisticsFactory) {
+        this.valueStatisticsFactory = valueStatisticsFactory;
+        return this;
+    }
+
     @Override
     public void process(List<DataDocument> dataDocuments, Mapping mapping) {
         System.out.println("process BasicEntityDiscovery...");
 
-        logger.debug("datadoc#: " + dataDocuments.size());
+        if (logger.isDebugEnabled()) {
+            logger.debug("datadoc#: " + dataDocuments.size());
+        }
         for (DataDocument dataDoc : dataDocuments) {
 //            logger.debug("");
             // Create a root entity from the root element.
@@ -68,14 +98,23 @@ public class BasicEntityDiscovery implements MappingDiscoveryStep {
             String rdfTypeUri = rdfUriBuilder.getRdfTypeUri(root);
             String xmlTypeUri = xmlUriBuilder.getXmlTypeUri(root);
             String path = getElementPath(root, "", "/", rootNsContext);
-            Schema rootEntity = new Schema(rdfTypeUri, xmlTypeUri, rootNsContext);
+            Schema rootEntity = new Schema(rdfTypeUri, xmlTypeUri, new NsContext(rootNsContext));
+            if (keepInstanceFingerprints) {
+                rootEntity.keepInstanceFingerprints();
+            }
             rootEntity.addPath(path);
             rootEntity.addInstance(root);
 
             // If for some specific type of XML document, the root element to child node
-            // relation is significant, we should add the root level entity
+            // relation is significant, we should add the root level entity.
+            // If an earlier document already has it, this document's root entity
+            // is merged into it after its children are discovered.
+            Schema existingRootEntity = null;
             if (discoverRootLevelEntity) {
-                mapping.addEntity(rootEntity);
+                existingRootEntity = mapping.getEntity(xmlTypeUri);
+                if (existingRootEntity == null) {
+                    mapping.addEntity(rootEntity);
+                }
             }
 
             // Merge the current document namespace context to the mapping's.
@@ -86,36 +125,47 @@ public class BasicEntityDiscovery implements MappingDiscoveryStep {
             mapping.setBaseNamespaceContext(mappingNsContext);
 
             // Discover entities in this document
-            discoverEntitiesFromXmlElements(root, rootEntity, dataDoc, mapping);
+            discoverEntitiesFromXmlElements(root, rootEntity, rootNsContext, dataDoc, mapping);
+            if (existingRootEntity != null) {
+                existingRootEntity.merge(rootEntity, mapping);
+            }
         }
 
         // set the mapping as initialized when this step is completed.
         mapping.setInitialized();
     }
 
+    /**
+     * Discover the entities under the parent element. The namespace context is
+     * the one in scope at the parent element in this document, so that the
+     * paths discovered in a document do not depend on the other documents.
+     */
     private void discoverEntitiesFromXmlElements(Element parent, Schema schema,
-            DataDocument dataDoc, Mapping mapping) {
-
-        NodeList children = parent.getChildNodes();
-        final int childscount = children.getLength();
-        logger.debug("childcount#: " + childscount);
-
-        for (int i = 0; i < childscount; i++) {
-//            final Node child2 = children.item(i);
-//            logger.debug(">>  " + child2.getLocalName());
-            if (children.item(i) instanceof Element) {
-
-                Element child = (Element) children.item(i);
-
-                final String tempcont = child.getTextContent().trim();
-                logger.debug(">> " + child.getNodeName() + " || " + tempcont.subSequence(0, Math.min(20, tempcont.length())) + " <<");
+            NsContext parentNsContext, DataDocument dataDoc, Mapping mapping) {
+
+        // Walk the children as siblings, item(i) on a DOM node list is not
+        // constant time in every implementation.
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+
+                Element child = (Element) node;
+
+                // Check once whether the child is a leaf, and only take the
+                // text of leaves, as the text of an inner element is the
+                // text of its whole subtree.
+                boolean leaf = isLeaf(child);
+                String text = leaf ? child.getTextContent() : null;
+                if (logger.isDebugEnabled()) {
+                    String tempcont = leaf ? text.trim() : "";
+                    logger.debug(">> " + child.getNodeName() + " || "
+                            + tempcont.substring(0, Math.min(20, tempcont.length())) + " <<");
+                }
 
                 // If the child element has no attributes, then its an attribute of
                 // its parent
-                if (parser.isLeaf(child)
-                        && child.getAttributes().getLength() == 0) {
+                if (leaf && !child.hasAttributes()) {
                     logger.debug("Leaf!");
-                    discoverAttributeFromLeafElement(child, schema);
+                    discoverAttributeFromLeafElement(child, text, schema, parentNsContext);
                     continue;
                 }
 
@@ -124,22 +174,30 @@ public class BasicEntityDiscovery implements MappingDiscoveryStep {
 
                 // Create the RDF.type URI for this entity.
                 String rdfTypeUri = rdfUriBuilder.getRdfTypeUri(child);
-                logger.debug(xmlTypeUri + " " + rdfTypeUri);
+                if (logger.isDebugEnabled()) {
+                    logger.debug(xmlTypeUri + " " + rdfTypeUri);
+                }
                 Schema childSchema = mapping.getEntity(xmlTypeUri);
 
                 // Create a new namespace context by inheriting from the parent
                 // and discovering overriding definitions.
-                NsContext nsContext = new NsContext(schema.getNamespaceContext());
+                NsContext nsContext = new NsContext(parentNsContext);
                 nsContext.discover(child);
 
                 // Build the absolute path to this entity.
                 String path = getElementPath(child, schema.getPath(), "/", nsContext);
-                logger.debug("parentPath= " + schema.getPath());
-                logger.debug("NodeName=" + child.getNodeName());
-                logger.debug("path= " + path);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("parentPath= " + schema.getPath());
+                    logger.debug("NodeName=" + child.getNodeName());
+                    logger.debug("path= " + path);
+                }
                 if (childSchema == null) {
                     // If we have seen not seen this entity, create new.
-                    childSchema = new Schema(rdfTypeUri, xmlTypeUri, nsContext, child.getLocalName());
+                    childSchema = new Schema(rdfTypeUri, xmlTypeUri, new NsContext(nsContext),
+                            child.getLocalName());
+                    if (keepInstanceFingerprints) {
+                        childSchema.keepInstanceFingerprints();
+                    }
                     childSchema.addPath(path);
                     childSchema.addInstance(child);
                     mapping.addEntity(childSchema);
@@ -176,23 +234,25 @@ public class BasicEntityDiscovery implements MappingDiscoveryStep {
                 discoverAttributesFromXmlAttributes(child, childSchema);
 
                 // Discover the value from the XML text node
-                discoverValueFromTextContent(child, childSchema);
+                if (leaf) {
+                    discoverValueFromTextContent(child, text, childSchema);
+                }
 
                 // Recursively discover the related entities of this one
-                discoverEntitiesFromXmlElements(child, childSchema, dataDoc, mapping);
+                discoverEntitiesFromXmlElements(child, childSchema, nsContext, dataDoc, mapping);
             }
         }
     }
 
-    private void discoverAttributeFromLeafElement(Element element, Schema schema) {
+    private void discoverAttributeFromLeafElement(Element element, String textContent,
+            Schema schema, NsContext nsContext) {
         // Transform a leaf element with no XML attributes
         // into an attribute of the schema
         String rdfUri = rdfUriBuilder.getRdfPropertyUri(element);
         String xmlUri = xmlUriBuilder.getXmlTypeUri(element);
         // The path is ./child_node/text(), with . being the parent node
-        String path = getElementPath(element, ".", "/",
-                schema.getNamespaceContext()) + "/text()";
-        addAttributeToSchema(schema, rdfUri, xmlUri, path, element.getTextContent());
+        String path = getElementPath(element, ".", "/", nsContext) + "/text()";
+        addAttributeToSchema(schema, rdfUri, xmlUri, path, textContent);
     }
 
     private void discoverAttributesFromXmlAttributes(Element element, Schema entity) {
@@ -208,46 +268,71 @@ public class BasicEntityDiscovery implements MappingDiscoveryStep {
         }
     }
 
-    private void discoverValueFromTextContent(Element element, Schema entity) {
-        if (!parser.isLeaf(element)) {
-            return;
-        }
-        String textContent = element.getTextContent().trim();
-        if (!textContent.equals("")) {
+    private void discoverValueFromTextContent(Element element, String textContent,
+            Schema entity) {
+        if (!textContent.trim().isEmpty()) {
             String rdfUri = rdfUriBuilder.getRdfPropertyUriForValue(element);
             Attribute attr = new ValueAttribute(entity, rdfUri);
             attr.addPath("text()");
+            attr.checkDatatype(textContent.trim());
             entity.addAttribute(attr);
         }
     }
 
+    /**
+     * Check if the element has no child elements, in one scan of its
+     * children.
+     */
+    private static boolean isLeaf(Element element) {
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void addAttributeToSchema(Schema schema, String rdfUri, String xmlUri,
             String path, String instanceValue) {
-        Attribute attr = new Attribute(schema, rdfUri, xmlUri);
+        // Reuse the attribute if the entity has it, so only one value
+        // statistics object is created per attribute.
+        Attribute attr = schema.getAttributeByXmlType(xmlUri);
+        if (attr == null) {
+            attr = new Attribute(schema, rdfUri, xmlUri, valueStatisticsFactory.create());
+            schema.addAttribute(attr);
+        }
         attr.addPath(path);
         attr.addInstance(instanceValue);
-        schema.addAttribute(attr);
     }
 
     private String getElementPath(Node node, String parentPath, String separator,
             NsContext nsContext) {
-        String prefix = node.getPrefix();
+        return getElementPath(node.getPrefix(), node.getLocalName(), parentPath,
+                separator, nsContext);
+    }
+
+    static String getElementPath(String prefix, String localName, String parentPath,
+            String separator, NsContext nsContext) {
         if (prefix != null) {
             // When there is a namespace used, juse use the full node name
-            return parentPath + separator + node.getNodeName();
+            return parentPath + separator + prefix + ":" + localName;
         } else if (nsContext.getNamespaceURI(XMLConstants.DEFAULT_NS_PREFIX)
                 .equals(XMLConstants.NULL_NS_URI)) {
             // When there is no default namespace defined, just use the local name
-            return parentPath + separator + node.getLocalName();
+            return parentPath + separator + localName;
         } else {
             // When there is a default namespace defined for this node,
             // have it empty before : in the path.
-            return parentPath + separator + ":" + node.getLocalName();
+            return parentPath + separator + ":" + localName;
         }
     }
 
     private String getAttrPath(Node node, String parentPath, String separator) {
-        String prefix = node.getPrefix();
-        return parentPath + separator + (prefix != null ? prefix + ":" : "") + node.getLocalName();
+        return getAttrPath(node.getPrefix(), node.getLocalName(), parentPath, separator);
+    }
+
+    static String getAttrPath(String prefix, String localName, String parentPath,
+            String separator) {
+        return parentPath + separator + (prefix != null ? prefix + ":" : "") + localName;
     }
 }
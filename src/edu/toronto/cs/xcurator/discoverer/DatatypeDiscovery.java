@@ -0,0 +1,48 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.LiteralDatatype;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Give each attribute the most specific datatype all its values match, so
+ * its literals are generated typed. The values are checked while the
+ * attributes are discovered, so this step does not read the documents.
+ */
+public class DatatypeDiscovery implements MappingDiscoveryStep {
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        System.out.println("process DatatypeDiscovery...");
+        Iterator<Schema> it = mapping.getEntityIterator();
+        while (it.hasNext()) {
+            Iterator<Attribute> attrIt = it.next().getAttributeIterator();
+            while (attrIt.hasNext()) {
+                Attribute attr = attrIt.next();
+                LiteralDatatype datatype = attr.inferDatatype();
+                if (datatype != null) {
+                    attr.setDatatype(datatype);
+                }
+            }
+        }
+    }
+}
@@ -113,6 +113,10 @@ public class HashBasedEntityInterlinking implements MappingDiscoveryStep {
             Iterator<Attribute> attrIt = entity.getAttributeIterator();
             while (attrIt.hasNext()) {
                 Attribute attr = attrIt.next();
+                // Only attributes whose values are kept can be linked
+                if (!attr.getValueStatistics().isExact()) {
+                    continue;
+                }
                 Set<String> attrValues = attr.getInstances();
 //                System.out.println(attr.getId() + " >> " + attrValues);
                 for (String val : attrValues) {
@@ -19,6 +19,7 @@ import edu.toronto.cs.xcurator.common.DataDocument;
 import edu.toronto.cs.xcurator.mapping.Attribute;
 import edu.toronto.cs.xcurator.mapping.Schema;
 import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.ValueStatistics;
 import java.util.Iterator;
 import java.util.List;
 
@@ -28,6 +29,10 @@ import java.util.List;
  */
 public class KeyAttributeDiscovery implements MappingDiscoveryStep {
 
+    // The number of standard errors around an estimated distinct count that
+    // are accepted as equal to the instance count, about 95% confidence.
+    private static final double CONFIDENCE_STANDARD_ERRORS = 2.0;
+
     @Override
     public void process(List<DataDocument> dataDocuments, Mapping mapping) {
         System.out.println("process KeyAttributeDiscovery...");
@@ -47,8 +52,14 @@ public class KeyAttributeDiscovery implements MappingDiscoveryStep {
                 // This is a hack, the key identification algorithm needs to be 
                 // improved.
                 System.out.println(attr);
-                System.out.println(attr.getInstances().size() + " <> " + instanceCount);
-                if (attr.getInstances().size() == instanceCount
+                ValueStatistics values = attr.getValueStatistics();
+                long distinctCount = values.getDistinctCount();
+                // When the distinct count is estimated, accept the instance
+                // count anywhere within the error bounds of the estimate.
+                long errorBound = Math.round(CONFIDENCE_STANDARD_ERRORS
+                        * values.getRelativeError() * distinctCount);
+                System.out.println(distinctCount + " +/- " + errorBound + " <> " + instanceCount);
+                if (Math.abs(distinctCount - instanceCount) <= errorBound
 //                        &&
 //                        attr.getId().endsWith(".id")
                         ) {
@@ -29,7 +29,8 @@ public interface MappingDiscoveryStep {
         BASIC('B'),
         INTERLIKNING('I'),
         KEYATTRIBUTE('K'),
-        REMOVE_GROUPING_NODES('G');
+        REMOVE_GROUPING_NODES('G'),
+        DATATYPE('T');
 
         private final char id;
 
@@ -0,0 +1,134 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.common.XmlUriBuilder;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.ValueStatisticsFactory;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs {@link BasicEntityDiscovery} on consecutive shards of the documents in
+ * parallel, each shard into its own partial mapping, and merges the partial
+ * mappings into the result in document order. The result is equivalent to
+ * running {@link BasicEntityDiscovery} on all the documents at once.
+ */
+public class PartitionedEntityDiscovery implements MappingDiscoveryStep {
+
+    private final XmlParser parser;
+    private final RdfUriBuilder rdfUriBuilder;
+    private final XmlUriBuilder xmlUriBuilder;
+    private final boolean discoverRootLevelEntity;
+    private final int threads;
+    private boolean keepInstanceFingerprints;
+    private ValueStatisticsFactory valueStatisticsFactory = new ValueStatisticsFactory();
+
+    public PartitionedEntityDiscovery(XmlParser parser, RdfUriBuilder rdfUriBuilder,
+            XmlUriBuilder xmlUriBuilder, boolean discoverRootLevelEntity, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.parser = parser;
+        this.rdfUriBuilder = rdfUriBuilder;
+        this.xmlUriBuilder = xmlUriBuilder;
+        this.discoverRootLevelEntity = discoverRootLevelEntity;
+        this.threads = threads;
+    }
+
+    /**
+     * @see BasicEntityDiscovery#setKeepInstanceFingerprints(boolean)
+     */
+    public PartitionedEntityDiscovery setKeepInstanceFingerprints(boolean keepInstanceFingerprints) {
+        this.keepInstanceFingerprints = keepInstanceFingerprints;
+        return this;
+    }
+
+    /**
+     * @see BasicEntityDiscovery#setValueStatisticsFactory(ValueStatisticsFactory)
+     */
+    public PartitionedEntityDiscovery setValueStatisticsFactory(
+            ValueStatisticsFactory valueStatisticsFactory) {
+        this.valueStatisticsFactory = valueStatisticsFactory;
+        return this;
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        System.out.println("process PartitionedEntityDiscovery...");
+
+        // The base namespace context is built from the root elements in
+        // document order, as renaming conflicting prefixes is order dependent.
+        NsContext baseNsContext = new NsContext(mapping.getBaseNamespaceContext());
+        for (DataDocument dataDoc : dataDocuments) {
+            baseNsContext.merge(new NsContext(dataDoc.Data.getDocumentElement()), false);
+        }
+
+        // Use a few more shards than threads, so one slow shard does not
+        // hold up the others.
+        int shardCount = Math.min(dataDocuments.size(), threads * 4);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(threads, shardCount)));
+        try {
+            List<Future<Mapping>> partials = new ArrayList<>();
+            for (int i = 0; i < shardCount; i++) {
+                final List<DataDocument> shard = dataDocuments.subList(
+                        (int) ((long) dataDocuments.size() * i / shardCount),
+                        (int) ((long) dataDocuments.size() * (i + 1) / shardCount));
+                partials.add(executor.submit(new Callable<Mapping>() {
+                    @Override
+                    public Mapping call() {
+                        Mapping partial = new XmlBasedMapping();
+                        new BasicEntityDiscovery(parser, rdfUriBuilder, xmlUriBuilder,
+                                discoverRootLevelEntity)
+                                .setKeepInstanceFingerprints(keepInstanceFingerprints)
+                                .setValueStatisticsFactory(valueStatisticsFactory)
+                                .process(shard, partial);
+                        return partial;
+                    }
+                }));
+            }
+            // Merge the partial mappings in document order while the later
+            // shards are still being discovered.
+            for (Future<Mapping> partial : partials) {
+                mapping.merge(partial.get());
+            }
+        } catch (InterruptedException ex) {
+            // Do not initialize a mapping that is missing shards
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The entity discovery was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Error in discovering the entities of a shard",
+                    ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        mapping.setBaseNamespaceContext(baseNsContext);
+
+        // set the mapping as initialized when this step is completed.
+        mapping.setInitialized();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.mapping.BinaryMappingFormat;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the mapping in the binary form of {@link BinaryMappingFormat}, the
+ * counterpart of {@link SerializeMapping}.
+ */
+public class SerializeBinaryMapping implements MappingDiscoveryStep {
+
+    private final OutputStream output;
+
+    public SerializeBinaryMapping(OutputStream output) {
+        this.output = output;
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        if (!(mapping instanceof XmlBasedMapping) || !mapping.isInitialized()) {
+            return;
+        }
+        try {
+            BinaryMappingFormat.write((XmlBasedMapping) mapping, output);
+        } catch (IOException ex) {
+            Logger.getLogger(SerializeBinaryMapping.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
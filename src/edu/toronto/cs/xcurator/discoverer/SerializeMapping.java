@@ -121,6 +121,13 @@ public class SerializeMapping implements MappingDiscoveryStep {
             attrElement.setAttribute(XmlBasedMapping.pathAttrName, attribute.getPath());
             builder.addUriBasedAttrToElement(XmlBasedMapping.nameAttrName,
                     attribute.getRdfUri(), rdfNsContext, attrElement);
+            // The attributes of an entity are told apart by their XML types
+            builder.addUriBasedAttrToElement(XmlBasedMapping.xmlTypeAttrName,
+                    attribute.getXmlTypeUri(), nsContext, attrElement);
+            if (attribute.getDatatype() != null) {
+                attrElement.setAttribute(XmlBasedMapping.datatypeAttrName,
+                        attribute.getDatatype().getUri());
+            }
             entityElement.appendChild(attrElement);
         }
 
@@ -0,0 +1,417 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.utils.BloomFilter;
+import edu.toronto.cs.xcurator.utils.HashUtils;
+import edu.toronto.cs.xcurator.utils.MinHashSignature;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Links entities by the values their attributes share with the key
+ * attributes of other entities: a non-key attribute with enough of its values
+ * among the values of a key attribute becomes a relation to that entity. By
+ * default one shared value is enough, as in
+ * {@link HashBasedEntityInterlinking}: the values of the key attributes are
+ * indexed once and the values of the other attributes are looked up in the
+ * index. With a minimum containment the attributes are only linked by
+ * (partial) inclusion dependencies; each attribute is then summarized by a
+ * MinHash signature and each key attribute by a Bloom filter. Attribute pairs
+ * are filtered by their distinct counts, then by their signatures, and only
+ * the remaining candidates are verified, probing the Bloom filter before the
+ * exact values. The attributes are processed in parallel.
+ */
+public class SignatureBasedEntityInterlinking implements MappingDiscoveryStep {
+
+    // Any shared value links the attributes
+    public static final double DEFAULT_MIN_CONTAINMENT = 0;
+    public static final int DEFAULT_SIGNATURE_SIZE = 256;
+    public static final int DEFAULT_BLOOM_BITS_PER_VALUE = 10;
+
+    // A candidate is only rejected by its signature when the number of
+    // matching bins is this many standard deviations below the number
+    // expected if the inclusion dependency held.
+    private static final double SIGNATURE_REJECT_STANDARD_DEVIATIONS = 4.0;
+
+    private final RdfUriBuilder rdfUriBuilder;
+    private final int threads;
+    private double minContainment = DEFAULT_MIN_CONTAINMENT;
+    private int signatureSize = DEFAULT_SIGNATURE_SIZE;
+    private int bloomBitsPerValue = DEFAULT_BLOOM_BITS_PER_VALUE;
+
+    public SignatureBasedEntityInterlinking(RdfUriBuilder rdfUriBuilder, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.rdfUriBuilder = rdfUriBuilder;
+        this.threads = threads;
+    }
+
+    /**
+     * Set the fraction of the distinct values of a non-key attribute that
+     * must be values of a key attribute to link them, 1 for an inclusion
+     * dependency. At least one value must be shared in any case, and with 0
+     * the attributes are linked by an index of the key values instead of
+     * their summaries.
+     *
+     * @param minContainment between 0 and 1, 0 by default
+     * @return
+     */
+    public SignatureBasedEntityInterlinking setMinContainment(double minContainment) {
+        if (minContainment < 0 || minContainment > 1) {
+            throw new IllegalArgumentException("The minimum containment must be in [0, 1].");
+        }
+        this.minContainment = minContainment;
+        return this;
+    }
+
+    public SignatureBasedEntityInterlinking setSignatureSize(int signatureSize) {
+        this.signatureSize = signatureSize;
+        return this;
+    }
+
+    public SignatureBasedEntityInterlinking setBloomBitsPerValue(int bloomBitsPerValue) {
+        this.bloomBitsPerValue = bloomBitsPerValue;
+        return this;
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        System.out.println("process SignatureBasedEntityInterlinking...");
+
+        // Only attributes whose values are kept can be linked
+        List<Attribute> keyAttrs = new ArrayList<>();
+        List<Attribute> otherAttrs = new ArrayList<>();
+        Iterator<Schema> it = mapping.getEntityIterator();
+        while (it.hasNext()) {
+            Iterator<Attribute> attrIt = it.next().getAttributeIterator();
+            while (attrIt.hasNext()) {
+                Attribute attr = attrIt.next();
+                if (!attr.getValueStatistics().isExact() || attr.getInstances().isEmpty()) {
+                    continue;
+                }
+                if (attr.isKey()) {
+                    keyAttrs.add(attr);
+                } else {
+                    otherAttrs.add(attr);
+                }
+            }
+        }
+        if (keyAttrs.isEmpty() || otherAttrs.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Attribute[]> pairs = minContainment == 0
+                    ? findSharedValuePairs(executor, keyAttrs, otherAttrs)
+                    : findContainedPairs(executor, keyAttrs, otherAttrs);
+
+            // Create the relations in attribute order, so the result does
+            // not depend on which verification finished first
+            Map<Schema, Set<String>> linkedPaths = new IdentityHashMap<>();
+            List<Schema> subjects = new ArrayList<>();
+            for (Attribute[] pair : pairs) {
+                Attribute attr = pair[0];
+                Attribute keyAttr = pair[1];
+                System.out.println(attr.getId() + " references " + keyAttr.getId());
+                addRelation(attr, keyAttr);
+                Set<String> paths = linkedPaths.get(attr.getSchema());
+                if (paths == null) {
+                    paths = new HashSet<>();
+                    linkedPaths.put(attr.getSchema(), paths);
+                    subjects.add(attr.getSchema());
+                }
+                paths.add(attr.getPath());
+            }
+
+            // Remove the attributes replaced by the relations
+            for (Schema subject : subjects) {
+                Set<String> paths = linkedPaths.get(subject);
+                Iterator<Attribute> attrIt = subject.getAttributeIterator();
+                while (attrIt.hasNext()) {
+                    if (paths.contains(attrIt.next().getPath())) {
+                        attrIt.remove();
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The interlinking was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Error in interlinking the entities", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Find the pairs of a non-key and a key attribute that share a value, in
+     * attribute order. The values of the key attributes are indexed once, and
+     * each value of the other attributes is looked up in the index.
+     */
+    private List<Attribute[]> findSharedValuePairs(ExecutorService executor,
+            List<Attribute> keyAttrs, List<Attribute> otherAttrs)
+            throws InterruptedException, ExecutionException {
+        Map<String, List<Integer>> keyIndex = new HashMap<>();
+        for (int k = 0; k < keyAttrs.size(); k++) {
+            for (String value : keyAttrs.get(k).getInstances()) {
+                List<Integer> keys = keyIndex.get(value);
+                if (keys == null) {
+                    keys = new ArrayList<>(1);
+                    keyIndex.put(value, keys);
+                }
+                keys.add(k);
+            }
+        }
+
+        List<Future<boolean[]>> probes = new ArrayList<>();
+        for (Attribute attr : otherAttrs) {
+            probes.add(executor.submit(new Probe(attr, keyIndex, keyAttrs.size())));
+        }
+        List<Attribute[]> pairs = new ArrayList<>();
+        for (int i = 0; i < otherAttrs.size(); i++) {
+            boolean[] shared = probes.get(i).get();
+            for (int k = 0; k < shared.length; k++) {
+                if (shared[k]) {
+                    pairs.add(new Attribute[]{otherAttrs.get(i), keyAttrs.get(k)});
+                }
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Find the pairs of a non-key and a key attribute with the minimum
+     * containment, in attribute order. The pairs are filtered by their
+     * summaries before they are verified.
+     */
+    private List<Attribute[]> findContainedPairs(ExecutorService executor,
+            List<Attribute> keyAttrs, List<Attribute> otherAttrs)
+            throws InterruptedException, ExecutionException {
+        // Summarize the attributes
+        Map<Attribute, Future<AttributeSummary>> summaryFutures = new IdentityHashMap<>();
+        for (Attribute attr : keyAttrs) {
+            summaryFutures.put(attr, executor.submit(new Summarize(attr, true)));
+        }
+        for (Attribute attr : otherAttrs) {
+            summaryFutures.put(attr, executor.submit(new Summarize(attr, false)));
+        }
+        Map<Attribute, AttributeSummary> summaries = new IdentityHashMap<>();
+        for (Map.Entry<Attribute, Future<AttributeSummary>> entry : summaryFutures.entrySet()) {
+            summaries.put(entry.getKey(), entry.getValue().get());
+        }
+
+        // Verify the candidate pairs that pass the cheap filters
+        List<Attribute[]> candidates = new ArrayList<>();
+        List<Future<Boolean>> verified = new ArrayList<>();
+        for (Attribute attr : otherAttrs) {
+            AttributeSummary summary = summaries.get(attr);
+            for (Attribute keyAttr : keyAttrs) {
+                AttributeSummary keySummary = summaries.get(keyAttr);
+                if (isCandidate(summary, keySummary)) {
+                    candidates.add(new Attribute[]{attr, keyAttr});
+                    verified.add(executor.submit(new Verify(summary, keySummary)));
+                }
+            }
+        }
+        List<Attribute[]> pairs = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (verified.get(i).get()) {
+                pairs.add(candidates.get(i));
+            }
+        }
+        return pairs;
+    }
+
+    private boolean isCandidate(AttributeSummary summary, AttributeSummary keySummary) {
+        // The key attribute must have enough distinct values to contain
+        // the required fraction of the values
+        long required = requiredValues(summary.distinctCount);
+        if (keySummary.distinctCount < required) {
+            return false;
+        }
+
+        // If the inclusion dependency held, the Jaccard similarity would be
+        // at least this, and each occupied bin would match with at least
+        // this probability. Reject only if far fewer bins match, which also
+        // keeps the candidates whose expected matches are too few to tell.
+        double minJaccard = (double) required
+                / (keySummary.distinctCount + summary.distinctCount - required);
+        int occupied = summary.signature.occupiedBins(keySummary.signature);
+        double expected = occupied * minJaccard;
+        double deviation = Math.sqrt(occupied * minJaccard * (1 - minJaccard));
+        int matching = summary.signature.matchingBins(keySummary.signature);
+        return matching >= expected - SIGNATURE_REJECT_STANDARD_DEVIATIONS * deviation;
+    }
+
+    /**
+     * Get how many of the distinct values of an attribute must be values of
+     * a key attribute to link them.
+     */
+    private long requiredValues(long distinctCount) {
+        return Math.max(1, (long) Math.ceil(minContainment * distinctCount));
+    }
+
+    private void addRelation(Attribute attr, Attribute keyAttr) {
+        Schema subject = attr.getSchema();
+        Schema object = keyAttr.getSchema();
+        String rdfUri = rdfUriBuilder.getRdfRelationUriFromEntities(subject, object);
+        Relation relation = new Relation(subject, object, rdfUri);
+
+        // Use the absolute path of the object entity as the relation path
+        relation.addPath(object.getPath());
+
+        // Create reference for this relation
+        relation.addReference(new Reference(attr.getPath(), keyAttr.getPath()));
+        subject.addRelation(relation);
+    }
+
+    private class AttributeSummary {
+
+        final Attribute attr;
+        final long distinctCount;
+        final MinHashSignature signature;
+        // Only built for key attributes
+        final BloomFilter bloomFilter;
+
+        AttributeSummary(Attribute attr, boolean isKey) {
+            this.attr = attr;
+            Set<String> values = attr.getInstances();
+            this.distinctCount = values.size();
+            this.signature = new MinHashSignature(signatureSize);
+            this.bloomFilter = isKey ? new BloomFilter(distinctCount, bloomBitsPerValue) : null;
+            for (String value : values) {
+                long hash = hash(value);
+                signature.add(hash);
+                if (bloomFilter != null) {
+                    bloomFilter.add(hash);
+                }
+            }
+        }
+    }
+
+    private static long hash(String value) {
+        return HashUtils.mix64(HashUtils.fnv1a64(value));
+    }
+
+    private class Summarize implements Callable<AttributeSummary> {
+
+        private final Attribute attr;
+        private final boolean isKey;
+
+        Summarize(Attribute attr, boolean isKey) {
+            this.attr = attr;
+            this.isKey = isKey;
+        }
+
+        @Override
+        public AttributeSummary call() {
+            return new AttributeSummary(attr, isKey);
+        }
+    }
+
+    private class Verify implements Callable<Boolean> {
+
+        private final AttributeSummary summary;
+        private final AttributeSummary keySummary;
+
+        Verify(AttributeSummary summary, AttributeSummary keySummary) {
+            this.summary = summary;
+            this.keySummary = keySummary;
+        }
+
+        @Override
+        public Boolean call() {
+            Set<String> values = summary.attr.getInstances();
+            Set<String> keyValues = keySummary.attr.getInstances();
+            long required = requiredValues(values.size());
+            long allowedMisses = values.size() - required;
+
+            // Stop as soon as enough values are found or too many are
+            // missing. The Bloom filter has no false negatives, so only the
+            // values it might contain are looked up exactly.
+            long hits = 0;
+            long misses = 0;
+            for (String value : values) {
+                if (keySummary.bloomFilter.mightContain(hash(value))
+                        && keyValues.contains(value)) {
+                    if (++hits >= required) {
+                        return true;
+                    }
+                } else if (++misses > allowedMisses) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Probe implements Callable<boolean[]> {
+
+        private final Attribute attr;
+        private final Map<String, List<Integer>> keyIndex;
+        private final int keyCount;
+
+        Probe(Attribute attr, Map<String, List<Integer>> keyIndex, int keyCount) {
+            this.attr = attr;
+            this.keyIndex = keyIndex;
+            this.keyCount = keyCount;
+        }
+
+        @Override
+        public boolean[] call() {
+            // Which key attributes share a value with the attribute
+            boolean[] shared = new boolean[keyCount];
+            int found = 0;
+            for (String value : attr.getInstances()) {
+                List<Integer> keys = keyIndex.get(value);
+                if (keys == null) {
+                    continue;
+                }
+                for (int k : keys) {
+                    if (!shared[k]) {
+                        shared[k] = true;
+                        found++;
+                    }
+                }
+                if (found == keyCount) {
+                    break;
+                }
+            }
+            return shared;
+        }
+    }
+}
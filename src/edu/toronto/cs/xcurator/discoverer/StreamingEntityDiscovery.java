@@ -0,0 +1,344 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.common.XmlUriBuilder;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.ValueAttribute;
+import edu.toronto.cs.xcurator.mapping.ValueStatisticsFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Discovers the same entities, attributes and relations as
+ * {@link BasicEntityDiscovery}, but in a single forward pass over a StAX
+ * stream. Only the chain of currently open elements is kept in memory, so the
+ * memory used is bounded by the nesting depth instead of the document size.
+ *
+ * The DOM documents passed to {@link #process} are ignored; the documents are
+ * read from the sources added to this step.
+ */
+public class StreamingEntityDiscovery implements MappingDiscoveryStep {
+
+    private final RdfUriBuilder rdfUriBuilder;
+    private final XmlUriBuilder xmlUriBuilder;
+    private final boolean discoverRootLevelEntity;
+    private final XMLInputFactory inputFactory;
+    private final List<DocumentSource> sources;
+    private ValueStatisticsFactory valueStatisticsFactory = new ValueStatisticsFactory();
+
+    public StreamingEntityDiscovery(RdfUriBuilder rdfUriBuilder,
+            XmlUriBuilder xmlUriBuilder, boolean discoverRootLevelEntity) {
+        this.rdfUriBuilder = rdfUriBuilder;
+        this.xmlUriBuilder = xmlUriBuilder;
+        this.discoverRootLevelEntity = discoverRootLevelEntity;
+        this.sources = new ArrayList<>();
+        this.inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+    }
+
+    public StreamingEntityDiscovery addSource(DocumentSource source) {
+        sources.add(source);
+        return this;
+    }
+
+    /**
+     * Set how the values of the discovered attributes are kept, exact values
+     * by default.
+     *
+     * @param valueStatisticsFactory
+     * @return
+     */
+    public StreamingEntityDiscovery setValueStatisticsFactory(
+            ValueStatisticsFactory valueStatisticsFactory) {
+        this.valueStatisticsFactory = valueStatisticsFactory;
+        return this;
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        System.out.println("process StreamingEntityDiscovery...");
+        for (DocumentSource source : sources) {
+            try (InputStream is = source.openStream()) {
+                discover(is, mapping);
+            } catch (IOException | XMLStreamException ex) {
+                // Do not initialize a mapping with the partial entities of
+                // a document
+                throw new IllegalStateException(
+                        "Error in discovering entities from " + source.getName(), ex);
+            }
+        }
+
+        // set the mapping as initialized when this step is completed.
+        mapping.setInitialized();
+    }
+
+    /**
+     * Discover the entities of one XML document and add them to the mapping.
+     *
+     * @param is
+     * @param mapping
+     * @throws XMLStreamException
+     */
+    public void discover(InputStream is, Mapping mapping) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+        try {
+            Frame current = null;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (current == null) {
+                            current = startRoot(reader, mapping);
+                        } else {
+                            current = startChild(reader, current, mapping);
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (current != null && current.text != null) {
+                            current.text.append(reader.getTextCharacters(),
+                                    reader.getTextStart(), reader.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement(current, mapping);
+                        current = current.parent;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private Frame startRoot(XMLStreamReader reader, Mapping mapping) {
+        // Create a root entity from the root element.
+        Frame root = new Frame(null, reader);
+        NsContext rootNsContext = new NsContext();
+        rootNsContext.discover(reader, true);
+        String rdfTypeUri = rdfUriBuilder.getRdfTypeUri(root.localName);
+        String xmlTypeUri = xmlUriBuilder.getXmlTypeUri(root.namespaceUri, root.localName);
+        String path = BasicEntityDiscovery.getElementPath(root.prefix, root.localName,
+                "", "/", rootNsContext);
+        Schema rootEntity = new Schema(rdfTypeUri, xmlTypeUri, new NsContext(rootNsContext));
+        rootEntity.addPath(path);
+        rootEntity.addInstance();
+        root.schema = rootEntity;
+        root.nsContext = rootNsContext;
+
+        // If for some specific type of XML document, the root element to child node
+        // relation is significant, we should add the root level entity.
+        // If an earlier document already has it, this document's root entity
+        // is merged into it at the end of the document.
+        if (discoverRootLevelEntity) {
+            root.existingRootEntity = mapping.getEntity(xmlTypeUri);
+            if (root.existingRootEntity == null) {
+                mapping.addEntity(rootEntity);
+            }
+        }
+
+        // Merge the current document namespace context to the mapping's.
+        NsContext mappingNsContext = mapping.getBaseNamespaceContext();
+        mappingNsContext.merge(rootNsContext, false);
+        mapping.setBaseNamespaceContext(mappingNsContext);
+        return root;
+    }
+
+    private Frame startChild(XMLStreamReader reader, Frame parent, Mapping mapping) {
+        // The parent has a child element, so it cannot be a leaf: it must be
+        // an entity, and its text content is no longer needed.
+        if (parent.schema == null) {
+            discoverEntity(parent, null, mapping);
+        }
+        parent.hasChildElement = true;
+        parent.text = null;
+
+        Frame child = new Frame(parent, reader);
+        // An element with XML attributes (including namespace definitions)
+        // is always an entity. Without them, we only know whether it is a leaf
+        // when we see its first child or its end tag.
+        if (reader.getAttributeCount() > 0 || reader.getNamespaceCount() > 0) {
+            discoverEntity(child, reader, mapping);
+        }
+        return child;
+    }
+
+    private void endElement(Frame frame, Mapping mapping) {
+        if (frame.parent == null) {
+            if (frame.existingRootEntity != null) {
+                frame.existingRootEntity.merge(frame.schema, mapping);
+            }
+            return;
+        }
+        if (frame.schema == null) {
+            // A leaf element with no XML attributes is an attribute of its parent
+            discoverAttributeFromLeafElement(frame);
+        } else if (!frame.hasChildElement) {
+            // Discover the value from the XML text node
+            String textContent = frame.text.toString().trim();
+            if (!textContent.equals("")) {
+                String rdfUri = rdfUriBuilder.getRdfPropertyUriForValue();
+                Attribute attr = new ValueAttribute(frame.schema, rdfUri);
+                attr.addPath("text()");
+                attr.checkDatatype(textContent);
+                frame.schema.addAttribute(attr);
+            }
+        }
+    }
+
+    /**
+     * Turn the element of the frame into an entity. The reader must be
+     * positioned at the start tag of the element when it has XML attributes,
+     * otherwise it can be null.
+     */
+    private void discoverEntity(Frame frame, XMLStreamReader reader, Mapping mapping) {
+        Schema schema = frame.parent.schema;
+
+        String xmlTypeUri = xmlUriBuilder.getXmlTypeUri(frame.namespaceUri, frame.localName);
+        String rdfTypeUri = rdfUriBuilder.getRdfTypeUri(frame.localName);
+        Schema childSchema = mapping.getEntity(xmlTypeUri);
+
+        // Create a new namespace context by inheriting from the parent
+        // and discovering overriding definitions.
+        NsContext nsContext = new NsContext(frame.parent.nsContext);
+        if (reader != null) {
+            nsContext.discover(reader, true);
+        }
+
+        // Build the absolute path to this entity.
+        String path = BasicEntityDiscovery.getElementPath(frame.prefix, frame.localName,
+                schema.getPath(), "/", nsContext);
+        if (childSchema == null) {
+            childSchema = new Schema(rdfTypeUri, xmlTypeUri, new NsContext(nsContext),
+                    frame.localName);
+            childSchema.addPath(path);
+            childSchema.addInstance();
+            mapping.addEntity(childSchema);
+        } else {
+            childSchema.addPath(path);
+            childSchema.addInstance();
+            childSchema.mergeNamespaceContext(nsContext, true);
+        }
+        frame.schema = childSchema;
+        frame.nsContext = nsContext;
+
+        // Create a relation about the parent and this entity
+        // Use relative path for direct-descendent relation
+        String relationPath = BasicEntityDiscovery.getElementPath(frame.prefix,
+                frame.localName, ".", "/", nsContext);
+        String relationUri = rdfUriBuilder.getRdfRelationUriFromNames(
+                frame.parent.localName, frame.localName);
+        Relation relation = new Relation(schema, childSchema, relationUri);
+        relation.addPath(relationPath);
+        schema.addRelation(relation);
+
+        // Discover the attributes of this entity from the XML attributes
+        if (reader != null) {
+            discoverAttributesFromXmlAttributes(reader, childSchema);
+        }
+    }
+
+    private void discoverAttributeFromLeafElement(Frame frame) {
+        Schema schema = frame.parent.schema;
+        String rdfUri = rdfUriBuilder.getRdfPropertyUri(frame.localName);
+        String xmlUri = xmlUriBuilder.getXmlTypeUri(frame.namespaceUri, frame.localName);
+        // The path is ./child_node/text(), with . being the parent node
+        String path = BasicEntityDiscovery.getElementPath(frame.prefix, frame.localName,
+                ".", "/", frame.parent.nsContext) + "/text()";
+        addAttributeToSchema(schema, rdfUri, xmlUri, path, frame.text.toString());
+    }
+
+    private void discoverAttributesFromXmlAttributes(XMLStreamReader reader, Schema entity) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String localName = reader.getAttributeLocalName(i);
+            String rdfUri = rdfUriBuilder.getRdfPropertyUri(localName);
+            String xmlUri = xmlUriBuilder.getXmlTypeUri(
+                    emptyToNull(reader.getAttributeNamespace(i)), localName);
+            // Use relative path for attribute
+            String path = BasicEntityDiscovery.getAttrPath(
+                    emptyToNull(reader.getAttributePrefix(i)), localName, "", "@");
+            addAttributeToSchema(entity, rdfUri, xmlUri, path, reader.getAttributeValue(i));
+        }
+    }
+
+    private void addAttributeToSchema(Schema schema, String rdfUri, String xmlUri,
+            String path, String instanceValue) {
+        // Reuse the attribute if the entity has it, so only one value
+        // statistics object is created per attribute.
+        Attribute attr = schema.getAttributeByXmlType(xmlUri);
+        if (attr == null) {
+            attr = new Attribute(schema, rdfUri, xmlUri, valueStatisticsFactory.create());
+            schema.addAttribute(attr);
+        }
+        attr.addPath(path);
+        attr.addInstance(instanceValue);
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    /**
+     * The state of an open element.
+     */
+    private static class Frame {
+
+        final Frame parent;
+        final String namespaceUri;
+        final String localName;
+        final String prefix;
+
+        // The entity of this element, null until we know it is not a leaf
+        Schema schema;
+
+        // The namespace context in scope at this element, set with the entity
+        NsContext nsContext;
+
+        // The entity of the same type found in an earlier document, only
+        // used for the root element
+        Schema existingRootEntity;
+
+        boolean hasChildElement;
+
+        // The text content, only kept until the first child element is seen
+        StringBuilder text;
+
+        Frame(Frame parent, XMLStreamReader reader) {
+            this.parent = parent;
+            this.namespaceUri = emptyToNull(reader.getNamespaceURI());
+            this.localName = reader.getLocalName();
+            this.prefix = emptyToNull(reader.getPrefix());
+            this.text = new StringBuilder();
+        }
+    }
+}
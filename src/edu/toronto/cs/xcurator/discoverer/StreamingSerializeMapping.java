@@ -0,0 +1,220 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.RdfUriConfig;
+import edu.toronto.cs.xcurator.common.XmlDocumentBuilder;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the same mapping file as {@link SerializeMapping}, with the same
+ * elements, attributes, namespace declarations and indentation, through an
+ * XMLStreamWriter instead of building a DOM of the whole mapping. Only the
+ * lexical details that are up to the StAX implementation, like the quotes
+ * of the XML declaration, may differ.
+ */
+public class StreamingSerializeMapping implements MappingDiscoveryStep {
+
+    private static final String INDENT = "  ";
+
+    private final OutputStream output;
+    private final XmlDocumentBuilder builder;
+    private final NsContext rdfNsContext;
+
+    public StreamingSerializeMapping(OutputStream output, RdfUriConfig rdfUriConfig) {
+        this.output = output;
+        this.builder = new XmlDocumentBuilder();
+        rdfNsContext = new NsContext();
+        rdfNsContext.addNamespace(rdfUriConfig.getPropertyResourcePrefix(),
+                rdfUriConfig.getPropertyResourceUriBase());
+        rdfNsContext.addNamespace(rdfUriConfig.getTypeResourcePrefix(),
+                rdfUriConfig.getTypeResourceUriBase());
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        if (!(mapping instanceof XmlBasedMapping) || !mapping.isInitialized()) {
+            return;
+        }
+        XmlBasedMapping xmlMap = (XmlBasedMapping) mapping;
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance()
+                    .createXMLStreamWriter(output, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+
+            String prefix = xmlMap.tagNamePrefix;
+            String namespaceUri = xmlMap.getMappingNamespaceUri();
+            // The namespaces in scope of the entities
+            Map<String, String> rootNamespaces = new TreeMap<>();
+            rootNamespaces.putAll(xmlMap.getBaseNamespaceContext().getNamespaces());
+            rootNamespaces.putAll(rdfNsContext.getNamespaces());
+
+            Iterator<Schema> entityIterator = xmlMap.getEntityIterator();
+            writer.writeStartElement(prefix, XmlBasedMapping.mappingTagName, namespaceUri);
+            writer.writeNamespace(prefix, namespaceUri);
+            rootNamespaces.remove(prefix);
+            writeNamespaces(writer, rootNamespaces, new TreeMap<String, String>());
+            rootNamespaces.put(prefix, namespaceUri);
+            while (entityIterator.hasNext()) {
+                serializeEntity(entityIterator.next(), writer, prefix, namespaceUri,
+                        rootNamespaces);
+            }
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndDocument();
+            writer.flush();
+        } catch (XMLStreamException ex) {
+            Logger.getLogger(StreamingSerializeMapping.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void serializeEntity(Schema entity, XMLStreamWriter writer, String prefix,
+            String namespaceUri, Map<String, String> rootNamespaces) throws XMLStreamException {
+        NsContext nsContext = entity.getNamespaceContext();
+        boolean hasChildren = entity.getAttributesCount() > 0 || entity.getRelationsCount() > 0;
+
+        Map<String, String> namespaces = new TreeMap<>(nsContext.getNamespaces());
+        namespaces.putAll(rdfNsContext.getNamespaces());
+        Map<String, String> attrs = new TreeMap<>();
+        attrs.put(XmlBasedMapping.pathAttrName, entity.getPath());
+        attrs.put(XmlBasedMapping.typeAttrName,
+                builder.getUriBasedAttrValue(entity.getRdfTypeUri(), rdfNsContext));
+        attrs.put(XmlBasedMapping.xmlTypeAttrName,
+                builder.getUriBasedAttrValue(entity.getXmlTypeUri(), nsContext));
+        writeElement(writer, 1, prefix, XmlBasedMapping.entityTagName, namespaceUri,
+                !hasChildren);
+        writeNamespaces(writer, namespaces, rootNamespaces);
+        writeAttributes(writer, attrs);
+
+        Iterator<Attribute> attrIterator = entity.getAttributeIterator();
+        while (attrIterator.hasNext()) {
+            Attribute attribute = attrIterator.next();
+            attrs.clear();
+            attrs.put(XmlBasedMapping.pathAttrName, attribute.getPath());
+            attrs.put(XmlBasedMapping.nameAttrName,
+                    builder.getUriBasedAttrValue(attribute.getRdfUri(), rdfNsContext));
+            // The attributes of an entity are told apart by their XML types
+            attrs.put(XmlBasedMapping.xmlTypeAttrName,
+                    builder.getUriBasedAttrValue(attribute.getXmlTypeUri(), nsContext));
+            if (attribute.getDatatype() != null) {
+                attrs.put(XmlBasedMapping.datatypeAttrName, attribute.getDatatype().getUri());
+            }
+            writeElement(writer, 2, prefix, XmlBasedMapping.attributeTagName, namespaceUri,
+                    true);
+            writeAttributes(writer, attrs);
+        }
+
+        Iterator<Relation> relIterator = entity.getRelationIterator();
+        while (relIterator.hasNext()) {
+            Relation relation = relIterator.next();
+            attrs.clear();
+            attrs.put(XmlBasedMapping.pathAttrName, relation.getPath());
+            attrs.put(XmlBasedMapping.nameAttrName,
+                    builder.getUriBasedAttrValue(relation.getRdfUri(), rdfNsContext));
+            attrs.put(XmlBasedMapping.targetEntityXmlTypeAttrName,
+                    builder.getUriBasedAttrValue(relation.getObjectXmlTypeUri(), nsContext));
+            boolean hasReferences = !relation.getReferences().isEmpty();
+            writeElement(writer, 2, prefix, XmlBasedMapping.relationTagName, namespaceUri,
+                    !hasReferences);
+            writeAttributes(writer, attrs);
+
+            Iterator<Reference> refIterator = relation.getReferenceIterator();
+            while (refIterator.hasNext()) {
+                Reference reference = refIterator.next();
+                attrs.clear();
+                attrs.put(XmlBasedMapping.referencePathAttrName, reference.getPath());
+                attrs.put(XmlBasedMapping.referenceTargetPathAttrName, reference.getTargetPath());
+                writeElement(writer, 3, prefix, XmlBasedMapping.referenceTagName,
+                        namespaceUri, true);
+                writeAttributes(writer, attrs);
+            }
+            if (hasReferences) {
+                writeEnd(writer, 2);
+            }
+        }
+        if (hasChildren) {
+            writeEnd(writer, 1);
+        }
+    }
+
+    private static void writeElement(XMLStreamWriter writer, int depth, String prefix,
+            String localName, String namespaceUri, boolean empty) throws XMLStreamException {
+        indent(writer, depth);
+        if (empty) {
+            writer.writeEmptyElement(prefix, localName, namespaceUri);
+        } else {
+            writer.writeStartElement(prefix, localName, namespaceUri);
+        }
+    }
+
+    private static void writeEnd(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        indent(writer, depth);
+        writer.writeEndElement();
+    }
+
+    private static void indent(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder("\n");
+        for (int i = 0; i < depth; i++) {
+            sb.append(INDENT);
+        }
+        writer.writeCharacters(sb.toString());
+    }
+
+    /**
+     * Declare the namespaces, in the order of their prefixes, that are not
+     * already declared the same way in scope.
+     */
+    private static void writeNamespaces(XMLStreamWriter writer, Map<String, String> namespaces,
+            Map<String, String> inScope) throws XMLStreamException {
+        for (Map.Entry<String, String> ns : namespaces.entrySet()) {
+            if (ns.getValue().equals(inScope.get(ns.getKey()))) {
+                continue;
+            }
+            if (ns.getKey().equals(XMLConstants.DEFAULT_NS_PREFIX)) {
+                writer.writeDefaultNamespace(ns.getValue());
+            } else {
+                writer.writeNamespace(ns.getKey(), ns.getValue());
+            }
+        }
+    }
+
+    private static void writeAttributes(XMLStreamWriter writer, Map<String, String> attrs)
+            throws XMLStreamException {
+        for (Map.Entry<String, String> attr : attrs.entrySet()) {
+            writer.writeAttribute(attr.getKey(), attr.getValue());
+        }
+    }
+}
@@ -15,8 +15,8 @@
  */
 package edu.toronto.cs.xcurator.mapping;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.regex.Pattern;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.w3c.dom.Element;
 
@@ -30,16 +30,31 @@ public class Attribute implements MappingModel {
 
     String xmlTypeUri;
 
-    private Set<String> instances;
+    private static final Pattern LINE_BREAKS = Pattern.compile("[\\t\\n\\r]+");
+
+    private ValueStatistics values;
+
+    // The number of values checked for a datatype, and the datatypes all
+    // of them match, one bit each
+    private long checkedValueCount;
+    private int datatypeCandidates = LiteralDatatype.ALL;
+
+    // The datatype of the literals of this attribute, null for plain literals
+    private LiteralDatatype datatype;
 
     boolean isKey;
 
     public Attribute(Schema schema, String rdfUri, String xmlTypeUri) {
+        this(schema, rdfUri, xmlTypeUri, new ExactValueStatistics());
+    }
+
+    public Attribute(Schema schema, String rdfUri, String xmlTypeUri,
+            ValueStatistics values) {
         this.schema = schema;
         this.rdfUri = rdfUri;
         this.xmlTypeUri = xmlTypeUri;
         this.paths = new SearchPath();
-        this.instances = new HashSet<>();
+        this.values = values;
         this.isKey = false;
     }
 
@@ -68,8 +83,22 @@ public class Attribute implements MappingModel {
 
     public void addInstance(String value) {
         value = value.trim();
-        value = value.replaceAll("[\\t\\n\\r]+", " ");
-        this.instances.add(value);
+        value = LINE_BREAKS.matcher(value).replaceAll(" ");
+        this.values.add(value);
+        checkDatatype(value);
+    }
+
+    /**
+     * Check which datatypes a value of this attribute matches, without
+     * keeping the value.
+     *
+     * @param value
+     */
+    public void checkDatatype(String value) {
+        checkedValueCount++;
+        if (datatypeCandidates != 0) {
+            datatypeCandidates = LiteralDatatype.narrow(datatypeCandidates, value);
+        }
     }
 
     public void addInstances(Set<String> others) {
@@ -78,14 +107,90 @@ public class Attribute implements MappingModel {
         }
     }
 
+    /**
+     * Merge the paths, instances and key flag of another attribute with the
+     * same ID into this one.
+     *
+     * @param other
+     */
+    public void merge(Attribute other) {
+        paths.addPaths(other.paths);
+        values = values.merge(other.values);
+        isKey = isKey || other.isKey;
+        checkedValueCount += other.checkedValueCount;
+        datatypeCandidates &= other.datatypeCandidates;
+        if (datatype == null) {
+            datatype = other.datatype;
+        }
+    }
+
+    /**
+     * Create a copy of this attribute that belongs to the given entity.
+     */
+    Attribute copyTo(Schema schema) {
+        Attribute copy = new Attribute(schema, rdfUri, xmlTypeUri, values.newEmpty());
+        copy.merge(this);
+        return copy;
+    }
+
+    boolean isEquivalentTo(Attribute other) {
+        return getClass().equals(other.getClass())
+                && rdfUri.equals(other.rdfUri)
+                && paths.paths.equals(other.paths.paths)
+                && values.isExact() == other.values.isExact()
+                && values.getDistinctCount() == other.values.getDistinctCount()
+                && values.getValues().equals(other.values.getValues())
+                && isKey == other.isKey
+                && datatype == other.datatype;
+    }
+
+    /**
+     * Get the most specific datatype all the values of this attribute checked
+     * so far match.
+     *
+     * @return null if there is no such datatype, or no value was checked
+     */
+    public LiteralDatatype inferDatatype() {
+        return checkedValueCount == 0 ? null
+                : LiteralDatatype.mostSpecific(datatypeCandidates);
+    }
+
+    /**
+     * Get the datatype of the literals generated for this attribute.
+     *
+     * @return null for plain literals
+     */
+    public LiteralDatatype getDatatype() {
+        return datatype;
+    }
+
+    public void setDatatype(LiteralDatatype datatype) {
+        this.datatype = datatype;
+    }
+
+    /**
+     * Get the distinct values of this attribute, or an empty set if only an
+     * estimate of their number is kept.
+     *
+     * @return
+     * @see #getValueStatistics()
+     */
     public Set<String> getInstances() {
-        return instances;
+        return values.getValues();
+    }
+
+    public ValueStatistics getValueStatistics() {
+        return values;
     }
 
     public String getRdfUri() {
         return rdfUri;
     }
 
+    public String getXmlTypeUri() {
+        return xmlTypeUri;
+    }
+
     public void resetRdfUri(String rdfUri) {
         this.rdfUri = rdfUri;
     }
@@ -98,15 +203,18 @@ public class Attribute implements MappingModel {
     public String toString() {
         StringBuilder instanceSb = new StringBuilder();
         instanceSb.append("[");
-        if (!instances.isEmpty()) {
-            for (String str : instances) {
-//                str = str.replace("\"", "\\\"");
-                str = StringEscapeUtils.escapeJava(str);
-                if (str.length() > 30) {
-                    str = str.substring(0, 30) + "...";
-                }
-                instanceSb.append("\"").append(str).append("\"").append(", ");
+        if (!values.isExact()) {
+            instanceSb.append(values).append(", ");
+        }
+        for (String str : values.getValues()) {
+//            str = str.replace("\"", "\\\"");
+            str = StringEscapeUtils.escapeJava(str);
+            if (str.length() > 30) {
+                str = str.substring(0, 30) + "...";
             }
+            instanceSb.append("\"").append(str).append("\"").append(", ");
+        }
+        if (instanceSb.length() > 1) {
             instanceSb.deleteCharAt(instanceSb.length() - 1);
             instanceSb.deleteCharAt(instanceSb.length() - 1);
         }
@@ -0,0 +1,344 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import edu.toronto.cs.xcurator.common.NsContext;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary form of an XML based mapping. It holds the same parts of
+ * the mapping as the XML form written by
+ * {@link edu.toronto.cs.xcurator.discoverer.SerializeMapping}, so the two can
+ * be converted into each other, but it is read without an XML parser, from a
+ * memory-mapped file.
+ *
+ * The layout is the magic bytes "XCMB" and the version, followed by varints
+ * (unsigned LEB128):
+ * <pre>
+ * string table: count, then the UTF-8 length and bytes of each string
+ * mapping namespace URI
+ * base namespace context: count, then the prefix and URI of each namespace
+ * entity count, then for each entity:
+ *   path, RDF type URI, XML type URI, namespace context
+ *   attribute count, then the path, RDF URI, XML type URI and datatype URI
+ *   of each attribute
+ *   relation count, then the path, RDF URI and target XML type URI of each
+ *   relation, and its reference count, then the path and target path of
+ *   each reference
+ * </pre>
+ * A string is written as 1 + its index in the string table, or 0 for null.
+ */
+public class BinaryMappingFormat {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'X', 'C', 'M', 'B'};
+
+    private BinaryMappingFormat() {
+    }
+
+    /**
+     * Check if a file starts with the magic bytes of the binary form.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static boolean isBinary(File file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream is = new FileInputStream(file)) {
+            int n = 0;
+            while (n < magic.length) {
+                int read = is.read(magic, n, magic.length - n);
+                if (read == -1) {
+                    return false;
+                }
+                n += read;
+            }
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Write a mapping in the binary form, without closing the stream.
+     *
+     * @param mapping
+     * @param os
+     * @throws IOException
+     */
+    public static void write(XmlBasedMapping mapping, OutputStream os) throws IOException {
+        Writer writer = new Writer();
+        writer.writeString(mapping.getMappingNamespaceUri());
+        writer.writeNamespaces(mapping.getBaseNamespaceContext());
+        writer.writeVarint(mapping.getEntities().size());
+        Iterator<Schema> entityIterator = mapping.getEntityIterator();
+        while (entityIterator.hasNext()) {
+            Schema entity = entityIterator.next();
+            writer.writeString(entity.getPath());
+            writer.writeString(entity.getRdfTypeUri());
+            writer.writeString(entity.getXmlTypeUri());
+            writer.writeNamespaces(entity.getNamespaceContext());
+
+            writer.writeVarint(entity.getAttributesCount());
+            Iterator<Attribute> attrIterator = entity.getAttributeIterator();
+            while (attrIterator.hasNext()) {
+                Attribute attribute = attrIterator.next();
+                writer.writeString(attribute.getPath());
+                writer.writeString(attribute.getRdfUri());
+                writer.writeString(attribute.getXmlTypeUri());
+                writer.writeString(attribute.getDatatype() == null ? null
+                        : attribute.getDatatype().getUri());
+            }
+
+            writer.writeVarint(entity.getRelationsCount());
+            Iterator<Relation> relIterator = entity.getRelationIterator();
+            while (relIterator.hasNext()) {
+                Relation relation = relIterator.next();
+                writer.writeString(relation.getPath());
+                writer.writeString(relation.getRdfUri());
+                writer.writeString(relation.getObjectXmlTypeUri());
+                writer.writeVarint(relation.getReferences().size());
+                for (Reference reference : relation.getReferences()) {
+                    writer.writeString(reference.getPath());
+                    writer.writeString(reference.getTargetPath());
+                }
+            }
+        }
+        writer.writeTo(os);
+    }
+
+    /**
+     * Read a mapping in the binary form from a file, through a memory-mapped
+     * buffer.
+     *
+     * @param file
+     * @param mapping the mapping to add the entities to
+     * @throws IOException
+     */
+    public static void read(File file, XmlBasedMapping mapping) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), mapping);
+        }
+    }
+
+    /**
+     * Read a mapping in the binary form from a buffer, starting at its
+     * position.
+     *
+     * @param buffer
+     * @param mapping the mapping to add the entities to
+     * @throws IOException if the buffer does not hold a mapping of a known
+     * version
+     */
+    public static void read(ByteBuffer buffer, XmlBasedMapping mapping) throws IOException {
+        try {
+            Reader reader = new Reader(buffer.duplicate());
+            mapping.setMappingNamespaceUri(reader.readString());
+            NsContext baseNsContext = reader.readNamespaces();
+            mapping.setBaseNamespaceContext(baseNsContext);
+            for (int i = reader.readVarint(); i > 0; i--) {
+                String path = reader.readString();
+                String rdfTypeUri = reader.readString();
+                String xmlTypeUri = reader.readString();
+                Schema entity = new Schema(rdfTypeUri, xmlTypeUri, reader.readNamespaces());
+                entity.addPath(path);
+
+                for (int j = reader.readVarint(); j > 0; j--) {
+                    String attrPath = reader.readString();
+                    Attribute attr = new Attribute(entity, reader.readString(),
+                            reader.readString());
+                    attr.addPath(attrPath);
+                    attr.setDatatype(LiteralDatatype.fromUri(reader.readString()));
+                    entity.addAttribute(attr);
+                }
+
+                for (int j = reader.readVarint(); j > 0; j--) {
+                    String relPath = reader.readString();
+                    Relation rel = new Relation(entity, null, reader.readString(),
+                            reader.readString());
+                    rel.addPath(relPath);
+                    for (int k = reader.readVarint(); k > 0; k--) {
+                        rel.addReference(new Reference(reader.readString(), reader.readString()));
+                    }
+                    entity.addRelation(rel);
+                }
+                mapping.addEntity(entity);
+            }
+            mapping.setInitialized();
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new IOException("The binary mapping is truncated or corrupt", ex);
+        }
+    }
+
+    /**
+     * Builds the structure as varints while collecting the strings, as the
+     * string table is written first.
+     */
+    private static class Writer {
+
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final ByteArrayOutputStream structure = new ByteArrayOutputStream();
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            Integer index = stringIndexes.get(s);
+            if (index == null) {
+                index = strings.size();
+                stringIndexes.put(s, index);
+                strings.add(s);
+            }
+            writeVarint(index + 1);
+        }
+
+        void writeNamespaces(NsContext nsContext) {
+            Map<String, String> namespaces = nsContext == null
+                    ? new HashMap<String, String>() : nsContext.getNamespaces();
+            writeVarint(namespaces.size());
+            for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+                writeString(namespace.getKey());
+                writeString(namespace.getValue());
+            }
+        }
+
+        void writeVarint(int value) {
+            writeVarint(structure, value);
+        }
+
+        void writeTo(OutputStream os) throws IOException {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(MAGIC);
+            writeVarint(header, VERSION);
+            writeVarint(header, strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(header, bytes.length);
+                header.write(bytes);
+            }
+            header.writeTo(os);
+            structure.writeTo(os);
+            os.flush();
+        }
+
+        private static void writeVarint(ByteArrayOutputStream os, int value) {
+            while ((value & ~0x7f) != 0) {
+                os.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            os.write(value);
+        }
+    }
+
+    /**
+     * Reads the structure from the buffer. The strings are only decoded the
+     * first time they are used.
+     */
+    private static class Reader {
+
+        private final ByteBuffer buffer;
+        private final int[] stringOffsets;
+        private final int[] stringLengths;
+        private final String[] strings;
+
+        Reader(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary mapping");
+            }
+            int version = readVarint();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary mapping version: " + version);
+            }
+            int count = readVarint();
+            if (count < 0 || count > buffer.remaining()) {
+                throw new IOException("The binary mapping is truncated or corrupt");
+            }
+            stringOffsets = new int[count];
+            stringLengths = new int[count];
+            strings = new String[count];
+            for (int i = 0; i < count; i++) {
+                stringLengths[i] = readVarint();
+                if (stringLengths[i] < 0 || stringLengths[i] > buffer.remaining()) {
+                    throw new IOException("The binary mapping is truncated or corrupt");
+                }
+                stringOffsets[i] = buffer.position();
+                buffer.position(buffer.position() + stringLengths[i]);
+            }
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in the binary mapping");
+        }
+
+        String readString() throws IOException {
+            int index = readVarint();
+            if (index == 0) {
+                return null;
+            }
+            if (index < 0 || index > strings.length) {
+                throw new IOException("The binary mapping is truncated or corrupt");
+            }
+            String s = strings[index - 1];
+            if (s == null) {
+                byte[] bytes = new byte[stringLengths[index - 1]];
+                ByteBuffer string = buffer.duplicate();
+                string.position(stringOffsets[index - 1]);
+                string.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+                strings[index - 1] = s;
+            }
+            return s;
+        }
+
+        NsContext readNamespaces() throws IOException {
+            NsContext nsContext = new NsContext();
+            for (int i = readVarint(); i > 0; i--) {
+                nsContext.addNamespace(readString(), readString());
+            }
+            return nsContext;
+        }
+    }
+}
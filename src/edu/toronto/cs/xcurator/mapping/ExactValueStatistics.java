@@ -0,0 +1,73 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps every distinct value; memory grows with the number of distinct values.
+ */
+public class ExactValueStatistics implements ValueStatistics {
+
+    private final Set<String> values = new HashSet<>();
+
+    @Override
+    public void add(String value) {
+        values.add(value);
+    }
+
+    @Override
+    public long getDistinctCount() {
+        return values.size();
+    }
+
+    @Override
+    public double getRelativeError() {
+        return 0;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getValues() {
+        return Collections.unmodifiableSet(values);
+    }
+
+    @Override
+    public ValueStatistics merge(ValueStatistics other) {
+        if (other.isExact()) {
+            values.addAll(other.getValues());
+            return this;
+        }
+        // The values can be added to an estimate, but not the other way round
+        return other.newEmpty().merge(other).merge(this);
+    }
+
+    @Override
+    public ValueStatistics newEmpty() {
+        return new ExactValueStatistics();
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the distinct values exactly until there are more than a threshold of
+ * them, then switches to a HyperLogLog sketch and drops the values.
+ */
+public class HybridValueStatistics implements ValueStatistics {
+
+    private final int threshold;
+    private final int precision;
+
+    // Exactly one of the two is set
+    private Set<String> values;
+    private HyperLogLogValueStatistics sketch;
+
+    public HybridValueStatistics(int threshold, int precision) {
+        this.threshold = threshold;
+        this.precision = precision;
+        this.values = new HashSet<>();
+    }
+
+    @Override
+    public void add(String value) {
+        if (sketch != null) {
+            sketch.add(value);
+        } else if (values.add(value) && values.size() > threshold) {
+            toSketch();
+        }
+    }
+
+    private void toSketch() {
+        sketch = new HyperLogLogValueStatistics(precision);
+        for (String value : values) {
+            sketch.add(value);
+        }
+        values = null;
+    }
+
+    HyperLogLogValueStatistics getSketch() {
+        return sketch;
+    }
+
+    @Override
+    public long getDistinctCount() {
+        return sketch != null ? sketch.getDistinctCount() : values.size();
+    }
+
+    @Override
+    public double getRelativeError() {
+        return sketch != null ? sketch.getRelativeError() : 0;
+    }
+
+    @Override
+    public boolean isExact() {
+        return sketch == null;
+    }
+
+    @Override
+    public Set<String> getValues() {
+        return sketch != null ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(values);
+    }
+
+    @Override
+    public ValueStatistics merge(ValueStatistics other) {
+        if (other.isExact()) {
+            for (String value : other.getValues()) {
+                add(value);
+            }
+        } else {
+            if (sketch == null) {
+                toSketch();
+            }
+            sketch.merge(other);
+        }
+        return this;
+    }
+
+    @Override
+    public ValueStatistics newEmpty() {
+        return new HybridValueStatistics(threshold, precision);
+    }
+
+    @Override
+    public String toString() {
+        return sketch != null ? sketch.toString() : values.toString();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import edu.toronto.cs.xcurator.utils.HashUtils;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Estimates the number of distinct values with a HyperLogLog sketch of
+ * 2^precision one-byte registers, whatever the number of values. The relative
+ * standard error is 1.04 / sqrt(2^precision), e.g. 0.81% for precision 14
+ * (16KB).
+ */
+public class HyperLogLogValueStatistics implements ValueStatistics {
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLogValueStatistics(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("The precision must be between 4 and 18.");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    @Override
+    public void add(String value) {
+        addHash(HashUtils.mix64(HashUtils.fnv1a64(value)));
+    }
+
+    void addHash(long hash) {
+        // The first bits select the register, the rank of the first set bit
+        // in the rest is the register value
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << precision) + 1, 64 - precision + 1);
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    @Override
+    public long getDistinctCount() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        // Use linear counting for small cardinalities
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    @Override
+    public double getRelativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getValues() {
+        return Collections.emptySet();
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public ValueStatistics merge(ValueStatistics other) {
+        if (other.isExact()) {
+            for (String value : other.getValues()) {
+                add(value);
+            }
+        } else if (other instanceof HybridValueStatistics) {
+            merge(((HybridValueStatistics) other).getSketch());
+        } else if (other instanceof HyperLogLogValueStatistics) {
+            HyperLogLogValueStatistics sketch = (HyperLogLogValueStatistics) other;
+            if (sketch.precision != precision) {
+                throw new IllegalArgumentException("Cannot merge sketches of different precisions.");
+            }
+            for (int i = 0; i < registers.length; i++) {
+                if (sketch.registers[i] > registers[i]) {
+                    registers[i] = sketch.registers[i];
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value statistics: " + other.getClass());
+        }
+        return this;
+    }
+
+    @Override
+    public ValueStatistics newEmpty() {
+        return new HyperLogLogValueStatistics(precision);
+    }
+
+    @Override
+    public String toString() {
+        return "~" + getDistinctCount() + " distinct values";
+    }
+}
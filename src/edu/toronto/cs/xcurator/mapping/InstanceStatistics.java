@@ -0,0 +1,160 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import edu.toronto.cs.xcurator.utils.LongHashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What an entity remembers about its XML instances, without keeping the
+ * instances themselves: the number of instances, optionally a 64-bit
+ * fingerprint of each instance's content (to count distinct instances), and
+ * a short description of the first few instances for debugging.
+ */
+public class InstanceStatistics {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 5;
+
+    private long count;
+
+    // Null when fingerprints are not kept
+    private LongHashSet fingerprints;
+
+    private final int sampleSize;
+    private final List<String> sample;
+
+    public InstanceStatistics() {
+        this(DEFAULT_SAMPLE_SIZE);
+    }
+
+    public InstanceStatistics(int sampleSize) {
+        this.sampleSize = sampleSize;
+        this.sample = new ArrayList<>();
+    }
+
+    /**
+     * Start keeping a fingerprint of each instance added from now on.
+     */
+    public void keepFingerprints() {
+        if (fingerprints == null) {
+            fingerprints = new LongHashSet();
+        }
+    }
+
+    public boolean hasFingerprints() {
+        return fingerprints != null;
+    }
+
+    /**
+     * Check if the sample is not full, so the caller only builds the
+     * description of an instance when it will be kept.
+     *
+     * @return
+     */
+    public boolean wantsSample() {
+        return sample.size() < sampleSize;
+    }
+
+    /**
+     * Count an instance.
+     */
+    public void add() {
+        count++;
+    }
+
+    /**
+     * Count an instance, and keep its description if the sample is not full.
+     *
+     * @param description
+     */
+    public void add(String description) {
+        count++;
+        addSample(description);
+    }
+
+    /**
+     * Count an instance with the fingerprint of its content, and keep its
+     * description if the sample is not full. The fingerprint is ignored if
+     * fingerprints are not kept.
+     *
+     * @param fingerprint
+     * @param description can be null
+     */
+    public void add(long fingerprint, String description) {
+        count++;
+        if (fingerprints != null) {
+            fingerprints.add(fingerprint);
+        }
+        if (description != null) {
+            addSample(description);
+        }
+    }
+
+    private void addSample(String description) {
+        if (sample.size() < sampleSize) {
+            sample.add(description);
+        }
+    }
+
+    /**
+     * Merge the statistics of other instances into these. The fingerprints
+     * are only kept if both sides have them, as the distinct count would
+     * otherwise be wrong.
+     *
+     * @param other
+     */
+    public void merge(InstanceStatistics other) {
+        if (other.fingerprints != null && (fingerprints != null || count == 0)) {
+            keepFingerprints();
+            fingerprints.addAll(other.fingerprints);
+        } else if (other.count > 0) {
+            fingerprints = null;
+        }
+        count += other.count;
+        for (String description : other.sample) {
+            addSample(description);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of instances with distinct content, or the number of
+     * instances if fingerprints are not kept.
+     *
+     * @return
+     */
+    public long getDistinctCount() {
+        return fingerprints == null ? count : fingerprints.size();
+    }
+
+    public List<String> getSample() {
+        return Collections.unmodifiableList(sample);
+    }
+
+    @Override
+    public String toString() {
+        return "{"
+                + "\"count\":" + count
+                + ", \"distinct\":" + getDistinctCount()
+                + ", \"sample\":" + "\"" + sample + "\""
+                + '}';
+    }
+}
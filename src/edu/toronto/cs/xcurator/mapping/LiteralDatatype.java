@@ -0,0 +1,325 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+/**
+ * The XML Schema datatypes inferred for the values of an attribute, from the
+ * most to the least specific. Each one has a scanner for its lexical space,
+ * which does not allocate, so every value of an attribute can be checked
+ * while it is discovered and again when its literal is generated.
+ */
+public enum LiteralDatatype {
+
+    INTEGER("integer"),
+    DECIMAL("decimal"),
+    BOOLEAN("boolean"),
+    DATE("date"),
+    DATE_TIME("dateTime"),
+    ANY_URI("anyURI");
+
+    public static final String XSD_NAMESPACE = "http://www.w3.org/2001/XMLSchema#";
+
+    /**
+     * The candidates of an attribute before it has any value: all of the
+     * datatypes, one bit each.
+     */
+    public static final int ALL = (1 << values().length) - 1;
+
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final String uri;
+
+    private LiteralDatatype(String localName) {
+        this.uri = XSD_NAMESPACE + localName;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getBit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Check if a value is in the lexical space of this datatype. Surrounding
+     * whitespace is not allowed, and numbers with a plus sign or leading
+     * zeros are not matched, so that they keep their text.
+     *
+     * @param value
+     * @return
+     */
+    public boolean matches(String value) {
+        switch (this) {
+            case INTEGER:
+                return isInteger(value);
+            case DECIMAL:
+                return isDecimal(value);
+            case BOOLEAN:
+                return value.equals("true") || value.equals("false")
+                        || value.equals("1") || value.equals("0");
+            case DATE:
+                return isDate(value);
+            case DATE_TIME:
+                return isDateTime(value);
+            default:
+                return isAbsoluteUri(value);
+        }
+    }
+
+    /**
+     * Remove the candidate datatypes a value does not match.
+     *
+     * @param candidates the datatypes of the values so far, one bit each
+     * @param value
+     * @return the datatypes of the values so far and the value
+     */
+    public static int narrow(int candidates, String value) {
+        for (LiteralDatatype datatype : values()) {
+            if ((candidates & datatype.getBit()) != 0 && !datatype.matches(value)) {
+                candidates &= ~datatype.getBit();
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Get the most specific of the candidate datatypes.
+     *
+     * @param candidates
+     * @return null if there is no candidate
+     */
+    public static LiteralDatatype mostSpecific(int candidates) {
+        for (LiteralDatatype datatype : values()) {
+            if ((candidates & datatype.getBit()) != 0) {
+                return datatype;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the datatype with the given URI.
+     *
+     * @param uri
+     * @return null if the URI is not one of the datatypes
+     */
+    public static LiteralDatatype fromUri(String uri) {
+        for (LiteralDatatype datatype : values()) {
+            if (datatype.uri.equals(uri)) {
+                return datatype;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInteger(String s) {
+        int start = skipSign(s, 0);
+        int i = skipDigits(s, start);
+        return i > start && i == s.length() && !hasLeadingZero(s, start, i);
+    }
+
+    private static boolean isDecimal(String s) {
+        int start = skipSign(s, 0);
+        int i = skipDigits(s, start);
+        if (hasLeadingZero(s, start, i)) {
+            return false;
+        }
+        int digits = i - start;
+        if (i < s.length() && s.charAt(i) == '.') {
+            int fraction = i + 1;
+            i = skipDigits(s, fraction);
+            digits += i - fraction;
+        }
+        return digits > 0 && i == s.length();
+    }
+
+    private static boolean isDate(String s) {
+        int i = scanDate(s, 0);
+        return i > 0 && scanTimezone(s, i) == s.length();
+    }
+
+    private static boolean isDateTime(String s) {
+        int i = scanDate(s, 0);
+        if (i < 0 || i == s.length() || s.charAt(i) != 'T') {
+            return false;
+        }
+        i = scanTime(s, i + 1);
+        return i > 0 && scanTimezone(s, i) == s.length();
+    }
+
+    /**
+     * Scan a date without timezone, -?YYYY-MM-DD with a year of at least
+     * four digits.
+     *
+     * @return the index after the date, or -1
+     */
+    private static int scanDate(String s, int i) {
+        if (i < s.length() && s.charAt(i) == '-') {
+            i++;
+        }
+        int yearStart = i;
+        i = skipDigits(s, i);
+        if (i - yearStart < 4 || i + 6 > s.length()
+                || s.charAt(i) != '-' || s.charAt(i + 3) != '-') {
+            return -1;
+        }
+        int month = twoDigits(s, i + 1);
+        int day = twoDigits(s, i + 4);
+        if (month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]) {
+            return -1;
+        }
+        if (month == 2 && day == 29 && !isLeapYear(s, yearStart, i)) {
+            return -1;
+        }
+        return i + 6;
+    }
+
+    /**
+     * Scan a time without timezone, hh:mm:ss with optional fraction digits,
+     * or 24:00:00.
+     *
+     * @return the index after the time, or -1
+     */
+    private static int scanTime(String s, int i) {
+        if (i + 8 > s.length() || s.charAt(i + 2) != ':' || s.charAt(i + 5) != ':') {
+            return -1;
+        }
+        int hour = twoDigits(s, i);
+        int minute = twoDigits(s, i + 3);
+        int second = twoDigits(s, i + 6);
+        if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return -1;
+        }
+        i += 8;
+        boolean zeroFraction = true;
+        if (i < s.length() && s.charAt(i) == '.') {
+            int end = skipDigits(s, i + 1);
+            if (end == i + 1) {
+                return -1;
+            }
+            for (int j = i + 1; j < end; j++) {
+                zeroFraction &= s.charAt(j) == '0';
+            }
+            i = end;
+        }
+        if (hour == 24 && (minute != 0 || second != 0 || !zeroFraction)) {
+            return -1;
+        }
+        return i;
+    }
+
+    /**
+     * Scan an optional timezone, Z or +hh:mm or -hh:mm.
+     *
+     * @return the index after the timezone, or -1
+     */
+    private static int scanTimezone(String s, int i) {
+        if (i == s.length()) {
+            return i;
+        }
+        char c = s.charAt(i);
+        if (c == 'Z') {
+            return i + 1;
+        }
+        if ((c != '+' && c != '-') || i + 6 != s.length() || s.charAt(i + 3) != ':') {
+            return -1;
+        }
+        int hours = twoDigits(s, i + 1);
+        int minutes = twoDigits(s, i + 4);
+        if (hours < 0 || minutes < 0 || minutes > 59
+                || hours > 14 || (hours == 14 && minutes != 0)) {
+            return -1;
+        }
+        return i + 6;
+    }
+
+    private static boolean isAbsoluteUri(String s) {
+        // A scheme followed by an authority, or one of the schemes whose
+        // URIs do not have one, and no whitespace
+        int i = 0;
+        while (i < s.length() && isSchemeChar(s.charAt(i), i == 0)) {
+            i++;
+        }
+        if (i == 0 || i == s.length() || s.charAt(i) != ':') {
+            return false;
+        }
+        boolean hierarchical = s.startsWith("//", i + 1) && s.length() > i + 3;
+        if (!hierarchical && !s.regionMatches(true, 0, "urn:", 0, 4)
+                && !s.regionMatches(true, 0, "mailto:", 0, 7)) {
+            return false;
+        }
+        for (int j = i + 1; j < s.length(); j++) {
+            if (s.charAt(j) <= ' ') {
+                return false;
+            }
+        }
+        return s.length() > i + 1;
+    }
+
+    private static boolean isSchemeChar(char c, boolean first) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            return true;
+        }
+        return !first && ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.');
+    }
+
+    private static boolean isLeapYear(String s, int from, int to) {
+        // The year modulo 400 tells if it is a leap year
+        int year = 0;
+        for (int i = from; i < to; i++) {
+            year = (year * 10 + s.charAt(i) - '0') % 400;
+        }
+        return year % 4 == 0 && (year % 100 != 0 || year == 0);
+    }
+
+    /**
+     * Skip a minus sign. A plus sign is not skipped, as it would be dropped
+     * from the canonical form of a number.
+     */
+    private static int skipSign(String s, int i) {
+        return i < s.length() && s.charAt(i) == '-' ? i + 1 : i;
+    }
+
+    /**
+     * Check if the integer digits between start and end have a leading zero,
+     * other than a lone "0", which would be dropped from the canonical form
+     * of a number. Values such as identifiers, zip codes and part numbers
+     * keep their zeros as plain literals.
+     */
+    private static boolean hasLeadingZero(String s, int start, int end) {
+        return end - start > 1 && s.charAt(start) == '0';
+    }
+
+    private static int skipDigits(String s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the value of the two digits at the index, or -1
+     */
+    private static int twoDigits(String s, int i) {
+        char a = s.charAt(i);
+        char b = s.charAt(i + 1);
+        if (a < '0' || a > '9' || b < '0' || b > '9') {
+            return -1;
+        }
+        return (a - '0') * 10 + (b - '0');
+    }
+}
@@ -64,4 +64,28 @@ public interface Mapping {
 
     public void removeInvalidRelations();
 
+    /**
+     * Merge another mapping, usually discovered from a different set of
+     * documents, into this one. Entities, attributes and relations are
+     * unioned by their IDs. Merging the partial mappings of consecutive
+     * document ranges in document order gives the same mapping as
+     * discovering all the documents at once.
+     *
+     * Conflicting prefixes in the base namespace contexts are renamed, so the
+     * base context depends on the merge grouping when prefixes conflict.
+     *
+     * @param other
+     */
+    void merge(Mapping other);
+
+    /**
+     * Check if another mapping has the same entities, attributes, relations,
+     * paths, instances and namespace definitions as this one, regardless of
+     * the order in which they were discovered.
+     *
+     * @param other
+     * @return
+     */
+    boolean isEquivalentTo(Mapping other);
+
 }
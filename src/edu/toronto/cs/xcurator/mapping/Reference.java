@@ -44,4 +44,19 @@ public class Reference {
     public String getTargetPath() {
         return targetPath.getPath();
     }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Reference)) {
+            return false;
+        }
+        Reference other = (Reference) obj;
+        return path.paths.equals(other.path.paths)
+                && targetPath.paths.equals(other.targetPath.paths);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * path.paths.hashCode() + targetPath.paths.hashCode();
+    }
 }
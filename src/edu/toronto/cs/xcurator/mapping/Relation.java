@@ -80,6 +80,39 @@ public class Relation implements MappingModel {
         return paths.getPath();
     }
 
+    /**
+     * Merge the paths and references of another relation with the same ID
+     * into this one.
+     *
+     * @param other
+     */
+    public void merge(Relation other) {
+        paths.addPaths(other.paths);
+        references.addAll(other.references);
+    }
+
+    /**
+     * Create a copy of this relation between the given entities. The object
+     * can be null if it is not (yet) an entity of the mapping.
+     */
+    Relation copyTo(Schema subject, Schema object) {
+        Relation copy = object == null
+                ? new Relation(subject, null, rdfUri, getObjectXmlTypeUri())
+                : new Relation(subject, object, rdfUri);
+        for (Reference reference : references) {
+            copy.addReference(new Reference(reference.getPath(), reference.getTargetPath()));
+        }
+        copy.paths.addPaths(paths);
+        return copy;
+    }
+
+    boolean isEquivalentTo(Relation other) {
+        return rdfUri.equals(other.rdfUri)
+                && getObjectXmlTypeUri().equals(other.getObjectXmlTypeUri())
+                && paths.paths.equals(other.paths.paths)
+                && references.equals(other.references);
+    }
+
     public String getRdfUri() {
         return rdfUri;
     }
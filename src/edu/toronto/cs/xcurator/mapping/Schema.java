@@ -16,16 +16,18 @@
 package edu.toronto.cs.xcurator.mapping;
 
 import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.utils.HashUtils;
 import edu.toronto.cs.xcurator.utils.IOUtils;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 public class Schema implements MappingModel {
 
+    private static final int DESCRIPTION_TEXT_LENGTH = 40;
+
     NsContext namespaceContext;
 
     // The XML type URI of this entity
@@ -39,8 +41,8 @@ public class Schema implements MappingModel {
 
     String rdfTypeUri;
 
-    // The xml instances of this entity
-    Set<Element> instances;
+    // The statistics of the xml instances of this entity
+    InstanceStatistics instances;
 
     // The name of the entity, used to construct relation
     String name;
@@ -54,10 +56,10 @@ public class Schema implements MappingModel {
     public Schema(String rdfTypeUri, String xmlTypeUri, NsContext nsContext) {
         this.rdfTypeUri = rdfTypeUri;
         this.paths = new SearchPath();
-        this.instances = new HashSet<>();
+        this.instances = new InstanceStatistics();
         this.namespaceContext = nsContext;
-        relations = new HashMap<>();
-        attributes = new HashMap<>();
+        relations = new LinkedHashMap<>();
+        attributes = new LinkedHashMap<>();
         this.xmlTypeUri = xmlTypeUri;
     }
 
@@ -83,15 +85,80 @@ public class Schema implements MappingModel {
         return name;
     }
 
+    /**
+     * Count an instance of this entity. The element is not kept, only its
+     * fingerprint (if fingerprints are kept) and a short description if the
+     * sample of instances is not full.
+     *
+     * @param element
+     */
     public void addInstance(Element element) {
-        this.instances.add(element);
+        String description = null;
+        if (instances.wantsSample()) {
+            // Only take as much text as the description shows, the text of
+            // the root element is the text of the whole document.
+            StringBuilder text = new StringBuilder();
+            boolean truncated = appendTextPrefix(element, text, DESCRIPTION_TEXT_LENGTH);
+            description = element.getNodeName() + ": "
+                    + (truncated ? text + "..." : text.toString().trim());
+        }
+        instances.add(instances.hasFingerprints() ? HashUtils.fingerprint(element) : 0L,
+                description);
+    }
+
+    /**
+     * Append at most a number of characters of the text of a subtree,
+     * skipping the leading whitespace.
+     *
+     * @return true if non-whitespace text follows the appended characters
+     */
+    private static boolean appendTextPrefix(Node node, StringBuilder text, int length) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            short type = child.getNodeType();
+            if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+                String value = child.getNodeValue();
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (text.length() == length && !Character.isWhitespace(c)) {
+                        return true;
+                    }
+                    if (text.length() < length && (text.length() > 0 || !Character.isWhitespace(c))) {
+                        text.append(c);
+                    }
+                }
+            } else if (type == Node.ELEMENT_NODE || type == Node.ENTITY_REFERENCE_NODE) {
+                if (appendTextPrefix(child, text, length)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count an instance that was discovered from a stream, where there is no
+     * DOM element.
+     */
+    public void addInstance() {
+        instances.add();
+    }
+
+    /**
+     * Keep a fingerprint of the content of each instance added from now on,
+     * so that instances with the same content can be counted once.
+     */
+    public void keepInstanceFingerprints() {
+        instances.keepFingerprints();
+    }
+
+    public InstanceStatistics getInstanceStatistics() {
+        return instances;
     }
 
     public void addAttribute(Attribute attr) {
         Attribute existAttr = attributes.get(attr.getId());
         if (existAttr != null) {
-            existAttr.addPath(attr.getPath());
-            existAttr.addInstances(attr.getInstances());
+            existAttr.merge(attr);
             return;
         }
         attributes.put(attr.getId(), attr);
@@ -110,6 +177,76 @@ public class Schema implements MappingModel {
         this.namespaceContext.merge(nsContext, override);
     }
 
+    /**
+     * Merge another entity with the same XML type into this one: paths,
+     * instances, attributes and relations are unioned, and the namespace
+     * definitions of the other entity override ours, as they would if its
+     * instances were discovered after ours. The objects of the merged
+     * relations are looked up in the given mapping.
+     *
+     * @param other
+     * @param mapping
+     */
+    public void merge(Schema other, Mapping mapping) {
+        paths.addPaths(other.paths);
+        instances.merge(other.instances);
+        namespaceContext.merge(other.namespaceContext, true);
+        for (Attribute attr : other.attributes.values()) {
+            Attribute existAttr = attributes.get(attr.getId());
+            if (existAttr != null) {
+                existAttr.merge(attr);
+            } else {
+                Attribute copy = attr.copyTo(this);
+                attributes.put(copy.getId(), copy);
+            }
+        }
+        for (Relation rel : other.relations.values()) {
+            Relation existRel = relations.get(rel.getId());
+            if (existRel != null) {
+                existRel.merge(rel);
+            } else {
+                Relation copy = rel.copyTo(this, mapping.getEntity(rel.getObjectXmlTypeUri()));
+                relations.put(copy.getId(), copy);
+            }
+        }
+    }
+
+    /**
+     * Create an entity with the same type and name as this one, but without
+     * any paths, instances, attributes or relations.
+     */
+    Schema emptyCopy() {
+        Schema copy = new Schema(rdfTypeUri, xmlTypeUri, new NsContext());
+        copy.name = name;
+        if (instances.hasFingerprints()) {
+            copy.keepInstanceFingerprints();
+        }
+        return copy;
+    }
+
+    boolean isEquivalentTo(Schema other) {
+        if (!rdfTypeUri.equals(other.rdfTypeUri)
+                || !(name == null ? other.name == null : name.equals(other.name))
+                || !paths.paths.equals(other.paths.paths)
+                || getXmlInstanceCount() != other.getXmlInstanceCount()
+                || !namespaceContext.getNamespaces().equals(other.namespaceContext.getNamespaces())
+                || !attributes.keySet().equals(other.attributes.keySet())
+                || !relations.keySet().equals(other.relations.keySet())) {
+            return false;
+        }
+        for (Attribute attr : attributes.values()) {
+            if (!attr.isEquivalentTo(other.attributes.get(attr.getId()))) {
+                return false;
+            }
+        }
+        for (Relation rel : relations.values()) {
+            if (!rel.isEquivalentTo(other.relations.get(rel.getId()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public boolean hasAttribute(String id) {
         return attributes.containsKey(id);
     }
@@ -122,6 +259,17 @@ public class Schema implements MappingModel {
         return attributes.get(id);
     }
 
+    /**
+     * Get the attribute of this entity that was extracted from the given XML
+     * type, or null if there is none.
+     *
+     * @param xmlTypeUri
+     * @return
+     */
+    public Attribute getAttributeByXmlType(String xmlTypeUri) {
+        return attributes.get(this.xmlTypeUri + "." + xmlTypeUri);
+    }
+
     public int getAttributesCount() {
         return attributes.size();
     }
@@ -150,12 +298,8 @@ public class Schema implements MappingModel {
         return namespaceContext;
     }
 
-    public Iterator<Element> getXmlInstanceIterator() {
-        return instances.iterator();
-    }
-
     public int getXmlInstanceCount() {
-        return instances.size();
+        return (int) Math.min(instances.getCount(), Integer.MAX_VALUE);
     }
 
     // Return the XML type from which this entity was extracted
@@ -173,16 +317,6 @@ public class Schema implements MappingModel {
 
     @Override
     public String toString() {
-        StringBuilder sbForInstances = new StringBuilder();
-        sbForInstances.append("[");
-        if (!instances.isEmpty()) {
-            for (Element elem : instances) {
-                sbForInstances.append(elem.getNodeValue()).append(", ");
-            }
-            sbForInstances.deleteCharAt(sbForInstances.length() - 1);
-            sbForInstances.deleteCharAt(sbForInstances.length() - 1);
-        }
-        sbForInstances.append("]");
         return "{"
                 + "\"Schema\": {"
                 + "\"namespaceContext\":" + "\"" + namespaceContext + "\""
@@ -191,7 +325,7 @@ public class Schema implements MappingModel {
                 + ", \"attributes\":" + IOUtils.printMapAsJson(attributes)
                 + ", \"paths\":" + "\"" + paths + "\""
                 + ", \"rdfTypeUri\":" + "\"" + rdfTypeUri + "\""
-//                + ", \"instances\":" + "\"" + sbForInstances + "\""
+                + ", \"instances\":" + instances
                 + ", \"name\":" + "\"" + name + "\""
                 + "}"
                 + "}";
@@ -16,8 +16,8 @@
 package edu.toronto.cs.xcurator.mapping;
 
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -27,10 +27,17 @@ import java.util.Set;
  */
 public class SearchPath {
 
+    // Keep the paths in the order they were first seen, so that merging
+    // partial mappings in document order gives the same path string as
+    // discovering the documents serially.
     Set<String> paths;
 
+    // The joined paths, built on demand as the path of an entity is read
+    // for every instance of its child entities
+    private String pathString;
+
     public SearchPath() {
-        this.paths = new HashSet<>();
+        this.paths = new LinkedHashSet<>();
     }
 
     public SearchPath(String path) {
@@ -39,26 +46,37 @@ public class SearchPath {
     }
 
     public void addPath(String path) {
-        String[] tokens = path.split("\\|");
-        if (tokens.length == 0) {
-            paths.add(path);
+        boolean changed;
+        if (path.indexOf('|') < 0) {
+            changed = paths.add(path);
         } else {
-            paths.addAll(Arrays.asList(tokens));
+            String[] tokens = path.split("\\|");
+            changed = tokens.length == 0 ? paths.add(path) : paths.addAll(Arrays.asList(tokens));
+        }
+        if (changed) {
+            pathString = null;
+        }
+    }
+
+    void addPaths(SearchPath other) {
+        if (paths.addAll(other.paths)) {
+            pathString = null;
         }
     }
 
     public String getPath() {
-        String pathsString = "";
-        int i = 0;
-        Iterator<String> iter = paths.iterator();
-        while (iter.hasNext()) {
-            pathsString += iter.next();
-            if (i != paths.size() - 1) {
-                pathsString += "|";
+        if (pathString == null) {
+            StringBuilder sb = new StringBuilder();
+            Iterator<String> iter = paths.iterator();
+            while (iter.hasNext()) {
+                sb.append(iter.next());
+                if (iter.hasNext()) {
+                    sb.append('|');
+                }
             }
-            i++;
+            pathString = sb.toString();
         }
-        return pathsString;
+        return pathString;
     }
 
     @Override
@@ -28,6 +28,13 @@ public class ValueAttribute extends Attribute {
         super(entity, rdfUri, "value");
     }
 
+    @Override
+    Attribute copyTo(Schema schema) {
+        Attribute copy = new ValueAttribute(schema, rdfUri);
+        copy.merge(this);
+        return copy;
+    }
+
     @Override
     public void asKey() {
         try {
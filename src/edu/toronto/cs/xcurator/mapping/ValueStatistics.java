@@ -0,0 +1,80 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import java.util.Set;
+
+/**
+ * The statistics an attribute keeps about its values: at least the number of
+ * distinct values, possibly estimated, and the values themselves when they are
+ * kept exactly.
+ *
+ * @see ValueStatisticsFactory
+ */
+public interface ValueStatistics {
+
+    /**
+     * Add a (normalized) value.
+     *
+     * @param value
+     */
+    void add(String value);
+
+    /**
+     * Get the number of distinct values added, or its estimate.
+     *
+     * @return
+     */
+    long getDistinctCount();
+
+    /**
+     * Get the relative standard error of the distinct count, 0 if the count is
+     * exact.
+     *
+     * @return
+     */
+    double getRelativeError();
+
+    /**
+     * Check if the distinct values are kept exactly.
+     *
+     * @return
+     */
+    boolean isExact();
+
+    /**
+     * Get the distinct values, or an empty set if they are not kept exactly.
+     *
+     * @return
+     */
+    Set<String> getValues();
+
+    /**
+     * Merge other statistics into these. The result may be a new object, for
+     * example when exact values are merged with an estimate.
+     *
+     * @param other
+     * @return the merged statistics
+     */
+    ValueStatistics merge(ValueStatistics other);
+
+    /**
+     * Create empty statistics of the same kind and settings as these.
+     *
+     * @return
+     */
+    ValueStatistics newEmpty();
+}
@@ -0,0 +1,67 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+/**
+ * Creates the value statistics of the attributes discovered.
+ */
+public class ValueStatisticsFactory {
+
+    public enum MODE {
+        // Keep all the distinct values
+        EXACT,
+        // Estimate the number of distinct values in fixed memory
+        HLL,
+        // Keep the values up to a threshold, then estimate
+        HYBRID
+    }
+
+    public static final int DEFAULT_THRESHOLD = 10000;
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final MODE mode;
+    private final int threshold;
+    private final int precision;
+
+    public ValueStatisticsFactory() {
+        this(MODE.EXACT);
+    }
+
+    public ValueStatisticsFactory(MODE mode) {
+        this(mode, DEFAULT_THRESHOLD, DEFAULT_PRECISION);
+    }
+
+    public ValueStatisticsFactory(MODE mode, int threshold, int precision) {
+        this.mode = mode;
+        this.threshold = threshold;
+        this.precision = precision;
+    }
+
+    public MODE getMode() {
+        return mode;
+    }
+
+    public ValueStatistics create() {
+        switch (mode) {
+            case HLL:
+                return new HyperLogLogValueStatistics(precision);
+            case HYBRID:
+                return new HybridValueStatistics(threshold, precision);
+            default:
+                return new ExactValueStatistics();
+        }
+    }
+}
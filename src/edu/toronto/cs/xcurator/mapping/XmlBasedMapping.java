@@ -17,8 +17,8 @@ package edu.toronto.cs.xcurator.mapping;
 
 import edu.toronto.cs.xcurator.common.NsContext;
 import edu.toronto.cs.xcurator.utils.IOUtils;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -44,7 +44,7 @@ public class XmlBasedMapping implements Mapping {
     public XmlBasedMapping(String namespaceUri, String tageNamePrefix) {
         this.namespaceUri = namespaceUri;
         this.tagNamePrefix = tageNamePrefix;
-        entities = new HashMap<>();
+        entities = new LinkedHashMap<>();
         baseNamespaceContext = new NsContext();
     }
 
@@ -122,6 +122,37 @@ public class XmlBasedMapping implements Mapping {
         return entities.values().iterator();
     }
 
+    @Override
+    public void merge(Mapping other) {
+        // Create the missing entities first, so that the merged relations
+        // can point to the entities of this mapping.
+        for (Schema entity : other.getEntities().values()) {
+            if (!entities.containsKey(entity.getId())) {
+                addEntity(entity.emptyCopy());
+            }
+        }
+        for (Schema entity : other.getEntities().values()) {
+            entities.get(entity.getId()).merge(entity, this);
+        }
+        baseNamespaceContext.merge(other.getBaseNamespaceContext(), false);
+    }
+
+    @Override
+    public boolean isEquivalentTo(Mapping other) {
+        Map<String, Schema> otherEntities = other.getEntities();
+        if (!entities.keySet().equals(otherEntities.keySet())
+                || !baseNamespaceContext.getNamespaces().equals(
+                        other.getBaseNamespaceContext().getNamespaces())) {
+            return false;
+        }
+        for (Schema entity : entities.values()) {
+            if (!entity.isEquivalentTo(otherEntities.get(entity.getId()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static final String mappingTagName = "mapping";
     public static final String entityTagName = "entity";
     public static final String attributeTagName = "attribute";
@@ -133,6 +164,7 @@ public class XmlBasedMapping implements Mapping {
     public static final String xmlTypeAttrName = "xmlType";
     public static final String typeAttrName = "type";
     public static final String pathAttrName = "path";
+    public static final String datatypeAttrName = "datatype";
     public static final String targetEntityXmlTypeAttrName = "targetEntityXmlType";
     public static final String referencePathAttrName = "path";
     public static final String referenceTargetPathAttrName = "targetPath";
@@ -0,0 +1,286 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the triples to a writer thread, which writes them into another sink,
+ * so the generation does not wait for the storage and the other way round.
+ *
+ * The triples are passed in chunks through a ring of a fixed number of
+ * chunks. The generation fills a free chunk and queues it, and the writer
+ * writes the queued chunks and returns them to the ring, so the generation
+ * blocks when the writer is a whole ring behind. An error of the writer is
+ * thrown to the generation by its next call of the sink.
+ *
+ * Whether an instance is new is decided without asking the sink, by the
+ * instances typed through this sink. If the sink already had an instance
+ * from before, its triples are written again, which does not change a store.
+ */
+public class AsyncRdfSink implements RdfSink {
+
+    public static final int DEFAULT_RING_SIZE = 64;
+    public static final int CHUNK_SIZE = 1024;
+
+    private static final byte INSTANCE = 0;
+    private static final byte RESOURCE = 1;
+    private static final byte LITERAL = 2;
+
+    private final RdfSink sink;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> queued;
+    private final Thread writer;
+    private volatile Throwable failure;
+
+    private final Set<String> typedInstances = new HashSet<>();
+    private Chunk current;
+    private long tripleCount;
+    private boolean closed;
+
+    public AsyncRdfSink(RdfSink sink) {
+        this(sink, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param sink the sink written by the writer thread, and closed by it
+     * when this sink is closed
+     * @param ringSize the number of chunks of triples in the ring
+     */
+    public AsyncRdfSink(RdfSink sink, int ringSize) {
+        if (ringSize < 2) {
+            throw new IllegalArgumentException("The ring must have at least 2 chunks.");
+        }
+        this.sink = sink;
+        this.free = new ArrayBlockingQueue<>(ringSize);
+        this.queued = new ArrayBlockingQueue<>(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            free.add(new Chunk());
+        }
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "rdf-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private void write() {
+        boolean end = false;
+        while (!end) {
+            Chunk chunk;
+            try {
+                chunk = queued.take();
+            } catch (InterruptedException ex) {
+                failure = ex;
+                return;
+            }
+            end = chunk.end;
+            // After a failure the chunks are only returned to the ring, so
+            // the generation does not block before it sees the failure
+            if (failure == null) {
+                try {
+                    chunk.writeTo(sink);
+                    if (end) {
+                        sink.close();
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            } else if (end) {
+                try {
+                    sink.close();
+                } catch (Throwable t) {
+                    // The first failure is the one reported
+                }
+            }
+            chunk.clear();
+            free.add(chunk);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("The RDF writer failed", failure);
+        }
+    }
+
+    /**
+     * Get the chunk being filled, with room for one more triple.
+     */
+    private Chunk chunk() {
+        checkFailure();
+        if (closed) {
+            throw new IllegalStateException("The sink is closed.");
+        }
+        if (current != null && current.size == CHUNK_SIZE) {
+            queue();
+        }
+        if (current == null) {
+            current = takeFree();
+        }
+        return current;
+    }
+
+    private Chunk takeFree() {
+        try {
+            Chunk chunk;
+            while ((chunk = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                // The writer only stops on an interrupt, and then it does
+                // not return the chunks
+                if (!writer.isAlive()) {
+                    checkFailure();
+                    throw new IllegalStateException("The RDF writer stopped.");
+                }
+            }
+            return chunk;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void queue() {
+        // There is always room, as there are as many places as chunks
+        queued.add(current);
+        current = null;
+    }
+
+    @Override
+    public boolean addInstance(String instanceUri, String typeUri) {
+        if (!typedInstances.add(instanceUri + ' ' + typeUri)) {
+            return false;
+        }
+        chunk().add(INSTANCE, instanceUri, typeUri, null, null);
+        tripleCount++;
+        return true;
+    }
+
+    @Override
+    public void addResource(String subjectUri, String propertyUri, String objectUri) {
+        chunk().add(RESOURCE, subjectUri, propertyUri, objectUri, null);
+        tripleCount++;
+    }
+
+    @Override
+    public void addLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri) {
+        chunk().add(LITERAL, subjectUri, propertyUri, lexicalForm, datatypeUri);
+        tripleCount++;
+    }
+
+    @Override
+    public void endInstance() {
+        // The triples are written in the order they are added
+    }
+
+    /**
+     * Get the number of triples handed to the writer.
+     *
+     * @return
+     */
+    @Override
+    public long getTripleCount() {
+        return tripleCount;
+    }
+
+    @Override
+    public void commit() {
+        chunk().commit = true;
+        queue();
+    }
+
+    /**
+     * Wait until the writer has written all the triples and closed the sink.
+     * The sink is closed even if the writer failed, and the failure is then
+     * thrown.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current == null) {
+            current = takeFree();
+        }
+        current.end = true;
+        queue();
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * A chunk of triples, with what follows them.
+     */
+    private static class Chunk {
+
+        final byte[] kinds = new byte[CHUNK_SIZE];
+        final String[] terms = new String[4 * CHUNK_SIZE];
+        int size;
+        boolean commit;
+        boolean end;
+
+        void add(byte kind, String s, String p, String o, String datatype) {
+            kinds[size] = kind;
+            terms[4 * size] = s;
+            terms[4 * size + 1] = p;
+            terms[4 * size + 2] = o;
+            terms[4 * size + 3] = datatype;
+            size++;
+        }
+
+        void writeTo(RdfSink sink) {
+            for (int i = 0; i < size; i++) {
+                String s = terms[4 * i];
+                String p = terms[4 * i + 1];
+                String o = terms[4 * i + 2];
+                switch (kinds[i]) {
+                    case INSTANCE:
+                        sink.addInstance(s, p);
+                        break;
+                    case RESOURCE:
+                        sink.addResource(s, p, o);
+                        break;
+                    default:
+                        sink.addLiteral(s, p, o, terms[4 * i + 3]);
+                }
+            }
+            if (commit || end) {
+                sink.commit();
+            }
+        }
+
+        void clear() {
+            Arrays.fill(terms, 0, 4 * size, null);
+            size = 0;
+            commit = false;
+            end = false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.mapping.BinaryMappingFormat;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads a mapping in the binary form of {@link BinaryMappingFormat}, the
+ * counterpart of {@link XmlBasedMappingDeserialization}.
+ */
+public class BinaryMappingDeserialization implements RdfGenerationStep {
+
+    private final File mappingFile;
+    private final ByteBuffer mappingBuffer;
+
+    /**
+     * Read the mapping from a file, which is memory-mapped.
+     *
+     * @param mappingFile
+     */
+    public BinaryMappingDeserialization(File mappingFile) {
+        this.mappingFile = mappingFile;
+        this.mappingBuffer = null;
+    }
+
+    public BinaryMappingDeserialization(ByteBuffer mappingBuffer) {
+        this.mappingFile = null;
+        this.mappingBuffer = mappingBuffer;
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        if (!(mapping instanceof XmlBasedMapping)) {
+            throw new IllegalArgumentException("The mapping needs to be XML based.");
+        }
+        try {
+            if (mappingFile != null) {
+                BinaryMappingFormat.read(mappingFile, (XmlBasedMapping) mapping);
+            } else {
+                BinaryMappingFormat.read(mappingBuffer, (XmlBasedMapping) mapping);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(BinaryMappingDeserialization.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the attribute and relation triples until the sink is closed, and
+ * writes them into another sink without duplicates. The types of the
+ * instances go straight to the other sink, which already writes each of them
+ * once.
+ *
+ * The terms are replaced by integer IDs from a dictionary, and a triple is
+ * kept as two longs. When the triples and the dictionary take more than the
+ * memory budget, the triples are sorted in the order of their terms,
+ * deduplicated and spilled into a run file, and the dictionary is started
+ * over. When the sink is closed, the runs are merged, and each triple is
+ * written once, sorted by subject.
+ */
+public class DeduplicatingRdfSink implements RdfSink {
+
+    // The kind of the object, stored with the datatype of a literal
+    private static final int RESOURCE = 0;
+    private static final int PLAIN_LITERAL = 1;
+    private static final int TYPED_LITERAL = 2;
+
+    // The estimated size of a term in the dictionary, besides its characters
+    private static final int TERM_OVERHEAD = 96;
+
+    private final RdfSink sink;
+    private final long memoryBudget;
+    private final File tempDir;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> terms = new ArrayList<>();
+    // Two longs per triple: subject and property, object and datatype
+    private long[] triples = new long[2 * 1024];
+    private int size;
+    private long memory;
+
+    private final List<File> runs = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * @param sink the sink the triples are written into when this sink is
+     * closed, closed with it
+     * @param memoryBudget the number of bytes the kept triples and their
+     * terms may take before they are spilled to disk
+     * @param tempDir the directory of the run files, or null for the default
+     * temporary directory
+     */
+    public DeduplicatingRdfSink(RdfSink sink, long memoryBudget, File tempDir) {
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("The memory budget must be positive.");
+        }
+        this.sink = sink;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+    }
+
+    @Override
+    public boolean addInstance(String instanceUri, String typeUri) {
+        return sink.addInstance(instanceUri, typeUri);
+    }
+
+    @Override
+    public void addResource(String subjectUri, String propertyUri, String objectUri) {
+        add(subjectUri, propertyUri, objectUri, RESOURCE);
+    }
+
+    @Override
+    public void addLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri) {
+        add(subjectUri, propertyUri, lexicalForm,
+                datatypeUri == null ? PLAIN_LITERAL : TYPED_LITERAL + id(datatypeUri));
+    }
+
+    private void add(String s, String p, String o, int datatype) {
+        if (2 * size == triples.length) {
+            triples = Arrays.copyOf(triples, 2 * triples.length);
+        }
+        triples[2 * size] = (long) id(s) << 32 | id(p);
+        triples[2 * size + 1] = (long) id(o) << 32 | datatype;
+        size++;
+        memory += 16;
+        if (memory > memoryBudget) {
+            spill();
+        }
+    }
+
+    private int id(String term) {
+        Integer id = ids.get(term);
+        if (id == null) {
+            id = terms.size();
+            ids.put(term, id);
+            terms.add(term);
+            memory += TERM_OVERHEAD + 2L * term.length();
+        }
+        return id;
+    }
+
+    @Override
+    public void endInstance() {
+        // The triples are sorted when the sink is closed
+    }
+
+    /**
+     * Get the number of triples written into the other sink, which are only
+     * written when this sink is closed.
+     *
+     * @return
+     */
+    @Override
+    public long getTripleCount() {
+        return sink.getTripleCount();
+    }
+
+    /**
+     * Commit the instance types written so far; the other triples are
+     * written when the sink is closed.
+     */
+    @Override
+    public void commit() {
+        sink.commit();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        List<TripleRun> sources = new ArrayList<>();
+        try {
+            String[] sorted = sort();
+            sources.add(new MemoryRun(triples, size, sorted));
+            for (File run : runs) {
+                sources.add(new FileRun(run));
+            }
+            merge(sources);
+            sink.commit();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            for (TripleRun source : sources) {
+                source.close();
+            }
+            for (File run : runs) {
+                run.delete();
+            }
+            sink.close();
+        }
+    }
+
+    /**
+     * Write the kept triples into a run file, and start over.
+     */
+    private void spill() {
+        String[] sorted = sort();
+        try {
+            File run = File.createTempFile("xcurator-triples", ".run", tempDir);
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(run), 1 << 16))) {
+                MemoryRun memoryRun = new MemoryRun(triples, size, sorted);
+                String lastSubject = null;
+                String lastProperty = null;
+                while (memoryRun.next()) {
+                    FileRun.write(out, memoryRun, lastSubject, lastProperty);
+                    lastSubject = memoryRun.s;
+                    lastProperty = memoryRun.p;
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        ids.clear();
+        terms.clear();
+        size = 0;
+        memory = 0;
+    }
+
+    /**
+     * Replace the term IDs of the kept triples by the ranks of the terms in
+     * string order, sort the triples and remove the duplicates.
+     *
+     * @return the terms by rank
+     */
+    private String[] sort() {
+        String[] sorted = terms.toArray(new String[terms.size()]);
+        Arrays.sort(sorted);
+        int[] ranks = new int[sorted.length];
+        for (int rank = 0; rank < sorted.length; rank++) {
+            ranks[ids.get(sorted[rank])] = rank;
+        }
+        for (int i = 0; i < size; i++) {
+            long sp = triples[2 * i];
+            long od = triples[2 * i + 1];
+            int datatype = (int) od;
+            if (datatype >= TYPED_LITERAL) {
+                datatype = TYPED_LITERAL + ranks[datatype - TYPED_LITERAL];
+            }
+            triples[2 * i] = (long) ranks[(int) (sp >>> 32)] << 32 | ranks[(int) sp];
+            triples[2 * i + 1] = (long) ranks[(int) (od >>> 32)] << 32 | datatype;
+        }
+        sortTriples(triples, 0, size - 1);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || triples[2 * i] != triples[2 * unique - 2]
+                    || triples[2 * i + 1] != triples[2 * unique - 1]) {
+                triples[2 * unique] = triples[2 * i];
+                triples[2 * unique + 1] = triples[2 * i + 1];
+                unique++;
+            }
+        }
+        size = unique;
+        return sorted;
+    }
+
+    private static void sortTriples(long[] triples, int from, int to) {
+        while (to - from > 16) {
+            // Quicksort on the median of three, recursing into the smaller part
+            int mid = (from + to) >>> 1;
+            if (compareTriples(triples, mid, from) < 0) {
+                swapTriples(triples, mid, from);
+            }
+            if (compareTriples(triples, to, from) < 0) {
+                swapTriples(triples, to, from);
+            }
+            if (compareTriples(triples, to, mid) < 0) {
+                swapTriples(triples, to, mid);
+            }
+            swapTriples(triples, mid, to - 1);
+            int pivot = to - 1;
+            int i = from;
+            int j = to - 1;
+            while (true) {
+                while (compareTriples(triples, ++i, pivot) < 0) {
+                }
+                while (compareTriples(triples, --j, pivot) > 0) {
+                }
+                if (i >= j) {
+                    break;
+                }
+                swapTriples(triples, i, j);
+            }
+            swapTriples(triples, i, to - 1);
+            if (i - from < to - i) {
+                sortTriples(triples, from, i - 1);
+                from = i + 1;
+            } else {
+                sortTriples(triples, i + 1, to);
+                to = i - 1;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && compareTriples(triples, j, j - 1) < 0; j--) {
+                swapTriples(triples, j, j - 1);
+            }
+        }
+    }
+
+    private static int compareTriples(long[] triples, int a, int b) {
+        // The ranks are not negative, so the longs compare in rank order
+        int c = Long.compare(triples[2 * a], triples[2 * b]);
+        return c != 0 ? c : Long.compare(triples[2 * a + 1], triples[2 * b + 1]);
+    }
+
+    private static void swapTriples(long[] triples, int a, int b) {
+        for (int k = 0; k < 2; k++) {
+            long t = triples[2 * a + k];
+            triples[2 * a + k] = triples[2 * b + k];
+            triples[2 * b + k] = t;
+        }
+    }
+
+    /**
+     * Merge the sorted runs and write each triple once.
+     */
+    private void merge(List<TripleRun> sources) throws IOException {
+        PriorityQueue<TripleRun> queue = new PriorityQueue<>(Math.max(1, sources.size()),
+                new Comparator<TripleRun>() {
+                    @Override
+                    public int compare(TripleRun a, TripleRun b) {
+                        return a.compareTo(b);
+                    }
+                });
+        for (TripleRun source : sources) {
+            if (source.next()) {
+                queue.add(source);
+            }
+        }
+        String s = null;
+        String p = null;
+        String o = null;
+        int kind = -1;
+        String datatype = null;
+        while (!queue.isEmpty()) {
+            TripleRun run = queue.poll();
+            if (!(run.s.equals(s) && run.p.equals(p) && run.o.equals(o) && run.kind == kind
+                    && (datatype == null ? run.datatype == null : datatype.equals(run.datatype)))) {
+                s = run.s;
+                p = run.p;
+                o = run.o;
+                kind = run.kind;
+                datatype = run.datatype;
+                if (kind == RESOURCE) {
+                    sink.addResource(s, p, o);
+                } else {
+                    sink.addLiteral(s, p, o, datatype);
+                }
+            }
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+    }
+
+    /**
+     * A sorted run of triples, read one triple at a time.
+     */
+    private abstract static class TripleRun {
+
+        String s;
+        String p;
+        String o;
+        int kind;
+        String datatype;
+
+        /**
+         * Read the next triple.
+         *
+         * @return false at the end of the run
+         */
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+
+        int compareTo(TripleRun other) {
+            int c = s.compareTo(other.s);
+            if (c == 0) {
+                c = p.compareTo(other.p);
+            }
+            if (c == 0) {
+                c = o.compareTo(other.o);
+            }
+            if (c == 0) {
+                c = Integer.compare(kind, other.kind);
+            }
+            if (c == 0 && kind == TYPED_LITERAL) {
+                c = datatype.compareTo(other.datatype);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * The triples kept in memory, after they were sorted.
+     */
+    private static class MemoryRun extends TripleRun {
+
+        private final long[] triples;
+        private final int size;
+        private final String[] terms;
+        private int next;
+
+        MemoryRun(long[] triples, int size, String[] terms) {
+            this.triples = triples;
+            this.size = size;
+            this.terms = terms;
+        }
+
+        @Override
+        boolean next() {
+            if (next == size) {
+                return false;
+            }
+            long sp = triples[2 * next];
+            long od = triples[2 * next + 1];
+            s = terms[(int) (sp >>> 32)];
+            p = terms[(int) sp];
+            o = terms[(int) (od >>> 32)];
+            int code = (int) od;
+            kind = Math.min(code, TYPED_LITERAL);
+            datatype = code >= TYPED_LITERAL ? terms[code - TYPED_LITERAL] : null;
+            next++;
+            return true;
+        }
+    }
+
+    /**
+     * The triples spilled into a run file. The subject and the property of a
+     * triple are only written if they differ from the previous triple.
+     */
+    private static class FileRun extends TripleRun {
+
+        private static final int NEW_SUBJECT = 4;
+        private static final int NEW_PROPERTY = 8;
+
+        private final DataInputStream in;
+
+        FileRun(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        static void write(DataOutputStream out, TripleRun triple, String lastSubject,
+                String lastProperty) throws IOException {
+            boolean newSubject = !triple.s.equals(lastSubject);
+            boolean newProperty = newSubject || !triple.p.equals(lastProperty);
+            out.writeByte(triple.kind | (newSubject ? NEW_SUBJECT : 0)
+                    | (newProperty ? NEW_PROPERTY : 0));
+            if (newSubject) {
+                writeString(out, triple.s);
+            }
+            if (newProperty) {
+                writeString(out, triple.p);
+            }
+            writeString(out, triple.o);
+            if (triple.kind == TYPED_LITERAL) {
+                writeString(out, triple.datatype);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            int header;
+            try {
+                header = in.readUnsignedByte();
+            } catch (EOFException ex) {
+                return false;
+            }
+            kind = header & 3;
+            if ((header & NEW_SUBJECT) != 0) {
+                s = readString();
+            }
+            if ((header & NEW_PROPERTY) != 0) {
+                p = readString();
+            }
+            o = readString();
+            datatype = kind == TYPED_LITERAL ? readString() : null;
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // Nothing was written
+            }
+        }
+    }
+}
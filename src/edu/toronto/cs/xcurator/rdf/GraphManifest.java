@@ -0,0 +1,197 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The manifest of a run that generated the RDF of each input document into
+ * its own named graph: the content hash of each document, and a fingerprint
+ * of the mapping the graphs were generated with. A later run compares the
+ * hashes to regenerate only the graphs of the documents that changed, and
+ * all of them if the mapping changed.
+ *
+ * The manifest is a properties file, kept in the TDB directory.
+ */
+public class GraphManifest {
+
+    public static final String FILE_NAME = "xcurator-graphs.properties";
+
+    private static final String MAPPING_KEY = "mapping";
+    private static final String DOCUMENT_KEY_PREFIX = "document.";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File file;
+    private final Properties properties = new Properties();
+
+    /**
+     * Load the manifest from a file, or start an empty one if the file does
+     * not exist.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public GraphManifest(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (InputStream is = new FileInputStream(file)) {
+                properties.load(is);
+            }
+        }
+    }
+
+    /**
+     * Load the manifest of a TDB directory.
+     *
+     * @param tdbDirPath
+     * @return
+     * @throws IOException
+     */
+    public static GraphManifest forTdbDirectory(String tdbDirPath) throws IOException {
+        return new GraphManifest(new File(tdbDirPath, FILE_NAME));
+    }
+
+    public String getMappingHash() {
+        return properties.getProperty(MAPPING_KEY);
+    }
+
+    public void setMappingHash(String mappingHash) {
+        properties.setProperty(MAPPING_KEY, mappingHash);
+    }
+
+    /**
+     * Get the content hash of a document whose graph was generated.
+     *
+     * @param documentName
+     * @return the hash, or null if the graph of the document was not
+     * generated
+     */
+    public String getDocumentHash(String documentName) {
+        return properties.getProperty(DOCUMENT_KEY_PREFIX + documentName);
+    }
+
+    public void putDocument(String documentName, String hash) {
+        properties.setProperty(DOCUMENT_KEY_PREFIX + documentName, hash);
+    }
+
+    public void removeDocument(String documentName) {
+        properties.remove(DOCUMENT_KEY_PREFIX + documentName);
+    }
+
+    /**
+     * Get the names of the documents whose graphs were generated.
+     *
+     * @return
+     */
+    public Set<String> getDocumentNames() {
+        Set<String> names = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(DOCUMENT_KEY_PREFIX)) {
+                names.add(key.substring(DOCUMENT_KEY_PREFIX.length()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Write the manifest to its file. The file is replaced as a whole, so an
+     * interrupted run leaves the previous manifest.
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream os = new FileOutputStream(temp)) {
+            properties.store(os, "Content hashes of the documents with a named graph");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Get the URI of the named graph of a document.
+     *
+     * @param resourceUriBase
+     * @param documentName
+     * @return
+     */
+    public static String graphUri(String resourceUriBase, String documentName) {
+        try {
+            String base = resourceUriBase.endsWith("/")
+                    ? resourceUriBase.substring(0, resourceUriBase.length() - 1) : resourceUriBase;
+            return base + "/graph/" + URLEncoder.encode(documentName, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Hash the content of a stream with MD5, without closing the stream.
+     *
+     * @param is
+     * @return the hash in hexadecimal
+     * @throws IOException
+     */
+    public static String hash(InputStream is) throws IOException {
+        MessageDigest md5 = md5();
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            md5.update(buffer, 0, n);
+        }
+        return toHex(md5.digest());
+    }
+
+    /**
+     * Hash bytes with MD5.
+     *
+     * @param bytes
+     * @return the hash in hexadecimal
+     */
+    public static String hash(byte[] bytes) {
+        return toHex(md5().digest(bytes));
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+        return sb.toString();
+    }
+}
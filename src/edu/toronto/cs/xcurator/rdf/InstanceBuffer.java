@@ -0,0 +1,180 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the RDF generated by one thread for a part of a document, so it can
+ * be written into the output in document order later, with the same result
+ * as generating the part directly into the output.
+ *
+ * Whether an instance is new depends on what was written into the output
+ * before, which is not known while the part is generated. So the triples of
+ * each instance are kept as a block, ended by {@link #endInstance()}, with
+ * the blocks of the instances it generated nested in it. An instance the
+ * buffer has already seen is kept as a reference to its first block. When
+ * written, a block is skipped if the output already has its instance, and a
+ * reference writes the block it refers to if the output does not have the
+ * instance yet.
+ */
+class InstanceBuffer implements RdfSink {
+
+    private static final byte INSTANCE = 0;
+    private static final byte REPEAT = 1;
+    private static final byte RESOURCE = 2;
+    private static final byte LITERAL = 3;
+
+    private byte[] kinds = new byte[256];
+    private String[] terms = new String[4 * 256];
+    // The end of the block of an instance, or the block a repeat refers to
+    private int[] links = new int[256];
+    private int size;
+
+    // The first block of each instance, by instance and type
+    private final Map<String, Integer> instances = new HashMap<>();
+    private int[] open = new int[16];
+    private int depth;
+
+    /**
+     * Start the block of an instance, or keep a reference to the block of
+     * the instance if it was generated before.
+     *
+     * @return true if the instance was not generated before, and its
+     * triples should follow
+     */
+    @Override
+    public boolean addInstance(String instanceUri, String typeUri) {
+        String key = instanceUri + ' ' + typeUri;
+        Integer first = instances.get(key);
+        if (first != null) {
+            links[add(REPEAT, instanceUri, typeUri, null, null)] = first;
+            return false;
+        }
+        instances.put(key, size);
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, 2 * depth);
+        }
+        open[depth++] = add(INSTANCE, instanceUri, typeUri, null, null);
+        return true;
+    }
+
+    /**
+     * End the block of the innermost instance, so the block can be skipped
+     * if the instance is already in the output.
+     */
+    @Override
+    public void endInstance() {
+        links[open[--depth]] = size;
+    }
+
+    /**
+     * End the blocks of all the instances, after the generation stopped
+     * with an error.
+     */
+    void endAllInstances() {
+        while (depth > 0) {
+            endInstance();
+        }
+    }
+
+    @Override
+    public void addResource(String subjectUri, String propertyUri, String objectUri) {
+        add(RESOURCE, subjectUri, propertyUri, objectUri, null);
+    }
+
+    @Override
+    public void addLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri) {
+        add(LITERAL, subjectUri, propertyUri, lexicalForm, datatypeUri);
+    }
+
+    private int add(byte kind, String s, String p, String o, String datatype) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, 2 * size);
+            terms = Arrays.copyOf(terms, 8 * size);
+            links = Arrays.copyOf(links, 2 * size);
+        }
+        kinds[size] = kind;
+        terms[4 * size] = s;
+        terms[4 * size + 1] = p;
+        terms[4 * size + 2] = o;
+        terms[4 * size + 3] = datatype;
+        return size++;
+    }
+
+    /**
+     * Get the number of triples kept, including the types of repeated
+     * instances, which are not written again.
+     *
+     * @return
+     */
+    @Override
+    public long getTripleCount() {
+        return size;
+    }
+
+    /**
+     * Write the instances into a sink, in the order they were generated.
+     *
+     * @param sink
+     */
+    void writeTo(RdfSink sink) {
+        int i = 0;
+        while (i < size) {
+            i = write(sink, i);
+        }
+    }
+
+    /**
+     * Write an entry, and the block that follows it if it starts one.
+     *
+     * @return the entry after it, or after its block
+     */
+    private int write(RdfSink sink, int i) {
+        String s = terms[4 * i];
+        String p = terms[4 * i + 1];
+        switch (kinds[i]) {
+            case INSTANCE:
+                if (sink.addInstance(s, p)) {
+                    int j = i + 1;
+                    while (j < links[i]) {
+                        j = write(sink, j);
+                    }
+                }
+                return links[i];
+            case REPEAT:
+                write(sink, links[i]);
+                return i + 1;
+            case RESOURCE:
+                sink.addResource(s, p, terms[4 * i + 2]);
+                return i + 1;
+            default:
+                sink.addLiteral(s, p, terms[4 * i + 2], terms[4 * i + 3]);
+                return i + 1;
+        }
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
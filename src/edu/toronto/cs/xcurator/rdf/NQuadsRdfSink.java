@@ -0,0 +1,45 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the triples as N-Quads, one quad per line, all in the same graph.
+ */
+public class NQuadsRdfSink extends NTriplesRdfSink {
+
+    private final String graphUri;
+
+    /**
+     * @param os
+     * @param graphUri the graph of the quads, or null for the default graph
+     */
+    public NQuadsRdfSink(OutputStream os, String graphUri) {
+        super(os);
+        this.graphUri = graphUri;
+    }
+
+    @Override
+    protected void writeLineEnd() throws IOException {
+        if (graphUri != null) {
+            writer.write(' ');
+            writeUri(graphUri);
+        }
+        writer.write(" .\n");
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the triples as N-Triples, one triple per line.
+ */
+public class NTriplesRdfSink extends StreamingRdfSink {
+
+    public NTriplesRdfSink(OutputStream os) {
+        super(os);
+    }
+
+    @Override
+    protected void writeResource(String subjectUri, String propertyUri, String objectUri)
+            throws IOException {
+        writeUri(subjectUri);
+        writer.write(' ');
+        writeUri(propertyUri);
+        writer.write(' ');
+        writeUri(objectUri);
+        writeLineEnd();
+    }
+
+    @Override
+    protected void writeLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri) throws IOException {
+        writeUri(subjectUri);
+        writer.write(' ');
+        writeUri(propertyUri);
+        writer.write(' ');
+        writeLiteral(lexicalForm, datatypeUri);
+        writeLineEnd();
+    }
+
+    /**
+     * Write what follows the object of a triple.
+     *
+     * @throws IOException
+     */
+    protected void writeLineEnd() throws IOException {
+        writer.write(" .\n");
+    }
+}
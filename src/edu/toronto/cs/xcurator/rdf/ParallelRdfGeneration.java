@@ -0,0 +1,276 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
+import edu.toronto.cs.xcurator.common.RdfUriConfig;
+import edu.toronto.cs.xcurator.common.XPathFinder;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Generates the RDF of the documents with several threads. The instances of
+ * the entities in a document are split into ranges, a whole document being
+ * one range if it is small, and each range is generated by a thread into its
+ * own {@link InstanceBuffer}. The buffers are written into the sink in
+ * document order while the later ranges are still being generated, so the
+ * output is the same as the output of {@link RdfGeneration}, in the same
+ * order.
+ *
+ * An instance generated in several ranges, as the target of relations, is
+ * generated by each of them but written once.
+ */
+public class ParallelRdfGeneration implements RdfGenerationStep {
+
+    public static final int DEFAULT_RANGE_SIZE = 1000;
+
+    private final RdfSink sink;
+    private final RdfGeneration generation;
+    private final XPathFinder xpath = new XPathFinder();
+    private final int threads;
+    private int rangeSize = DEFAULT_RANGE_SIZE;
+
+    /**
+     * Generate the RDF into a sink, which is committed after each document
+     * but left open. The caller closes the sink.
+     *
+     * @param sink
+     * @param config
+     * @param idMode
+     * @param threads the number of threads generating the ranges
+     */
+    public ParallelRdfGeneration(RdfSink sink, RdfUriConfig config,
+            ElementIdGenerator.MODE idMode, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.sink = sink;
+        this.generation = new RdfGeneration(sink, config, idMode);
+        this.threads = threads;
+    }
+
+    /**
+     * Set the largest number of instances in a range. A document with more
+     * instances is generated by several threads.
+     *
+     * @param rangeSize
+     * @return
+     */
+    public ParallelRdfGeneration setRangeSize(int rangeSize) {
+        if (rangeSize < 1) {
+            throw new IllegalArgumentException("The range size must be at least 1.");
+        }
+        this.rangeSize = rangeSize;
+        return this;
+    }
+
+    @Override
+    public void process(List<DataDocument> xmlDocuments, Mapping mapping) {
+        if (!mapping.isInitialized()) {
+            Logger.getLogger(ParallelRdfGeneration.class.getName()).log(Level.SEVERE,
+                    "Mapping was not initialized, missing preprocessing or deserializing?");
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // The ranges being generated, in document order. A few more than
+        // threads, so one slow range does not hold up the others, but a
+        // bounded number, so the buffers do not take all the memory when
+        // the sink is slower than the generation.
+        Deque<Range> ranges = new ArrayDeque<>();
+        try {
+            for (DataDocument dataDoc : xmlDocuments) {
+                for (Range range : split(dataDoc, mapping)) {
+                    range.buffer = executor.submit(range);
+                    ranges.add(range);
+                    if (ranges.size() >= threads * 4) {
+                        write(ranges.poll());
+                    }
+                }
+            }
+            while (!ranges.isEmpty()) {
+                write(ranges.poll());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            Logger.getLogger(ParallelRdfGeneration.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void write(Range range) throws InterruptedException {
+        try {
+            range.buffer.get().writeTo(sink);
+        } catch (ExecutionException ex) {
+            Logger.getLogger(ParallelRdfGeneration.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        if (range.lastOfDocument) {
+            // Finish writing the RDF of this document
+            sink.commit();
+        }
+    }
+
+    /**
+     * Split the instances of a document into ranges, in the order the
+     * serial generation goes through them.
+     */
+    private List<Range> split(DataDocument dataDoc, Mapping mapping) {
+        List<Schema> entities = new ArrayList<>();
+        List<Element[]> instances = new ArrayList<>();
+        int count = 0;
+        try {
+            Iterator<Schema> it = mapping.getEntityIterator();
+            while (it.hasNext()) {
+                Schema entity = it.next();
+                NodeList nl = xpath.getNodesByPath(entity.getPath(), dataDoc.Data,
+                        entity.getNamespaceContext());
+                // Node lists of JAXP are not safe to read by several threads
+                Element[] elements = new Element[nl.getLength()];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = (Element) nl.item(i);
+                }
+                entities.add(entity);
+                instances.add(elements);
+                count += elements.length;
+            }
+        } catch (XPathExpressionException ex) {
+            Logger.getLogger(ParallelRdfGeneration.class.getName()).log(Level.SEVERE, null, ex);
+            entities.clear();
+            instances.clear();
+            count = 0;
+        }
+
+        List<Range> ranges = new ArrayList<>();
+        Map<Relation, ReferenceIndex> referenceIndexes = new IdentityHashMap<>();
+        if (count > rangeSize) {
+            // Several threads will read the document
+            expand(dataDoc.Data.getDocumentElement());
+        }
+        // A document without instances is still committed
+        int from = 0;
+        do {
+            int to = Math.min(from + rangeSize, count);
+            ranges.add(new Range(dataDoc, mapping, entities, instances, from, to,
+                    referenceIndexes, to == count));
+            from = to;
+        } while (from < count);
+        return ranges;
+    }
+
+    /**
+     * Visit every node of a subtree, so a DOM that builds its nodes when
+     * they are first read has built all of them, and can be read by several
+     * threads.
+     */
+    private static void expand(Node root) {
+        Node node = root;
+        while (node != null) {
+            NamedNodeMap attrs = node.getAttributes();
+            if (attrs != null) {
+                for (int i = 0; i < attrs.getLength(); i++) {
+                    attrs.item(i).getNodeValue();
+                }
+            } else {
+                node.getNodeValue();
+            }
+            Node next = node.getFirstChild();
+            while (next == null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * A range of the instances of a document, generated by one thread.
+     */
+    private class Range implements Callable<InstanceBuffer> {
+
+        final DataDocument dataDoc;
+        final Mapping mapping;
+        final List<Schema> entities;
+        final List<Element[]> instances;
+        final int from;
+        final int to;
+        final Map<Relation, ReferenceIndex> referenceIndexes;
+        final boolean lastOfDocument;
+        Future<InstanceBuffer> buffer;
+
+        Range(DataDocument dataDoc, Mapping mapping, List<Schema> entities,
+                List<Element[]> instances, int from, int to,
+                Map<Relation, ReferenceIndex> referenceIndexes, boolean lastOfDocument) {
+            this.dataDoc = dataDoc;
+            this.mapping = mapping;
+            this.entities = entities;
+            this.instances = instances;
+            this.from = from;
+            this.to = to;
+            this.referenceIndexes = referenceIndexes;
+            this.lastOfDocument = lastOfDocument;
+        }
+
+        @Override
+        public InstanceBuffer call() {
+            InstanceBuffer buffer = new InstanceBuffer();
+            try {
+                // The index of the first instance of each entity
+                int offset = 0;
+                for (int e = 0; e < entities.size() && offset < to; e++) {
+                    Element[] elements = instances.get(e);
+                    int start = Math.max(from - offset, 0);
+                    int end = Math.min(to - offset, elements.length);
+                    for (int i = start; i < end; i++) {
+                        generation.generateRdfs(buffer, entities.get(e), mapping, elements[i],
+                                dataDoc, referenceIndexes);
+                    }
+                    offset += elements.length;
+                }
+            } catch (Exception ex) {
+                // Keep what was generated, as the serial generation does
+                Logger.getLogger(ParallelRdfGeneration.class.getName()).log(Level.SEVERE, null, ex);
+                buffer.endAllInstances();
+            } finally {
+                generation.clearDigestCache();
+            }
+            return buffer;
+        }
+    }
+}
@@ -17,14 +17,11 @@ package edu.toronto.cs.xcurator.rdf;
 
 import edu.toronto.cs.xcurator.common.RdfUriConfig;
 import edu.toronto.cs.xcurator.common.ElementIdGenerator;
-import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.Property;
-import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.tdb.TDBFactory;
-import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
 import edu.toronto.cs.xcurator.common.DataDocument;
 import edu.toronto.cs.xcurator.mapping.Mapping;
 import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.LiteralDatatype;
 import edu.toronto.cs.xcurator.mapping.Schema;
 import edu.toronto.cs.xcurator.mapping.Reference;
 import edu.toronto.cs.xcurator.mapping.Relation;
@@ -32,7 +29,9 @@ import edu.toronto.cs.xcurator.common.NsContext;
 import edu.toronto.cs.xcurator.common.XPathFinder;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -50,24 +49,63 @@ import org.xml.sax.SAXException;
  */
 public class RdfGeneration implements RdfGenerationStep {
 
-    private final String tdbDirPath;
-    private final RdfUriConfig config;
+    private final RdfSink sink;
+    // Whether the sink is closed after each process call
+    private final boolean ownsSink;
     private final XPathFinder xpath;
     private final ElementIdGenerator elementIdGenerator;
+    private final String xmlTypePropertyUri;
 
     public RdfGeneration(String tdbDirPath, RdfUriConfig config) {
-        this.tdbDirPath = tdbDirPath;
-        this.config = config;
-        this.xpath = new XPathFinder();
-        this.elementIdGenerator = new ElementIdGenerator(config.getResourceUriBase());
+        this(tdbDirPath, config, ElementIdGenerator.MODE.SERIALIZED);
+    }
+
+    public RdfGeneration(String tdbDirPath, RdfUriConfig config, ElementIdGenerator.MODE idMode) {
+        this(new TdbRdfSink(tdbDirPath), true, config, idMode, new XPathFinder());
+    }
+
+    /**
+     * Generate the RDF into a sink, which is committed after each document
+     * but left open, so one sink can take the output of several steps. The
+     * caller closes the sink.
+     *
+     * @param sink
+     * @param config
+     * @param idMode
+     */
+    public RdfGeneration(RdfSink sink, RdfUriConfig config, ElementIdGenerator.MODE idMode) {
+        this(sink, false, config, idMode, new XPathFinder());
+    }
+
+    /**
+     * Generate the RDF into a sink, evaluating the paths of the mapping with
+     * the given finder, so the paths it compiled for earlier steps are
+     * reused. The caller closes the sink.
+     *
+     * @param sink
+     * @param config
+     * @param idMode
+     * @param xpath
+     */
+    public RdfGeneration(RdfSink sink, RdfUriConfig config, ElementIdGenerator.MODE idMode,
+            XPathFinder xpath) {
+        this(sink, false, config, idMode, xpath);
+    }
+
+    private RdfGeneration(RdfSink sink, boolean ownsSink, RdfUriConfig config,
+            ElementIdGenerator.MODE idMode, XPathFinder xpath) {
+        this.sink = sink;
+        this.ownsSink = ownsSink;
+        this.xpath = xpath;
+        this.elementIdGenerator = new ElementIdGenerator(config.getResourceUriBase(), idMode);
+        String uriBase = config.getPropertyResourceUriBase();
+        this.xmlTypePropertyUri = (uriBase.endsWith("/") ? uriBase : uriBase + "/")
+                + "extractedFromXMLType";
     }
 
     @Override
     public void process(List<DataDocument> xmlDocuments, Mapping mapping) {
 
-        // Open a connection to the TDB
-        Model model = TDBFactory.createModel(tdbDirPath);
-
         for (DataDocument dataDoc : xmlDocuments) {
             try {
                 // Check if the mapping passed in is initialized
@@ -75,6 +113,9 @@ public class RdfGeneration implements RdfGenerationStep {
                     throw new Exception("Mapping was not initialized, missing preprocessing or deserializing?");
                 }
 
+                // The indexes of the reference-based relations in this document,
+                // built when first needed
+                Map<Relation, ReferenceIndex> referenceIndexes = new IdentityHashMap<>();
                 Iterator<Schema> it = mapping.getEntityIterator();
                 while (it.hasNext()) {
                     Schema entity = it.next();
@@ -85,11 +126,12 @@ public class RdfGeneration implements RdfGenerationStep {
                         // The URI of the subject should be the XBRL link + UUID
                         // But a resolvable link should be used in the future
                         Element dataElement = (Element) nl.item(i);
-                        generateRdfs(entity, mapping, dataElement, dataDoc, model);
+                        generateRdfs(sink, entity, mapping, dataElement, dataDoc,
+                                referenceIndexes);
                     }
                 }
-                // Finish writing to the TDB for this document
-                model.commit();
+                // Finish writing the RDF of this document
+                sink.commit();
             } catch (SAXException ex) {
                 Logger.getLogger(RdfGeneration.class.getName()).log(Level.SEVERE, null, ex);
             } catch (IOException ex) {
@@ -102,52 +144,56 @@ public class RdfGeneration implements RdfGenerationStep {
                 Logger.getLogger(RdfGeneration.class.getName()).log(Level.SEVERE, null, ex);
             } catch (Exception ex) {
                 Logger.getLogger(RdfGeneration.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                elementIdGenerator.clearDigestCache();
             }
         }
 
-        // Close the connection
-        model.close();
+        if (ownsSink) {
+            sink.close();
+        }
     }
 
-    private Resource generateRdfs(Schema entity, Mapping mapping, Element dataElement,
-            DataDocument dataDoc, Model model)
+    /**
+     * Generate the RDF of an instance into the sink, and recursively the RDF
+     * of the instances it is related to. The XPath finder and the ID
+     * generator keep their state per thread, so several threads can generate
+     * instances at the same time, each into its own sink.
+     *
+     * @return the URI of the instance
+     */
+    String generateRdfs(RdfSink sink, Schema entity, Mapping mapping, Element dataElement,
+            DataDocument dataDoc, Map<Relation, ReferenceIndex> referenceIndexes)
             throws XPathExpressionException, IOException, NoSuchAlgorithmException {
 
         // Generate a unique ID for this instance
         String instanceUri = elementIdGenerator.generateUri(dataDoc.resourceUriPattern,
                 entity.getNamespaceContext(), dataElement, dataDoc.Data, xpath);
 
-        // Create RDF resources
-        Resource typeResource = model.createResource(entity.getRdfTypeUri());
-        Resource instanceResource = model.createResource(instanceUri);
-
-        // Return the resource if it has already been created
-        // Preventing the relation instance resources to be recreated
-        if (model.contains(instanceResource, RDF.type, typeResource)) {
-            return instanceResource;
+        // Add type to instance, and return the instance if it has already
+        // been created, preventing the relation instances to be recreated
+        if (!sink.addInstance(instanceUri, entity.getRdfTypeUri())) {
+            return instanceUri;
         }
 
-        // Add type to instance
-        instanceResource.addProperty(RDF.type, typeResource);
-
         // Add XML type to instance
         if (entity.getXmlTypeUri() != null) {
-            String uriBase = config.getPropertyResourceUriBase();
-            Property xmlTypeProperty = model.createProperty(
-                    (uriBase.endsWith("/") ? uriBase : uriBase + "/") + "extractedFromXMLType");
-            instanceResource.addLiteral(xmlTypeProperty, entity.getXmlTypeUri());
+            sink.addLiteral(instanceUri, xmlTypePropertyUri, entity.getXmlTypeUri(),
+                    XSDDatatype.XSDstring.getURI());
         }
 
         // Add attribute properties of this instance
         Iterator<Attribute> attrIterator = entity.getAttributeIterator();
         while (attrIterator.hasNext()) {
             Attribute attr = attrIterator.next();
-            Property attrProperty = model.createProperty(attr.getRdfUri());
+            LiteralDatatype datatype = attr.getDatatype();
             NodeList nl = xpath.getNodesByPath(attr.getPath(), dataElement,
                     entity.getNamespaceContext());
             for (int i = 0; i < nl.getLength(); i++) {
                 String value = nl.item(i).getTextContent().trim();
-                instanceResource.addProperty(attrProperty, value);
+                // A value the datatype was not inferred from may not match it
+                sink.addLiteral(instanceUri, attr.getRdfUri(), value,
+                        datatype != null && datatype.matches(value) ? datatype.getUri() : null);
             }
         }
 
@@ -155,38 +201,72 @@ public class RdfGeneration implements RdfGenerationStep {
         Iterator<Relation> relIterator = entity.getRelationIterator();
         while (relIterator.hasNext()) {
             Relation rel = relIterator.next();
-            // Get potential instances of target entity of this relation
-            NodeList nl = xpath.getNodesByPath(rel.getPath(), dataElement, dataDoc.Data,
-                    entity.getNamespaceContext());
-            // Create a cache map for saving values of the references
-            Map<String, String> cache = new HashMap<>();
-            for (int i = 0; i < nl.getLength(); i++) {
-                Element targetElement = (Element) nl.item(i);
-                Schema targetEntity = mapping.getEntity(rel.getObjectXmlTypeUri());
-                Iterator<Reference> refIterator = rel.getReferenceIterator();
-                // Filter the ones that do not meet the reference
-                // Match is automatically true when there is no reference
-                boolean match = true;
-                while (refIterator.hasNext()) {
-                    if (!referenceMatch(dataElement, targetElement, refIterator.next(),
-                            entity.getNamespaceContext(), targetEntity.getNamespaceContext(), cache)) {
-                        // Stop checking when seeing on mis-match
-                        match = false;
-                        break;
+            Schema targetEntity = mapping.getEntity(rel.getObjectXmlTypeUri());
+            List<Element> targetElements;
+            if (ReferenceIndex.canIndex(rel)) {
+                // Find the instances of the target entity with the same
+                // reference values in the index of this document
+                ReferenceIndex index;
+                // The indexes of a document are shared by the threads
+                // generating its instances
+                synchronized (referenceIndexes) {
+                    index = referenceIndexes.get(rel);
+                    if (index == null) {
+                        index = new ReferenceIndex(rel, entity, targetEntity, dataDoc.Data, xpath);
+                        referenceIndexes.put(rel, index);
                     }
                 }
-                if (!match) {
-                    continue;
-                }
+                targetElements = index.lookup(dataElement, entity.getNamespaceContext(), xpath);
+            } else {
+                targetElements = getTargetElements(rel, targetEntity, entity, dataElement, dataDoc);
+            }
+            for (Element targetElement : targetElements) {
                 // Recursively create the target resources
-                Resource targetResource = generateRdfs(targetEntity, mapping, targetElement, dataDoc, model);
+                String targetUri = generateRdfs(sink, targetEntity, mapping, targetElement,
+                        dataDoc, referenceIndexes);
                 // Build the relation
-                Property relProperty = model.createProperty(rel.getRdfUri());
-                instanceResource.addProperty(relProperty, targetResource);
+                sink.addResource(instanceUri, rel.getRdfUri(), targetUri);
             }
         }
 
-        return instanceResource;
+        sink.endInstance();
+        return instanceUri;
+    }
+
+    /**
+     * @see ElementIdGenerator#clearDigestCache()
+     */
+    void clearDigestCache() {
+        elementIdGenerator.clearDigestCache();
+    }
+
+    private List<Element> getTargetElements(Relation rel, Schema targetEntity, Schema entity,
+            Element dataElement, DataDocument dataDoc) throws XPathExpressionException {
+        // Get potential instances of target entity of this relation
+        NodeList nl = xpath.getNodesByPath(rel.getPath(), dataElement, dataDoc.Data,
+                entity.getNamespaceContext());
+        // Create a cache map for saving values of the references
+        Map<String, String> cache = new HashMap<>();
+        List<Element> targetElements = new ArrayList<>();
+        for (int i = 0; i < nl.getLength(); i++) {
+            Element targetElement = (Element) nl.item(i);
+            Iterator<Reference> refIterator = rel.getReferenceIterator();
+            // Filter the ones that do not meet the reference
+            // Match is automatically true when there is no reference
+            boolean match = true;
+            while (refIterator.hasNext()) {
+                if (!referenceMatch(dataElement, targetElement, refIterator.next(),
+                        entity.getNamespaceContext(), targetEntity.getNamespaceContext(), cache)) {
+                    // Stop checking when seeing on mis-match
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                targetElements.add(targetElement);
+            }
+        }
+        return targetElements;
     }
 
     private boolean referenceMatch(Element subjecElement, Element objectElement,
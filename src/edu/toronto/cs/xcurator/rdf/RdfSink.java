@@ -0,0 +1,83 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+/**
+ * Where the generated RDF is written to. The generation writes the triples of
+ * every instance through a sink, and commits the sink after each document.
+ * The terms are given as URI and lexical strings, so a sink can write them
+ * out without building the objects of a model.
+ */
+public interface RdfSink {
+
+    /**
+     * Add the type of an instance, unless the instance already has the type.
+     *
+     * @param instanceUri
+     * @param typeUri
+     * @return false if the instance already had the type, in which case its
+     * triples have been added before and are not generated again
+     */
+    boolean addInstance(String instanceUri, String typeUri);
+
+    /**
+     * Add a triple with a resource object.
+     *
+     * @param subjectUri
+     * @param propertyUri
+     * @param objectUri
+     */
+    void addResource(String subjectUri, String propertyUri, String objectUri);
+
+    /**
+     * Add a triple with a literal object.
+     *
+     * @param subjectUri
+     * @param propertyUri
+     * @param lexicalForm
+     * @param datatypeUri null for a plain literal
+     */
+    void addLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri);
+
+    /**
+     * Mark the end of the triples of the innermost instance that was added
+     * and has not ended yet. The generation calls it after the triples of
+     * each instance it added, including the relations to its targets, so a
+     * sink can keep the triples of an instance together.
+     */
+    void endInstance();
+
+    /**
+     * Get the number of triples added so far, including the ones added more
+     * than once.
+     *
+     * @return
+     */
+    long getTripleCount();
+
+    /**
+     * Make the triples added so far durable, called after each document. A
+     * sink that loads in batches may keep them until its batch is full.
+     */
+    void commit();
+
+    /**
+     * Commit and release the sink. A TDB sink can be used again after being
+     * closed, a file sink cannot.
+     */
+    void close();
+}
@@ -0,0 +1,121 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.XSD;
+import edu.toronto.cs.xcurator.common.RdfUriConfig;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Creates the sink of the generated RDF for an output location: a TDB
+ * directory, or a file in one of the streaming syntaxes. A file whose name
+ * ends with ".gz" is compressed with gzip.
+ */
+public class RdfSinkFactory {
+
+    public enum FORMAT {
+
+        TDB, NT, NQ, TTL
+    }
+
+    private final FORMAT format;
+    private final RdfUriConfig config;
+    private int tdbBatchSize;
+    private boolean tdbBulkLoad;
+    private String graphUri;
+
+    public RdfSinkFactory(FORMAT format, RdfUriConfig config) {
+        this.format = format;
+        this.config = config;
+    }
+
+    public FORMAT getFormat() {
+        return format;
+    }
+
+    /**
+     * @see TdbRdfSink#TdbRdfSink(String, int, boolean)
+     */
+    public RdfSinkFactory setTdbBatchSize(int tdbBatchSize) {
+        this.tdbBatchSize = tdbBatchSize;
+        return this;
+    }
+
+    /**
+     * @see TdbRdfSink#TdbRdfSink(String, int, boolean)
+     */
+    public RdfSinkFactory setTdbBulkLoad(boolean tdbBulkLoad) {
+        this.tdbBulkLoad = tdbBulkLoad;
+        return this;
+    }
+
+    /**
+     * Set the named graph of the triples, for the TDB and N-Quads formats.
+     * The triples of a named graph are added to a TDB one by one.
+     *
+     * @param graphUri the graph URI, or null for the default graph
+     * @return
+     */
+    public RdfSinkFactory setGraphUri(String graphUri) {
+        this.graphUri = graphUri;
+        return this;
+    }
+
+    public RdfSink create(String output) throws IOException {
+        if (format == FORMAT.TDB) {
+            return graphUri != null ? new TdbRdfSink(output, graphUri)
+                    : new TdbRdfSink(output, tdbBatchSize, tdbBulkLoad);
+        }
+        OutputStream os = new FileOutputStream(output);
+        try {
+            os = output.endsWith(".gz")
+                    ? new GZIPOutputStream(os, 1 << 16)
+                    : new BufferedOutputStream(os, 1 << 16);
+            switch (format) {
+                case NQ:
+                    return new NQuadsRdfSink(os, graphUri);
+                case TTL:
+                    return new TurtleRdfSink(os, prefixes());
+                default:
+                    return new NTriplesRdfSink(os);
+            }
+        } catch (IOException | RuntimeException ex) {
+            os.close();
+            throw ex;
+        }
+    }
+
+    private Map<String, String> prefixes() {
+        Map<String, String> prefixes = new LinkedHashMap<>();
+        prefixes.put("rdf", RDF.getURI());
+        prefixes.put("xsd", XSD.getURI());
+        prefixes.put(config.getTypeResourcePrefix(), withSlash(config.getTypeResourceUriBase()));
+        prefixes.put(config.getPropertyResourcePrefix(),
+                withSlash(config.getPropertyResourceUriBase()));
+        return prefixes;
+    }
+
+    private static String withSlash(String uriBase) {
+        return uriBase.endsWith("/") ? uriBase : uriBase + "/";
+    }
+}
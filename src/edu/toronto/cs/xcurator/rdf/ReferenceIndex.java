@@ -0,0 +1,122 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.XPathFinder;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The object instances of a reference-based relation in one document, by the
+ * values of their reference target paths. It is built with one pass over the
+ * object instances, so each subject instance finds its objects with one
+ * lookup instead of comparing its reference values with every object
+ * instance.
+ */
+class ReferenceIndex {
+
+    private final Relation relation;
+    private final Map<List<String>, List<Element>> objects;
+
+    /**
+     * Index the object instances of the relation in the document. The
+     * relation path must be absolute, so the candidates do not depend on the
+     * subject instance.
+     *
+     * @param relation
+     * @param subjectEntity
+     * @param objectEntity
+     * @param document
+     * @param xpath
+     * @throws XPathExpressionException
+     */
+    ReferenceIndex(Relation relation, Schema subjectEntity, Schema objectEntity,
+            Document document, XPathFinder xpath) throws XPathExpressionException {
+        this.relation = relation;
+        this.objects = new HashMap<>();
+        NsContext objectNsContext = objectEntity.getNamespaceContext();
+        NodeList nl = xpath.getNodesByPath(relation.getPath(), null, document,
+                subjectEntity.getNamespaceContext());
+        for (int i = 0; i < nl.getLength(); i++) {
+            Element objectElement = (Element) nl.item(i);
+            List<String> key = new ArrayList<>();
+            Iterator<Reference> refIterator = relation.getReferenceIterator();
+            while (refIterator.hasNext()) {
+                key.add(xpath.getStringByPath(refIterator.next().getTargetPath(),
+                        objectElement, objectNsContext));
+            }
+            List<Element> elements = objects.get(key);
+            if (elements == null) {
+                elements = new ArrayList<>(1);
+                objects.put(key, elements);
+            }
+            elements.add(objectElement);
+        }
+    }
+
+    /**
+     * Get the object instances whose reference target values equal the
+     * reference values of the subject instance, in document order.
+     *
+     * @param subjectElement
+     * @param subjectNsContext
+     * @param xpath
+     * @return
+     * @throws XPathExpressionException
+     */
+    List<Element> lookup(Element subjectElement, NsContext subjectNsContext,
+            XPathFinder xpath) throws XPathExpressionException {
+        List<String> key = new ArrayList<>();
+        Iterator<Reference> refIterator = relation.getReferenceIterator();
+        while (refIterator.hasNext()) {
+            key.add(xpath.getStringByPath(refIterator.next().getPath(),
+                    subjectElement, subjectNsContext));
+        }
+        List<Element> elements = objects.get(key);
+        return elements != null ? elements : Collections.<Element>emptyList();
+    }
+
+    /**
+     * Check if the relation can be resolved with an index: it has references
+     * and its candidate objects do not depend on the subject instance.
+     *
+     * @param relation
+     * @return
+     */
+    static boolean canIndex(Relation relation) {
+        if (!relation.getReferenceIterator().hasNext()) {
+            return false;
+        }
+        for (String path : relation.getPath().split("\\|")) {
+            if (!path.startsWith("/")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
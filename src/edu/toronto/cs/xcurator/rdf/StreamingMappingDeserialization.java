@@ -0,0 +1,177 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.LiteralDatatype;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.InputStream;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the mapping file the same way as
+ * {@link XmlBasedMappingDeserialization}, through an XMLStreamReader instead
+ * of parsing the whole file into a DOM. Each entity is added to the mapping
+ * when its element ends.
+ */
+public class StreamingMappingDeserialization implements RdfGenerationStep {
+
+    private final InputStream mappingFileInputStream;
+    private final XMLInputFactory inputFactory;
+
+    public StreamingMappingDeserialization(InputStream mappingFileInputStream) {
+        this.mappingFileInputStream = mappingFileInputStream;
+        this.inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    @Override
+    public void process(List<DataDocument> dataDocuments, Mapping mapping) {
+        if (!(mapping instanceof XmlBasedMapping)) {
+            throw new IllegalArgumentException("The mapping needs to be XML based.");
+        }
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(mappingFileInputStream);
+            try {
+                read(reader, (XmlBasedMapping) mapping);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            Logger.getLogger(StreamingMappingDeserialization.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void read(XMLStreamReader reader, XmlBasedMapping mapping) throws XMLStreamException {
+        String namespaceUri = null;
+        NsContext rootNsContext = null;
+        Schema entity = null;
+        Relation relation = null;
+        // The depths of the current entity and relation elements, the root
+        // element is at depth 1
+        int depth = 0;
+        int entityDepth = -1;
+        int relationDepth = -1;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String localName = reader.getLocalName();
+                if (depth == 1) {
+                    // Get the namespace URI of the mapping element tags
+                    namespaceUri = reader.getNamespaceURI();
+                    mapping.setMappingNamespaceUri(namespaceUri);
+                    // Discover the root namespace context, which maybe overrided by entities
+                    rootNsContext = new NsContext();
+                    rootNsContext.discover(reader, true);
+                    mapping.setBaseNamespaceContext(rootNsContext);
+                } else if (!sameUri(namespaceUri, reader.getNamespaceURI())) {
+                    continue;
+                } else if (entity == null && localName.equals(XmlBasedMapping.entityTagName)) {
+                    NsContext nsContext = new NsContext(rootNsContext);
+                    nsContext.discover(reader, true);
+                    entity = createEntity(reader, nsContext);
+                    entityDepth = depth;
+                } else if (depth == entityDepth + 1
+                        && localName.equals(XmlBasedMapping.attributeTagName)) {
+                    entity.addAttribute(createAttribute(entity, reader));
+                } else if (depth == entityDepth + 1
+                        && localName.equals(XmlBasedMapping.relationTagName)) {
+                    relation = createRelation(entity, reader);
+                    relationDepth = depth;
+                } else if (depth == relationDepth + 1
+                        && localName.equals(XmlBasedMapping.referenceTagName)) {
+                    relation.addReference(new Reference(
+                            attribute(reader, XmlBasedMapping.referencePathAttrName),
+                            attribute(reader, XmlBasedMapping.referenceTargetPathAttrName)));
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == relationDepth) {
+                    entity.addRelation(relation);
+                    relation = null;
+                    relationDepth = -1;
+                } else if (depth == entityDepth) {
+                    mapping.addEntity(entity);
+                    // Set this mapping is initialized to allow further use
+                    mapping.setInitialized();
+                    entity = null;
+                    entityDepth = -1;
+                }
+                depth--;
+            }
+        }
+    }
+
+    private Schema createEntity(XMLStreamReader reader, NsContext nsContext) {
+        String rdfTypeUri = XmlBasedMappingDeserialization.getUriFromPrefixedName(
+                attribute(reader, XmlBasedMapping.typeAttrName), nsContext);
+        String xmlTypeUri = XmlBasedMappingDeserialization.getUriFromPrefixedName(
+                attribute(reader, XmlBasedMapping.xmlTypeAttrName), nsContext);
+        Schema entity = new Schema(rdfTypeUri, xmlTypeUri, nsContext);
+        entity.addPath(attribute(reader, XmlBasedMapping.pathAttrName));
+        return entity;
+    }
+
+    private Attribute createAttribute(Schema entity, XMLStreamReader reader) {
+        NsContext nsContext = entity.getNamespaceContext();
+        String rdfUri = XmlBasedMappingDeserialization.getUriFromPrefixedName(
+                attribute(reader, XmlBasedMapping.nameAttrName), nsContext);
+        String xmlTypeUri = XmlBasedMappingDeserialization.getUriFromPrefixedName(
+                attribute(reader, XmlBasedMapping.xmlTypeAttrName), nsContext);
+        Attribute attr = new Attribute(entity, rdfUri, xmlTypeUri);
+        attr.addPath(attribute(reader, XmlBasedMapping.pathAttrName));
+        // Unknown datatypes are generated as plain literals
+        attr.setDatatype(LiteralDatatype.fromUri(
+                attribute(reader, XmlBasedMapping.datatypeAttrName)));
+        return attr;
+    }
+
+    private Relation createRelation(Schema entity, XMLStreamReader reader) {
+        NsContext nsContext = entity.getNamespaceContext();
+        String name = XmlBasedMappingDeserialization.getUriFromPrefixedName(
+                attribute(reader, XmlBasedMapping.nameAttrName), nsContext);
+        String targetEntityXmlTypeUri = XmlBasedMappingDeserialization.getUriFromPrefixedName(
+                attribute(reader, XmlBasedMapping.targetEntityXmlTypeAttrName), nsContext);
+        Relation rel = new Relation(entity, null, name, targetEntityXmlTypeUri);
+        rel.addPath(attribute(reader, XmlBasedMapping.pathAttrName));
+        return rel;
+    }
+
+    /**
+     * Get an attribute without a namespace, or the empty string if it is
+     * missing, like the DOM.
+     */
+    private static String attribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
+
+    private static boolean sameUri(String a, String b) {
+        return a == null ? b == null || b.isEmpty() : a.equals(b == null ? "" : b);
+    }
+}
@@ -0,0 +1,984 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
+import edu.toronto.cs.xcurator.common.MerkleDigestBuilder;
+import edu.toronto.cs.xcurator.common.RdfUriConfig;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.LiteralDatatype;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Generates the same triples as {@link RdfGeneration}, in another order,
+ * from a StAX stream instead of a DOM. The paths of the mapping are compiled
+ * into an automaton over the element names: each open element keeps the
+ * steps of the paths that are partially matched at it, and a path selects
+ * an element, an attribute or a text node when its last step matches. The
+ * URI of an instance is the MERKLE digest of its element, which is computed
+ * bottom-up while the element is read, so an instance is generated when its
+ * element ends.
+ *
+ * The digest of an instance covers its whole subtree, so only the subtrees
+ * outside of all the instances, which no path can match, are skipped. A
+ * discovered mapping always has the root element as an entity, so nothing
+ * is skipped with it: the gain over the DOM is the memory, not the parsing.
+ *
+ * The memory is bounded by the nesting depth and the number of paths, with
+ * two exceptions. An open instance needs the digests of its child relation
+ * targets until its own URI is known at its end; beyond a threshold they
+ * are spilled to a temporary file, so the root of a document of many
+ * records keeps a file of their digests instead of the digests in memory.
+ * The reference values of the reference-based relations are kept in memory
+ * until the end of the document, where their subjects and objects are
+ * joined.
+ *
+ * Only the MERKLE ids and the paths xcurator generates are supported: unions
+ * of child element steps with a final attribute or text() step. A relation
+ * is either relative without references, or absolute, selecting instances
+ * of its target entity by the entity's own paths. The constructor throws an
+ * IllegalArgumentException for a mapping it cannot compile.
+ */
+public class StreamingRdfGeneration {
+
+    private static final int ELEMENT = 1;
+    private static final int ATTRIBUTE = 2;
+    private static final int TEXT = 3;
+
+    // What a path selects
+    private static final int SELECT_INSTANCE = 0;
+    private static final int SELECT_CHILD_TARGET = 1;
+    private static final int SELECT_JOIN_TARGET = 2;
+    private static final int SELECT_VALUE = 3;
+
+    public static final int DEFAULT_SPILL_THRESHOLD = 64 * 1024;
+
+    private static final class Step {
+
+        final int kind;
+        // Null matches any name; the namespace URI is null for no namespace
+        final String namespaceUri;
+        final String localName;
+
+        Step(int kind, String namespaceUri, String localName) {
+            this.kind = kind;
+            this.namespaceUri = namespaceUri;
+            this.localName = localName;
+        }
+
+        boolean matches(String nodeNamespaceUri, String nodeLocalName) {
+            if (localName == null) {
+                return true;
+            }
+            return localName.equals(nodeLocalName) && (namespaceUri == null
+                    ? nodeNamespaceUri == null : namespaceUri.equals(nodeNamespaceUri));
+        }
+
+        boolean sameAs(Step other) {
+            return kind == other.kind
+                    && (localName == null ? other.localName == null : localName.equals(other.localName))
+                    && (namespaceUri == null ? other.namespaceUri == null
+                            : namespaceUri.equals(other.namespaceUri));
+        }
+    }
+
+    /**
+     * A compiled path, with what it selects.
+     */
+    private static final class Matcher {
+
+        final Step[][] branches;
+        final int selects;
+        // The entity of the selected instances
+        final EntityPlan entity;
+        // The child relation, the join or the value slot of the selection
+        final int index;
+        // A selected text node is only the first DOM node of the text, as
+        // RdfGeneration takes the text content of the node XPath returns
+        final boolean firstTextNode;
+
+        Matcher(Step[][] branches, int selects, EntityPlan entity, int index,
+                boolean firstTextNode) {
+            this.branches = branches;
+            this.selects = selects;
+            this.entity = entity;
+            this.index = index;
+            this.firstTextNode = firstTextNode;
+        }
+    }
+
+    private static final class RelationPlan {
+
+        final String rdfUri;
+        // The index of the targets of a child relation in the instance, or -1
+        final int childIndex;
+        // The join of a reference-based relation, or null
+        final JoinPlan join;
+
+        RelationPlan(String rdfUri, int childIndex, JoinPlan join) {
+            this.rdfUri = rdfUri;
+            this.childIndex = childIndex;
+            this.join = join;
+        }
+    }
+
+    private static final class EntityPlan {
+
+        final Schema schema;
+        final List<Attribute> attributes = new ArrayList<>();
+        final List<RelationPlan> relations = new ArrayList<>();
+        // The paths from the element of an instance
+        final List<Matcher> matchers = new ArrayList<>();
+        int childRelationCount;
+        // The attribute values first, then the reference values
+        int slotCount;
+
+        EntityPlan(Schema schema) {
+            this.schema = schema;
+        }
+    }
+
+    /**
+     * The subjects and objects of a reference-based relation in the current
+     * document, by their reference values.
+     */
+    private static final class JoinPlan {
+
+        final String rdfUri;
+        final int[] subjectSlots;
+        final int[] objectSlots;
+        final List<String> subjectUris = new ArrayList<>();
+        final List<List<String>> subjectKeys = new ArrayList<>();
+        final Map<List<String>, List<String>> objects = new HashMap<>();
+
+        JoinPlan(String rdfUri, int referenceCount) {
+            this.rdfUri = rdfUri;
+            this.subjectSlots = new int[referenceCount];
+            this.objectSlots = new int[referenceCount];
+        }
+
+        void clear() {
+            subjectUris.clear();
+            subjectKeys.clear();
+            objects.clear();
+        }
+    }
+
+    /**
+     * A branch of a path matched up to a step, which applies to the
+     * children of the element it is kept at.
+     */
+    private static final class Token {
+
+        final Matcher matcher;
+        // The instance the relative path starts from, null if absolute
+        final Frame owner;
+        final int branch;
+        final int position;
+
+        Token(Matcher matcher, Frame owner, int branch, int position) {
+            this.matcher = matcher;
+            this.owner = owner;
+            this.branch = branch;
+            this.position = position;
+        }
+    }
+
+    /**
+     * An instance whose element is open.
+     */
+    private final class Frame {
+
+        final EntityPlan entity;
+        final List<List<StringBuilder>> values;
+        final List<TargetList> childTargets;
+        // The instances this one is a child relation target of
+        final List<Frame> parents = new ArrayList<>(1);
+        final List<Integer> parentRelations = new ArrayList<>(1);
+        final List<JoinPlan> joins = new ArrayList<>(1);
+
+        Frame(EntityPlan entity) {
+            this.entity = entity;
+            this.values = new ArrayList<>(entity.slotCount);
+            for (int i = 0; i < entity.slotCount; i++) {
+                values.add(new ArrayList<StringBuilder>(1));
+            }
+            this.childTargets = new ArrayList<>(entity.childRelationCount);
+            for (int i = 0; i < entity.childRelationCount; i++) {
+                childTargets.add(new TargetList());
+            }
+        }
+    }
+
+    /**
+     * The digests of the child relation targets of an open instance, in
+     * document order. Only the last ones are kept in memory, the others are
+     * spilled to a temporary file.
+     */
+    private final class TargetList {
+
+        private final List<byte[]> digests = new ArrayList<>();
+        private File file;
+        private DataOutputStream out;
+
+        void add(byte[] digest) {
+            digests.add(digest);
+            if (digests.size() < spillThreshold) {
+                return;
+            }
+            try {
+                if (file == null) {
+                    file = File.createTempFile("xcurator-targets", ".bin", tempDir);
+                    spilled.add(this);
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(file), 1 << 16));
+                }
+                for (byte[] d : digests) {
+                    out.writeShort(d.length);
+                    out.write(d);
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            digests.clear();
+        }
+
+        /**
+         * Add a triple to each target, and delete the spilled digests.
+         */
+        void generate(String instanceUri, String propertyUri) {
+            if (file != null) {
+                try {
+                    out.close();
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(file), 1 << 16))) {
+                        long length = file.length();
+                        long read = 0;
+                        while (read < length) {
+                            byte[] digest = new byte[in.readUnsignedShort()];
+                            in.readFully(digest);
+                            read += 2 + digest.length;
+                            sink.addResource(instanceUri, propertyUri,
+                                    elementIdGenerator.generateUri(digest));
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                } finally {
+                    delete();
+                }
+            }
+            for (byte[] digest : digests) {
+                sink.addResource(instanceUri, propertyUri, elementIdGenerator.generateUri(digest));
+            }
+        }
+
+        void delete() {
+            if (file == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException ex) {
+                // The file is deleted anyway
+            }
+            file.delete();
+            file = null;
+            spilled.remove(this);
+        }
+    }
+
+    private static final class OpenElement {
+
+        final String namespaceUri;
+        final String localName;
+        // The tokens whose next step is a child element or a text node
+        final List<Token> tokens = new ArrayList<>();
+        final List<Token> textTokens = new ArrayList<>();
+        final List<Frame> frames = new ArrayList<>(1);
+        // The selections of the element, so a node selected by several
+        // branches of a union is selected once
+        final List<Matcher> selectedMatchers = new ArrayList<>(1);
+        final List<Frame> selectedOwners = new ArrayList<>(1);
+        int elementCaptureCount;
+        boolean hashed;
+
+        OpenElement(String namespaceUri, String localName) {
+            this.namespaceUri = namespaceUri;
+            this.localName = localName;
+        }
+
+        boolean select(Matcher matcher, Frame owner) {
+            for (int i = 0; i < selectedMatchers.size(); i++) {
+                if (selectedMatchers.get(i) == matcher && selectedOwners.get(i) == owner) {
+                    return false;
+                }
+            }
+            selectedMatchers.add(matcher);
+            selectedOwners.add(owner);
+            return true;
+        }
+    }
+
+    private final RdfSink sink;
+    private final ElementIdGenerator elementIdGenerator;
+    private final String xmlTypePropertyUri;
+    private final XMLInputFactory inputFactory;
+    private final List<JoinPlan> joins = new ArrayList<>();
+    // The absolute paths, at the document node
+    private final List<Token> documentTokens = new ArrayList<>();
+    private int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+    private File tempDir;
+
+    // The state of the document being generated
+    private final List<OpenElement> stack = new ArrayList<>();
+    private final List<MerkleDigestBuilder> digestBuilders = new ArrayList<>();
+    private final List<StringBuilder> elementCaptures = new ArrayList<>();
+    private final StringBuilder textRun = new StringBuilder();
+    private final List<StringBuilder> textCaptures = new ArrayList<>();
+    private final List<StringBuilder> firstNodeCaptures = new ArrayList<>();
+    private boolean inTextRun;
+    private boolean lastTextWasCData;
+    // The target lists with a spill file
+    private final List<TargetList> spilled = new ArrayList<>();
+
+    /**
+     * Compile the mapping.
+     *
+     * @param sink the sink of the triples, which is committed after each
+     * document but left open
+     * @param mapping
+     * @param config
+     * @param idMode must be MERKLE
+     * @throws IllegalArgumentException if the ids are not MERKLE or the
+     * mapping cannot be generated from a stream
+     */
+    public StreamingRdfGeneration(RdfSink sink, Mapping mapping, RdfUriConfig config,
+            ElementIdGenerator.MODE idMode) {
+        if (idMode != ElementIdGenerator.MODE.MERKLE) {
+            throw new IllegalArgumentException("Streaming generation needs the merkle ids");
+        }
+        this.sink = sink;
+        this.elementIdGenerator = new ElementIdGenerator(config.getResourceUriBase(), idMode);
+        String uriBase = config.getPropertyResourceUriBase();
+        this.xmlTypePropertyUri = (uriBase.endsWith("/") ? uriBase : uriBase + "/")
+                + "extractedFromXMLType";
+        this.inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        compile(mapping);
+    }
+
+    /**
+     * Set how many child relation targets an open instance keeps in memory
+     * before they are spilled to a temporary file.
+     *
+     * @param spillThreshold
+     * @param tempDir the directory of the files, or null for the default
+     * temporary directory
+     * @return
+     */
+    public StreamingRdfGeneration setSpillThreshold(int spillThreshold, File tempDir) {
+        if (spillThreshold < 1) {
+            throw new IllegalArgumentException("The spill threshold must be at least 1.");
+        }
+        this.spillThreshold = spillThreshold;
+        this.tempDir = tempDir;
+        return this;
+    }
+
+    private void compile(Mapping mapping) {
+        Map<Schema, EntityPlan> plans = new IdentityHashMap<>();
+        List<EntityPlan> ordered = new ArrayList<>();
+        Iterator<Schema> it = mapping.getEntityIterator();
+        while (it.hasNext()) {
+            Schema entity = it.next();
+            EntityPlan plan = new EntityPlan(entity);
+            plans.put(entity, plan);
+            ordered.add(plan);
+        }
+        List<Matcher> absolute = new ArrayList<>();
+        for (EntityPlan plan : ordered) {
+            Schema entity = plan.schema;
+            NamespaceContext nsContext = entity.getNamespaceContext();
+            absolute.add(new Matcher(compilePath(entity.getPath(), nsContext, true),
+                    SELECT_INSTANCE, plan, -1, false));
+
+            // The attribute values are in the first slots of the instances,
+            // before the reference values of any relation
+            Iterator<Attribute> attrIterator = entity.getAttributeIterator();
+            while (attrIterator.hasNext()) {
+                Attribute attr = attrIterator.next();
+                plan.matchers.add(new Matcher(compilePath(attr.getPath(), nsContext, false),
+                        SELECT_VALUE, null, plan.slotCount++, true));
+                plan.attributes.add(attr);
+            }
+        }
+        for (EntityPlan plan : ordered) {
+            Schema entity = plan.schema;
+            NamespaceContext nsContext = entity.getNamespaceContext();
+            Iterator<Relation> relIterator = entity.getRelationIterator();
+            while (relIterator.hasNext()) {
+                Relation rel = relIterator.next();
+                Schema targetEntity = mapping.getEntity(rel.getObjectXmlTypeUri());
+                if (targetEntity == null || plans.get(targetEntity) == null) {
+                    throw new IllegalArgumentException("Unknown target entity of relation "
+                            + rel.getRdfUri());
+                }
+                EntityPlan target = plans.get(targetEntity);
+                List<Reference> references = new ArrayList<>();
+                Iterator<Reference> refIterator = rel.getReferenceIterator();
+                while (refIterator.hasNext()) {
+                    references.add(refIterator.next());
+                }
+                if (!rel.getPath().startsWith("/")) {
+                    if (!references.isEmpty()) {
+                        throw new IllegalArgumentException(
+                                "Relative relation paths with references are not supported: "
+                                + rel.getPath());
+                    }
+                    plan.matchers.add(new Matcher(compilePath(rel.getPath(), nsContext, false),
+                            SELECT_CHILD_TARGET, target, plan.childRelationCount, false));
+                    plan.relations.add(new RelationPlan(rel.getRdfUri(),
+                            plan.childRelationCount++, null));
+                    continue;
+                }
+                // The objects are the instances of the target entity the
+                // path selects, joined with the subjects by the references
+                Step[][] objectBranches = compilePath(rel.getPath(), nsContext, true);
+                Step[][] targetBranches = compilePath(targetEntity.getPath(),
+                        targetEntity.getNamespaceContext(), true);
+                for (Step[] branch : objectBranches) {
+                    if (!containsBranch(targetBranches, branch)) {
+                        throw new IllegalArgumentException("The relation path " + rel.getPath()
+                                + " selects elements that are not instances of its target entity");
+                    }
+                }
+                JoinPlan join = new JoinPlan(rel.getRdfUri(), references.size());
+                for (int r = 0; r < references.size(); r++) {
+                    join.subjectSlots[r] = plan.slotCount;
+                    plan.matchers.add(new Matcher(compilePath(references.get(r).getPath(),
+                            nsContext, false), SELECT_VALUE, null, plan.slotCount++, false));
+                    join.objectSlots[r] = target.slotCount;
+                    target.matchers.add(new Matcher(compilePath(references.get(r).getTargetPath(),
+                            targetEntity.getNamespaceContext(), false), SELECT_VALUE, null,
+                            target.slotCount++, false));
+                }
+                absolute.add(new Matcher(objectBranches, SELECT_JOIN_TARGET, target,
+                        joins.size(), false));
+                joins.add(join);
+                plan.relations.add(new RelationPlan(rel.getRdfUri(), -1, join));
+            }
+        }
+        for (Matcher matcher : absolute) {
+            for (int b = 0; b < matcher.branches.length; b++) {
+                documentTokens.add(new Token(matcher, null, b, 0));
+            }
+        }
+    }
+
+    private static boolean containsBranch(Step[][] branches, Step[] branch) {
+        for (Step[] other : branches) {
+            if (other.length == branch.length) {
+                boolean same = true;
+                for (int i = 0; i < branch.length && same; i++) {
+                    same = branch[i].sameAs(other[i]);
+                }
+                if (same) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compile the branches of a path into their steps, without the self
+     * steps, which do not move.
+     */
+    private static Step[][] compilePath(String path, NamespaceContext nsContext,
+            boolean absolute) {
+        String[] branches = path.split("\\|", -1);
+        Step[][] compiled = new Step[branches.length][];
+        for (int b = 0; b < branches.length; b++) {
+            String branch = branches[b].trim();
+            if (branch.startsWith("/") != absolute) {
+                throw new IllegalArgumentException("The path " + path + " must be "
+                        + (absolute ? "absolute" : "relative"));
+            }
+            String[] tokens = (absolute ? branch.substring(1) : branch).split("/", -1);
+            List<Step> steps = new ArrayList<>();
+            for (int t = 0; t < tokens.length; t++) {
+                if (tokens[t].equals(".")) {
+                    continue;
+                }
+                Step step = compileStep(tokens[t], nsContext);
+                if (step == null || (step.kind != ELEMENT && t != tokens.length - 1)) {
+                    throw new IllegalArgumentException("Unsupported path: " + path);
+                }
+                steps.add(step);
+            }
+            if (absolute && (steps.isEmpty() || steps.get(0).kind != ELEMENT)) {
+                throw new IllegalArgumentException("Unsupported path: " + path);
+            }
+            compiled[b] = steps.toArray(new Step[steps.size()]);
+        }
+        return compiled;
+    }
+
+    private static Step compileStep(String token, NamespaceContext nsContext) {
+        if (token.equals("text()")) {
+            return new Step(TEXT, null, null);
+        } else if (token.equals("*")) {
+            return new Step(ELEMENT, null, null);
+        } else if (token.equals("@*")) {
+            return new Step(ATTRIBUTE, null, null);
+        }
+        int kind = ELEMENT;
+        if (token.startsWith("@")) {
+            kind = ATTRIBUTE;
+            token = token.substring(1);
+        }
+        int colon = token.indexOf(':');
+        String localName = colon < 0 ? token : token.substring(colon + 1);
+        if (!isNCName(localName)) {
+            return null;
+        }
+        if (colon < 0) {
+            return new Step(kind, null, localName);
+        }
+        String prefix = token.substring(0, colon);
+        if (!prefix.isEmpty() && !isNCName(prefix)) {
+            return null;
+        }
+        String namespaceUri = nsContext.getNamespaceURI(prefix);
+        if (namespaceUri == null || namespaceUri.equals(XMLConstants.NULL_NS_URI)) {
+            return null;
+        }
+        return new Step(kind, namespaceUri, localName);
+    }
+
+    private static boolean isNCName(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        char first = s.charAt(0);
+        if (!Character.isLetter(first) && first != '_') {
+            return false;
+        }
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generate the RDF of one document, and commit the sink.
+     *
+     * @param is
+     * @throws XMLStreamException
+     */
+    public void process(InputStream is) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+        try {
+            OpenElement document = new OpenElement(null, null);
+            document.tokens.addAll(documentTokens);
+            stack.add(document);
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement(reader);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        text(reader, false);
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        text(reader, true);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement();
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        endTextRun();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            for (JoinPlan join : joins) {
+                for (int i = 0; i < join.subjectUris.size(); i++) {
+                    List<String> objectUris = join.objects.get(join.subjectKeys.get(i));
+                    if (objectUris != null) {
+                        for (String objectUri : objectUris) {
+                            sink.addResource(join.subjectUris.get(i), join.rdfUri, objectUri);
+                        }
+                    }
+                }
+            }
+            sink.commit();
+        } finally {
+            reader.close();
+            stack.clear();
+            elementCaptures.clear();
+            endTextRun();
+            for (JoinPlan join : joins) {
+                join.clear();
+            }
+            while (!spilled.isEmpty()) {
+                spilled.get(spilled.size() - 1).delete();
+            }
+        }
+    }
+
+    private void startElement(XMLStreamReader reader) throws XMLStreamException {
+        endTextRun();
+        OpenElement parent = stack.get(stack.size() - 1);
+        OpenElement element = new OpenElement(emptyToNull(reader.getNamespaceURI()),
+                reader.getLocalName());
+        for (Token token : parent.tokens) {
+            Step step = token.matcher.branches[token.branch][token.position];
+            if (step.matches(element.namespaceUri, element.localName)) {
+                arrive(element, token.matcher, token.owner, token.branch,
+                        token.position + 1, reader);
+            }
+        }
+        // The relative paths of the instances start from their element,
+        // which can be selected by them in turn
+        for (int f = 0; f < element.frames.size(); f++) {
+            Frame frame = element.frames.get(f);
+            for (Matcher matcher : frame.entity.matchers) {
+                for (int b = 0; b < matcher.branches.length; b++) {
+                    arrive(element, matcher, frame, b, 0, reader);
+                }
+            }
+        }
+        element.hashed = parent.hashed || !element.frames.isEmpty();
+
+        if (!element.hashed && element.tokens.isEmpty() && element.textTokens.isEmpty()
+                && elementCaptures.isEmpty()) {
+            // Nothing in this subtree is generated
+            skipElement(reader);
+            return;
+        }
+        stack.add(element);
+        if (element.hashed) {
+            digestBuilder(stack.size()).startElement(element.namespaceUri, element.localName);
+            int count = reader.getAttributeCount();
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            final XMLStreamReader r = reader;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return MerkleDigestBuilder.compareAttributes(
+                            emptyToNull(r.getAttributeNamespace(a)), r.getAttributeLocalName(a),
+                            emptyToNull(r.getAttributeNamespace(b)), r.getAttributeLocalName(b));
+                }
+            });
+            for (int i : order) {
+                digestBuilder(stack.size()).attribute(emptyToNull(reader.getAttributeNamespace(i)),
+                        reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    /**
+     * Continue a branch of a path at an element it matched up to a step.
+     */
+    private void arrive(OpenElement element, Matcher matcher, Frame owner, int branch,
+            int position, XMLStreamReader reader) {
+        Step[] steps = matcher.branches[branch];
+        if (position == steps.length) {
+            if (element.select(matcher, owner)) {
+                selectElement(element, matcher, owner);
+            }
+            return;
+        }
+        switch (steps[position].kind) {
+            case ELEMENT:
+                element.tokens.add(new Token(matcher, owner, branch, position));
+                break;
+            case TEXT:
+                element.textTokens.add(new Token(matcher, owner, branch, position));
+                break;
+            default:
+                selectAttributes(matcher, owner, steps[position], reader);
+                break;
+        }
+    }
+
+    private void selectElement(OpenElement element, Matcher matcher, Frame owner) {
+        switch (matcher.selects) {
+            case SELECT_INSTANCE:
+                frame(element, matcher.entity);
+                break;
+            case SELECT_CHILD_TARGET:
+                Frame target = frame(element, matcher.entity);
+                target.parents.add(owner);
+                target.parentRelations.add(matcher.index);
+                break;
+            case SELECT_JOIN_TARGET:
+                frame(element, matcher.entity).joins.add(joins.get(matcher.index));
+                break;
+            default:
+                // The value of an element is all the text in it
+                StringBuilder value = new StringBuilder();
+                owner.values.get(matcher.index).add(value);
+                elementCaptures.add(value);
+                element.elementCaptureCount++;
+                break;
+        }
+    }
+
+    private void selectAttributes(Matcher matcher, Frame owner, Step step,
+            XMLStreamReader reader) {
+        List<String> names = new ArrayList<>(1);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (step.matches(emptyToNull(reader.getAttributeNamespace(i)),
+                    reader.getAttributeLocalName(i))) {
+                String name = reader.getAttributeName(i).toString();
+                if (values.put(name, reader.getAttributeValue(i)) == null) {
+                    names.add(name);
+                }
+            }
+        }
+        // The DOM has the attributes of an element sorted by name
+        Collections.sort(names);
+        List<StringBuilder> slot = owner.values.get(matcher.index);
+        for (String name : names) {
+            slot.add(new StringBuilder(values.get(name)));
+        }
+    }
+
+    private Frame frame(OpenElement element, EntityPlan entity) {
+        for (Frame frame : element.frames) {
+            if (frame.entity == entity) {
+                return frame;
+            }
+        }
+        Frame frame = new Frame(entity);
+        element.frames.add(frame);
+        return frame;
+    }
+
+    private void text(XMLStreamReader reader, boolean cdata) {
+        OpenElement element = stack.get(stack.size() - 1);
+        if (!inTextRun) {
+            inTextRun = true;
+            for (int i = 0; i < element.textTokens.size(); i++) {
+                Token token = element.textTokens.get(i);
+                if (!isFirstTextToken(element, i)) {
+                    continue;
+                }
+                StringBuilder value = new StringBuilder();
+                token.owner.values.get(token.matcher.index).add(value);
+                (token.matcher.firstTextNode ? firstNodeCaptures : textCaptures).add(value);
+            }
+        } else if (cdata != lastTextWasCData) {
+            // The text continues in another DOM node
+            firstNodeCaptures.clear();
+        }
+        lastTextWasCData = cdata;
+        char[] chars = reader.getTextCharacters();
+        int start = reader.getTextStart();
+        int length = reader.getTextLength();
+        if (element.hashed) {
+            textRun.append(chars, start, length);
+        }
+        for (StringBuilder value : textCaptures) {
+            value.append(chars, start, length);
+        }
+        for (StringBuilder value : firstNodeCaptures) {
+            value.append(chars, start, length);
+        }
+        for (StringBuilder value : elementCaptures) {
+            value.append(chars, start, length);
+        }
+    }
+
+    /**
+     * Check if a text token is the first one of its path and instance, so a
+     * text node selected by several branches of a union is selected once.
+     */
+    private static boolean isFirstTextToken(OpenElement element, int index) {
+        Token token = element.textTokens.get(index);
+        for (int i = 0; i < index; i++) {
+            Token other = element.textTokens.get(i);
+            if (other.matcher == token.matcher && other.owner == token.owner) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void endTextRun() {
+        if (!inTextRun) {
+            return;
+        }
+        inTextRun = false;
+        OpenElement element = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+        if (element != null && element.hashed) {
+            digestBuilder(stack.size()).text(textRun);
+        }
+        textRun.setLength(0);
+        textCaptures.clear();
+        firstNodeCaptures.clear();
+    }
+
+    private void endElement() {
+        endTextRun();
+        OpenElement element = stack.remove(stack.size() - 1);
+        for (int i = 0; i < element.elementCaptureCount; i++) {
+            elementCaptures.remove(elementCaptures.size() - 1);
+        }
+        if (!element.hashed) {
+            return;
+        }
+        byte[] digest = digestBuilder(stack.size() + 1).finish();
+        if (stack.get(stack.size() - 1).hashed) {
+            digestBuilder(stack.size()).child(digest);
+        }
+        for (Frame frame : element.frames) {
+            generate(frame, digest);
+        }
+    }
+
+    private void generate(Frame frame, byte[] digest) {
+        String instanceUri = elementIdGenerator.generateUri(digest);
+        EntityPlan entity = frame.entity;
+        if (sink.addInstance(instanceUri, entity.schema.getRdfTypeUri())) {
+            if (entity.schema.getXmlTypeUri() != null) {
+                sink.addLiteral(instanceUri, xmlTypePropertyUri, entity.schema.getXmlTypeUri(),
+                        XSDDatatype.XSDstring.getURI());
+            }
+            for (int a = 0; a < entity.attributes.size(); a++) {
+                Attribute attr = entity.attributes.get(a);
+                LiteralDatatype datatype = attr.getDatatype();
+                for (StringBuilder sb : frame.values.get(a)) {
+                    String value = sb.toString().trim();
+                    // A value the datatype was not inferred from may not match it
+                    sink.addLiteral(instanceUri, attr.getRdfUri(), value,
+                            datatype != null && datatype.matches(value) ? datatype.getUri() : null);
+                }
+            }
+            for (RelationPlan relation : entity.relations) {
+                if (relation.join == null) {
+                    frame.childTargets.get(relation.childIndex).generate(instanceUri,
+                            relation.rdfUri);
+                } else {
+                    relation.join.subjectUris.add(instanceUri);
+                    relation.join.subjectKeys.add(key(frame, relation.join.subjectSlots));
+                }
+            }
+            // The joined relations are added at the end of the document
+            sink.endInstance();
+        }
+        // The targets of an instance already generated are not needed
+        for (TargetList targets : frame.childTargets) {
+            targets.delete();
+        }
+        for (int i = 0; i < frame.parents.size(); i++) {
+            frame.parents.get(i).childTargets.get(frame.parentRelations.get(i)).add(digest);
+        }
+        for (JoinPlan join : frame.joins) {
+            List<String> key = key(frame, join.objectSlots);
+            List<String> objectUris = join.objects.get(key);
+            if (objectUris == null) {
+                objectUris = new ArrayList<>(1);
+                join.objects.put(key, objectUris);
+            }
+            objectUris.add(instanceUri);
+        }
+    }
+
+    /**
+     * Get the reference values of an instance: the string value of the
+     * first node each reference path selected, or an empty string.
+     */
+    private static List<String> key(Frame frame, int[] slots) {
+        List<String> key = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            List<StringBuilder> values = frame.values.get(slot);
+            key.add(values.isEmpty() ? "" : values.get(0).toString());
+        }
+        return key;
+    }
+
+    private MerkleDigestBuilder digestBuilder(int depth) {
+        while (digestBuilders.size() <= depth) {
+            try {
+                digestBuilders.add(new MerkleDigestBuilder());
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return digestBuilders.get(depth);
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String emptyToNull(String namespaceUri) {
+        return namespaceUri == null || namespaceUri.isEmpty() ? null : namespaceUri;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Base of the sinks that write the triples straight to a stream in a text
+ * syntax, in the order they are added. The text is ASCII, with the other
+ * characters written as escape sequences, which all the line based RDF
+ * syntaxes read.
+ *
+ * Unlike a store, a stream cannot be asked whether an instance was written,
+ * so the typed instances are remembered in memory. Other duplicate triples
+ * are written as they are added.
+ */
+public abstract class StreamingRdfSink implements RdfSink {
+
+    protected static final String RDF_TYPE = RDF.type.getURI();
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    protected final Writer writer;
+    private final Set<String> typedInstances = new HashSet<>();
+    private long tripleCount;
+
+    protected StreamingRdfSink(OutputStream os) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.US_ASCII),
+                1 << 16);
+    }
+
+    @Override
+    public boolean addInstance(String instanceUri, String typeUri) {
+        if (!typedInstances.add(instanceUri + ' ' + typeUri)) {
+            return false;
+        }
+        addResource(instanceUri, RDF_TYPE, typeUri);
+        return true;
+    }
+
+    @Override
+    public void addResource(String subjectUri, String propertyUri, String objectUri) {
+        try {
+            writeResource(subjectUri, propertyUri, objectUri);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        tripleCount++;
+    }
+
+    @Override
+    public void addLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri) {
+        try {
+            writeLiteral(subjectUri, propertyUri, lexicalForm, datatypeUri);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        tripleCount++;
+    }
+
+    protected abstract void writeResource(String subjectUri, String propertyUri,
+            String objectUri) throws IOException;
+
+    protected abstract void writeLiteral(String subjectUri, String propertyUri,
+            String lexicalForm, String datatypeUri) throws IOException;
+
+    /**
+     * Write what has to follow the last triple, before the stream is closed.
+     *
+     * @throws IOException
+     */
+    protected void writeEnd() throws IOException {
+    }
+
+    @Override
+    public void endInstance() {
+        // The triples are not kept by instance
+    }
+
+    @Override
+    public long getTripleCount() {
+        return tripleCount;
+    }
+
+    @Override
+    public void commit() {
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            writeEnd();
+            writer.close();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Write a URI between angle brackets.
+     *
+     * @param uri
+     * @throws IOException
+     */
+    protected void writeUri(String uri) throws IOException {
+        writer.write('<');
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c < 0x80 && c > 0x20 && c != '<' && c != '>' && c != '"' && c != '{'
+                    && c != '}' && c != '|' && c != '^' && c != '`' && c != '\\') {
+                writer.write(c);
+            } else {
+                writeUnicodeEscape(c);
+            }
+        }
+        writer.write('>');
+    }
+
+    /**
+     * Write a literal between double quotes, with its datatype if it has one.
+     *
+     * @param lexicalForm
+     * @param datatypeUri can be null
+     * @throws IOException
+     */
+    protected void writeLiteral(String lexicalForm, String datatypeUri) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < lexicalForm.length(); i++) {
+            char c = lexicalForm.charAt(i);
+            switch (c) {
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c >= 0x20 && c < 0x7f) {
+                        writer.write(c);
+                    } else {
+                        writeUnicodeEscape(c);
+                    }
+            }
+        }
+        writer.write('"');
+        if (datatypeUri != null) {
+            writer.write("^^");
+            writeUri(datatypeUri);
+        }
+    }
+
+    /**
+     * Write a char as \\uXXXX. The chars outside the basic plane are written
+     * as two escaped surrogates, as the readers of Jena 2 do not know the
+     * \\UXXXXXXXX escape.
+     */
+    private void writeUnicodeEscape(char c) throws IOException {
+        writer.write("\\u");
+        writeHex(c, 4);
+    }
+
+    private void writeHex(int value, int digits) throws IOException {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            writer.write(HEX_DIGITS[(value >>> shift) & 0xf]);
+        }
+    }
+}
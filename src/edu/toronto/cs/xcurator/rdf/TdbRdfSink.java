@@ -0,0 +1,448 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.tdb.TDB;
+import com.hp.hpl.jena.tdb.TDBFactory;
+import com.hp.hpl.jena.tdb.index.TupleIndex;
+import com.hp.hpl.jena.tdb.index.TupleIndexBase;
+import com.hp.hpl.jena.tdb.nodetable.NodeTable;
+import com.hp.hpl.jena.tdb.nodetable.NodeTupleTable;
+import com.hp.hpl.jena.tdb.store.DatasetGraphTDB;
+import com.hp.hpl.jena.tdb.store.NodeId;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.openjena.atlas.lib.Tuple;
+
+/**
+ * Writes the triples into a TDB store. The store is opened when the first
+ * triple is added, so the sink can be closed after each generation step and
+ * opened again by the next one. There are three ways of loading:
+ *
+ * By default, the triples are added one by one through the Jena model API,
+ * and committed after each document.
+ *
+ * With a batch size, the nodes of the triples are written to the node table
+ * as they come, and the triples are kept as node ids. When the batch is full,
+ * it is sorted in the key order of each index of the store and written into
+ * that index, so the B+ trees are updated in order instead of at random
+ * places, and the store is committed after each batch instead of each
+ * document.
+ *
+ * With bulk loading, if the store is empty when it is opened, all the
+ * triples are one batch, sorted and written into the indexes when the sink is
+ * closed. The triples are only in the store after the sink is closed. If the
+ * store is not empty, the triples are written in batches.
+ *
+ * With a graph URI, the triples are added one by one into that named graph
+ * of the store instead of the default graph.
+ */
+public class TdbRdfSink implements RdfSink {
+
+    public static final int DEFAULT_BATCH_SIZE = 100000;
+
+    private final String tdbDirPath;
+    private final int batchSize;
+    private final boolean bulkLoad;
+    private final String graphUri;
+    // The store kept open by the caller, or null if the sink opens its own
+    private final Dataset sharedDataset;
+
+    private long tripleCount;
+
+    // Adding one by one
+    private Model model;
+    // The store of the named graph
+    private Dataset dataset;
+
+    // Adding in batches, or bulk loading
+    private DatasetGraphTDB datasetGraph;
+    private NodeTable nodeTable;
+    private TupleIndex[] indexes;
+    // The node ids of the subject, property and object of the triples of the
+    // batch, three per triple
+    private long[] batch;
+    private int batchLength;
+    private int batchLimit;
+    // The instances typed since the store was opened, the store is only
+    // asked about the others if it had triples when it was opened
+    private Set<String> typedInstances;
+    private boolean storeWasEmpty;
+
+    public TdbRdfSink(String tdbDirPath) {
+        this(tdbDirPath, 0, false);
+    }
+
+    /**
+     * @param tdbDirPath
+     * @param batchSize the number of triples written and committed at a time,
+     * or 0 to add the triples one by one and commit after each document
+     * @param bulkLoad whether to write all the triples in one batch when the
+     * store is empty
+     */
+    public TdbRdfSink(String tdbDirPath, int batchSize, boolean bulkLoad) {
+        this(tdbDirPath, batchSize, bulkLoad, null);
+    }
+
+    /**
+     * Create a sink that adds the triples one by one into a named graph.
+     *
+     * @param tdbDirPath
+     * @param graphUri the named graph of the triples
+     */
+    public TdbRdfSink(String tdbDirPath, String graphUri) {
+        this(tdbDirPath, 0, false, graphUri);
+    }
+
+    /**
+     * Create a sink that adds the triples one by one into a store opened by
+     * the caller. The store is synced when the sink is committed or closed,
+     * but it is left open for the caller to reuse and close.
+     *
+     * @param dataset
+     * @param graphUri the named graph of the triples, or null for the default
+     * graph
+     */
+    public TdbRdfSink(Dataset dataset, String graphUri) {
+        this(null, 0, false, graphUri, dataset);
+    }
+
+    private TdbRdfSink(String tdbDirPath, int batchSize, boolean bulkLoad, String graphUri) {
+        this(tdbDirPath, batchSize, bulkLoad, graphUri, null);
+    }
+
+    private TdbRdfSink(String tdbDirPath, int batchSize, boolean bulkLoad, String graphUri,
+            Dataset sharedDataset) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("The batch size must not be negative.");
+        }
+        this.tdbDirPath = tdbDirPath;
+        this.batchSize = batchSize;
+        this.bulkLoad = bulkLoad;
+        this.graphUri = graphUri;
+        this.sharedDataset = sharedDataset;
+    }
+
+    /**
+     * @return the directory of the store, or null if the store was opened by
+     * the caller
+     */
+    public String getTdbDirPath() {
+        return tdbDirPath;
+    }
+
+    /**
+     * Get the named graph of the triples.
+     *
+     * @return the graph URI, or null for the default graph
+     */
+    public String getGraphUri() {
+        return graphUri;
+    }
+
+    /**
+     * Remove all the triples of a named graph of a store.
+     *
+     * @param tdbDirPath
+     * @param graphUri
+     */
+    public static void clearGraph(String tdbDirPath, String graphUri) {
+        Dataset dataset = TDBFactory.createDataset(tdbDirPath);
+        try {
+            clearGraph(dataset, graphUri);
+        } finally {
+            dataset.close();
+        }
+    }
+
+    /**
+     * Remove all the triples of a named graph of an open store.
+     *
+     * @param dataset
+     * @param graphUri
+     */
+    public static void clearGraph(Dataset dataset, String graphUri) {
+        dataset.getNamedModel(graphUri).removeAll();
+        TDB.sync(dataset);
+    }
+
+    private boolean isOpen() {
+        return model != null || datasetGraph != null;
+    }
+
+    private void open() {
+        if (sharedDataset != null) {
+            dataset = sharedDataset;
+            model = graphUri == null ? dataset.getDefaultModel()
+                    : dataset.getNamedModel(graphUri);
+            return;
+        }
+        if (graphUri != null) {
+            dataset = TDBFactory.createDataset(tdbDirPath);
+            model = dataset.getNamedModel(graphUri);
+            return;
+        }
+        if (batchSize == 0 && !bulkLoad) {
+            model = TDBFactory.createModel(tdbDirPath);
+            return;
+        }
+        datasetGraph = TDBFactory.createDatasetGraph(tdbDirPath);
+        NodeTupleTable tripleTable = datasetGraph.getTripleTable().getNodeTupleTable();
+        nodeTable = tripleTable.getNodeTable();
+        indexes = tripleTable.getTupleTable().getIndexes();
+        storeWasEmpty = tripleTable.isEmpty();
+        typedInstances = new HashSet<>();
+        batchLimit = bulkLoad && storeWasEmpty ? Integer.MAX_VALUE / 3
+                : batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        batch = new long[3 * Math.min(batchLimit, 1 << 16)];
+        batchLength = 0;
+    }
+
+    @Override
+    public boolean addInstance(String instanceUri, String typeUri) {
+        if (!isOpen()) {
+            open();
+        }
+        if (model != null) {
+            Resource instanceResource = model.createResource(instanceUri);
+            Resource typeResource = model.createResource(typeUri);
+            if (model.contains(instanceResource, RDF.type, typeResource)) {
+                return false;
+            }
+            model.add(instanceResource, RDF.type, typeResource);
+            tripleCount++;
+            return true;
+        }
+        if (!typedInstances.add(instanceUri + ' ' + typeUri)) {
+            return false;
+        }
+        Node instance = Node.createURI(instanceUri);
+        Node type = Node.createURI(typeUri);
+        if (!storeWasEmpty && datasetGraph.getDefaultGraph().contains(
+                instance, RDF.type.asNode(), type)) {
+            return false;
+        }
+        add(instance, RDF.type.asNode(), type);
+        return true;
+    }
+
+    @Override
+    public void addResource(String subjectUri, String propertyUri, String objectUri) {
+        if (!isOpen()) {
+            open();
+        }
+        if (model != null) {
+            model.add(model.createResource(subjectUri), model.createProperty(propertyUri),
+                    model.createResource(objectUri));
+            tripleCount++;
+        } else {
+            add(Node.createURI(subjectUri), Node.createURI(propertyUri),
+                    Node.createURI(objectUri));
+        }
+    }
+
+    @Override
+    public void addLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri) {
+        if (!isOpen()) {
+            open();
+        }
+        if (model != null) {
+            Literal literal = datatypeUri == null ? model.createLiteral(lexicalForm)
+                    : model.createTypedLiteral(lexicalForm,
+                            TypeMapper.getInstance().getSafeTypeByName(datatypeUri));
+            model.add(model.createResource(subjectUri), model.createProperty(propertyUri),
+                    literal);
+            tripleCount++;
+        } else {
+            Node object = datatypeUri == null ? Node.createLiteral(lexicalForm)
+                    : Node.createLiteral(lexicalForm, null,
+                            TypeMapper.getInstance().getSafeTypeByName(datatypeUri));
+            add(Node.createURI(subjectUri), Node.createURI(propertyUri), object);
+        }
+    }
+
+    private void add(Node subject, Node property, Node object) {
+        tripleCount++;
+        if (batchLength == batch.length) {
+            batch = Arrays.copyOf(batch, (int) Math.min(3L * batchLimit, 2L * batch.length));
+        }
+        batch[batchLength++] = nodeTable.getAllocateNodeId(subject).getId();
+        batch[batchLength++] = nodeTable.getAllocateNodeId(property).getId();
+        batch[batchLength++] = nodeTable.getAllocateNodeId(object).getId();
+        if (batchLength / 3 >= batchLimit) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Write the batch into every index in the key order of the index, and
+     * commit the store.
+     */
+    private void flushBatch() {
+        if (batchLength == 0) {
+            return;
+        }
+        for (TupleIndex index : indexes) {
+            int[] keyOrder = keyOrder(index);
+            sortTriples(batch, 0, batchLength / 3 - 1, keyOrder);
+            for (int i = 0; i < batchLength; i += 3) {
+                // The same triple can be added more than once
+                if (i > 0 && batch[i] == batch[i - 3] && batch[i + 1] == batch[i - 2]
+                        && batch[i + 2] == batch[i - 1]) {
+                    continue;
+                }
+                index.add(Tuple.create(NodeId.create(batch[i]), NodeId.create(batch[i + 1]),
+                        NodeId.create(batch[i + 2])));
+            }
+        }
+        batchLength = 0;
+        datasetGraph.sync();
+    }
+
+    /**
+     * Get the slots of a subject-property-object triple in the order of the
+     * keys of an index.
+     */
+    private static int[] keyOrder(TupleIndex index) {
+        if (!(index instanceof TupleIndexBase)) {
+            return new int[]{0, 1, 2};
+        }
+        Tuple<Integer> slots = ((TupleIndexBase) index).getColumnMap().map(Tuple.create(0, 1, 2));
+        return new int[]{slots.get(0), slots.get(1), slots.get(2)};
+    }
+
+    /**
+     * Sort the triples between two triple positions, inclusive, by their
+     * slots in the given order. The ids are compared unsigned, the same as
+     * the bytes of the keys of the B+ trees.
+     */
+    private static void sortTriples(long[] triples, int from, int to, int[] keyOrder) {
+        while (to - from > 16) {
+            // Quicksort on the median of three, recursing into the smaller part
+            int mid = (from + to) >>> 1;
+            if (compareTriples(triples, mid, from, keyOrder) < 0) {
+                swapTriples(triples, mid, from);
+            }
+            if (compareTriples(triples, to, from, keyOrder) < 0) {
+                swapTriples(triples, to, from);
+            }
+            if (compareTriples(triples, to, mid, keyOrder) < 0) {
+                swapTriples(triples, to, mid);
+            }
+            swapTriples(triples, mid, to - 1);
+            int pivot = to - 1;
+            int i = from;
+            int j = to - 1;
+            while (true) {
+                while (compareTriples(triples, ++i, pivot, keyOrder) < 0) {
+                }
+                while (compareTriples(triples, --j, pivot, keyOrder) > 0) {
+                }
+                if (i >= j) {
+                    break;
+                }
+                swapTriples(triples, i, j);
+            }
+            swapTriples(triples, i, to - 1);
+            if (i - from < to - i) {
+                sortTriples(triples, from, i - 1, keyOrder);
+                from = i + 1;
+            } else {
+                sortTriples(triples, i + 1, to, keyOrder);
+                to = i - 1;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && compareTriples(triples, j, j - 1, keyOrder) < 0; j--) {
+                swapTriples(triples, j, j - 1);
+            }
+        }
+    }
+
+    private static int compareTriples(long[] triples, int a, int b, int[] keyOrder) {
+        for (int slot : keyOrder) {
+            // Offset the ids to compare them unsigned
+            int c = Long.compare(triples[3 * a + slot] + Long.MIN_VALUE,
+                    triples[3 * b + slot] + Long.MIN_VALUE);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private static void swapTriples(long[] triples, int a, int b) {
+        for (int k = 0; k < 3; k++) {
+            long t = triples[3 * a + k];
+            triples[3 * a + k] = triples[3 * b + k];
+            triples[3 * b + k] = t;
+        }
+    }
+
+    @Override
+    public void endInstance() {
+        // The triples are not kept by instance
+    }
+
+    @Override
+    public long getTripleCount() {
+        return tripleCount;
+    }
+
+    @Override
+    public void commit() {
+        if (dataset != null) {
+            TDB.sync(dataset);
+        } else if (model != null) {
+            model.commit();
+        }
+        // The batches are committed when they are full
+    }
+
+    @Override
+    public void close() {
+        if (dataset != null) {
+            TDB.sync(dataset);
+            if (dataset != sharedDataset) {
+                dataset.close();
+            }
+            dataset = null;
+            model = null;
+        }
+        if (model != null) {
+            model.close();
+            model = null;
+        }
+        if (datasetGraph != null) {
+            flushBatch();
+            datasetGraph.close();
+            datasetGraph = null;
+            nodeTable = null;
+            indexes = null;
+            batch = null;
+            typedInstances = null;
+        }
+    }
+}
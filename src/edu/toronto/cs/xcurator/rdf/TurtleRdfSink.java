@@ -0,0 +1,111 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the triples as Turtle. The consecutive triples of a subject are
+ * written as one block, and the URIs in the namespaces of the given prefixes
+ * are written as prefixed names when their local name is simple enough.
+ */
+public class TurtleRdfSink extends StreamingRdfSink {
+
+    private static final Pattern LOCAL_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_-]*");
+
+    // Namespace to prefix
+    private final Map<String, String> prefixes = new LinkedHashMap<>();
+    private String subject;
+
+    /**
+     * @param os
+     * @param prefixes the prefixes to declare, by prefix
+     * @throws IOException
+     */
+    public TurtleRdfSink(OutputStream os, Map<String, String> prefixes) throws IOException {
+        super(os);
+        for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+            this.prefixes.put(prefix.getValue(), prefix.getKey());
+            writer.write("@prefix " + prefix.getKey() + ": ");
+            writeUri(prefix.getValue());
+            writer.write(" .\n");
+        }
+        if (!prefixes.isEmpty()) {
+            writer.write('\n');
+        }
+    }
+
+    @Override
+    protected void writeResource(String subjectUri, String propertyUri, String objectUri)
+            throws IOException {
+        writeSubjectAndProperty(subjectUri, propertyUri);
+        writeName(objectUri);
+    }
+
+    @Override
+    protected void writeLiteral(String subjectUri, String propertyUri, String lexicalForm,
+            String datatypeUri) throws IOException {
+        writeSubjectAndProperty(subjectUri, propertyUri);
+        writeLiteral(lexicalForm, null);
+        if (datatypeUri != null) {
+            writer.write("^^");
+            writeName(datatypeUri);
+        }
+    }
+
+    private void writeSubjectAndProperty(String subjectUri, String propertyUri)
+            throws IOException {
+        if (subjectUri.equals(subject)) {
+            writer.write(" ;\n    ");
+        } else {
+            if (subject != null) {
+                writer.write(" .\n");
+            }
+            subject = subjectUri;
+            writeName(subjectUri);
+            writer.write("\n    ");
+        }
+        if (RDF_TYPE.equals(propertyUri)) {
+            writer.write('a');
+        } else {
+            writeName(propertyUri);
+        }
+        writer.write(' ');
+    }
+
+    private void writeName(String uri) throws IOException {
+        int split = Math.max(uri.lastIndexOf('/'), uri.lastIndexOf('#')) + 1;
+        String prefix = prefixes.get(uri.substring(0, split));
+        if (prefix != null && LOCAL_NAME.matcher(uri).region(split, uri.length()).matches()) {
+            writer.write(prefix);
+            writer.write(':');
+            writer.write(uri, split, uri.length() - split);
+        } else {
+            writeUri(uri);
+        }
+    }
+
+    @Override
+    protected void writeEnd() throws IOException {
+        if (subject != null) {
+            writer.write(" .\n");
+        }
+    }
+}
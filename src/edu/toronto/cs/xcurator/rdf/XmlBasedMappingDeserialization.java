@@ -19,6 +19,7 @@ import edu.toronto.cs.xcurator.common.DataDocument;
 import edu.toronto.cs.xcurator.mapping.Mapping;
 import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
 import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.LiteralDatatype;
 import edu.toronto.cs.xcurator.mapping.Schema;
 import edu.toronto.cs.xcurator.mapping.Reference;
 import edu.toronto.cs.xcurator.mapping.Relation;
@@ -152,6 +153,9 @@ public class XmlBasedMappingDeserialization implements RdfGenerationStep {
                 attrElement.getAttribute(XmlBasedMapping.xmlTypeAttrName), nsContext);
         Attribute attr = new Attribute(entity, rdfTypeUri, xmlTypeUri);
         attr.addPath(path);
+        // Unknown datatypes are generated as plain literals
+        attr.setDatatype(LiteralDatatype.fromUri(
+                attrElement.getAttribute(XmlBasedMapping.datatypeAttrName)));
         return attr;
     }
 
@@ -172,7 +176,7 @@ public class XmlBasedMappingDeserialization implements RdfGenerationStep {
         return new Reference(path, targetPath);
     }
 
-    private String getUriFromPrefixedName(String prefixedName, NsContext nsContext) {
+    static String getUriFromPrefixedName(String prefixedName, NsContext nsContext) {
         if (prefixedName.contains(":")) {
             // Apply the split only 1 time to get the first prefix
             // There may be more prefix in the name but we choose to ignore them
@@ -0,0 +1,70 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.utils;
+
+/**
+ * A Bloom filter over 64-bit hashes. It answers whether a hash might have
+ * been added, with no false negatives and a false positive rate of about
+ * 0.6185 ^ bitsPerElement when it holds the expected number of hashes.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    public BloomFilter(long expectedInsertions, int bitsPerElement) {
+        if (bitsPerElement < 1) {
+            throw new IllegalArgumentException("The bits per element must be at least 1.");
+        }
+        long words = Math.max(1, (Math.max(1, expectedInsertions) * bitsPerElement + 63) / 64);
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The Bloom filter is too large.");
+        }
+        bits = new long[(int) words];
+        bitCount = words * 64;
+        hashCount = Math.max(1, (int) Math.round(bitsPerElement * Math.log(2)));
+    }
+
+    /**
+     * Add the hash of an element. The hash should be well mixed, e.g. by
+     * {@link HashUtils#mix64(long)}.
+     *
+     * @param hash
+     */
+    public void add(long hash) {
+        // Derive the probes from the two halves of the hash (Kirsch and
+        // Mitzenmacher), instead of hashing the element again per probe
+        long h1 = hash & 0xffffffffL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long h1 = hash & 0xffffffffL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.utils;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Fast non-cryptographic 64-bit hashes.
+ */
+public class HashUtils {
+
+    public static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * FNV-1a hash of the UTF-16 code units of a string.
+     *
+     * @param s
+     * @return
+     */
+    public static long fnv1a64(CharSequence s) {
+        return fnv1a64(FNV_OFFSET_BASIS, s);
+    }
+
+    /**
+     * Continue an FNV-1a hash with the UTF-16 code units of a string.
+     *
+     * @param hash the hash so far
+     * @param s
+     * @return
+     */
+    public static long fnv1a64(long hash, CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Continue an FNV-1a hash with a long value.
+     *
+     * @param hash the hash so far
+     * @param value
+     * @return
+     */
+    public static long fnv1a64(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Mix the bits of a 64-bit value (the finalizer of MurmurHash3), so that
+     * every input bit affects every output bit.
+     *
+     * @param h
+     * @return
+     */
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * A fingerprint of the content of a DOM subtree: the names, attributes and
+     * text of all the nodes. This walks the whole subtree.
+     *
+     * @param node
+     * @return
+     */
+    public static long fingerprint(Node node) {
+        return mix64(fingerprint(FNV_OFFSET_BASIS, node));
+    }
+
+    private static long fingerprint(long hash, Node node) {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                hash = fnv1a64(hash, '<');
+                hash = fnv1a64(hash, node.getNodeName());
+                NamedNodeMap attrs = node.getAttributes();
+                // Attribute order is not significant in XML, so combine
+                // the attribute hashes with an order-independent sum
+                long attrHash = 0;
+                for (int i = 0; i < attrs.getLength(); i++) {
+                    Attr attr = (Attr) attrs.item(i);
+                    attrHash += mix64(fnv1a64(fnv1a64(attr.getName()), attr.getValue()));
+                }
+                hash = fnv1a64(hash, attrHash);
+                for (Node child = node.getFirstChild(); child != null;
+                        child = child.getNextSibling()) {
+                    hash = fingerprint(hash, child);
+                }
+                return fnv1a64(hash, '>');
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                return fnv1a64(hash, node.getNodeValue());
+            default:
+                return hash;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.utils;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs with open addressing and linear probing, using
+ * 8 bytes per slot instead of a boxed Long and a hash map entry per element.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    private long[] table;
+    private int size;
+    // Zero marks an empty slot, so it is tracked separately
+    private boolean containsZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        table = new long[capacity];
+    }
+
+    /**
+     * Add a value to the set.
+     *
+     * @param value
+     * @return true if the value was not in the set
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = slot(value, mask);
+        while (table[i] != EMPTY) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        size++;
+        if (size * 4 > table.length * 3) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        int i = slot(value, mask);
+        while (table[i] != EMPTY) {
+            if (table[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public void addAll(LongHashSet other) {
+        if (other.containsZero) {
+            add(EMPTY);
+        }
+        for (long value : other.table) {
+            if (value != EMPTY) {
+                add(value);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        containsZero = false;
+        size = 0;
+    }
+
+    /**
+     * Get the values of the set, in no particular order.
+     *
+     * @return
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int n = 0;
+        if (containsZero) {
+            values[n++] = EMPTY;
+        }
+        for (long value : table) {
+            if (value != EMPTY) {
+                values[n++] = value;
+            }
+        }
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        int mask = capacity - 1;
+        for (long value : old) {
+            if (value != EMPTY) {
+                int i = slot(value, mask);
+                while (table[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    private static int slot(long value, int mask) {
+        return (int) HashUtils.mix64(value) & mask;
+    }
+}
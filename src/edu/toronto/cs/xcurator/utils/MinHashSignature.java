@@ -0,0 +1,111 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.utils;
+
+import java.util.Arrays;
+
+/**
+ * A MinHash signature of a set computed with one permutation: each hashed
+ * element falls into one of a fixed number of bins by the high bits of its
+ * hash, and each bin keeps the smallest hash it has seen. Two signatures
+ * agree on a bin with probability equal to the Jaccard similarity of the
+ * sets, and adding an element is O(1) regardless of the signature size.
+ */
+public class MinHashSignature {
+
+    private final long[] mins;
+    private final boolean[] occupied;
+
+    public MinHashSignature(int size) {
+        if (size < 1 || size > 65536) {
+            throw new IllegalArgumentException("The signature size must be between 1 and 65536.");
+        }
+        mins = new long[size];
+        occupied = new boolean[size];
+        Arrays.fill(mins, Long.MAX_VALUE);
+    }
+
+    /**
+     * Add the hash of an element. The hash should be well mixed, e.g. by
+     * {@link HashUtils#mix64(long)}.
+     *
+     * @param hash
+     */
+    public void add(long hash) {
+        int bin = (int) (((hash >>> 32) * mins.length) >>> 32);
+        occupied[bin] = true;
+        if (hash < mins[bin]) {
+            mins[bin] = hash;
+        }
+    }
+
+    public int size() {
+        return mins.length;
+    }
+
+    /**
+     * Get the number of bins that are occupied in this or the other
+     * signature. Bins empty in both carry no information.
+     *
+     * @param other a signature of the same size
+     * @return
+     */
+    public int occupiedBins(MinHashSignature other) {
+        checkSize(other);
+        int n = 0;
+        for (int i = 0; i < mins.length; i++) {
+            if (occupied[i] || other.occupied[i]) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Get the number of bins occupied in both signatures with the same
+     * minimum hash.
+     *
+     * @param other a signature of the same size
+     * @return
+     */
+    public int matchingBins(MinHashSignature other) {
+        checkSize(other);
+        int n = 0;
+        for (int i = 0; i < mins.length; i++) {
+            if (occupied[i] && other.occupied[i] && mins[i] == other.mins[i]) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Estimate the Jaccard similarity of the two sets.
+     *
+     * @param other a signature of the same size
+     * @return
+     */
+    public double jaccard(MinHashSignature other) {
+        int occupiedBins = occupiedBins(other);
+        return occupiedBins == 0 ? 0 : (double) matchingBins(other) / occupiedBins;
+    }
+
+    private void checkSize(MinHashSignature other) {
+        if (other.mins.length != mins.length) {
+            throw new IllegalArgumentException("Cannot compare signatures of different sizes.");
+        }
+    }
+}
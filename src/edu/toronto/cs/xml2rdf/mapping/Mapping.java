@@ -36,6 +36,7 @@ import org.xml.sax.SAXException;
 
 import com.hp.hpl.jena.rdf.model.Bag;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.NodeIterator;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.vocabulary.RDF;
@@ -48,6 +49,8 @@ import edu.toronto.cs.xml2rdf.xml.XMLUtils;
 
 public class Mapping {
 
+    public static final int DEFAULT_BATCH_SIZE = 100000;
+
     private Document doc;
     private List<Entity> entities;
     private Set<String> blackList;
@@ -105,7 +108,32 @@ public class Mapping {
 
     public void generateRDFs(String tdbPath, Document dataDoc, String typePrefix, PrintStream out,
             String format, StringMetric stringMetric, double threshold) throws XPathExpressionException {
-        Model model = JenaUtils.getTDBModel(tdbPath);
+        generateRDFs(tdbPath, dataDoc, typePrefix, out, format, stringMetric, threshold,
+                DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Generate the RDFs of the instances in the document into the TDB. The
+     * new triples are kept in memory and added to the TDB and committed a
+     * batch at a time, while the duplicate detection of the entities sees
+     * the triples of both.
+     *
+     * @param batchSize the number of new triples added at a time, or 0 to add
+     * them one by one
+     */
+    public void generateRDFs(String tdbPath, Document dataDoc, String typePrefix, PrintStream out,
+            String format, StringMetric stringMetric, double threshold, int batchSize)
+            throws XPathExpressionException {
+        Model store = JenaUtils.getTDBModel(tdbPath);
+        Model buffer = null;
+        Model model = store;
+        if (batchSize > 0) {
+            // The union adds the triples to the buffer, and reads both
+            buffer = ModelFactory.createDefaultModel();
+            model = ModelFactory.createUnion(buffer, store);
+        }
+        long start = System.nanoTime();
+        long storeSize = store.size();
 
         for (Entity entity : entities) {
             String entityPath = entity.getPath();
@@ -113,15 +141,32 @@ public class Mapping {
             NodeList nodeList = XMLUtils.getNodesByPath(entityPath, null, dataDoc);
             for (int i = 0; i < nodeList.getLength(); i++) {
                 entity.generateRDF((Element) nodeList.item(i), dataDoc, model, typePrefix, stringMetric, threshold);
+                if (buffer != null && buffer.size() >= batchSize) {
+                    flush(buffer, store);
+                }
             }
             LogUtils.debug(this.getClass(), "Instances of " + entity + " are created.");
         }
+        if (buffer != null) {
+            flush(buffer, store);
+        }
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        long loaded = store.size() - storeSize;
+        LogUtils.info(this.getClass(), String.format("Loaded %d triples in %.1f s (%.0f triples/s)",
+                loaded, seconds, loaded / seconds));
 
         if (out != null) {
-            model.write(out, format);
+            store.write(out, format);
         }
-        model.commit();
-        model.close();
+        store.commit();
+        store.close();
+    }
+
+    private static void flush(Model buffer, Model store) {
+        store.add(buffer);
+        store.commit();
+        buffer.removeAll();
     }
 
     public void generateRDFSchema(String tdbPath, Document dataDoc,
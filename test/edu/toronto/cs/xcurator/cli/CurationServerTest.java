@@ -0,0 +1,137 @@
+package edu.toronto.cs.xcurator.cli;
+
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.tdb.TDBFactory;
+import edu.toronto.cs.xcurator.cli.config.RunConfig;
+import edu.toronto.cs.xcurator.cli.mapping.MappingFactory;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.rdf.GraphManifest;
+import edu.toronto.cs.xcurator.rdf.NTriplesRdfSink;
+import edu.toronto.cs.xcurator.rdf.RdfGeneration;
+import edu.toronto.cs.xcurator.rdf.RdfSink;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class CurationServerTest {
+
+    private static final String NS = "http://example.org/";
+    private static final String XML = "<shop><customer><cid>1</cid></customer>"
+            + "<customer><cid>2</cid></customer></shop>";
+
+    private File dir;
+    private RunConfig config;
+    private Mapping mapping;
+    private CurationServer server;
+
+    @Before
+    public void setup() throws Exception {
+        dir = File.createTempFile("xcurator", "server");
+        dir.delete();
+        new File(dir, "mappings").mkdirs();
+        new File(dir, "tdb").mkdirs();
+        config = new RunConfig(NS);
+        config.setThreads(2);
+
+        MappingFactory mappingFactory = new MappingFactory(config);
+        mapping = mappingFactory.createInstance(parse(), "B");
+        mappingFactory.writeMapping(mapping, new File(dir, "mappings/shop.xml").getPath());
+
+        server = new CurationServer(config, new File(dir, "mappings").getPath(),
+                new File(dir, "tdb").getPath());
+        server.start(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.stop();
+        }
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void test_generateSameAsDirect() throws Exception {
+        String expected = generate();
+        Assert.assertTrue(expected.contains("/cid>"));
+
+        // The second request uses the cached mapping
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(expected, post("mapping=shop", XML, 200));
+        }
+    }
+
+    @Test
+    public void test_storeReplacesGraph() throws Exception {
+        int tripleCount = generate().split("\n").length;
+        String response = tripleCount + "\n";
+        Assert.assertEquals(response, post("mapping=shop&store=true&graph=a.xml", XML, 200));
+        Assert.assertEquals(response, post("mapping=shop&store=true&graph=a.xml", XML, 200));
+        Assert.assertEquals(response, post("mapping=shop.xml&store=true", XML, 200));
+        server.stop();
+        server = null;
+
+        Dataset dataset = TDBFactory.createDataset(new File(dir, "tdb").getPath());
+        try {
+            Assert.assertEquals(tripleCount, dataset.getNamedModel(
+                    GraphManifest.graphUri(config.getResourceUriBase(), "a.xml")).size());
+            Assert.assertEquals(tripleCount, dataset.getDefaultModel().size());
+        } finally {
+            dataset.close();
+        }
+    }
+
+    @Test
+    public void test_badRequests() throws Exception {
+        post("mapping=other", XML, 404);
+        post("mapping=../mappings/shop", XML, 400);
+        post("mapping=shop", "<shop>", 400);
+        post("type=json", XML, 400);
+    }
+
+    private Document parse() throws Exception {
+        return new XmlParser().parse(new StringReader(XML), -1);
+    }
+
+    private String generate() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RdfSink sink = new NTriplesRdfSink(os);
+        List<DataDocument> documents = new ArrayList<>();
+        documents.add(new DataDocument(parse()));
+        new RdfGeneration(sink, config, config.getIdMode()).process(documents, mapping);
+        sink.close();
+        return os.toString("US-ASCII");
+    }
+
+    private String post(String query, String body, int expectedStatus) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:"
+                + server.getPort() + CurationServer.CONTEXT + "?" + query).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(query, expectedStatus, connection.getResponseCode());
+        try (InputStream is = expectedStatus == 200 ? connection.getInputStream()
+                : connection.getErrorStream()) {
+            return is == null ? "" : IOUtils.toString(is, StandardCharsets.UTF_8.name());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package edu.toronto.cs.xcurator.cli;
+
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ParallelDocumentParserTest {
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("xcurator", "docs");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void test_parseKeepsSourceOrder() throws Exception {
+        List<DocumentSource> sources = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            StringBuilder sb = new StringBuilder("<doc n=\"" + i + "\">");
+            // Make the sizes differ so the schedule differs from the input order
+            for (int j = 0; j < (i * 7) % 20; j++) {
+                sb.append("<item>").append(j).append("</item>");
+            }
+            sb.append("</doc>");
+            File f = new File(dir, "doc" + i + ".xml");
+            FileUtils.writeStringToFile(f, sb.toString());
+            sources.add(DocumentSource.forLocation(f.getPath()));
+        }
+
+        List<Document> documents = new ParallelDocumentParser(4, false).parse(sources);
+
+        Assert.assertEquals(sources.size(), documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            Assert.assertEquals(String.valueOf(i),
+                    documents.get(i).getDocumentElement().getAttribute("n"));
+        }
+    }
+
+    @Test
+    public void test_parseJson() throws Exception {
+        File f = new File(dir, "doc.json");
+        FileUtils.writeStringToFile(f, "{\"name\": \"xcurator\"}");
+        List<DocumentSource> sources = new ArrayList<>();
+        sources.add(DocumentSource.forLocation(f.getPath()));
+
+        List<Document> documents = new ParallelDocumentParser(2, true).parse(sources);
+
+        Assert.assertEquals("xcurator", documents.get(0).getElementsByTagName("name")
+                .item(0).getTextContent());
+        Assert.assertTrue(new File(f.getPath() + ".xml").exists());
+    }
+
+    @Test(expected = org.xml.sax.SAXException.class)
+    public void test_parseErrorIsPropagated() throws Exception {
+        File f = new File(dir, "broken.xml");
+        FileUtils.writeStringToFile(f, "<doc>");
+        List<DocumentSource> sources = new ArrayList<>();
+        sources.add(DocumentSource.forLocation(f.getPath()));
+
+        new ParallelDocumentParser(2, false).parse(sources);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.TestConfigs;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.common.XmlUriBuilder;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveEntityDiscoveryTest {
+
+    private List<File> files;
+
+    @Before
+    public void setup() {
+        files = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private DocumentSource source(String xml) throws IOException {
+        File file = File.createTempFile("xcurator", ".xml");
+        files.add(file);
+        FileUtils.writeStringToFile(file, xml, "UTF-8");
+        return DocumentSource.forLocation(file.getPath());
+    }
+
+    private static String book(int i) {
+        return "<catalog><book id=\"b" + i + "\"><title>Title " + i + "</title>"
+                + "<author><name>Author " + i + "</name></author></book></catalog>";
+    }
+
+    private static AdaptiveEntityDiscovery newDiscovery(int batchSize, int patience) {
+        return new AdaptiveEntityDiscovery(new StreamingEntityDiscovery(
+                new RdfUriBuilder(TestConfigs.testRdfUriConfig()), new XmlUriBuilder(), true),
+                batchSize, patience).setSeed(7);
+    }
+
+    @Test
+    public void test_stopWhenConverged() throws Exception {
+        AdaptiveEntityDiscovery discovery = newDiscovery(5, 2);
+        for (int i = 0; i < 200; i++) {
+            discovery.addSource(source(book(i)));
+        }
+        Mapping mapping = new XmlBasedMapping();
+        discovery.process(new ArrayList<DataDocument>(), mapping);
+
+        Assert.assertTrue(mapping.isInitialized());
+        Assert.assertTrue(discovery.isConverged());
+        // The first batch finds the whole schema, the next two add nothing
+        Assert.assertEquals(15, discovery.getDocumentsRead());
+        Assert.assertEquals(1 - Math.pow(0.05, 1.0 / 10), discovery.getChangeRateBound(), 1e-9);
+        Assert.assertNotNull(mapping.getEntity("book"));
+        Assert.assertNotNull(mapping.getEntity("author"));
+    }
+
+    @Test
+    public void test_readAllWhenNotConverged() throws Exception {
+        AdaptiveEntityDiscovery discovery = newDiscovery(1, 3);
+        // Each document has a new kind of record
+        for (int i = 0; i < 10; i++) {
+            discovery.addSource(source("<catalog><kind" + i + " id=\"" + i + "\"/></catalog>"));
+        }
+        Mapping mapping = new XmlBasedMapping();
+        discovery.process(new ArrayList<DataDocument>(), mapping);
+
+        Assert.assertFalse(discovery.isConverged());
+        Assert.assertEquals(10, discovery.getDocumentsRead());
+        Assert.assertEquals(1, discovery.getChangeRateBound(), 0);
+        Assert.assertEquals(11, mapping.getEntities().size());
+    }
+
+    @Test
+    public void test_failedDocumentsDoNotConverge() throws Exception {
+        AdaptiveEntityDiscovery discovery = newDiscovery(5, 2);
+        discovery.addSource(source(book(0)));
+        // Broken documents add nothing to the mapping, but must not count
+        // as unchanged batches
+        for (int i = 0; i < 50; i++) {
+            discovery.addSource(source("<catalog><book>"));
+        }
+        Mapping mapping = new XmlBasedMapping();
+        try {
+            discovery.process(new ArrayList<DataDocument>(), mapping);
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertFalse(discovery.isConverged());
+            Assert.assertFalse(mapping.isInitialized());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.TestConfigs;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.common.XmlUriBuilder;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the time of the basic entity discovery per element, for documents
+ * of growing depth with a fixed number of elements, and for documents of
+ * growing size with a fixed depth. The time per element should stay about
+ * the same in both series, that is, discovery is linear in the number of
+ * elements and does not depend on the depth.
+ *
+ * Run with: java -cp build/classes:build/test/classes:lib/* \
+ * edu.toronto.cs.xcurator.discoverer.BasicEntityDiscoveryBenchmark
+ */
+public class BasicEntityDiscoveryBenchmark {
+
+    private static final int REPETITIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        BasicEntityDiscoveryBenchmark benchmark = new BasicEntityDiscoveryBenchmark();
+        // Warm up the JIT
+        benchmark.measure(8, 20000);
+
+        System.out.println("Growing depth, about 200000 elements");
+        System.out.println("depth\telements\tns/element");
+        for (int depth = 4; depth <= 256; depth *= 2) {
+            benchmark.report(depth, 200000);
+        }
+
+        System.out.println("Growing size, depth 16");
+        System.out.println("depth\telements\tns/element");
+        for (int elements = 25000; elements <= 800000; elements *= 2) {
+            benchmark.report(16, elements);
+        }
+    }
+
+    private final XmlParser parser = new XmlParser();
+    private final RdfUriBuilder rdfUriBuilder;
+    private final XmlUriBuilder xmlUriBuilder = new XmlUriBuilder();
+
+    public BasicEntityDiscoveryBenchmark() {
+        rdfUriBuilder = new RdfUriBuilder(TestConfigs.testRdfUriConfig());
+    }
+
+    private void report(int depth, int elements) throws Exception {
+        long[] result = measure(depth, elements);
+        System.out.println(depth + "\t" + result[0] + "\t" + result[1] / result[0]);
+    }
+
+    /**
+     * @return the number of elements, and the best time in nanoseconds
+     */
+    private long[] measure(int depth, int elements) throws Exception {
+        String xml = document(depth, elements);
+        List<DataDocument> dataDocs = Collections.singletonList(
+                new DataDocument(parser.parse(new StringReader(xml), -1)));
+        long elementCount = dataDocs.get(0).Data.getElementsByTagName("*").getLength();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            long start = System.nanoTime();
+            new BasicEntityDiscovery(parser, rdfUriBuilder, xmlUriBuilder, true)
+                    .process(dataDocs, new XmlBasedMapping());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return new long[]{elementCount, best};
+    }
+
+    /**
+     * A document of chains of nested sections, each section with a title
+     * and an id attribute, repeated until there are about the given number
+     * of elements. Each level has its own element name, as the paths of an
+     * entity nested in itself grow with every level.
+     */
+    private String document(int depth, int elements) {
+        StringBuilder sb = new StringBuilder("<doc>");
+        int count = 0;
+        int chain = 0;
+        while (count < elements) {
+            for (int level = 0; level < depth; level++) {
+                sb.append("<section").append(level).append(" id=\"s").append(chain)
+                        .append('-').append(level)
+                        .append("\"><title>Section ").append(level).append(" of chain ")
+                        .append(chain).append("</title>");
+                count += 2;
+            }
+            for (int level = depth - 1; level >= 0; level--) {
+                sb.append("</section").append(level).append('>');
+            }
+            chain++;
+        }
+        return sb.append("</doc>").toString();
+    }
+}
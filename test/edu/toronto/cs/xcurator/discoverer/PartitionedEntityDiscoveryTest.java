@@ -0,0 +1,141 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.TestConfigs;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.common.XmlUriBuilder;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedEntityDiscoveryTest {
+
+    private XmlParser parser;
+    private RdfUriBuilder rdfUriBuilder;
+    private XmlUriBuilder xmlUriBuilder;
+    private List<DataDocument> dataDocs;
+
+    @Before
+    public void setup() throws Exception {
+        parser = new XmlParser();
+        rdfUriBuilder = new RdfUriBuilder(TestConfigs.testRdfUriConfig());
+        xmlUriBuilder = new XmlUriBuilder();
+        dataDocs = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            dataDocs.add(new DataDocument(parser.parse(new StringReader(document(i)), -1)));
+        }
+    }
+
+    private String document(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<report xmlns=\"http://example.org/r\" xmlns:g=\"http://example.org/g\" id=\"r")
+                .append(i).append("\">");
+        for (int j = 0; j <= i % 4; j++) {
+            sb.append("<g:item g:code=\"c").append(i * 10 + j).append("\">")
+                    .append("<name>item ").append(j).append("</name>");
+            if ((i + j) % 3 == 0) {
+                sb.append("<part n=\"").append(j).append("\"><weight>").append(i)
+                        .append("</weight></part>");
+            }
+            sb.append("</g:item>");
+        }
+        if (i % 5 == 0) {
+            sb.append("<note xmlns:x=\"http://example.org/x\"><x:text>n").append(i)
+                    .append("</x:text></note>");
+        }
+        sb.append("</report>");
+        return sb.toString();
+    }
+
+    @Test
+    public void test_sameMappingAsSerialDiscovery() {
+        Mapping serial = new XmlBasedMapping();
+        new BasicEntityDiscovery(parser, rdfUriBuilder, xmlUriBuilder, true)
+                .process(dataDocs, serial);
+
+        Mapping partitioned = new XmlBasedMapping();
+        new PartitionedEntityDiscovery(parser, rdfUriBuilder, xmlUriBuilder, true, 3)
+                .process(dataDocs, partitioned);
+
+        Assert.assertTrue(partitioned.isInitialized());
+        Assert.assertTrue(serial.isEquivalentTo(partitioned));
+        Assert.assertTrue(partitioned.isEquivalentTo(serial));
+        Assert.assertEquals(23, partitioned.getEntity("http://example.org/r/report")
+                .getXmlInstanceCount());
+
+        // Merging in document order also keeps the discovery order
+        Iterator<Schema> expected = serial.getEntityIterator();
+        Iterator<Schema> actual = partitioned.getEntityIterator();
+        while (expected.hasNext()) {
+            Schema entity = expected.next();
+            Assert.assertEquals(entity.getId(), actual.next().getId());
+            Assert.assertEquals(entity.getPath(),
+                    partitioned.getEntity(entity.getId()).getPath());
+        }
+    }
+
+    @Test
+    public void test_mergeIsAssociative() {
+        Mapping a = discover(dataDocs.subList(0, 5));
+        Mapping b = discover(dataDocs.subList(5, 11));
+        Mapping c = discover(dataDocs.subList(11, 23));
+
+        Mapping left = new XmlBasedMapping();
+        left.merge(discover(dataDocs.subList(0, 5)));
+        left.merge(discover(dataDocs.subList(5, 11)));
+        left.merge(c);
+
+        Mapping right = new XmlBasedMapping();
+        b.merge(discover(dataDocs.subList(11, 23)));
+        right.merge(a);
+        right.merge(b);
+
+        Assert.assertTrue(left.isEquivalentTo(right));
+        Assert.assertFalse(left.isEquivalentTo(a));
+    }
+
+    @Test
+    public void test_interruptedDiscoveryIsNotInitialized() {
+        Mapping partitioned = new XmlBasedMapping();
+        Thread.currentThread().interrupt();
+        try {
+            new PartitionedEntityDiscovery(parser, rdfUriBuilder, xmlUriBuilder, true, 3)
+                    .process(dataDocs, partitioned);
+            Assert.fail("The interruption is not reported");
+        } catch (IllegalStateException ex) {
+            Assert.assertFalse(partitioned.isInitialized());
+            // The interrupt flag is kept
+            Assert.assertTrue(Thread.interrupted());
+        }
+    }
+
+    private Mapping discover(List<DataDocument> docs) {
+        Mapping mapping = new XmlBasedMapping();
+        new BasicEntityDiscovery(parser, rdfUriBuilder, xmlUriBuilder, true)
+                .process(docs, mapping);
+        return mapping;
+    }
+}
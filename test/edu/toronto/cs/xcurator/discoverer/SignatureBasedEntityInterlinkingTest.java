@@ -0,0 +1,173 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.TestConfigs;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.common.XmlUriBuilder;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import edu.toronto.cs.xcurator.utils.HashUtils;
+import edu.toronto.cs.xcurator.utils.MinHashSignature;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SignatureBasedEntityInterlinkingTest {
+
+    private RdfUriBuilder rdfUriBuilder;
+    private List<DataDocument> dataDocs;
+
+    @Before
+    public void setup() throws Exception {
+        rdfUriBuilder = new RdfUriBuilder(TestConfigs.testRdfUriConfig());
+        StringBuilder sb = new StringBuilder("<shop>");
+        for (int i = 0; i < 500; i++) {
+            sb.append("<customer><cid>c").append(i).append("</cid>")
+                    .append("<name>customer ").append(i).append("</name></customer>");
+        }
+        for (int i = 0; i < 2000; i++) {
+            // Orders reference a subset of the customers
+            sb.append("<order><oid>o").append(i).append("</oid>")
+                    .append("<buyer>c").append(i % 300).append("</buyer>")
+                    // Only some of these values are customer ids
+                    .append("<referrer>c").append(i % 700).append("</referrer>")
+                    .append("<status>s").append(i % 3).append("</status></order>");
+        }
+        sb.append("</shop>");
+        dataDocs = new ArrayList<>();
+        dataDocs.add(new DataDocument(new XmlParser().parse(
+                new StringReader(sb.toString()), -1)));
+    }
+
+    private Mapping discover(MappingDiscoveryStep interlinking) {
+        Mapping mapping = new XmlBasedMapping();
+        new BasicEntityDiscovery(new XmlParser(), rdfUriBuilder, new XmlUriBuilder(), true)
+                .process(dataDocs, mapping);
+        new KeyAttributeDiscovery().process(dataDocs, mapping);
+        interlinking.process(dataDocs, mapping);
+        return mapping;
+    }
+
+    private Schema getEntityByName(Mapping mapping, String name) {
+        Iterator<Schema> it = mapping.getEntityIterator();
+        while (it.hasNext()) {
+            Schema entity = it.next();
+            if (entity.getXmlTypeUri().endsWith(name)) {
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasAttributeNamed(Schema entity, String name) {
+        Iterator<Attribute> it = entity.getAttributeIterator();
+        while (it.hasNext()) {
+            if (it.next().getPath().endsWith(name + "/text()")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<String> attributePaths(Schema entity) {
+        Set<String> paths = new HashSet<>();
+        Iterator<Attribute> it = entity.getAttributeIterator();
+        while (it.hasNext()) {
+            paths.add(it.next().getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void test_linksAnySharedValue() {
+        // By default some shared values are enough, as in the hash-based
+        // interlinking
+        Mapping mapping = discover(new SignatureBasedEntityInterlinking(rdfUriBuilder, 4));
+        Schema order = getEntityByName(mapping, "order");
+        Assert.assertFalse(hasAttributeNamed(order, "buyer"));
+        Assert.assertFalse(hasAttributeNamed(order, "referrer"));
+        Assert.assertTrue(hasAttributeNamed(order, "status"));
+    }
+
+    @Test
+    public void test_linksLikeHashBased() {
+        Mapping signatureMapping = discover(new SignatureBasedEntityInterlinking(rdfUriBuilder, 4));
+        Mapping hashMapping = discover(new HashBasedEntityInterlinking(rdfUriBuilder));
+        for (String name : new String[]{"order", "customer"}) {
+            Schema signatureEntity = getEntityByName(signatureMapping, name);
+            Schema hashEntity = getEntityByName(hashMapping, name);
+            Assert.assertEquals(hashEntity.getRelationsCount(), signatureEntity.getRelationsCount());
+            Assert.assertEquals(attributePaths(hashEntity), attributePaths(signatureEntity));
+        }
+    }
+
+    @Test
+    public void test_linksInclusionDependency() {
+        Mapping mapping = discover(new SignatureBasedEntityInterlinking(rdfUriBuilder, 4)
+                .setMinContainment(1.0));
+        Schema order = getEntityByName(mapping, "order");
+        Schema customer = getEntityByName(mapping, "customer");
+        Assert.assertNotNull(order);
+        Assert.assertNotNull(customer);
+
+        Assert.assertEquals(1, order.getRelationsCount());
+        Assert.assertTrue(order.hasRelation(order.getXmlTypeUri() + "." + customer.getXmlTypeUri()));
+        Assert.assertFalse(hasAttributeNamed(order, "buyer"));
+        Assert.assertTrue(hasAttributeNamed(order, "referrer"));
+        Assert.assertTrue(hasAttributeNamed(order, "status"));
+        Assert.assertEquals(0, customer.getRelationsCount());
+    }
+
+    @Test
+    public void test_minContainment() {
+        // 500 of the 700 referrer values are customer ids
+        Mapping mapping = discover(new SignatureBasedEntityInterlinking(rdfUriBuilder, 2)
+                .setMinContainment(0.7));
+        Schema order = getEntityByName(mapping, "order");
+        Assert.assertFalse(hasAttributeNamed(order, "buyer"));
+        Assert.assertFalse(hasAttributeNamed(order, "referrer"));
+        Assert.assertTrue(hasAttributeNamed(order, "status"));
+
+        mapping = discover(new SignatureBasedEntityInterlinking(rdfUriBuilder, 2)
+                .setMinContainment(0.8));
+        order = getEntityByName(mapping, "order");
+        Assert.assertFalse(hasAttributeNamed(order, "buyer"));
+        Assert.assertTrue(hasAttributeNamed(order, "referrer"));
+    }
+
+    @Test
+    public void test_signatureEstimatesJaccard() {
+        MinHashSignature a = new MinHashSignature(512);
+        MinHashSignature b = new MinHashSignature(512);
+        for (int i = 0; i < 10000; i++) {
+            a.add(HashUtils.mix64(HashUtils.fnv1a64("v" + i)));
+            b.add(HashUtils.mix64(HashUtils.fnv1a64("v" + (i + 5000))));
+        }
+        // 5000 shared out of 15000 values
+        Assert.assertEquals(1.0 / 3, a.jaccard(b), 0.1);
+    }
+}
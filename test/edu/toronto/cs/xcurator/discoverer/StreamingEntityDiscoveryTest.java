@@ -0,0 +1,201 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.discoverer;
+
+import edu.toronto.cs.xcurator.TestConfigs;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.common.RdfUriBuilder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.common.XmlUriBuilder;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingEntityDiscoveryTest {
+
+    private static final String[] DOCUMENTS = {
+        "<?xml version=\"1.0\"?>"
+        + "<catalog xmlns=\"http://example.org/catalog\" xmlns:p=\"http://example.org/people\">"
+        + "  <book id=\"b1\" lang=\"en\">"
+        + "    <title>Streams &amp; Trees</title>"
+        + "    <p:author p:role=\"main\"><p:name>Ann</p:name></p:author>"
+        + "    <price currency=\"CAD\">12.50</price>"
+        + "    <!-- a comment -->"
+        + "    <note/>"
+        + "  </book>"
+        + "  <book id=\"b2\">"
+        + "    <title><![CDATA[Graphs]]></title>"
+        + "    <p:author><p:name>Bob</p:name><p:name>Carl</p:name></p:author>"
+        + "    <price currency=\"USD\">9</price>"
+        + "  </book>"
+        + "</catalog>",
+        "<catalog xmlns=\"http://example.org/catalog\">"
+        + "  <book id=\"b3\"><title>Lists</title>"
+        + "    <series xmlns=\"http://example.org/series\"><name>Basics</name></series>"
+        + "  </book>"
+        + "  <magazine><issue>4</issue></magazine>"
+        + "</catalog>",
+        "<plain><item><value>1</value></item><item>text only</item></plain>"
+    };
+
+    private RdfUriBuilder rdfUriBuilder;
+    private XmlUriBuilder xmlUriBuilder;
+
+    @Before
+    public void setup() {
+        rdfUriBuilder = new RdfUriBuilder(TestConfigs.testRdfUriConfig());
+        xmlUriBuilder = new XmlUriBuilder();
+    }
+
+    @Test
+    public void test_sameMappingAsBasicEntityDiscovery() throws Exception {
+        XmlParser parser = new XmlParser();
+        List<DataDocument> dataDocs = new ArrayList<>();
+        for (String document : DOCUMENTS) {
+            dataDocs.add(new DataDocument(parser.parse(toStream(document), -1)));
+        }
+        Mapping expected = new XmlBasedMapping();
+        new BasicEntityDiscovery(parser, rdfUriBuilder, xmlUriBuilder, true)
+                .process(dataDocs, expected);
+
+        Mapping actual = new XmlBasedMapping();
+        StreamingEntityDiscovery streaming = new StreamingEntityDiscovery(
+                rdfUriBuilder, xmlUriBuilder, true);
+        for (String document : DOCUMENTS) {
+            streaming.discover(toStream(document), actual);
+        }
+        actual.setInitialized();
+
+        Assert.assertTrue(actual.isInitialized());
+        Assert.assertEquals(describe(expected), describe(actual));
+        Assert.assertNotNull(actual.getEntity("http://example.org/catalog/book"));
+        Assert.assertEquals(3, actual.getEntity("http://example.org/catalog/book")
+                .getXmlInstanceCount());
+    }
+
+    @Test
+    public void test_leafAndValueAttributes() throws Exception {
+        Mapping mapping = new XmlBasedMapping();
+        new StreamingEntityDiscovery(rdfUriBuilder, xmlUriBuilder, false)
+                .discover(toStream(DOCUMENTS[0]), mapping);
+
+        Assert.assertNull(mapping.getEntity("http://example.org/catalog/catalog"));
+        Schema book = mapping.getEntity("http://example.org/catalog/book");
+        Attribute title = book.getAttribute("http://example.org/catalog/book.http://example.org/catalog/title");
+        Assert.assertNotNull(title);
+        Assert.assertEquals("./:title/text()", title.getPath());
+        Assert.assertTrue(title.getInstances().contains("Streams & Trees"));
+        Assert.assertTrue(title.getInstances().contains("Graphs"));
+
+        Schema price = mapping.getEntity("http://example.org/catalog/price");
+        Assert.assertNotNull(price);
+        Assert.assertTrue(price.hasAttribute("http://example.org/catalog/price.value"));
+    }
+
+    @Test
+    public void test_failedDocumentIsNotInitialized() {
+        Mapping mapping = new XmlBasedMapping();
+        StreamingEntityDiscovery streaming = new StreamingEntityDiscovery(
+                rdfUriBuilder, xmlUriBuilder, true);
+        streaming.addSource(source("good", DOCUMENTS[0]));
+        // The document breaks off after its first record
+        streaming.addSource(source("truncated", "<plain><item><value>1</value></item><item>"));
+        try {
+            streaming.process(new ArrayList<DataDocument>(), mapping);
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage().endsWith("truncated"));
+        }
+        Assert.assertFalse(mapping.isInitialized());
+    }
+
+    private DocumentSource source(final String name, final String document) {
+        return new DocumentSource() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public long getSize() {
+                return document.length();
+            }
+
+            @Override
+            public InputStream openStream() {
+                return toStream(document);
+            }
+        };
+    }
+
+    private InputStream toStream(String document) {
+        return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A canonical, order-independent description of the discovered mapping.
+     */
+    private String describe(Mapping mapping) {
+        List<String> lines = new ArrayList<>();
+        Iterator<Schema> entities = mapping.getEntityIterator();
+        while (entities.hasNext()) {
+            Schema entity = entities.next();
+            lines.add("entity " + entity.getId() + " " + entity.getRdfTypeUri()
+                    + " " + sortedPaths(entity.getPath())
+                    + " " + entity.getXmlInstanceCount());
+            Iterator<Attribute> attrs = entity.getAttributeIterator();
+            while (attrs.hasNext()) {
+                Attribute attr = attrs.next();
+                List<String> instances = new ArrayList<>(attr.getInstances());
+                Collections.sort(instances);
+                lines.add("attribute " + attr.getId() + " " + sortedPaths(attr.getPath())
+                        + " " + instances);
+            }
+            Iterator<Relation> rels = entity.getRelationIterator();
+            while (rels.hasNext()) {
+                Relation rel = rels.next();
+                lines.add("relation " + rel.getId() + " " + rel.getRdfUri()
+                        + " " + sortedPaths(rel.getPath()));
+            }
+        }
+        Collections.sort(lines);
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private List<String> sortedPaths(String path) {
+        List<String> paths = new ArrayList<>(Arrays.asList(path.split("\\|")));
+        Collections.sort(paths);
+        return paths;
+    }
+}
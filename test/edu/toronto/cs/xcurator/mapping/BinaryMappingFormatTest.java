@@ -0,0 +1,164 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import edu.toronto.cs.xcurator.common.NsContext;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryMappingFormatTest {
+
+    private static final String NS = "http://example.org/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_roundTrip() throws Exception {
+        XmlBasedMapping mapping = createMapping();
+        byte[] bytes = write(mapping);
+
+        XmlBasedMapping read = new XmlBasedMapping();
+        BinaryMappingFormat.read(ByteBuffer.wrap(bytes), read);
+        Assert.assertTrue(read.isInitialized());
+        Assert.assertEquals(mapping.getMappingNamespaceUri(), read.getMappingNamespaceUri());
+        Assert.assertEquals(NS + "x", read.getBaseNamespaceContext().getNamespaceURI("x"));
+
+        Schema book = read.getEntity(NS + "x/book");
+        Assert.assertEquals("/catalog/book", book.getPath());
+        Assert.assertEquals(NS + "class/book", book.getRdfTypeUri());
+        Assert.assertEquals(NS + "y", book.getNamespaceContext().getNamespaceURI("y"));
+        Attribute price = book.getAttributeByXmlType(NS + "x/book.price");
+        Assert.assertEquals("price|cost", price.getPath());
+        Assert.assertEquals(LiteralDatatype.DECIMAL, price.getDatatype());
+        Assert.assertNull(book.getAttributeByXmlType(NS + "x/book.title").getDatatype());
+        Relation author = book.getRelationIterator().next();
+        Assert.assertEquals(NS + "x/author", author.getObjectXmlTypeUri());
+        Assert.assertEquals(1, author.getReferences().size());
+
+        // Writing what was read gives the same bytes
+        Assert.assertArrayEquals(bytes, write(read));
+    }
+
+    @Test
+    public void test_readMappedFile() throws Exception {
+        File file = folder.newFile("mapping.bin");
+        try (OutputStream os = new FileOutputStream(file)) {
+            BinaryMappingFormat.write(createMapping(), os);
+        }
+        Assert.assertTrue(BinaryMappingFormat.isBinary(file));
+        Assert.assertFalse(BinaryMappingFormat.isBinary(folder.newFile("empty.xml")));
+
+        XmlBasedMapping read = new XmlBasedMapping();
+        BinaryMappingFormat.read(file, read);
+        Assert.assertEquals(2, read.getEntities().size());
+    }
+
+    @Test
+    public void test_rejectUnknownVersionAndTruncation() throws Exception {
+        byte[] bytes = write(createMapping());
+        byte[] future = bytes.clone();
+        future[4] = BinaryMappingFormat.VERSION + 1;
+        try {
+            BinaryMappingFormat.read(ByteBuffer.wrap(future), new XmlBasedMapping());
+            Assert.fail();
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("version"));
+        }
+        try {
+            BinaryMappingFormat.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 3)),
+                    new XmlBasedMapping());
+            Assert.fail();
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("truncated"));
+        }
+    }
+
+    @Test
+    public void test_rejectCorruptHeader() throws Exception {
+        byte[] bytes = write(createMapping());
+        // A varint that decodes to -1
+        byte[] negative = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f};
+        // As the number of strings
+        byte[] corrupt = Arrays.copyOf(bytes, 5 + negative.length);
+        System.arraycopy(negative, 0, corrupt, 5, negative.length);
+        assertCorrupt(corrupt);
+        // As the length of the first string
+        corrupt = Arrays.copyOf(bytes, 6 + negative.length);
+        corrupt[5] = 1;
+        System.arraycopy(negative, 0, corrupt, 6, negative.length);
+        assertCorrupt(corrupt);
+    }
+
+    private static void assertCorrupt(byte[] bytes) {
+        try {
+            BinaryMappingFormat.read(ByteBuffer.wrap(bytes), new XmlBasedMapping());
+            Assert.fail();
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("corrupt"));
+        }
+    }
+
+    private XmlBasedMapping createMapping() {
+        XmlBasedMapping mapping = new XmlBasedMapping();
+        NsContext base = new NsContext();
+        base.addNamespace("x", NS + "x");
+        mapping.setBaseNamespaceContext(base);
+
+        Schema author = new Schema(NS + "class/author", NS + "x/author", new NsContext(base));
+        author.addPath("/catalog/author");
+        Attribute id = new Attribute(author, NS + "property/id", NS + "x/author.id");
+        id.addPath("@id");
+        author.addAttribute(id);
+
+        NsContext bookNs = new NsContext(base);
+        bookNs.addNamespace("y", NS + "y");
+        Schema book = new Schema(NS + "class/book", NS + "x/book", bookNs);
+        book.addPath("/catalog/book");
+        Attribute title = new Attribute(book, NS + "property/title", NS + "x/book.title");
+        title.addPath("title");
+        book.addAttribute(title);
+        Attribute price = new Attribute(book, NS + "property/price", NS + "x/book.price");
+        price.addPath("price");
+        price.addPath("cost");
+        price.setDatatype(LiteralDatatype.DECIMAL);
+        book.addAttribute(price);
+        Relation rel = new Relation(book, null, NS + "property/author", NS + "x/author");
+        rel.addPath("author");
+        rel.addReference(new Reference("@ref", "@id"));
+        book.addRelation(rel);
+
+        mapping.addEntity(author);
+        mapping.addEntity(book);
+        mapping.setInitialized();
+        return mapping;
+    }
+
+    private byte[] write(XmlBasedMapping mapping) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        BinaryMappingFormat.write(mapping, os);
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.StringReader;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+public class InstanceStatisticsTest {
+
+    @Test
+    public void test_countAndSample() {
+        InstanceStatistics stats = new InstanceStatistics(3);
+        for (int i = 0; i < 10; i++) {
+            if (stats.wantsSample()) {
+                stats.add("instance " + i);
+            } else {
+                stats.add();
+            }
+        }
+        Assert.assertEquals(10, stats.getCount());
+        Assert.assertEquals(10, stats.getDistinctCount());
+        Assert.assertFalse(stats.hasFingerprints());
+        Assert.assertEquals(3, stats.getSample().size());
+        Assert.assertEquals("instance 0", stats.getSample().get(0));
+    }
+
+    @Test
+    public void test_fingerprintsCountDistinctContent() throws Exception {
+        Document doc = new XmlParser().parse(new StringReader(
+                "<r><a x=\"1\" y=\"2\">v</a><a y=\"2\" x=\"1\">v</a><a x=\"1\">v</a>"
+                + "<a x=\"1\" y=\"2\"><![CDATA[w]]></a><a x=\"1\" y=\"2\">v</a></r>"), -1);
+        Schema schema = new Schema("http://example.org/class/a", "a", new NsContext(), "a");
+        schema.keepInstanceFingerprints();
+        NodeList nl = doc.getElementsByTagName("a");
+        for (int i = 0; i < nl.getLength(); i++) {
+            schema.addInstance((org.w3c.dom.Element) nl.item(i));
+        }
+        Assert.assertEquals(5, schema.getXmlInstanceCount());
+        // Attribute order does not matter, content does
+        Assert.assertEquals(3, schema.getInstanceStatistics().getDistinctCount());
+        Assert.assertEquals("a: v", schema.getInstanceStatistics().getSample().get(0));
+    }
+
+    @Test
+    public void test_merge() {
+        InstanceStatistics a = new InstanceStatistics();
+        a.keepFingerprints();
+        a.add(1L, "one");
+        a.add(2L, null);
+        InstanceStatistics b = new InstanceStatistics();
+        b.keepFingerprints();
+        b.add(2L, "two");
+        b.add(0L, "zero");
+
+        InstanceStatistics merged = new InstanceStatistics();
+        merged.merge(a);
+        merged.merge(b);
+        Assert.assertEquals(4, merged.getCount());
+        Assert.assertEquals(3, merged.getDistinctCount());
+        Assert.assertEquals("one", merged.getSample().get(0));
+
+        // Without fingerprints on one side, the distinct count is unknown
+        InstanceStatistics counted = new InstanceStatistics();
+        counted.add();
+        merged.merge(counted);
+        Assert.assertFalse(merged.hasFingerprints());
+        Assert.assertEquals(5, merged.getDistinctCount());
+    }
+}
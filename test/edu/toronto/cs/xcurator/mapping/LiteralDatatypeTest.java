@@ -0,0 +1,98 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.discoverer.DatatypeDiscovery;
+import java.util.ArrayList;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LiteralDatatypeTest {
+
+    @Test
+    public void test_scanners() {
+        assertMatches(LiteralDatatype.INTEGER, "0", "-12", "10", "-0");
+        assertNoMatch(LiteralDatatype.INTEGER, "", "-", "1.0", " 1", "1e3", "１",
+                "+007", "007", "+7", "0001326801");
+        assertMatches(LiteralDatatype.DECIMAL, "1", "-1.5", ".5", "5.", "0.000", "0.", "-0.25");
+        assertNoMatch(LiteralDatatype.DECIMAL, ".", "1.2.3", "1,5", "NaN", "+0.000",
+                "007.5", "00.5", "02");
+        assertMatches(LiteralDatatype.BOOLEAN, "true", "false", "1", "0");
+        assertNoMatch(LiteralDatatype.BOOLEAN, "TRUE", "yes", "2");
+        assertMatches(LiteralDatatype.DATE, "2013-12-31", "2012-02-29", "2000-02-29",
+                "2013-01-01Z", "2013-01-01+14:00", "-0044-03-15", "12013-01-01");
+        assertNoMatch(LiteralDatatype.DATE, "2013-2-1", "2013-13-01", "2013-04-31",
+                "2013-02-29", "1900-02-29", "2013-01-01+15:00", "2013-01-01T00:00:00", "13-01-01");
+        assertMatches(LiteralDatatype.DATE_TIME, "2013-12-31T23:59:59", "2013-12-31T24:00:00",
+                "2013-12-31T10:00:00.125Z", "2013-12-31T10:00:00-05:00");
+        assertNoMatch(LiteralDatatype.DATE_TIME, "2013-12-31", "2013-12-31T24:00:01",
+                "2013-12-31T10:60:00", "2013-12-31T10:00:00.", "2013-12-31 10:00:00");
+        assertMatches(LiteralDatatype.ANY_URI, "http://example.org/a?b#c", "urn:isbn:0451450523",
+                "mailto:someone@example.org", "ftp://host/file");
+        assertNoMatch(LiteralDatatype.ANY_URI, "example.org", "http://", "a b://c",
+                "http://example.org/a b", "12:30", "note: see");
+    }
+
+    @Test
+    public void test_inferMostSpecific() {
+        Schema schema = new Schema("http://example.org/class/a", "a", new NsContext(), "a");
+        Attribute count = attribute(schema, "count", "1", "0", "42");
+        Attribute flag = attribute(schema, "flag", "1", "0", "true");
+        Attribute price = attribute(schema, "price", "1", "2.50");
+        Attribute when = attribute(schema, "when", "2013-12-31", "2014-01-01T00:00:00");
+        Attribute none = attribute(schema, "none");
+        Attribute cik = attribute(schema, "cik", "0001326801", "0001418091");
+        Mapping mapping = new XmlBasedMapping();
+        mapping.addEntity(schema);
+
+        new DatatypeDiscovery().process(new ArrayList<DataDocument>(), mapping);
+        Assert.assertEquals(LiteralDatatype.INTEGER, count.getDatatype());
+        Assert.assertEquals(LiteralDatatype.BOOLEAN, flag.getDatatype());
+        Assert.assertEquals(LiteralDatatype.DECIMAL, price.getDatatype());
+        Assert.assertNull(when.getDatatype());
+        Assert.assertNull(none.getDatatype());
+        Assert.assertNull(cik.getDatatype());
+
+        // Merged attributes only keep the datatypes both match
+        Attribute other = new Attribute(schema, "http://example.org/property/count", "count");
+        other.checkDatatype("3.5");
+        count.merge(other);
+        Assert.assertEquals(LiteralDatatype.DECIMAL, count.inferDatatype());
+    }
+
+    private Attribute attribute(Schema schema, String name, String... values) {
+        Attribute attr = new Attribute(schema, "http://example.org/property/" + name, name);
+        for (String value : values) {
+            attr.addInstance(value);
+        }
+        schema.addAttribute(attr);
+        return attr;
+    }
+
+    private void assertMatches(LiteralDatatype datatype, String... values) {
+        for (String value : values) {
+            Assert.assertTrue(datatype + " " + value, datatype.matches(value));
+        }
+    }
+
+    private void assertNoMatch(LiteralDatatype datatype, String... values) {
+        for (String value : values) {
+            Assert.assertFalse(datatype + " " + value, datatype.matches(value));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.mapping;
+
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.discoverer.KeyAttributeDiscovery;
+import java.util.ArrayList;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ValueStatisticsTest {
+
+    @Test
+    public void test_hyperLogLogWithinErrorBounds() {
+        ValueStatistics sketch = new HyperLogLogValueStatistics(14);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add("value" + i);
+            // Duplicates do not change the estimate
+            sketch.add("value" + i);
+        }
+        Assert.assertFalse(sketch.isExact());
+        long estimate = sketch.getDistinctCount();
+        double bound = 3 * sketch.getRelativeError() * 100000;
+        Assert.assertTrue("Estimate " + estimate, Math.abs(estimate - 100000) <= bound);
+        Assert.assertTrue(sketch.getValues().isEmpty());
+    }
+
+    @Test
+    public void test_hyperLogLogSmallCardinality() {
+        ValueStatistics sketch = new HyperLogLogValueStatistics(14);
+        for (int i = 0; i < 100; i++) {
+            sketch.add("value" + (i % 10));
+        }
+        Assert.assertEquals(10, sketch.getDistinctCount());
+    }
+
+    @Test
+    public void test_hybridSwitchesToSketch() {
+        ValueStatistics stats = new ValueStatisticsFactory(
+                ValueStatisticsFactory.MODE.HYBRID, 100, 12).create();
+        for (int i = 0; i < 100; i++) {
+            stats.add("value" + i);
+        }
+        Assert.assertTrue(stats.isExact());
+        Assert.assertEquals(100, stats.getDistinctCount());
+        Assert.assertEquals(100, stats.getValues().size());
+
+        stats.add("value100");
+        Assert.assertFalse(stats.isExact());
+        Assert.assertTrue(stats.getValues().isEmpty());
+        Assert.assertEquals(101, stats.getDistinctCount(), 3 * stats.getRelativeError() * 101);
+    }
+
+    @Test
+    public void test_mergeAcrossKinds() {
+        ValueStatistics exact = new ExactValueStatistics();
+        ValueStatistics sketch = new HyperLogLogValueStatistics(14);
+        for (int i = 0; i < 1000; i++) {
+            exact.add("value" + i);
+            sketch.add("value" + (i + 500));
+        }
+        ValueStatistics merged = exact.merge(sketch);
+        Assert.assertFalse(merged.isExact());
+        Assert.assertEquals(1500, merged.getDistinctCount(), 3 * merged.getRelativeError() * 1500);
+
+        ValueStatistics exactMerged = new ExactValueStatistics().merge(exact)
+                .merge(new ExactValueStatistics());
+        Assert.assertTrue(exactMerged.isExact());
+        Assert.assertEquals(1000, exactMerged.getDistinctCount());
+    }
+
+    @Test
+    public void test_keyDiscoveryWithSketch() {
+        Mapping mapping = new XmlBasedMapping();
+        Schema schema = new Schema("http://example.org/class/a", "a", new NsContext(), "a");
+        ValueStatisticsFactory factory = new ValueStatisticsFactory(ValueStatisticsFactory.MODE.HLL);
+        Attribute id = new Attribute(schema, "http://example.org/property/id", "id", factory.create());
+        Attribute type = new Attribute(schema, "http://example.org/property/type", "type", factory.create());
+        schema.addAttribute(id);
+        schema.addAttribute(type);
+        for (int i = 0; i < 50000; i++) {
+            schema.addInstance();
+            id.addInstance("id" + i);
+            type.addInstance("type" + (i % 20));
+        }
+        mapping.addEntity(schema);
+
+        new KeyAttributeDiscovery().process(new ArrayList<DataDocument>(), mapping);
+        Assert.assertTrue(id.isKey());
+        Assert.assertFalse(type.isKey());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncRdfSinkTest {
+
+    private static final String NS = "http://example.org/resource/";
+
+    @Test
+    public void test_sameOutputAsDirectWriting() throws Exception {
+        ByteArrayOutputStream direct = new ByteArrayOutputStream();
+        write(new NTriplesRdfSink(direct));
+        ByteArrayOutputStream async = new ByteArrayOutputStream();
+        // A small ring, so the generation has to wait for the writer
+        AsyncRdfSink sink = new AsyncRdfSink(new NTriplesRdfSink(async), 2);
+        write(sink);
+        Assert.assertEquals(direct.toString("US-ASCII"), async.toString("US-ASCII"));
+        Assert.assertEquals(5000 / 2 + 2 * 5000, sink.getTripleCount());
+    }
+
+    @Test
+    public void test_writerFailureIsThrown() {
+        final boolean[] closed = new boolean[1];
+        RdfSink failing = new NTriplesRdfSink(new ByteArrayOutputStream()) {
+            @Override
+            public void addLiteral(String subjectUri, String propertyUri,
+                    String lexicalForm, String datatypeUri) {
+                throw new IllegalArgumentException("bad literal");
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        AsyncRdfSink sink = new AsyncRdfSink(failing, 2);
+        try {
+            for (int i = 0; i < 100000; i++) {
+                sink.addLiteral(NS + "a", NS + "name", "value" + i, null);
+            }
+            sink.close();
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+        // The sink under the writer is closed all the same
+        try {
+            sink.close();
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(closed[0]);
+        }
+    }
+
+    private void write(RdfSink sink) {
+        for (int i = 0; i < 5000; i++) {
+            // Every instance is added twice, and typed once
+            sink.addInstance(NS + "i" + (i / 2), NS + "Type");
+            sink.addLiteral(NS + "i" + (i / 2), NS + "name", "name " + i, null);
+            sink.addResource(NS + "i" + (i / 2), NS + "next", NS + "i" + (i / 2 + 1));
+            if (i % 1000 == 0) {
+                sink.commit();
+            }
+        }
+        sink.close();
+    }
+}
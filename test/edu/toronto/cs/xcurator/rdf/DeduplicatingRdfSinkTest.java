@@ -0,0 +1,88 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeduplicatingRdfSinkTest {
+
+    private static final String NS = "http://example.org/resource/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_duplicatesRemovedInMemory() throws Exception {
+        ByteArrayOutputStream direct = new ByteArrayOutputStream();
+        write(new NTriplesRdfSink(direct));
+        TreeSet<String> expected = new TreeSet<>(Arrays.asList(lines(direct)));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        write(new DeduplicatingRdfSink(new NTriplesRdfSink(os), 1L << 30, folder.getRoot()));
+        String[] lines = lines(os);
+        Assert.assertEquals(expected, new TreeSet<>(Arrays.asList(lines)));
+        Assert.assertEquals(expected.size(), lines.length);
+        Assert.assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void test_duplicatesRemovedAcrossRuns() throws Exception {
+        ByteArrayOutputStream inMemory = new ByteArrayOutputStream();
+        write(new DeduplicatingRdfSink(new NTriplesRdfSink(inMemory), 1L << 30, null));
+        ByteArrayOutputStream spilled = new ByteArrayOutputStream();
+        final File dir = folder.newFolder();
+        // A budget of a few triples, so most of them are spilled
+        RdfSink sink = new DeduplicatingRdfSink(new NTriplesRdfSink(spilled), 2000, dir) {
+            @Override
+            public void close() {
+                Assert.assertTrue(dir.list().length > 10);
+                super.close();
+            }
+        };
+        write(sink);
+        // The same triples, in the same order
+        Assert.assertEquals(inMemory.toString("US-ASCII"), spilled.toString("US-ASCII"));
+        Assert.assertEquals(0, dir.list().length);
+    }
+
+    private void write(RdfSink sink) {
+        for (int i = 0; i < 1000; i++) {
+            String subject = NS + "i" + (i % 100);
+            sink.addInstance(subject, NS + "Type");
+            sink.addLiteral(subject, NS + "name", "name " + (i % 150), null);
+            sink.addLiteral(subject, NS + "code", "c" + (i % 7), XSDDatatype.XSDstring.getURI());
+            // A literal and a resource with the same string are not duplicates
+            sink.addLiteral(subject, NS + "next", NS + "i" + (i % 3), null);
+            sink.addResource(subject, NS + "next", NS + "i" + (i % 3));
+            sink.addLiteral(subject, NS + "note", "hé 😀 " + (i % 2), null);
+            if (i % 100 == 0) {
+                sink.commit();
+            }
+        }
+        sink.close();
+    }
+
+    private String[] lines(ByteArrayOutputStream os) throws Exception {
+        return os.toString("US-ASCII").split("\n");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GraphManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_saveAndLoad() throws Exception {
+        File file = new File(folder.getRoot(), GraphManifest.FILE_NAME);
+        GraphManifest manifest = new GraphManifest(file);
+        Assert.assertNull(manifest.getMappingHash());
+        manifest.setMappingHash("m");
+        manifest.putDocument("data/a b.xml", "1");
+        manifest.putDocument("http://example.org/c.xml", "2");
+        manifest.putDocument("d.xml", "3");
+        manifest.removeDocument("d.xml");
+        manifest.save();
+
+        GraphManifest loaded = GraphManifest.forTdbDirectory(folder.getRoot().getPath());
+        Assert.assertEquals("m", loaded.getMappingHash());
+        Assert.assertEquals("1", loaded.getDocumentHash("data/a b.xml"));
+        Assert.assertNull(loaded.getDocumentHash("d.xml"));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("data/a b.xml", "http://example.org/c.xml")),
+                loaded.getDocumentNames());
+    }
+
+    @Test
+    public void test_hashAndGraphUri() throws Exception {
+        byte[] bytes = "<a/>".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(32, GraphManifest.hash(bytes).length());
+        Assert.assertEquals(GraphManifest.hash(bytes),
+                GraphManifest.hash(new ByteArrayInputStream(bytes)));
+        Assert.assertNotEquals(GraphManifest.hash(bytes),
+                GraphManifest.hash("<b/>".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("http://example.org/resource/graph/data%2Fa+b.xml",
+                GraphManifest.graphUri("http://example.org/resource", "data/a b.xml"));
+        Assert.assertEquals("http://example.org/resource/graph/a.xml",
+                GraphManifest.graphUri("http://example.org/resource/", "a.xml"));
+    }
+}
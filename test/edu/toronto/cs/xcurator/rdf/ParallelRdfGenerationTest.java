@@ -0,0 +1,145 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.cli.config.RunConfig;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelRdfGenerationTest {
+
+    private static final String NS = "http://example.org/";
+
+    private RunConfig config;
+    private Mapping mapping;
+    private List<DataDocument> documents;
+
+    @Before
+    public void setup() throws Exception {
+        config = new RunConfig(NS);
+        documents = new ArrayList<>();
+        for (int d = 0; d < 3; d++) {
+            StringBuilder xml = new StringBuilder("<shop>");
+            for (int c = 0; c < 5; c++) {
+                // Customers 0 and 1 have the same content, so the same URI
+                xml.append("<customer><cid>").append(Math.max(c, 1)).append("</cid></customer>");
+            }
+            for (int o = 0; o < 20 + d; o++) {
+                xml.append("<order><customer-ref>").append(o % 6).append("</customer-ref>");
+                for (int i = 0; i < o % 3; i++) {
+                    xml.append("<item>item ").append(i).append("</item>");
+                }
+                xml.append("</order>");
+            }
+            xml.append("</shop>");
+            documents.add(new DataDocument(new XmlParser().parse(
+                    new StringReader(xml.toString()), -1)));
+        }
+
+        Schema customer = new Schema(NS + "class/customer", "customer", new NsContext(), "customer");
+        customer.addPath("/shop/customer");
+        Attribute cid = new Attribute(customer, NS + "property/cid", "cid");
+        cid.addPath("./cid/text()");
+        customer.addAttribute(cid);
+        Schema order = new Schema(NS + "class/order", "order", new NsContext(), "order");
+        order.addPath("/shop/order");
+        Schema item = new Schema(NS + "class/item", "item", new NsContext(), "item");
+        item.addPath("/shop/order/item");
+        Attribute value = new Attribute(item, NS + "property/value", "value");
+        value.addPath("./text()");
+        item.addAttribute(value);
+
+        Relation items = new Relation(order, item, NS + "property/item");
+        items.addPath("./item");
+        order.addRelation(items);
+        // Orders and customers refer to each other
+        Relation orderCustomer = new Relation(order, customer, NS + "property/customer");
+        orderCustomer.addPath("/shop/customer");
+        orderCustomer.addReference(new Reference("./customer-ref/text()", "./cid/text()"));
+        order.addRelation(orderCustomer);
+        Relation customerOrder = new Relation(customer, order, NS + "property/order");
+        customerOrder.addPath("/shop/order");
+        customerOrder.addReference(new Reference("./cid/text()", "./customer-ref/text()"));
+        customer.addRelation(customerOrder);
+
+        mapping = new XmlBasedMapping();
+        mapping.addEntity(item);
+        mapping.addEntity(order);
+        mapping.addEntity(customer);
+        mapping.setInitialized();
+    }
+
+    @Test
+    public void test_sameOutputAsSerial() throws Exception {
+        for (ElementIdGenerator.MODE idMode : ElementIdGenerator.MODE.values()) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            RdfSink sink = new NTriplesRdfSink(os);
+            new RdfGeneration(sink, config, idMode).process(documents, mapping);
+            sink.close();
+            String serial = os.toString("US-ASCII");
+            Assert.assertTrue(serial.contains("/property/order>"));
+
+            for (int rangeSize : new int[]{1, 7, ParallelRdfGeneration.DEFAULT_RANGE_SIZE}) {
+                os = new ByteArrayOutputStream();
+                sink = new NTriplesRdfSink(os);
+                new ParallelRdfGeneration(sink, config, idMode, 4).setRangeSize(rangeSize)
+                        .process(documents, mapping);
+                sink.close();
+                // Even in the same order
+                Assert.assertEquals(idMode + " " + rangeSize, serial, os.toString("US-ASCII"));
+            }
+        }
+    }
+
+    @Test
+    public void test_repeatWritesBlockSkippedBefore() throws Exception {
+        InstanceBuffer buffer = new InstanceBuffer();
+        // a is related to b, then b is generated on its own
+        Assert.assertTrue(buffer.addInstance(NS + "a", NS + "A"));
+        Assert.assertTrue(buffer.addInstance(NS + "b", NS + "B"));
+        buffer.addLiteral(NS + "b", NS + "name", "b", null);
+        buffer.endInstance();
+        buffer.addResource(NS + "a", NS + "rel", NS + "b");
+        buffer.endInstance();
+        Assert.assertFalse(buffer.addInstance(NS + "b", NS + "B"));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RdfSink sink = new NTriplesRdfSink(os);
+        // The output already has a, so b is written where it is repeated
+        sink.addInstance(NS + "a", NS + "A");
+        buffer.writeTo(sink);
+        sink.close();
+        String output = os.toString("US-ASCII");
+        Assert.assertEquals(3, sink.getTripleCount());
+        Assert.assertFalse(output.contains("rel>"));
+        Assert.assertTrue(output.contains("name>"));
+    }
+}
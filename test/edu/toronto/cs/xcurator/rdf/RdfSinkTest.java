@@ -0,0 +1,110 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RdfSinkTest {
+
+    private static final String NS = "http://example.org/resource/";
+    private static final String TRICKY = "say \"héllo\"\\\n\tto 😀";
+
+    @Test
+    public void test_nTriplesRoundTrip() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        write(new NTriplesRdfSink(os));
+        assertSameTriples(read(os, "N-TRIPLE"));
+    }
+
+    @Test
+    public void test_nQuadsDefaultGraphIsNTriples() throws Exception {
+        ByteArrayOutputStream nt = new ByteArrayOutputStream();
+        write(new NTriplesRdfSink(nt));
+        ByteArrayOutputStream nq = new ByteArrayOutputStream();
+        write(new NQuadsRdfSink(nq, null));
+        Assert.assertEquals(nt.toString("US-ASCII"), nq.toString("US-ASCII"));
+
+        nq = new ByteArrayOutputStream();
+        write(new NQuadsRdfSink(nq, NS + "graph"));
+        for (String line : nq.toString("US-ASCII").split("\n")) {
+            Assert.assertTrue(line, line.endsWith(" <" + NS + "graph> ."));
+        }
+    }
+
+    @Test
+    public void test_turtleRoundTrip() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Map<String, String> prefixes = new LinkedHashMap<>();
+        prefixes.put("res", NS);
+        write(new TurtleRdfSink(os, prefixes));
+        String turtle = os.toString("US-ASCII");
+        Assert.assertTrue(turtle, turtle.contains("res:a\n    a res:Type ;"));
+        assertSameTriples(read(os, "TURTLE"));
+    }
+
+    @Test
+    public void test_instancesAreTypedOnce() {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RdfSink sink = new NTriplesRdfSink(os);
+        Assert.assertTrue(sink.addInstance(NS + "a", NS + "Type"));
+        Assert.assertFalse(sink.addInstance(NS + "a", NS + "Type"));
+        Assert.assertTrue(sink.addInstance(NS + "a", NS + "Other"));
+        sink.close();
+        Assert.assertEquals(2, ((NTriplesRdfSink) sink).getTripleCount());
+    }
+
+    private void write(RdfSink sink) {
+        sink.addInstance(NS + "a", NS + "Type");
+        sink.addLiteral(NS + "a", NS + "name", TRICKY, null);
+        sink.addLiteral(NS + "a", NS + "type", "Type", XSDDatatype.XSDstring.getURI());
+        sink.addInstance(NS + "b", NS + "Type");
+        sink.addResource(NS + "b", NS + "knows", NS + "a");
+        sink.commit();
+        sink.addLiteral(NS + "a", NS + "id", "42", null);
+        sink.close();
+    }
+
+    private Model read(ByteArrayOutputStream os, String lang) {
+        Model model = ModelFactory.createDefaultModel();
+        model.read(new ByteArrayInputStream(os.toByteArray()), null, lang);
+        return model;
+    }
+
+    private void assertSameTriples(Model model) {
+        Model expected = ModelFactory.createDefaultModel();
+        Resource a = expected.createResource(NS + "a");
+        Resource b = expected.createResource(NS + "b");
+        Resource type = expected.createResource(NS + "Type");
+        expected.add(a, RDF.type, type);
+        expected.add(a, expected.createProperty(NS + "name"), TRICKY);
+        expected.add(a, expected.createProperty(NS + "type"),
+                expected.createTypedLiteral("Type", XSDDatatype.XSDstring));
+        expected.add(a, expected.createProperty(NS + "id"), "42");
+        expected.add(b, RDF.type, type);
+        expected.add(b, expected.createProperty(NS + "knows"), a);
+        Assert.assertTrue(model.isIsomorphicWith(expected));
+    }
+}
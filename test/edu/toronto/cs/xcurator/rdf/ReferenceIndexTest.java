@@ -0,0 +1,89 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.XPathFinder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import java.io.StringReader;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class ReferenceIndexTest {
+
+    private Document doc;
+    private Schema order;
+    private Schema customer;
+    private Relation relation;
+    private XPathFinder xpath;
+
+    @Before
+    public void setup() throws Exception {
+        doc = new XmlParser().parse(new StringReader("<shop>"
+                + "<customer region=\"eu\"><cid>1</cid></customer>"
+                + "<customer region=\"us\"><cid>1</cid></customer>"
+                + "<customer region=\"eu\"><cid>2</cid></customer>"
+                + "<customer region=\"eu\"><cid>1</cid></customer>"
+                + "<order><region>eu</region><customer-ref>1</customer-ref></order>"
+                + "<order><region>us</region><customer-ref>2</customer-ref></order>"
+                + "</shop>"), -1);
+        order = new Schema("http://example.org/class/order", "order", new NsContext(), "order");
+        customer = new Schema("http://example.org/class/customer", "customer", new NsContext(), "customer");
+        relation = new Relation(order, customer, "http://example.org/property/customer");
+        relation.addPath("/shop/customer");
+        relation.addReference(new Reference("./region/text()", "@region"));
+        relation.addReference(new Reference("./customer-ref/text()", "./cid/text()"));
+        xpath = new XPathFinder();
+    }
+
+    @Test
+    public void test_lookupMatchesAllReferences() throws Exception {
+        Assert.assertTrue(ReferenceIndex.canIndex(relation));
+        ReferenceIndex index = new ReferenceIndex(relation, order, customer, doc, xpath);
+        NodeList customers = doc.getElementsByTagName("customer");
+        NodeList orders = doc.getElementsByTagName("order");
+
+        List<Element> first = index.lookup((Element) orders.item(0), order.getNamespaceContext(), xpath);
+        Assert.assertEquals(2, first.size());
+        // In document order
+        Assert.assertSame(customers.item(0), first.get(0));
+        Assert.assertSame(customers.item(3), first.get(1));
+
+        List<Element> second = index.lookup((Element) orders.item(1), order.getNamespaceContext(), xpath);
+        Assert.assertTrue(second.isEmpty());
+    }
+
+    @Test
+    public void test_canIndex() {
+        Relation child = new Relation(order, customer, "http://example.org/property/customer");
+        child.addPath("./customer");
+        Assert.assertFalse(ReferenceIndex.canIndex(child));
+        child.addReference(new Reference("./customer-ref/text()", "./cid/text()"));
+        Assert.assertFalse(ReferenceIndex.canIndex(child));
+
+        Relation noReference = new Relation(order, customer, "http://example.org/property/customer");
+        noReference.addPath("/shop/customer");
+        Assert.assertFalse(ReferenceIndex.canIndex(noReference));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.TestConfigs;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.XmlDocumentBuilder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.discoverer.SerializeMapping;
+import edu.toronto.cs.xcurator.discoverer.StreamingSerializeMapping;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.BinaryMappingFormat;
+import edu.toronto.cs.xcurator.mapping.LiteralDatatype;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamingMappingDeserializationTest {
+
+    private static final String NS = "http://example.org/";
+
+    @Test
+    public void test_sameMappingAsDom() throws Exception {
+        XmlBasedMapping mapping = createMapping();
+
+        ByteArrayOutputStream dom = new ByteArrayOutputStream();
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        new SerializeMapping(new XmlDocumentBuilder(), dom, transformer,
+                TestConfigs.testRdfUriConfig()).process(new ArrayList<DataDocument>(), mapping);
+        ByteArrayOutputStream stax = new ByteArrayOutputStream();
+        new StreamingSerializeMapping(stax, TestConfigs.testRdfUriConfig())
+                .process(new ArrayList<DataDocument>(), mapping);
+
+        // Both files read by both readers give the same mapping
+        byte[] expected = toBinary(readWithDom(dom.toByteArray()));
+        Assert.assertArrayEquals(expected, toBinary(readWithDom(stax.toByteArray())));
+        Assert.assertArrayEquals(expected, toBinary(readWithStax(dom.toByteArray())));
+        Assert.assertArrayEquals(expected, toBinary(readWithStax(stax.toByteArray())));
+
+        XmlBasedMapping read = readWithStax(stax.toByteArray());
+        Schema book = read.getEntity(NS + "x/book");
+        Assert.assertEquals("/catalog/book\"<&>", book.getPath());
+        Assert.assertEquals(NS + "y", book.getNamespaceContext().getNamespaceURI("y"));
+        Assert.assertEquals(LiteralDatatype.DECIMAL,
+                book.getAttributeByXmlType(NS + "y/price").getDatatype());
+        Assert.assertEquals(1, book.getRelationIterator().next().getReferences().size());
+    }
+
+    private XmlBasedMapping createMapping() {
+        XmlBasedMapping mapping = new XmlBasedMapping();
+        NsContext base = new NsContext();
+        base.addNamespace("x", NS + "x");
+        mapping.setBaseNamespaceContext(base);
+
+        Schema author = new Schema(NS + "resource/class/author", NS + "x/author",
+                new NsContext(base));
+        author.addPath("/catalog/author");
+        Attribute id = new Attribute(author, NS + "resource/property/id", "id");
+        id.addPath("@id");
+        author.addAttribute(id);
+
+        // An entity that declares its own namespace
+        NsContext bookNs = new NsContext(base);
+        bookNs.addNamespace("y", NS + "y");
+        Schema book = new Schema(NS + "resource/class/book", NS + "x/book", bookNs);
+        book.addPath("/catalog/book\"<&>");
+        Attribute price = new Attribute(book, NS + "resource/property/price", NS + "y/price");
+        price.addPath("y:price");
+        price.setDatatype(LiteralDatatype.DECIMAL);
+        book.addAttribute(price);
+        Relation rel = new Relation(book, null, NS + "resource/property/author",
+                NS + "x/author");
+        rel.addPath("author");
+        rel.addReference(new Reference("@ref", "@id"));
+        book.addRelation(rel);
+        // An entity without attributes or relations
+        Schema empty = new Schema(NS + "resource/class/note", NS + "x/note", new NsContext(base));
+        empty.addPath("/catalog/note");
+
+        mapping.addEntity(author);
+        mapping.addEntity(book);
+        mapping.addEntity(empty);
+        mapping.setInitialized();
+        return mapping;
+    }
+
+    private XmlBasedMapping readWithDom(byte[] file) {
+        XmlBasedMapping mapping = new XmlBasedMapping();
+        new XmlBasedMappingDeserialization(new ByteArrayInputStream(file), new XmlParser())
+                .process(new ArrayList<DataDocument>(), mapping);
+        return mapping;
+    }
+
+    private XmlBasedMapping readWithStax(byte[] file) {
+        XmlBasedMapping mapping = new XmlBasedMapping();
+        new StreamingMappingDeserialization(new ByteArrayInputStream(file))
+                .process(new ArrayList<DataDocument>(), mapping);
+        return mapping;
+    }
+
+    private byte[] toBinary(XmlBasedMapping mapping) throws Exception {
+        Assert.assertTrue(mapping.isInitialized());
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        BinaryMappingFormat.write(mapping, os);
+        return os.toByteArray();
+    }
+}
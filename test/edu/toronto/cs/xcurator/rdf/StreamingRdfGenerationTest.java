@@ -0,0 +1,213 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import edu.toronto.cs.xcurator.cli.config.RunConfig;
+import edu.toronto.cs.xcurator.common.DataDocument;
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import edu.toronto.cs.xcurator.mapping.Attribute;
+import edu.toronto.cs.xcurator.mapping.Mapping;
+import edu.toronto.cs.xcurator.mapping.Reference;
+import edu.toronto.cs.xcurator.mapping.Relation;
+import edu.toronto.cs.xcurator.mapping.Schema;
+import edu.toronto.cs.xcurator.mapping.XmlBasedMapping;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingRdfGenerationTest {
+
+    private static final String NS = "http://example.org/";
+    private static final String X = "http://example.org/x";
+
+    private RunConfig config;
+    private Mapping mapping;
+    private List<String> documents;
+
+    @Before
+    public void setup() throws Exception {
+        config = new RunConfig(NS);
+        documents = new ArrayList<>();
+        for (int d = 0; d < 3; d++) {
+            StringBuilder xml = new StringBuilder("<shop xmlns:x=\"" + X + "\">");
+            // Skipped, as no path goes through it
+            xml.append("<archive><order><customer-ref>1</customer-ref></order></archive>");
+            for (int c = 0; c < 5; c++) {
+                // Customers 0 and 1 have the same content, so the same URI
+                xml.append("<customer x:since=\"").append(2000 + Math.max(c, 1) + d)
+                        .append("\" a=\"1\"><cid>").append(Math.max(c, 1))
+                        .append("</cid><!-- c --><name>n<![CDATA[<a>]]> ").append(c)
+                        .append("</name></customer>");
+            }
+            for (int o = 0; o < 20 + d; o++) {
+                xml.append("<order><customer-ref>").append(o % 6).append("</customer-ref>");
+                for (int i = 0; i < o % 3; i++) {
+                    // The text of an item is in several nodes
+                    xml.append("<item> item <b>").append(i).append("</b> ").append(o)
+                            .append(" <![CDATA[&]]></item>");
+                }
+                xml.append("</order>");
+            }
+            xml.append("<x:note x:lang=\"en\">note ").append(d).append("</x:note>");
+            xml.append("</shop>");
+            documents.add(xml.toString());
+        }
+
+        NsContext nsContext = new NsContext();
+        nsContext.addNamespace("x", X);
+        Schema customer = new Schema(NS + "class/customer", "customer", nsContext, "customer");
+        customer.addPath("/shop/customer");
+        Attribute cid = new Attribute(customer, NS + "property/cid", "cid");
+        cid.addPath("./cid/text()");
+        customer.addAttribute(cid);
+        Attribute name = new Attribute(customer, NS + "property/name", "name");
+        name.addPath("./name");
+        customer.addAttribute(name);
+        Attribute since = new Attribute(customer, NS + "property/since", "since");
+        since.addPath("@x:since|@a");
+        customer.addAttribute(since);
+        Schema order = new Schema(NS + "class/order", "order", nsContext, "order");
+        order.addPath("/shop/order");
+        Schema item = new Schema(NS + "class/item", "item", nsContext, "item");
+        item.addPath("/shop/order/item");
+        Attribute value = new Attribute(item, NS + "property/value", "value");
+        value.addPath("./text()");
+        item.addAttribute(value);
+        Attribute all = new Attribute(item, NS + "property/all", "all");
+        all.addPath(".");
+        item.addAttribute(all);
+        Schema note = new Schema(NS + "class/note", "note", nsContext, "x:note");
+        note.addPath("/shop/x:note");
+        Attribute lang = new Attribute(note, NS + "property/lang", "lang");
+        lang.addPath("@*");
+        note.addAttribute(lang);
+
+        Relation items = new Relation(order, item, NS + "property/item");
+        items.addPath("./item");
+        order.addRelation(items);
+        // Orders and customers refer to each other
+        Relation orderCustomer = new Relation(order, customer, NS + "property/customer");
+        orderCustomer.addPath("/shop/customer");
+        orderCustomer.addReference(new Reference("./customer-ref/text()", "./cid/text()"));
+        order.addRelation(orderCustomer);
+        Relation customerOrder = new Relation(customer, order, NS + "property/order");
+        customerOrder.addPath("/shop/order");
+        customerOrder.addReference(new Reference("./cid/text()", "./customer-ref/text()"));
+        customer.addRelation(customerOrder);
+
+        mapping = new XmlBasedMapping();
+        mapping.addEntity(item);
+        mapping.addEntity(order);
+        mapping.addEntity(customer);
+        mapping.addEntity(note);
+        mapping.setInitialized();
+    }
+
+    @Test
+    public void test_sameTriplesAsDom() throws Exception {
+        String[] expected = domTriples();
+        Assert.assertTrue(Arrays.toString(expected).contains("/property/order>"));
+        Assert.assertTrue(Arrays.toString(expected).contains("/property/lang>"));
+        Assert.assertArrayEquals(expected, streamingTriples(
+                StreamingRdfGeneration.DEFAULT_SPILL_THRESHOLD, null));
+    }
+
+    @Test
+    public void test_spillChildTargets() throws Exception {
+        // The root is an entity, as in a discovered mapping, with the orders
+        // as its child relation targets
+        Schema shop = new Schema(NS + "class/shop", "shop", new NsContext(), "shop");
+        shop.addPath("/shop");
+        Relation orders = new Relation(shop, mapping.getEntity("order"), NS + "property/order");
+        orders.addPath("./order");
+        shop.addRelation(orders);
+        mapping.addEntity(shop);
+        String[] expected = domTriples();
+
+        File tempDir = Files.createTempDirectory("xcurator-spill").toFile();
+        try {
+            Assert.assertArrayEquals(expected, streamingTriples(3, tempDir));
+            Assert.assertEquals(0, tempDir.list().length);
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    private String[] domTriples() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RdfSink sink = new NTriplesRdfSink(os);
+        List<DataDocument> dataDocuments = new ArrayList<>();
+        for (String xml : documents) {
+            dataDocuments.add(new DataDocument(new XmlParser().parse(new StringReader(xml), -1)));
+        }
+        new RdfGeneration(sink, config, ElementIdGenerator.MODE.MERKLE)
+                .process(dataDocuments, mapping);
+        sink.close();
+        return sortedLines(os);
+    }
+
+    private String[] streamingTriples(int spillThreshold, File tempDir) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        RdfSink sink = new NTriplesRdfSink(os);
+        StreamingRdfGeneration generation = new StreamingRdfGeneration(sink, mapping, config,
+                ElementIdGenerator.MODE.MERKLE).setSpillThreshold(spillThreshold, tempDir);
+        for (String xml : documents) {
+            generation.process(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        }
+        sink.close();
+        return sortedLines(os);
+    }
+
+    @Test
+    public void test_unsupportedMappings() {
+        try {
+            new StreamingRdfGeneration(new NTriplesRdfSink(new ByteArrayOutputStream()),
+                    mapping, config, ElementIdGenerator.MODE.SERIALIZED);
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+            // The serialized ids need the DOM
+        }
+        Schema order = mapping.getEntity("order");
+        Relation related = new Relation(order, order, NS + "property/related");
+        related.addPath("//order");
+        order.addRelation(related);
+        try {
+            new StreamingRdfGeneration(new NTriplesRdfSink(new ByteArrayOutputStream()),
+                    mapping, config, ElementIdGenerator.MODE.MERKLE);
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().contains("//order"));
+        }
+    }
+
+    private static String[] sortedLines(ByteArrayOutputStream os) throws Exception {
+        String[] lines = os.toString("US-ASCII").split("\n");
+        Arrays.sort(lines);
+        return lines;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.rdf;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.tdb.TDBFactory;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TdbRdfSinkTest {
+
+    private static final String NS = "http://example.org/resource/";
+
+    private final List<File> tempDirs = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (File dir : tempDirs) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void test_batchesAndBulkLoadGiveTheSameStore() throws Exception {
+        Model expected = load(new TdbRdfSink(tempDir()), 0, 1000);
+        Assert.assertEquals(2000, expected.size());
+        Assert.assertTrue(expected.isIsomorphicWith(load(new TdbRdfSink(tempDir(), 7, false), 0, 1000)));
+        Assert.assertTrue(expected.isIsomorphicWith(load(new TdbRdfSink(tempDir(), 0, true), 0, 1000)));
+    }
+
+    @Test
+    public void test_loadIntoExistingStore() throws Exception {
+        String dir = tempDir();
+        load(new TdbRdfSink(dir, 0, true), 0, 600);
+        // The store is not empty, so the second load is in batches, and the
+        // instances already in the store are not added again
+        TdbRdfSink sink = new TdbRdfSink(dir, 100, true);
+        Model model = load(sink, 300, 1000);
+        Assert.assertEquals(3 * 400, sink.getTripleCount());
+        Assert.assertTrue(model.isIsomorphicWith(load(new TdbRdfSink(tempDir()), 0, 1000)));
+    }
+
+    @Test
+    public void test_namedGraphs() throws Exception {
+        String dir = tempDir();
+        load(new TdbRdfSink(dir, NS + "graph/a"), 0, 100);
+        load(new TdbRdfSink(dir, NS + "graph/b"), 50, 100);
+        TdbRdfSink.clearGraph(dir, NS + "graph/a");
+
+        Dataset dataset = TDBFactory.createDataset(dir);
+        Assert.assertTrue(dataset.getDefaultModel().isEmpty());
+        Assert.assertTrue(dataset.getNamedModel(NS + "graph/a").isEmpty());
+        Assert.assertEquals(100, dataset.getNamedModel(NS + "graph/b").size());
+        dataset.close();
+    }
+
+    private Model load(TdbRdfSink sink, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            if (sink.addInstance(NS + i, NS + "Type")) {
+                sink.addLiteral(NS + i, NS + "name", "name " + (i % 10),
+                        i % 2 == 0 ? null : XSDDatatype.XSDstring.getURI());
+                // A duplicate triple
+                sink.addLiteral(NS + i, NS + "name", "name " + (i % 10),
+                        i % 2 == 0 ? null : XSDDatatype.XSDstring.getURI());
+            }
+            if (i % 100 == 0) {
+                sink.commit();
+            }
+        }
+        sink.close();
+        return copy(sink);
+    }
+
+    private Model copy(TdbRdfSink sink) throws Exception {
+        Model store = TDBFactory.createModel(sink.getTdbDirPath());
+        Model copy = ModelFactory.createDefaultModel().add(store);
+        store.close();
+        return copy;
+    }
+
+    private String tempDir() throws Exception {
+        File dir = Files.createTempDirectory("xcurator-tdb").toFile();
+        tempDirs.add(dir);
+        return dir.getPath();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.xml;
+
+import edu.toronto.cs.xcurator.common.ConcatenatedDocumentSplitter;
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ConcatenatedDocumentSplitterTest {
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("xcurator", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void test_splitPatentGrants() throws Exception {
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            // The DTD is not next to the file, so it must be left out
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<!DOCTYPE us-patent-grant SYSTEM \"us-patent-grant-v44.dtd\" [ ]>\n"
+                    + "<us-patent-grant lang=\"EN\" file=\"US0").append(i).append(".XML\">"
+                    + "<title>Gr&#xfc;n <![CDATA[</us-patent-grant>]]></title>"
+                    + "<!-- </us-patent-grant> --><empty a='>'/></us-patent-grant>\n");
+        }
+        FileUtils.writeStringToFile(file, xml.toString(), "UTF-8");
+
+        List<DocumentSource> documents = new ConcatenatedDocumentSplitter().split(file);
+        Assert.assertEquals(5, documents.size());
+        for (int i = 0; i < 5; i++) {
+            Document document = parse(documents.get(i));
+            Assert.assertEquals("US0" + i + ".XML", document.getDocumentElement().getAttribute("file"));
+            Assert.assertEquals("Grün </us-patent-grant>",
+                    document.getDocumentElement().getFirstChild().getTextContent());
+        }
+    }
+
+    @Test
+    public void test_splitWithoutDeclarations() throws Exception {
+        FileUtils.writeStringToFile(file, "<a/><a x=\"/\">1</a>\n<!-- c --><b><a/></b>\n", "UTF-8");
+        List<DocumentSource> documents = new ConcatenatedDocumentSplitter().split(file);
+        Assert.assertEquals(3, documents.size());
+        Assert.assertEquals("b", parse(documents.get(2)).getDocumentElement().getTagName());
+        Assert.assertEquals(file.getPath() + "#3", documents.get(2).getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void test_truncatedDocument() throws Exception {
+        FileUtils.writeStringToFile(file, "<a>1</a><a>", "UTF-8");
+        new ConcatenatedDocumentSplitter().split(file);
+    }
+
+    private static Document parse(DocumentSource source) throws Exception {
+        try (InputStream is = source.openStream()) {
+            return new XmlParser().parse(is, -1);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.xml;
+
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
+import edu.toronto.cs.xcurator.common.XPathFinder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.StringReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Measures the time to generate the URI of every element of a document, as
+ * the RDF generation does when every element is an entity instance, with the
+ * serialized and the Merkle ID modes. The serialized mode hashes the subtree
+ * of every element again, so its time per element grows with the depth,
+ * while the Merkle mode hashes every element once.
+ *
+ * Run with: java -cp build/classes:build/test/classes:lib/* \
+ * edu.toronto.cs.xcurator.xml.ElementIdGeneratorBenchmark
+ */
+public class ElementIdGeneratorBenchmark {
+
+    private static final int REPETITIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        ElementIdGeneratorBenchmark benchmark = new ElementIdGeneratorBenchmark();
+        // Warm up the JIT
+        benchmark.measure(ElementIdGenerator.MODE.SERIALIZED, 4, 20000);
+        benchmark.measure(ElementIdGenerator.MODE.MERKLE, 4, 20000);
+
+        System.out.println("About 100000 elements");
+        System.out.println("depth\telements\tserialized ns/element\tmerkle ns/element");
+        for (int depth = 2; depth <= 64; depth *= 2) {
+            long[] serialized = benchmark.measure(ElementIdGenerator.MODE.SERIALIZED, depth, 100000);
+            long[] merkle = benchmark.measure(ElementIdGenerator.MODE.MERKLE, depth, 100000);
+            System.out.println(depth + "\t" + serialized[0] + "\t" + serialized[1] / serialized[0]
+                    + "\t" + merkle[1] / merkle[0]);
+        }
+    }
+
+    private final XmlParser parser = new XmlParser();
+    private final XPathFinder xpath = new XPathFinder();
+
+    /**
+     * @return the number of elements, and the best time in nanoseconds
+     */
+    private long[] measure(ElementIdGenerator.MODE mode, int depth, int elements) throws Exception {
+        Document doc = parser.parse(new StringReader(document(depth, elements)), -1);
+        NodeList nl = doc.getElementsByTagName("*");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPETITIONS; i++) {
+            ElementIdGenerator generator = new ElementIdGenerator("http://example.org/resource", mode);
+            long start = System.nanoTime();
+            for (int j = 0; j < nl.getLength(); j++) {
+                generator.generateUri(null, (Element) nl.item(j), doc, xpath);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return new long[]{nl.getLength(), best};
+    }
+
+    /**
+     * A document of chains of nested sections, each section with a title
+     * and an id attribute, repeated until there are about the given number
+     * of elements.
+     */
+    private String document(int depth, int elements) {
+        StringBuilder sb = new StringBuilder("<doc>");
+        int count = 0;
+        int chain = 0;
+        while (count < elements) {
+            for (int level = 0; level < depth; level++) {
+                sb.append("<section id=\"s").append(chain).append('-').append(level)
+                        .append("\"><title>Section ").append(level).append(" of chain ")
+                        .append(chain).append("</title>");
+                count += 2;
+            }
+            for (int level = 0; level < depth; level++) {
+                sb.append("</section>");
+            }
+            chain++;
+        }
+        return sb.append("</doc>").toString();
+    }
+}
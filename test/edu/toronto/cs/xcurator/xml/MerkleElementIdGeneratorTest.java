@@ -0,0 +1,89 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.xml;
+
+import edu.toronto.cs.xcurator.common.ElementIdGenerator;
+import edu.toronto.cs.xcurator.common.XPathFinder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.StringReader;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class MerkleElementIdGeneratorTest {
+
+    private final String uriBase = "http://test/entity";
+    private XPathFinder xpath;
+    private XmlParser parser;
+
+    @Before
+    public void setup() {
+        xpath = new XPathFinder();
+        parser = new XmlParser();
+    }
+
+    @Test
+    public void test_merkleIdDependsOnContentOnly() throws Exception {
+        ElementIdGenerator merkle = new ElementIdGenerator(uriBase, ElementIdGenerator.MODE.MERKLE);
+        Document doc = parser.parse(new StringReader(
+                "<r xmlns:p=\"urn:p\"><a x=\"1\" y=\"2\"><b>v</b></a>"
+                + "<a y=\"2\" x=\"1\"><b>v</b></a>"
+                + "<a x=\"1\" y=\"2\"><b>w</b></a>"
+                + "<a x=\"1\" y=\"2\"><b>v</b><b/></a>"
+                + "<a x=\"1\" y=\"2\"><b>v<![CDATA[]]></b></a></r>"), -1);
+        NodeList nl = doc.getElementsByTagName("a");
+        String[] ids = new String[nl.getLength()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = merkle.generateUri(null, (Element) nl.item(i), doc, xpath);
+            Assert.assertTrue(ids[i].matches("http://test/entity/[0-9a-f]{32}"));
+        }
+        // Attribute order and text node boundaries are not content
+        Assert.assertEquals(ids[0], ids[1]);
+        Assert.assertEquals(ids[0], ids[4]);
+        Assert.assertNotEquals(ids[0], ids[2]);
+        Assert.assertNotEquals(ids[0], ids[3]);
+
+        // The same content in another document gives the same ID, so the
+        // URIs are reproducible across runs
+        Document other = parser.parse(new StringReader(
+                "<s><a y=\"2\" x=\"1\"><b>v</b></a></s>"), -1);
+        Element a = (Element) other.getElementsByTagName("a").item(0);
+        Assert.assertEquals(ids[0], merkle.generateUri(null, a, other, xpath));
+        Assert.assertEquals(ids[0], new ElementIdGenerator(uriBase, ElementIdGenerator.MODE.MERKLE)
+                .generateUri(null, a, other, xpath));
+    }
+
+    @Test
+    public void test_merkleIdOfNestedElements() throws Exception {
+        ElementIdGenerator merkle = new ElementIdGenerator(uriBase, ElementIdGenerator.MODE.MERKLE);
+        Document doc = parser.parse(new StringReader(
+                "<r><a><b>v</b></a><b>v</b></r>"), -1);
+        NodeList nl = doc.getElementsByTagName("b");
+        // Hash the inner element first, then its ancestors reuse its digest
+        String inner = merkle.generateUri(null, (Element) nl.item(0), doc, xpath);
+        String root = merkle.generateUri(null, doc.getDocumentElement(), doc, xpath);
+        Assert.assertEquals(inner, merkle.generateUri(null, (Element) nl.item(1), doc, xpath));
+
+        merkle.clearDigestCache();
+        Assert.assertEquals(root, new ElementIdGenerator(uriBase, ElementIdGenerator.MODE.MERKLE)
+                .generateUri(null, doc.getDocumentElement(), doc, xpath));
+        Assert.assertEquals(root, merkle.generateUri(null, doc.getDocumentElement(), doc, xpath));
+        Assert.assertNotEquals(root, inner);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.xml;
+
+import edu.toronto.cs.xcurator.common.RecordSampler;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class RecordSamplerTest {
+
+    private static String records(int count) {
+        StringBuilder xml = new StringBuilder("<r:root xmlns:r=\"http://example.org/r\" id=\"1\">\n");
+        for (int i = 0; i < count; i++) {
+            xml.append("<r:item n=\"").append(i).append("\"><name>item ").append(i)
+                    .append("</name></r:item>\n");
+        }
+        xml.append("<rare><name>rare</name></rare>\n</r:root>");
+        return xml.toString();
+    }
+
+    private static Document sample(RecordSampler sampler, String xml) throws Exception {
+        return sampler.sample(new StringReader(xml));
+    }
+
+    @Test
+    public void test_sampleFirst() throws Exception {
+        Document document = sample(new RecordSampler(RecordSampler.MODE.FIRST, 3), records(100));
+        Element root = document.getDocumentElement();
+        Assert.assertEquals("http://example.org/r", root.getNamespaceURI());
+        Assert.assertEquals("1", root.getAttribute("id"));
+        NodeList items = root.getChildNodes();
+        Assert.assertEquals(3, items.getLength());
+        for (int i = 0; i < 3; i++) {
+            Element item = (Element) items.item(i);
+            Assert.assertEquals(String.valueOf(i), item.getAttribute("n"));
+            Assert.assertEquals("item " + i, item.getTextContent());
+        }
+    }
+
+    @Test
+    public void test_sampleUniform() throws Exception {
+        RecordSampler sampler = new RecordSampler(RecordSampler.MODE.UNIFORM, 10).setSeed(7);
+        Document document = sample(sampler, records(1000));
+        NodeList items = document.getDocumentElement().getChildNodes();
+        Assert.assertEquals(10, items.getLength());
+        int previous = -1;
+        int last = 0;
+        for (int i = 0; i < items.getLength(); i++) {
+            Element item = (Element) items.item(i);
+            if (item.getLocalName().equals("item")) {
+                Assert.assertEquals("http://example.org/r", item.getNamespaceURI());
+                int n = Integer.parseInt(item.getAttribute("n"));
+                // The records are kept in document order
+                Assert.assertTrue(n > previous);
+                previous = n;
+                last = n;
+            }
+        }
+        // A uniform sample of 10 of 1000 records does not stop at the start
+        Assert.assertTrue(last >= 10);
+
+        // The same seed gives the same sample
+        NodeList again = sample(sampler, records(1000)).getDocumentElement().getChildNodes();
+        for (int i = 0; i < items.getLength(); i++) {
+            Assert.assertEquals(((Element) items.item(i)).getAttribute("n"),
+                    ((Element) again.item(i)).getAttribute("n"));
+        }
+    }
+
+    @Test
+    public void test_sampleStratified() throws Exception {
+        RecordSampler sampler = new RecordSampler(RecordSampler.MODE.STRATIFIED, 5).setSeed(7);
+        Document document = sample(sampler, records(1000));
+        NodeList items = document.getDocumentElement().getChildNodes();
+        Assert.assertEquals(6, items.getLength());
+        // The only rare record is kept, and it is the last in the document
+        Assert.assertEquals("rare", items.item(5).getLocalName());
+        Assert.assertEquals("rare", items.item(5).getTextContent());
+    }
+
+    @Test
+    public void test_sampleWithSystemId() throws Exception {
+        File dir = Files.createTempDirectory("xcurator-sample").toFile();
+        try {
+            FileUtils.writeStringToFile(new File(dir, "names.dtd"),
+                    "<!ENTITY who \"world\">", "UTF-8");
+            File file = new File(dir, "doc.xml");
+            FileUtils.writeStringToFile(file, "<!DOCTYPE r SYSTEM \"names.dtd\">"
+                    + "<r><a>hello &who;</a><a>2</a></r>", "UTF-8");
+            // The relative DTD is resolved against the system ID
+            Document document;
+            try (InputStream is = new FileInputStream(file)) {
+                document = new RecordSampler(RecordSampler.MODE.FIRST, 1)
+                        .sample(is, file.toURI().toString());
+            }
+            Assert.assertEquals("hello world", document.getDocumentElement().getTextContent());
+            Assert.assertEquals(file.toURI().toString(), document.getDocumentURI());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void test_sampleFewerRecords() throws Exception {
+        Document document = sample(new RecordSampler(RecordSampler.MODE.UNIFORM, 50), records(3));
+        NodeList items = document.getDocumentElement().getChildNodes();
+        Assert.assertEquals(4, items.getLength());
+        Assert.assertEquals("rare", items.item(3).getLocalName());
+    }
+
+    @Test
+    public void test_parseRootOnly() throws Exception {
+        // Any maximum number of records but -1 below 1 keeps only the root
+        for (int maxElement : new int[]{0, -2}) {
+            Document document = new XmlParser().parse(new StringReader(records(10)), maxElement);
+            Element root = document.getDocumentElement();
+            Assert.assertEquals("http://example.org/r", root.getNamespaceURI());
+            Assert.assertEquals("1", root.getAttribute("id"));
+            Assert.assertEquals(0, root.getChildNodes().getLength());
+        }
+        Assert.assertEquals(0, sample(new RecordSampler(RecordSampler.MODE.UNIFORM, 0), records(10))
+                .getDocumentElement().getChildNodes().getLength());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.xml;
+
+import edu.toronto.cs.xcurator.common.DocumentSource;
+import edu.toronto.cs.xcurator.common.RootChildrenSplitter;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class RootChildrenSplitterTest {
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("xcurator", ".xml");
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE dblp [<!ENTITY uuml \"ü\"> <!-- ] > -->]>\n"
+                + "<!-- <dblp> -->\n<dblp xmlns=\"http://example.org/dblp\" "
+                + "xmlns:x=\"http://example.org/x\" note=\"a > b\">\n");
+        for (int i = 0; i < 10; i++) {
+            if (i % 4 == 3) {
+                xml.append("  <x:empty id=\"").append(i).append("\" path='/a/'/>\n");
+            } else {
+                xml.append("  <article key=\"").append(i).append("\"><title>M&uuml;ller ")
+                        .append(i).append("<![CDATA[</article>]]></title><?pi </article>?>"
+                        + "<!-- </article> --><x:year>2016</x:year></article>\n");
+            }
+        }
+        xml.append("</dblp>\n<!-- after -->\n");
+        FileUtils.writeStringToFile(file, xml.toString(), "UTF-8");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void test_batchesHaveTheRecords() throws Exception {
+        List<String> expected = records(parse(DocumentSource.forLocation(file.getPath())));
+        Assert.assertEquals(10, expected.size());
+        Assert.assertTrue(expected.get(0).contains("Müller 0</article>"));
+
+        for (int batchSize : new int[]{1, 3, 10, 100}) {
+            List<DocumentSource> batches = new RootChildrenSplitter(batchSize).split(file);
+            Assert.assertEquals((10 + batchSize - 1) / batchSize, batches.size());
+            List<String> actual = new ArrayList<>();
+            for (DocumentSource batch : batches) {
+                Document document = parse(batch);
+                Assert.assertEquals("a > b", document.getDocumentElement().getAttribute("note"));
+                actual.addAll(records(document));
+            }
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void test_emptyRootIsOneDocument() throws Exception {
+        FileUtils.writeStringToFile(file, "<dblp a=\"/\"/>", "UTF-8");
+        List<DocumentSource> batches = new RootChildrenSplitter(2).split(file);
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(file.getPath(), batches.get(0).getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void test_truncatedDocument() throws Exception {
+        FileUtils.writeStringToFile(file, "<dblp><article>a</article><article>", "UTF-8");
+        new RootChildrenSplitter(1).split(file);
+    }
+
+    private static Document parse(DocumentSource source) throws Exception {
+        try (InputStream is = source.openStream()) {
+            return new XmlParser().parse(is, -1);
+        }
+    }
+
+    /**
+     * Get the namespace, name, attributes and text of each child of the root.
+     */
+    private static List<String> records(Document document) {
+        List<String> records = new ArrayList<>();
+        for (Node n = document.getDocumentElement().getFirstChild(); n != null;
+                n = n.getNextSibling()) {
+            if (n instanceof Element) {
+                Element e = (Element) n;
+                records.add(e.getNamespaceURI() + " " + e.getLocalName() + " "
+                        + e.getAttribute("key") + e.getAttribute("id")
+                        + e.getAttribute("path") + " " + e.getTextContent());
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *    Copyright (c) 2013, University of Toronto.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License"); you may
+ *    not use this file except in compliance with the License. You may obtain
+ *    a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ *    WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ *    License for the specific language governing permissions and limitations
+ *    under the License.
+ */
+package edu.toronto.cs.xcurator.xml;
+
+import edu.toronto.cs.xcurator.common.NsContext;
+import edu.toronto.cs.xcurator.common.XPathFinder;
+import edu.toronto.cs.xcurator.common.XmlParser;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that the paths evaluated without JAXP by {@link XPathFinder} select
+ * the same nodes as JAXP.
+ */
+public class SimplePathTest {
+
+    private static final String[] ABSOLUTE_PATHS = {
+        "/:shop",
+        "/:shop/:item",
+        "/:shop/:item|/:shop/p:offer",
+        "/:shop/p:offer|/:shop/:item",
+        "/:shop/*",
+        "/:shop/:item/:name/text()",
+        "/:shop/:item/:name/text()|/:shop/p:offer/:name/text()",
+        "/:shop/:item/@*",
+        "/:shop/:item/@p:code|/:shop/:item/@id",
+        "/:shop/:item/:part/:part",
+        "/:shop/./:item/.",
+        "/:shop/:missing",
+        "/:shop/:item[1]",
+        "//:name"
+    };
+
+    private static final String[] RELATIVE_PATHS = {
+        ".",
+        "./:name/text()",
+        "text()",
+        "@id",
+        "@p:code",
+        "./:part|./:name",
+        "./:part/:part/text()",
+        "./:note/text()",
+        "./:name",
+        "count(./:name)"
+    };
+
+    private Document doc;
+    private NsContext nsContext;
+    private XPath jaxp;
+
+    @Before
+    public void setup() throws Exception {
+        doc = new XmlParser().parse(new StringReader(
+                "<shop xmlns=\"http://example.org/shop\" xmlns:p=\"http://example.org/p\">"
+                + "<item id=\"1\" p:code=\"a\" xmlns:q=\"http://example.org/q\">"
+                + "<name>first <![CDATA[item]]> one<!-- c -->tail</name>"
+                + "<part><part>inner</part></part><note/></item>"
+                + "<p:offer><name>offer</name></p:offer>"
+                + "<item id=\"2\"><name>second</name><part><part>x</part><part>y</part></part></item>"
+                + "</shop>"), -1);
+        nsContext = new NsContext(doc.getDocumentElement());
+        jaxp = XPathFactory.newInstance().newXPath();
+        jaxp.setNamespaceContext(nsContext);
+    }
+
+    private void assertSameNodes(String path, NodeList expected, NodeList actual) {
+        Assert.assertEquals(path, expected.getLength(), actual.getLength());
+        for (int i = 0; i < expected.getLength(); i++) {
+            Assert.assertSame(path, expected.item(i), actual.item(i));
+        }
+    }
+
+    @Test
+    public void test_absolutePaths() throws Exception {
+        XPathFinder finder = new XPathFinder();
+        for (String path : ABSOLUTE_PATHS) {
+            // Twice, the second time from the cache
+            for (int i = 0; i < 2; i++) {
+                assertSameNodes(path, (NodeList) jaxp.evaluate(path, doc, XPathConstants.NODESET),
+                        finder.getNodesByPath(path, doc, nsContext));
+            }
+            Assert.assertEquals(path, jaxp.evaluate(path, doc, XPathConstants.STRING),
+                    finder.getStringByPath(path, null, doc, nsContext));
+            Assert.assertEquals(path, jaxp.evaluate(path, doc, XPathConstants.BOOLEAN),
+                    finder.getBooleanPath(path, null, doc, nsContext));
+        }
+    }
+
+    @Test
+    public void test_relativePaths() throws Exception {
+        XPathFinder finder = new XPathFinder();
+        NodeList items = doc.getDocumentElement().getElementsByTagNameNS("*", "item");
+        for (int j = 0; j < items.getLength(); j++) {
+            Element item = (Element) items.item(j);
+            for (String path : RELATIVE_PATHS) {
+                if (!path.startsWith("count")) {
+                    assertSameNodes(path, (NodeList) jaxp.evaluate(path, item, XPathConstants.NODESET),
+                            finder.getNodesByPath(path, item, nsContext));
+                }
+                Assert.assertEquals(path, jaxp.evaluate(path, item, XPathConstants.STRING),
+                        finder.getStringByPath(path, item, nsContext));
+            }
+        }
+    }
+
+    @Test(expected = XPathExpressionException.class)
+    public void test_sameErrorsAsJaxp() throws Exception {
+        // JAXP does not take an empty prefix at the start of a relative path
+        new XPathFinder().getNodesByPath(":name/text()", doc.getDocumentElement(), nsContext);
+    }
+
+    @Test
+    public void test_namespaceContextChange() throws Exception {
+        XPathFinder finder = new XPathFinder();
+        NsContext context = new NsContext();
+        context.addNamespace("s", "http://example.org/other");
+        Assert.assertEquals(0, finder.getNodesByPath("/s:shop", doc, context).getLength());
+        context.addNamespace("s", "http://example.org/shop");
+        Assert.assertEquals(1, finder.getNodesByPath("/s:shop", doc, context).getLength());
+    }
+
+    @Test
+    public void test_sharedByThreads() throws Exception {
+        final XPathFinder finder = new XPathFinder();
+        final Node root = doc.getDocumentElement();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                counts.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int count = 0;
+                        for (int i = 0; i < 1000; i++) {
+                            count += finder.getNodesByPath("/:shop/:item[@id]", doc, nsContext).getLength();
+                            count += finder.getNodesByPath("./:item/:name", (Element) root, nsContext).getLength();
+                        }
+                        return count;
+                    }
+                }));
+            }
+            for (Future<Integer> count : counts) {
+                Assert.assertEquals(4000, count.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}